@@ -220,6 +220,51 @@ import org.rhq.core.domain.resource.group.ResourceGroup;
         + "FROM Subject s, IN (s.roles) r, IN (r.permissions) p, IN (r.resourceGroups) g, IN (g.implicitResources) res "
         + "WHERE s = :subject AND p = :permission AND res.inventoryStatus = 'COMMITTED'"),
 
+    /*
+     * The ids the AuthorizationManager caches per subject, to answer the canView and hasPermission queries above.
+     * Private groups are left out of the group permission case, just like QUERY_HAS_GROUP_PERMISSION leaves them out.
+     */
+    @NamedQuery(name = Subject.QUERY_GET_VIEWABLE_RESOURCE_IDS, query = "SELECT DISTINCT res.id "
+        + "FROM Resource res, IN (res.implicitGroups) g, IN (g.roles) r, IN (r.subjects) s " + "WHERE s = :subject"),
+
+    @NamedQuery(name = Subject.QUERY_GET_PERMITTED_RESOURCE_IDS, query = "SELECT DISTINCT res.id "
+        + "FROM Resource res, IN (res.implicitGroups) g, IN (g.roles) r, IN (r.subjects) s, IN (r.permissions) p "
+        + "WHERE s = :subject AND p = :permission"),
+
+    @NamedQuery(name = Subject.QUERY_GET_VIEWABLE_GROUP_IDS, query = "" //
+        + "SELECT g.id " //
+        + "  FROM ResourceGroup g " //
+        + " WHERE g.subject = :subject " // private group case (autogroup backing group)
+        + "    OR g.id IN (SELECT rg.id " // role-associated group case
+        + "                  FROM ResourceGroup rg " //
+        + "                  JOIN rg.roles r " //
+        + "                  JOIN r.subjects s " //
+        + "                 WHERE s = :subject) " //
+        + "    OR g.id IN (SELECT rg.id " // autocluster backing group case
+        + "                  FROM ResourceGroup rg " //
+        + "                  JOIN rg.clusterResourceGroup crg " //
+        + "                  JOIN crg.roles r " //
+        + "                  JOIN r.subjects s " //
+        + "                 WHERE crg.recursive = true AND s = :subject)"),
+
+    @NamedQuery(name = Subject.QUERY_GET_PERMITTED_GROUP_IDS, query = "" //
+        + "SELECT g.id " //
+        + "  FROM ResourceGroup g " //
+        + " WHERE g.subject IS NULL " //
+        + "   AND (   g.id IN (SELECT rg.id " // role-associated group case
+        + "                      FROM ResourceGroup rg " //
+        + "                      JOIN rg.roles r " //
+        + "                      JOIN r.subjects s " //
+        + "                      JOIN r.permissions p " //
+        + "                     WHERE s = :subject AND p = :permission) " //
+        + "        OR g.id IN (SELECT rg.id " // autocluster backing group case
+        + "                      FROM ResourceGroup rg " //
+        + "                      JOIN rg.clusterResourceGroup crg " //
+        + "                      JOIN crg.roles r " //
+        + "                      JOIN r.subjects s " //
+        + "                      JOIN r.permissions p " //
+        + "                     WHERE crg.recursive = true AND s = :subject AND p = :permission))"),
+
     /*
      * No easy way to test whether ALL bundles are      in some bundle group     in some role     in some subject     where
      * subject.id = <id> & role.permission = <perm>
@@ -287,6 +332,10 @@ public class Subject implements Serializable {
 
     public static final String QUERY_GET_BUNDLES_BY_PERMISSION = "Subject.getBundlesByPermission";
     public static final String QUERY_GET_RESOURCES_BY_PERMISSION = "Subject.getResourcesByPermission";
+    public static final String QUERY_GET_VIEWABLE_RESOURCE_IDS = "Subject.getViewableResourceIds";
+    public static final String QUERY_GET_PERMITTED_RESOURCE_IDS = "Subject.getPermittedResourceIds";
+    public static final String QUERY_GET_VIEWABLE_GROUP_IDS = "Subject.getViewableGroupIds";
+    public static final String QUERY_GET_PERMITTED_GROUP_IDS = "Subject.getPermittedGroupIds";
 
     public static final String QUERY_FIND_AVAILABLE_SUBJECTS_FOR_ROLE_WITH_EXCLUDES = "Subject.findAvailableSubjectsForRoleWithExcludes";
     public static final String QUERY_FIND_AVAILABLE_SUBJECTS_FOR_ROLE = "Subject.findAvailableSubjectsForRole";
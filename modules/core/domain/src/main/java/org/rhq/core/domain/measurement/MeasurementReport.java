@@ -22,19 +22,31 @@
   */
 package org.rhq.core.domain.measurement;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.jetbrains.annotations.NotNull;
 
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
+import org.rhq.core.domain.server.ExternalizableStrategy;
 
 /**
  * A report of measurement information. When a plugin collects measurement data that is emitted from a monitored
  * resource, it will store that measurement data in an instance of this type.
  * <p/>
- * <p>This report has an optimized serialization strategy.</p>
+ * <p>This report has an optimized serialization strategy: between agent and server it is serialized in a compact,
+ * columnar form, see {@link CompactForm}.</p>
  *
  * @author Greg Hinkle
  * @author Ian Springer
@@ -133,7 +145,273 @@ public class MeasurementReport implements Serializable {
         this.collectionTime = collectionTime;
     }
 
-    public void incrementCollectionTime(long collectionTime) {
+    public synchronized void incrementCollectionTime(long collectionTime) {
         this.collectionTime += collectionTime;
     }
-}
\ No newline at end of file
+
+    /**
+     * Replaces this report by its compact form when it is serialized for agent-server communication. The
+     * agent and the server always run the same version, so both sides know the form. Other subsystems get the default
+     * form.
+     */
+    private Object writeReplace() {
+        if (ExternalizableStrategy.getStrategy() == ExternalizableStrategy.Subsystem.AGENT
+            && CompactForm.canEncode(this)) {
+            return new CompactForm(this);
+        }
+        return this;
+    }
+
+    /**
+     * The serialized form of a report exchanged between agent and server. Instead of one serialized object per datum,
+     * the data is written column by column:
+     * <ul>
+     *   <li>schedule ids and timestamps as variable-length deltas to those of the previous datum, which keeps them
+     *   at a byte or two for data that was collected together</li>
+     *   <li>numeric values as raw doubles, without a Double object per value</li>
+     *   <li>metric names, trait values and call destinations as indexes into a table of the distinct strings of the
+     *   report, each of which is only written once</li>
+     * </ul>
+     * The form starts with a version, so that a reader can refuse a form it does not know.
+     */
+    private static final class CompactForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private static final int VERSION = 1;
+
+        private transient MeasurementReport report;
+
+        CompactForm(MeasurementReport report) {
+            this.report = report;
+        }
+
+        /**
+         * @return true if the report only holds data of the types the compact form can restore
+         */
+        static boolean canEncode(MeasurementReport report) {
+            synchronized (report) {
+                for (MeasurementDataNumeric numeric : report.measurementNumericData) {
+                    if (numeric.getClass() != MeasurementDataNumeric.class) {
+                        return false;
+                    }
+                }
+                for (MeasurementDataTrait trait : report.measurementTraitData) {
+                    if (trait.getClass() != MeasurementDataTrait.class) {
+                        return false;
+                    }
+                }
+                for (CallTimeData data : report.callTimeData) {
+                    if (data.getClass() != CallTimeData.class) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.writeByte(VERSION);
+            Map<String, Integer> strings = new HashMap<String, Integer>();
+            synchronized (this.report) {
+                writeVarLong(out, this.report.collectionTime);
+
+                writeVarLong(out, this.report.measurementNumericData.size());
+                int scheduleId = 0;
+                long timestamp = 0;
+                for (MeasurementDataNumeric numeric : this.report.measurementNumericData) {
+                    scheduleId = writeScheduleId(out, numeric.getScheduleId(), scheduleId);
+                    timestamp = writeTimestamp(out, numeric.getTimestamp(), timestamp);
+                    // the lowest bit of the name's reference tells whether there is a value
+                    Double value = numeric.getValue();
+                    writeString(out, strings, numeric.getName(), value == null ? 0 : 1);
+                    if (value != null) {
+                        out.writeDouble(value);
+                    }
+                }
+
+                writeVarLong(out, this.report.measurementTraitData.size());
+                scheduleId = 0;
+                timestamp = 0;
+                for (MeasurementDataTrait trait : this.report.measurementTraitData) {
+                    scheduleId = writeScheduleId(out, trait.getScheduleId(), scheduleId);
+                    timestamp = writeTimestamp(out, trait.getTimestamp(), timestamp);
+                    writeString(out, strings, trait.getName(), 0);
+                    writeString(out, strings, trait.getValue(), 0);
+                }
+
+                writeVarLong(out, this.report.callTimeData.size());
+                scheduleId = 0;
+                timestamp = 0;
+                for (CallTimeData data : this.report.callTimeData) {
+                    scheduleId = writeScheduleId(out, data.getScheduleId(), scheduleId);
+                    Map<String, CallTimeDataValue> values = data.getValues();
+                    writeVarLong(out, values.size());
+                    for (Map.Entry<String, CallTimeDataValue> entry : values.entrySet()) {
+                        CallTimeDataValue value = entry.getValue();
+                        writeString(out, strings, entry.getKey(), 0);
+                        timestamp = writeTimestamp(out, value.getBeginTime(), timestamp);
+                        writeVarLong(out, value.getEndTime() - value.getBeginTime());
+                        out.writeDouble(value.getMinimum());
+                        out.writeDouble(value.getMaximum());
+                        out.writeDouble(value.getTotal());
+                        writeVarLong(out, value.getCount());
+                    }
+                }
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            int version = in.readByte();
+            if (version != VERSION) {
+                throw new InvalidObjectException("Unknown version of the compact measurement report form: " + version);
+            }
+            List<String> strings = new ArrayList<String>();
+            MeasurementReport restored = new MeasurementReport();
+            restored.collectionTime = readVarLong(in);
+
+            long count = readVarLong(in);
+            int scheduleId = 0;
+            long timestamp = 0;
+            for (long i = 0; i < count; ++i) {
+                scheduleId += (int) readZigZag(in);
+                timestamp += readZigZag(in);
+                long reference = readVarLong(in);
+                String name = readString(in, strings, reference);
+                Double value = ((reference & 1) != 0) ? Double.valueOf(in.readDouble()) : null;
+                MeasurementDataNumeric numeric = new MeasurementDataNumeric(timestamp, scheduleId, value);
+                numeric.setName(name);
+                restored.measurementNumericData.add(numeric);
+            }
+
+            count = readVarLong(in);
+            scheduleId = 0;
+            timestamp = 0;
+            for (long i = 0; i < count; ++i) {
+                scheduleId += (int) readZigZag(in);
+                timestamp += readZigZag(in);
+                String name = readString(in, strings);
+                MeasurementDataTrait trait = new MeasurementDataTrait(new MeasurementDataPK(timestamp, scheduleId),
+                    readString(in, strings));
+                trait.setName(name);
+                restored.measurementTraitData.add(trait);
+            }
+
+            count = readVarLong(in);
+            scheduleId = 0;
+            timestamp = 0;
+            for (long i = 0; i < count; ++i) {
+                scheduleId += (int) readZigZag(in);
+                CallTimeData data = new CallTimeData(new MeasurementScheduleRequest(scheduleId, null, 0, true,
+                    DataType.CALLTIME));
+                long valueCount = readVarLong(in);
+                for (long j = 0; j < valueCount; ++j) {
+                    String destination = readString(in, strings);
+                    timestamp += readZigZag(in);
+                    long endTime = timestamp + readVarLong(in);
+                    double minimum = in.readDouble();
+                    double maximum = in.readDouble();
+                    double total = in.readDouble();
+                    long calls = readVarLong(in);
+                    // a value without calls is left behind by a plugin that reported an invalid call
+                    if (calls > 0) {
+                        data.addAggregatedCallData(destination, new Date(timestamp), new Date(endTime), minimum,
+                            maximum, total, calls);
+                    }
+                }
+                if (!data.getValues().isEmpty()) {
+                    restored.callTimeData.add(data);
+                }
+            }
+
+            this.report = restored;
+        }
+
+        private Object readResolve() {
+            return this.report;
+        }
+
+        private static int writeScheduleId(ObjectOutputStream out, int scheduleId, int previous) throws IOException {
+            writeZigZag(out, scheduleId - previous);
+            return scheduleId;
+        }
+
+        private static long writeTimestamp(ObjectOutputStream out, long timestamp, long previous) throws IOException {
+            writeZigZag(out, timestamp - previous);
+            return timestamp;
+        }
+
+        private static void writeZigZag(ObjectOutputStream out, long value) throws IOException {
+            writeVarLong(out, (value << 1) ^ (value >> 63));
+        }
+
+        private static long readZigZag(ObjectInputStream in) throws IOException {
+            long value = readVarLong(in);
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Writes the value seven bits per byte, least significant bits first. The highest bit of a byte tells whether
+         * more bytes follow.
+         */
+        private static void writeVarLong(ObjectOutputStream out, long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        private static long readVarLong(ObjectInputStream in) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new InvalidObjectException("Malformed variable-length number in compact measurement report form");
+        }
+
+        /**
+         * Writes a reference to the string, which is its index in the table of the strings written so far shifted
+         * left by one bit, plus the given flag in the lowest bit. Index 0 stands for <code>null</code>. A string that
+         * is not in the table yet gets the next index and follows its reference.
+         */
+        private static void writeString(ObjectOutputStream out, Map<String, Integer> strings, String string, int flag)
+            throws IOException {
+            if (string == null) {
+                writeVarLong(out, flag);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeVarLong(out, ((long) index << 1) | flag);
+            } else {
+                index = strings.size() + 1;
+                strings.put(string, index);
+                writeVarLong(out, ((long) index << 1) | flag);
+                out.writeObject(string);
+            }
+        }
+
+        private static String readString(ObjectInputStream in, List<String> strings) throws IOException,
+            ClassNotFoundException {
+            return readString(in, strings, readVarLong(in));
+        }
+
+        private static String readString(ObjectInputStream in, List<String> strings, long reference)
+            throws IOException, ClassNotFoundException {
+            long index = reference >>> 1;
+            if (index == 0) {
+                return null;
+            }
+            if (index == strings.size() + 1) {
+                strings.add((String) in.readObject());
+            } else if (index > strings.size()) {
+                throw new InvalidObjectException("Unknown string " + index + " in compact measurement report form");
+            }
+            return strings.get((int) index - 1);
+        }
+    }
+}
@@ -148,6 +148,19 @@ import org.rhq.core.domain.cloud.Server;
         + " UPDATE Agent a " //
         + "    SET lastAvailabilityReport = :reportTime, backFilled = FALSE " //
         + "  WHERE id = :agentId "), //
+    @NamedQuery(name = Agent.QUERY_FIND_LAST_AVAIL_REPORT_STATE, query = "" //
+        + " SELECT a.lastAvailabilityReport, a.mtime, a.backFilled " //
+        + "   FROM Agent a " //
+        + "  WHERE a.id = :agentId "), //
+    @NamedQuery(name = Agent.QUERY_UPDATE_MTIME, query = "" //
+        + " UPDATE Agent a " //
+        + "    SET mtime = :now " //
+        + "  WHERE id = :agentId "), //
+    @NamedQuery(name = Agent.QUERY_UPDATE_MTIME_IF_UNCHANGED, query = "" //
+        + " UPDATE Agent a " //
+        + "    SET mtime = :now " //
+        + "  WHERE id = :agentId " //
+        + "    AND mtime = :mtime "), //
     @NamedQuery(name = Agent.QUERY_UPDATE_LAST_AVAIL_PING, query = "" //
         + " UPDATE Agent a " //
         + "    SET lastAvailabilityPing = :now, backFilled = FALSE " //
@@ -191,6 +204,9 @@ public class Agent implements Serializable {
 
     public static final String QUERY_UPDATE_LAST_AVAIL_REPORT = "Agent.updateLastAvailReport";
     public static final String QUERY_UPDATE_LAST_AVAIL_PING = "Agent.updateLastAvailPing";
+    public static final String QUERY_FIND_LAST_AVAIL_REPORT_STATE = "Agent.findLastAvailReportState";
+    public static final String QUERY_UPDATE_MTIME = "Agent.updateMtime";
+    public static final String QUERY_UPDATE_MTIME_IF_UNCHANGED = "Agent.updateMtimeIfUnchanged";
 
     // this value is set, when authorized user wants to reset the token
     public static final String SECURITY_TOKEN_RESET = "@#$reset$#@";
@@ -374,6 +374,13 @@ import org.rhq.core.domain.util.Summary;
         + "   AND r.resourceKey = :key " //
         + "   AND r.resourceType.plugin = :plugin " //
         + "   AND r.resourceType.name = :typeName"),
+    /* the bulk variant of QUERY_FIND_BY_PARENT_AND_KEY, returns the resources along with the ids of their parents */
+    @NamedQuery(name = Resource.QUERY_FIND_BY_PARENTS_AND_KEYS, query = "" //
+        + "SELECT r, r.parentResource.id " //
+        + "  FROM Resource AS r " //
+        + "  JOIN FETCH r.resourceType " //
+        + " WHERE (r.parentResource.id IN ( :parentIds ) OR r.parentResource IS NULL) " //
+        + "   AND r.resourceKey IN ( :keys )"),
     @NamedQuery(name = Resource.QUERY_FIND_EXPLICIT_IDS_BY_RESOURCE_GROUP_ADMIN, query = "" //
         + "SELECT res.id " //
         + "  FROM ResourceGroup rg, IN (rg.explicitResources) res " //
@@ -835,6 +842,7 @@ public class Resource implements Comparable<Resource>, Serializable {
     public static final String QUERY_FIND_BY_TYPE_AND_IDS_ADMIN = "Resource.findByTypeAndIds_admin";
 
     public static final String QUERY_FIND_BY_PARENT_AND_KEY = "Resource.findByParentAndKey";
+    public static final String QUERY_FIND_BY_PARENTS_AND_KEYS = "Resource.findByParentsAndKeys";
 
     public static final String QUERY_FIND_EXPLICIT_IDS_BY_RESOURCE_GROUP_ADMIN = "Resource.findExplicitIdsByResourceGroup_admin";
     public static final String QUERY_FIND_IMPLICIT_IDS_BY_RESOURCE_GROUP_ADMIN = "Resource.findImplicitIdsByResourceGroup_admin";
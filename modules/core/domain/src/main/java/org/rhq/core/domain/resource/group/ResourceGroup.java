@@ -373,28 +373,27 @@ public class ResourceGroup extends Group {
         + "         select res.ID, ? " // groupId
         + "           from RHQ_RESOURCE res " //
         + "          where res.ID in ( @@RESOURCE_IDS@@ ) ";
+    public static final String QUERY_NATIVE_ADD_RESOURCES_TO_PARENT_GROUPS_IMPLICIT_RECURSIVE = "" //
+        + "    insert into RHQ_RESOURCE_GROUP_RES_IMP_MAP ( RESOURCE_ID, RESOURCE_GROUP_ID ) " // resources join the recursive
+        + "         select res.ID, parentMap.RESOURCE_GROUP_ID " // groups of their parents, one level at a time
+        + "           from RHQ_RESOURCE res " //
+        + "     inner join RHQ_RESOURCE_GROUP_RES_IMP_MAP parentMap on res.PARENT_RESOURCE_ID = parentMap.RESOURCE_ID " //
+        + "     inner join RHQ_RESOURCE_GROUP rg on parentMap.RESOURCE_GROUP_ID = rg.ID " //
+        + "          where res.ID in ( @@RESOURCE_IDS@@ ) " //
+        + "            and rg.RECURSIVE = ? " // true
+        + "            and not exists ( select 1 " //
+        + "                               from RHQ_RESOURCE_GROUP_RES_IMP_MAP alreadyMember " //
+        + "                              where alreadyMember.RESOURCE_GROUP_ID = parentMap.RESOURCE_GROUP_ID " //
+        + "                                and alreadyMember.RESOURCE_ID = res.ID ) ";
     public static final String QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT_RECURSIVE = "" //
         + "    insert into RHQ_RESOURCE_GROUP_RES_IMP_MAP ( RESOURCE_ID, RESOURCE_GROUP_ID ) " //
         + "         select res.ID, ? " // groupId
         + "           from RHQ_RESOURCE res " //
-        + "left outer join RHQ_RESOURCE g1parent on res.PARENT_RESOURCE_ID = g1parent.ID " //
-        + "left outer join RHQ_RESOURCE g2parent on g1parent.PARENT_RESOURCE_ID = g2parent.ID " //
-        + "left outer join RHQ_RESOURCE g3parent on g2parent.PARENT_RESOURCE_ID = g3parent.ID " //
-        + "left outer join RHQ_RESOURCE g4parent on g3parent.PARENT_RESOURCE_ID = g4parent.ID " //
-        + "left outer join RHQ_RESOURCE g5parent on g4parent.PARENT_RESOURCE_ID = g5parent.ID " //
-        + "left outer join RHQ_RESOURCE g6parent on g5parent.PARENT_RESOURCE_ID = g6parent.ID " //
-        + "          where ( res.ID = ? or " // resourceId
-        + "                  g1parent.ID = ? or " // resourceId
-        + "                  g2parent.ID = ? or " // resourceId
-        + "                  g3parent.ID = ? or " // resourceId
-        + "                  g4parent.ID = ? or " // resourceId
-        + "                  g5parent.ID = ? or " // resourceId
-        + "                  g6parent.ID = ? ) " // resourceId
-        + "            and ( res.ID not in ( select impRes.ID " //
-        + "                                    from RHQ_RESOURCE_GROUP rg " //
-        + "                              inner join RHQ_RESOURCE_GROUP_RES_IMP_MAP implicitMap on rg.ID = implicitMap.RESOURCE_GROUP_ID " //
-        + "                              inner join RHQ_RESOURCE impRes on implicitMap.RESOURCE_ID = impRes.ID " //
-        + "                                   where rg.ID = ? ) ) "; // groupId
+        + "          where res.ID in ( @@RESOURCE_IDS@@ ) " //
+        + "            and not exists ( select 1 " // which aren't members yet
+        + "                               from RHQ_RESOURCE_GROUP_RES_IMP_MAP alreadyMember " //
+        + "                              where alreadyMember.RESOURCE_GROUP_ID = ? " // groupId
+        + "                                and alreadyMember.RESOURCE_ID = res.ID ) ";
     public static final String QUERY_NATIVE_REMOVE_RESOURCES_FROM_GROUP_EXPLICIT = "" //
         + "    delete from RHQ_RESOURCE_GROUP_RES_EXP_MAP " //
         + "          where RESOURCE_GROUP_ID = ? " // groupId
@@ -30,6 +30,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import org.testng.annotations.Test;
@@ -58,9 +59,11 @@ import org.rhq.core.domain.measurement.MeasurementDataTrait;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.server.ExternalizableStrategy;
 
 /**
  * This tests to make sure things are serializable and externalizable.
@@ -111,6 +114,55 @@ public class SerializableTest {
         assert copy.getTraitData().size() == 1 : "-->" + copy.getTraitData();
     }
 
+    public void testMeasurementReportCompactForm() throws Exception {
+        MeasurementReport report = new MeasurementReport();
+        report.setCollectionTime(1234);
+        for (int i = 0; i < 100; ++i) {
+            report.addData(new MeasurementDataNumeric(1000000L + i, new MeasurementScheduleRequest(5000 + i, "metric"
+                + (i % 10), 30000, true, DataType.MEASUREMENT), i * 1.5));
+        }
+        report.addData(new MeasurementDataNumeric(1000000L, 4000, null));
+        report.addData(new MeasurementDataTrait(2000000L, new MeasurementScheduleRequest(10, "trait", 30000, true,
+            DataType.TRAIT), "value"));
+        report.addData(new MeasurementDataTrait(1000000L, new MeasurementScheduleRequest(9, "trait", 30000, true,
+            DataType.TRAIT), null));
+        CallTimeData callTimeData = new CallTimeData(new MeasurementScheduleRequest(7, "calltime", 30000, true,
+            DataType.CALLTIME));
+        callTimeData.addCallData("/a", new Date(1111), 10);
+        callTimeData.addCallData("/a", new Date(1112), 20);
+        callTimeData.addCallData("/b", new Date(1113), 30);
+        report.addData(callTimeData);
+
+        byte[] compact = serialize(report);
+        MeasurementReport copy = (MeasurementReport) deserialize(compact);
+
+        assert copy.getCollectionTime() == 1234;
+        assert copy.getNumericData().equals(report.getNumericData()) : "-->" + copy.getNumericData();
+        Iterator<MeasurementDataNumeric> numerics = copy.getNumericData().iterator();
+        for (MeasurementDataNumeric numeric : report.getNumericData()) {
+            MeasurementDataNumeric numericCopy = numerics.next();
+            assert numericCopy.getScheduleId() == numeric.getScheduleId() : "The order should be kept";
+            assert numeric.getValue() == null ? numericCopy.getValue() == null : numeric.getValue().equals(
+                numericCopy.getValue()) : "-->" + numericCopy.getValue();
+        }
+        assert copy.getTraitData().equals(report.getTraitData()) : "-->" + copy.getTraitData();
+        assert copy.getTraitData().iterator().next().getValue().equals("value");
+        assert copy.getCallTimeData().size() == 1;
+        CallTimeDataValue value = copy.getCallTimeData().iterator().next().getValues().get("/a");
+        assert value.getCount() == 2 && value.getTotal() == 30 && value.getMinimum() == 10
+            && value.getMaximum() == 20 : "-->" + value;
+        assert value.getBeginTime() == 1111 && value.getEndTime() == 1121 : "-->" + value;
+
+        ExternalizableStrategy.setStrategy(ExternalizableStrategy.Subsystem.REFLECTIVE_SERIALIZATION);
+        try {
+            byte[] reflective = serialize(report);
+            assert compact.length * 2 < reflective.length : compact.length + " vs " + reflective.length;
+            assert ((MeasurementReport) deserialize(reflective)).getNumericData().equals(report.getNumericData());
+        } finally {
+            ExternalizableStrategy.setStrategy(ExternalizableStrategy.Subsystem.AGENT);
+        }
+    }
+
     public void testAvailabilityReport() {
         assert ensureSerializable(new AvailabilityReport(true, "the-agent-name")).isChangesOnlyReport();
         assert !ensureSerializable(new AvailabilityReport(false, "the-agent-name")).isChangesOnlyReport();
@@ -21,16 +21,12 @@ package org.rhq.core.pluginapi.event.log;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.hyperic.sigar.FileInfo;
-import org.hyperic.sigar.SigarException;
-import org.hyperic.sigar.SigarProxy;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -39,7 +35,9 @@ import org.rhq.core.pluginapi.event.EventContext;
 import org.rhq.core.pluginapi.event.EventPoller;
 
 /**
- * An Event poller that polls a log file for new entries. 
+ * An Event poller that polls a log file for new entries. Only the bytes appended since the previous poll are read, and
+ * a rotated or truncated log file is read again from its beginning. All entries found by one poll are returned as one
+ * batch.
  *
  * @author Ian Springer
  */
@@ -48,8 +46,9 @@ public class LogFileEventPoller implements EventPoller {
 
     private String eventType;
     private File logFile;
-    private FileInfo logFileInfo;
+    private LogFileTailer tailer;
     private LogEntryProcessor entryProcessor;
+    private boolean inPlaceProcessing;
     private EventContext eventContext;
     private boolean initialized;
 
@@ -86,100 +85,56 @@ public class LogFileEventPoller implements EventPoller {
         if (!this.initialized) {
             init();
         }
-        if (this.logFileInfo == null) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Cannot poll log file [" + this.logFile
-                    + "] because native integration is either disabled or unavailable.");
-            }
-            return null;
-        }
-        try {
-            if (!this.logFileInfo.changed()) {
-                return null;
-            }
-        } catch (SigarException e) {
-            throw new RuntimeException(e);
-        }
-        return processNewLines(this.logFileInfo);
+        return processNewLines();
     }
 
     /**
-     * This performs any initialization that requires using the EventContext. It must *not* be called from our
-     * constructor, because pollers are constructed during PC initialization, and at that time the PC EventManager,
-     * which the EventContext relies on, is not yet available. Instead it is called from {@link #poll()} on the first
-     * invocation of that method, at which point the PC will be initialized.
+     * This performs any initialization that must not be done by our constructor. Pollers are constructed during PC
+     * initialization, when the PC EventManager, which the EventContext relies on, is not yet available. Instead this is
+     * called from {@link #poll()} on the first invocation of that method, at which point the PC will be initialized.
      */
     protected void init() {
-        SigarProxy sigar = this.eventContext.getSigar();
-        if (sigar != null) {
-            try {
-                this.logFileInfo = new LogFileInfo(sigar.getFileInfo(logFile.getPath()));
-            } catch (SigarException e) {
-                throw new RuntimeException("Failed to obtain file info for log file [" + this.logFile + "].", e);
-            }
-        } else {
-            LOG.warn("SIGAR is unavailable - cannot poll log file [" + this.logFile + "] for events.");
-        }
-
+        // log files are written in the platform's default encoding, which is what we used to read them with
+        this.tailer = new LogFileTailer(this.logFile, Charset.defaultCharset());
+        this.inPlaceProcessing = isInPlaceProcessingSupported(this.entryProcessor);
         this.initialized = true;
     }
 
-    private Set<Event> processNewLines(FileInfo fileInfo) {
+    private Set<Event> processNewLines() {
         Set<Event> events = null;
-        Reader reader = null;
         try {
-            reader = new FileReader(this.logFile);
-
-            long offset = getOffset(fileInfo);
-
-            if (offset > 0) {
-                reader.skip(offset);
+            if (!this.tailer.open()) {
+                return null;
             }
-            BufferedReader bufferedReader = new BufferedReader(reader);
-            events = this.entryProcessor.processLines(bufferedReader);
-        } catch (IOException e) {
-            LOG.error("Failed to read log file being tailed: " + this.logFile, e);
-        } finally {
-            if (reader != null) {
-                //noinspection EmptyCatchBlock
-                try {
-                    reader.close();
-                } catch (IOException e) {
+            try {
+                if (this.inPlaceProcessing) {
+                    events = ((MultiLineLogEntryProcessor) this.entryProcessor).processLines(this.tailer);
+                } else {
+                    events = this.entryProcessor.processLines(new BufferedReader(this.tailer.newReader()));
                 }
+            } finally {
+                this.tailer.close();
             }
+        } catch (IOException e) {
+            LOG.error("Failed to read log file being tailed: " + this.logFile, e);
         }
         return events;
     }
 
-    private long getOffset(FileInfo fileInfo) {
-        FileInfo previousFileInfo = fileInfo.getPreviousInfo();
-
-        if (previousFileInfo == null) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(this.logFile + ": first stat");
-            }
-            return fileInfo.getSize();
-        }
-
-        if (fileInfo.getInode() != previousFileInfo.getInode()) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(this.logFile + ": file inode changed");
-            }
-            return -1;
-        }
-
-        if (fileInfo.getSize() < previousFileInfo.getSize()) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(this.logFile + ": file truncated");
-            }
-            return -1;
+    /**
+     * Lines can be handed to a {@link MultiLineLogEntryProcessor} without turning them into Strings first, unless it
+     * processes lines its own way.
+     */
+    private static boolean isInPlaceProcessingSupported(LogEntryProcessor entryProcessor) {
+        if (!(entryProcessor instanceof MultiLineLogEntryProcessor)) {
+            return false;
         }
-
-        if (LOG.isDebugEnabled()) {
-            long diff = fileInfo.getSize() - previousFileInfo.getSize();
-            LOG.debug(this.logFile + ": " + diff + " new bytes");
+        try {
+            Class<?> declaringClass = entryProcessor.getClass().getMethod("processLines", BufferedReader.class)
+                .getDeclaringClass();
+            return declaringClass == MultiLineLogEntryProcessor.class;
+        } catch (NoSuchMethodException e) {
+            return false;
         }
-
-        return previousFileInfo.getSize();
     }
 }
@@ -36,12 +36,10 @@ import org.rhq.core.domain.configuration.Property;
 import org.rhq.core.domain.configuration.PropertyList;
 import org.rhq.core.domain.configuration.PropertyMap;
 import org.rhq.core.domain.event.EventSeverity;
-import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pluginapi.event.EventContext;
 import org.rhq.core.pluginapi.event.EventPoller;
 import org.rhq.core.pluginapi.inventory.InvalidPluginConfigurationException;
 import org.rhq.core.pluginapi.inventory.ResourceContext;
-import org.rhq.core.system.SystemInfoFactory;
 
 /**
  * A helper class that plugins can use to start and stop {@link LogFileEventPoller}s.
@@ -99,20 +97,6 @@ public class LogFileEventResourceComponentHelper {
             }
         }
 
-        // Log a warning then return if SIGAR isn't available, since LogFileEventPoller depends on it. We only log this
-        // warning if at least one event source is enabled, since otherwise the user probably doesn't care.
-        boolean sigarAvailable = this.resourceContext.getSystemInformation().isNative();
-        if (!sigarAvailable && !enabledEventSources.isEmpty()) {
-            boolean nativeSystemInfoDisabled = SystemInfoFactory.isNativeSystemInfoDisabled();
-            ResourceType resourceType = this.resourceContext.getResourceType();
-            List<String> logFilePaths = getLogFilePaths(enabledEventSources);
-            LOG.warn("Log files " + logFilePaths + " for [" + resourceType.getPlugin() + ":"
-                + resourceType.getName() + "] Resource with key [" + this.resourceContext.getResourceKey()
-                + "] cannot be polled, because log file polling requires RHQ native support, which "
-                + ((nativeSystemInfoDisabled) ? "has been disabled for this Agent" : "is not available on this platform") + ".");
-            return;
-        }
-
         // Start up log file pollers for each of the enabled event sources.
         for (PropertyMap logEventSource : enabledEventSources) {
             String logFilePath = logEventSource.getSimpleValue(LogEventSourcePropertyNames.LOG_FILE_PATH, null);
@@ -162,11 +146,6 @@ public class LogFileEventResourceComponentHelper {
     }
 
     public void stopLogFileEventPollers() {
-        boolean sigarAvailable = this.resourceContext.getSystemInformation().isNative();
-        if (!sigarAvailable) {
-            return;
-        }
-
         for (Iterator<PropertyMap> iterator = this.startedEventSources.iterator(); iterator.hasNext(); ) {
             PropertyMap logEventSource = iterator.next();
             EventContext eventContext = this.resourceContext.getEventContext();
@@ -175,17 +154,4 @@ public class LogFileEventResourceComponentHelper {
             iterator.remove();
         }
     }
-
-    private List<String> getLogFilePaths(List<PropertyMap> enabledEventSources) {
-        List<String> logFilePaths = new ArrayList<String>(enabledEventSources.size());
-        for (PropertyMap logEventSource : enabledEventSources) {
-            String logFilePath = logEventSource.getSimpleValue(LogEventSourcePropertyNames.LOG_FILE_PATH, null);
-            if (logFilePath == null) {
-                throw new IllegalStateException("Required property [" + LogEventSourcePropertyNames.LOG_FILE_PATH
-                    + "] is not defined in map.");
-            }
-            logFilePaths.add(logFilePath);
-        }
-        return logFilePaths;
-    }
 }
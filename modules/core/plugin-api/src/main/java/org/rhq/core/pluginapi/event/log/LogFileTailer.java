@@ -0,0 +1,363 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pluginapi.event.log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads the lines appended to a log file since it was last read. The tailer remembers the byte offset up to which the
+ * file was read and only reads the bytes after it, through buffers that are reused from one read to the next. Only
+ * complete lines are read; a partially written last line is left for the next read.
+ *
+ * A file is considered rotated, and is read again from its beginning, if it got shorter or if its first bytes are no
+ * longer the ones seen before. The first time the tailer looks at a file, it skips the lines the file already has.
+ *
+ * Usage:
+ * <pre>
+ * if (tailer.open()) {
+ *     try {
+ *         CharSequence line;
+ *         while ((line = tailer.readLine()) != null) {
+ *             ...
+ *         }
+ *     } finally {
+ *         tailer.close();
+ *     }
+ * }
+ * </pre>
+ *
+ * Instances are not thread safe.
+ */
+class LogFileTailer {
+    private static final Log LOG = LogFactory.getLog(LogFileTailer.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes at the start of the file used to recognize the file after it was rotated.
+     */
+    private static final int FINGERPRINT_SIZE = 256;
+
+    private final File file;
+
+    private final CharsetDecoder decoder;
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * A view of {@link #chars} that is handed out as the current line.
+     */
+    private CharBuffer line;
+
+    /**
+     * The offset up to which the file has been read, -1 if the file has not been looked at yet.
+     */
+    private long offset = -1;
+
+    private byte[] fingerprint = new byte[0];
+
+    private long checkedLength = -1;
+
+    private long checkedLastModified = -1;
+
+    private FileInputStream in;
+
+    private FileChannel channel;
+
+    private long position;
+
+    private long end;
+
+    private boolean endOfInput;
+
+    LogFileTailer(File file, Charset charset) {
+        this.file = file;
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Checks whether complete lines were appended to the file since it was last read and if so, prepares for reading
+     * them.
+     *
+     * @return true if there are lines to read, in which case {@link #close()} must be called once they are read
+     *
+     * @throws IOException if the file cannot be read
+     */
+    boolean open() throws IOException {
+        long length = this.file.length();
+        long lastModified = this.file.lastModified();
+        if (length == this.checkedLength && lastModified == this.checkedLastModified) {
+            return false;
+        }
+
+        this.in = new FileInputStream(this.file);
+        boolean opened = false;
+        try {
+            this.channel = this.in.getChannel();
+            length = this.channel.size();
+            byte[] head = readHead(length);
+
+            if (this.offset < 0) {
+                // skip the existing lines, but not a partially written last line
+                this.offset = findEndOfLastLine(0, length);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(this.file + ": first look, skipping " + this.offset + " existing bytes");
+                }
+            } else if (length < this.offset) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(this.file + ": file truncated");
+                }
+                this.offset = 0;
+            } else if (!startsWith(head, this.fingerprint)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(this.file + ": file replaced");
+                }
+                this.offset = 0;
+            }
+            this.fingerprint = head;
+            this.checkedLength = length;
+            this.checkedLastModified = lastModified;
+
+            this.end = findEndOfLastLine(this.offset, length);
+            if (this.end <= this.offset) {
+                return false;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(this.file + ": " + (this.end - this.offset) + " new bytes");
+            }
+
+            this.position = this.offset;
+            this.endOfInput = false;
+            this.decoder.reset();
+            this.bytes.clear();
+            this.chars.clear();
+            this.chars.flip();
+            this.line = this.chars.duplicate();
+            opened = true;
+            return true;
+        } finally {
+            if (!opened) {
+                closeChannel();
+            }
+        }
+    }
+
+    /**
+     * Returns the next line, without its line terminator. The returned sequence is only valid until the next call of
+     * this method.
+     *
+     * @return the next line, or <code>null</code> if all appended lines have been read
+     *
+     * @throws IOException if the file cannot be read
+     */
+    CharSequence readLine() throws IOException {
+        int scanned = this.chars.position();
+        while (true) {
+            int start = this.chars.position();
+            int limit = this.chars.limit();
+            for (int i = scanned; i < limit; ++i) {
+                if (this.chars.get(i) == '\n') {
+                    int lineEnd = (i > start && this.chars.get(i - 1) == '\r') ? i - 1 : i;
+                    this.chars.position(i + 1);
+                    this.line.limit(this.line.capacity());
+                    this.line.position(start);
+                    this.line.limit(lineEnd);
+                    return this.line;
+                }
+            }
+            if (this.endOfInput) {
+                if (start < limit) {
+                    // the file was changed under us, the last line is missing its terminator
+                    this.chars.position(limit);
+                    this.line.limit(this.line.capacity());
+                    this.line.position(start);
+                    this.line.limit(limit);
+                    return this.line;
+                }
+                return null;
+            }
+            scanned = limit - start;
+            fill();
+        }
+    }
+
+    /**
+     * @return a reader of the appended lines, each of them terminated with a '\n'
+     */
+    Reader newReader() {
+        return new LineReader();
+    }
+
+    /**
+     * Finishes reading. The next {@link #open()} will look for lines appended after the ones prepared by the last one,
+     * whether or not they were all read.
+     */
+    void close() {
+        this.offset = this.end;
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        this.channel = null;
+        if (this.in != null) {
+            try {
+                this.in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            this.in = null;
+        }
+    }
+
+    /**
+     * Moves the unread chars to the start of the char buffer and decodes more bytes after them.
+     */
+    private void fill() throws IOException {
+        this.chars.compact();
+        if (!this.chars.hasRemaining()) {
+            // a line longer than the buffer
+            CharBuffer larger = CharBuffer.allocate(this.chars.capacity() * 2);
+            this.chars.flip();
+            larger.put(this.chars);
+            this.chars = larger;
+        }
+
+        int max = (int) Math.min(this.bytes.remaining(), this.end - this.position);
+        if (max > 0) {
+            int limit = this.bytes.limit();
+            this.bytes.limit(this.bytes.position() + max);
+            int read = this.channel.read(this.bytes, this.position);
+            this.bytes.limit(limit);
+            if (read < 0) {
+                // the file got shorter while we were reading it
+                this.end = this.position;
+            } else {
+                this.position += read;
+            }
+        }
+
+        boolean lastBytes = this.position >= this.end;
+        this.bytes.flip();
+        this.decoder.decode(this.bytes, this.chars, lastBytes);
+        this.bytes.compact();
+        if (lastBytes && this.bytes.position() == 0) {
+            this.decoder.flush(this.chars);
+            this.endOfInput = true;
+        }
+
+        this.chars.flip();
+        this.line = this.chars.duplicate();
+    }
+
+    private byte[] readHead(long length) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(FINGERPRINT_SIZE, length));
+        while (head.hasRemaining()) {
+            if (this.channel.read(head, head.position()) < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(head.array(), head.position());
+    }
+
+    /**
+     * @return the offset right after the last '\n' between the given offsets, or <code>from</code> if there is none
+     */
+    private long findEndOfLastLine(long from, long to) throws IOException {
+        long chunkEnd = to;
+        while (chunkEnd > from) {
+            long chunkStart = Math.max(from, chunkEnd - this.bytes.capacity());
+            this.bytes.clear();
+            this.bytes.limit((int) (chunkEnd - chunkStart));
+            while (this.bytes.hasRemaining()) {
+                if (this.channel.read(this.bytes, chunkStart + this.bytes.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = this.bytes.position() - 1; i >= 0; --i) {
+                if (this.bytes.get(i) == '\n') {
+                    return chunkStart + i + 1;
+                }
+            }
+            chunkEnd = chunkStart;
+        }
+        return from;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Serves the appended lines to processors that want a {@link Reader}.
+     */
+    private class LineReader extends Reader {
+        private CharSequence current;
+        private int index;
+
+        @Override
+        public int read(char[] buffer, int off, int len) throws IOException {
+            int count = 0;
+            while (count < len) {
+                if (this.current == null) {
+                    this.current = readLine();
+                    this.index = 0;
+                    if (this.current == null) {
+                        break;
+                    }
+                }
+                if (this.index < this.current.length()) {
+                    buffer[off + count++] = this.current.charAt(this.index++);
+                } else {
+                    buffer[off + count++] = '\n';
+                    this.current = null;
+                }
+            }
+            return (count == 0 && len > 0) ? -1 : count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
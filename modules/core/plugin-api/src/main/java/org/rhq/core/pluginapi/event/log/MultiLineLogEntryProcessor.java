@@ -55,6 +55,12 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
     protected Pattern includesPattern;
     protected DateFormat dateFormat;
 
+    // reused from line to line, since a processor only ever processes the lines of one log file at a time
+    private Pattern matcherPattern;
+    private Matcher matcher;
+    private Pattern includesMatcherPattern;
+    private Matcher includesMatcher;
+
     public MultiLineLogEntryProcessor(String eventType, File logFile) {
         this.eventType = eventType;
         this.logFile = logFile;
@@ -75,6 +81,21 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
         return events;
     }
 
+    /**
+     * Processes the lines appended to a log file, matching them in place rather than as Strings. Used by
+     * {@link LogFileEventPoller} unless a subclass overrides {@link #processLines(BufferedReader)}.
+     */
+    Set<Event> processLines(LogFileTailer tailer) throws IOException {
+        Set<Event> events = new LinkedHashSet<Event>();
+        LogEntry currentEntry = null;
+        CharSequence line;
+        while ((line = tailer.readLine()) != null) {
+            currentEntry = processLine(line, events, currentEntry);
+        }
+        addEventForCurrentEntry(events, currentEntry);
+        return events;
+    }
+
     public void setMinimumSeverity(EventSeverity minimumSeverity) {
         this.minimumSeverity = minimumSeverity;
     }
@@ -88,7 +109,15 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
     }
 
     protected LogEntry processLine(String line, Set<Event> events, LogEntry currentEntry) {
-        Matcher matcher = getPattern().matcher(line);
+        return processLine((CharSequence) line, events, currentEntry);
+    }
+
+    /**
+     * Like {@link #processLine(String, Set, LogEntry)}, but the line is only turned into a String if it is needed
+     * beyond this call. The line may be a view of a buffer that is reused once this method returns.
+     */
+    protected LogEntry processLine(CharSequence line, Set<Event> events, LogEntry currentEntry) {
+        Matcher matcher = matcher(line);
         if (matcher.matches()) {
             // A matching line means this is the beginning of a new entry, which tells us the current entry
             // (if there is one) has no more additional lines; we can therefore add an Event for that entry.
@@ -113,10 +142,34 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
 
     protected abstract Pattern getPattern();
 
+    private Matcher matcher(CharSequence line) {
+        Pattern pattern = getPattern();
+        if (pattern != this.matcherPattern) {
+            this.matcherPattern = pattern;
+            this.matcher = pattern.matcher(line);
+        } else {
+            this.matcher.reset(line);
+        }
+        return this.matcher;
+    }
+
+    private boolean isIncluded(LogEntry entry) {
+        Pattern pattern = this.includesPattern;
+        if (pattern == null) {
+            return true;
+        }
+        if (pattern != this.includesMatcherPattern) {
+            this.includesMatcherPattern = pattern;
+            this.includesMatcher = pattern.matcher(entry.detail);
+        } else {
+            this.includesMatcher.reset(entry.detail);
+        }
+        return this.includesMatcher.find();
+    }
+
     private void addEventForCurrentEntry(Set<Event> events, LogEntry currentEntry) {
         if (currentEntry != null) {
-            if (currentEntry.getSeverity().isAtLeastAsSevereAs(this.minimumSeverity)
-                && (this.includesPattern == null || this.includesPattern.matcher(currentEntry.getDetail()).find())) {
+            if (currentEntry.getSeverity().isAtLeastAsSevereAs(this.minimumSeverity) && isIncluded(currentEntry)) {
                 Event event = new Event(this.eventType, this.logFile.getPath(), currentEntry.getDate().getTime(),
                     currentEntry.getSeverity(), currentEntry.getDetail());
                 events.add(event);
@@ -186,7 +239,7 @@ public abstract class MultiLineLogEntryProcessor implements LogEntryProcessor {
             return detail.toString();
         }
 
-        void appendLineToDetail(String string) {
+        void appendLineToDetail(CharSequence string) {
             this.detail.append("\n");
             this.detail.append(string);
         }
@@ -22,14 +22,17 @@
  */
 package org.rhq.core.pluginapi.util;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,6 +43,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
 
 /**
  * This is a very simple log parser that uses a StringTokenizer instead of a regular expression to parse a HTTP
@@ -50,11 +54,36 @@ import org.rhq.core.domain.measurement.calltime.CallTimeData;
  *
  * <p/>This is the output format used by the Apache RT module, as well as the servlet RT filter.
  *
+ * <p/>The file is read as a stream of bytes, from the offset up to which it was parsed the last time, through a buffer
+ * that is reused from one parse to the next. The numeric fields of a line are parsed straight from the bytes. Whether
+ * a URL is excluded, and what it is transformed to, is only worked out once per distinct URL and parse, and the
+ * response times are summed up per transformed URL before they are added to the {@link CallTimeData}. Subclasses that
+ * override {@link #parseLine(String)} get every line as a String instead.
+ *
+ * <p/>Parsers do not share any state, so the logs of different parsers can be parsed concurrently.
+ *
  * @author Ian Springer
  */
 public class ResponseTimeLogParser {
     public static final int DEFAULT_TIME_MULTIPLIER = 1;
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum number of distinct URLs whose exclusion and transformation are remembered during a parse.
+     */
+    private static final int MAX_CACHED_URLS = 10000;
+
+    /**
+     * Stands for excluded URLs in the per-parse URL cache, compared by identity.
+     */
+    private static final String EXCLUDED = new String("excluded");
+
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15 };
+
     protected final Log log = LogFactory.getLog(this.getClass());
 
     /**
@@ -66,6 +95,17 @@ public class ResponseTimeLogParser {
     protected List<Pattern> excludes;
     protected List<RegexSubstitution> transforms;
 
+    private List<Pattern> combinedExcludesSource;
+    private Pattern combinedExcludes;
+    private ByteBuffer buffer;
+    private Boolean lineParserOverridden;
+
+    // the fields of the line being parsed
+    private String parsedUrl;
+    private long parsedStartTime;
+    private long parsedDuration;
+    private int parsedStatusCode;
+
     public ResponseTimeLogParser(File logFile) {
         this(logFile, DEFAULT_TIME_MULTIPLIER);
     }
@@ -76,101 +116,356 @@ public class ResponseTimeLogParser {
     }
 
     /**
-     * Parse the log file, starting at the offset corresponding to the file's size after the last time this method was
-     * called. Immediately after parsing, the file will be truncated, permissions permitting. If the log file does not
-     * exist, a warning will be logged and the method will return. The parsed response-time data will be added to the
-     * passed-in CallTimeData object.
+     * Parse the log file, starting at the offset up to which it was parsed the last time this method was called.
+     * Immediately after parsing, the file will be truncated, permissions permitting. If the log file does not exist, a
+     * warning will be logged and the method will return. The parsed response-time data will be added to the passed-in
+     * CallTimeData object.
      *
      * @param callTimeData the parsed response-time data will be added to this object
      * @throws IOException if an error occurs reading the log file
      */
     public synchronized void parseLog(CallTimeData callTimeData) throws IOException {
         log.debug("Parsing response-time log file " + this.logFile + "...");
-        BufferedReader in = null;
+        RandomAccessFile file = null;
+        long parsedOffset;
+        Map<String, String> destinations = new HashMap<String, String>();
+        Map<String, CallTime> callTimes = new HashMap<String, CallTime>();
 
         try {
-            in = new BufferedReader(new FileReader(this.logFile));
-
-            in.skip(this.startingOffset);
-
-            String currentLine;
-            while ((currentLine = in.readLine()) != null) {
-                LogEntry logEntry;
-                try {
-                    logEntry = parseLine(currentLine);
-                } catch (Exception e) {
-                    log.debug("Problem parsing line [" + currentLine + "] - cause: " + e);
-                    continue;
-                }
-
-                String url = logEntry.getUrl();
-
-                // The URL should always begin with a slash. If it doesn't, log an error and skip the entry,
-                // so we don't end up with bogus data in the DB.
-                if (url.charAt(0) != '/') {
-                    String truncatedUrl = url.substring(0, Math.min(url.length(), 120));
-                    if (url.length() > 120)
-                        truncatedUrl += "...";
-                    log.error("URL ('" + truncatedUrl
-                        + "') parsed from response-time log file does not begin with '/'. " + "Line being parsed is ["
-                        + currentLine + "].");
-                    continue;
-                }
+            file = new RandomAccessFile(this.logFile, "r");
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length < this.startingOffset) {
+                log.debug("Response-time log file " + this.logFile + " got shorter - parsing it from its start.");
+                this.startingOffset = 0;
+            }
 
-                if (isExcluded(url)) {
-                    continue;
+            if (this.buffer == null) {
+                this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+            byte[] bytes = this.buffer.array();
+            Charset charset = Charset.defaultCharset();
+            boolean skippingLongLine = false;
+            long position = this.startingOffset;
+            parsedOffset = position;
+            this.buffer.clear();
+
+            while (position < length) {
+                int read = channel.read(this.buffer, position);
+                if (read < 0) {
+                    break;
                 }
-
-                // Only collect stats for successful (2xx or 3xx) requests...
-                if ((logEntry.getStatusCode() != null)
-                    && ((logEntry.getStatusCode() < 200) || (logEntry.getStatusCode() >= 400))) {
-                    continue;
+                position += read;
+
+                // handle all complete lines in the buffer, keep a partial last line for the next read
+                int lineStart = 0;
+                int limit = this.buffer.position();
+                for (int i = 0; i < limit; ++i) {
+                    if (bytes[i] == '\n') {
+                        if (!skippingLongLine) {
+                            handleLine(bytes, lineStart, i, charset, destinations, callTimes);
+                        }
+                        skippingLongLine = false;
+                        lineStart = i + 1;
+                    }
                 }
-
-                String transformedUrl = applyTransforms(url);
-                try {
-                    callTimeData.addCallData(transformedUrl, new Date(logEntry.getStartTime()), logEntry.getDuration());
-                } catch (IllegalArgumentException iae) {
-                    // if any issue with the data, log them and continue processing the rest of the report
-                    log.error(iae);
+                parsedOffset = position - (limit - lineStart);
+
+                if (lineStart == 0 && limit == bytes.length) {
+                    if (!skippingLongLine) {
+                        log.debug("Skipping line longer than " + bytes.length + " bytes in response-time log file "
+                            + this.logFile + ".");
+                    }
+                    skippingLongLine = true;
+                    this.buffer.clear();
+                } else {
+                    this.buffer.flip();
+                    this.buffer.position(lineStart);
+                    this.buffer.compact();
                 }
             }
         } catch (FileNotFoundException e) {
             log.warn("Response-time log file '" + this.logFile + "' does not exist.");
             return;
         } finally {
-            if (null != in) {
+            if (null != file) {
                 try {
-                    in.close();
+                    file.close();
                 } catch (Exception e) {
                     log.error("Unable to close response-time log file.", e);
                 }
             }
         }
 
+        for (Map.Entry<String, CallTime> entry : callTimes.entrySet()) {
+            try {
+                entry.getValue().addTo(callTimeData, entry.getKey());
+            } catch (IllegalArgumentException iae) {
+                // if any issue with the data, log them and continue processing the rest of the report
+                log.error(iae);
+            }
+        }
+
         /*
          * After we're done parsing the file, truncate it. This is kosher, assuming we own any file being parsed by this
-         * parser.
+         * parser. If it cannot be truncated, the next parse starts after the last line parsed now.
          */
         truncateLog(this.logFile);
-        this.startingOffset = this.logFile.length();
+        this.startingOffset = (this.logFile.length() < parsedOffset) ? 0 : parsedOffset;
+    }
+
+    private void handleLine(byte[] bytes, int start, int end, Charset charset, Map<String, String> destinations,
+        Map<String, CallTime> callTimes) {
+        if (end > start && bytes[end - 1] == '\r') {
+            --end;
+        }
+
+        if (isLineParserOverridden()) {
+            String currentLine = new String(bytes, start, end - start, charset);
+            LogEntry logEntry;
+            try {
+                logEntry = parseLine(currentLine);
+            } catch (Exception e) {
+                log.debug("Problem parsing line [" + currentLine + "] - cause: " + e);
+                return;
+            }
+            this.parsedUrl = logEntry.getUrl();
+            this.parsedStartTime = logEntry.getStartTime();
+            this.parsedDuration = logEntry.getDuration();
+            this.parsedStatusCode = (logEntry.getStatusCode() != null) ? logEntry.getStatusCode() : -1;
+        } else if (!parseFields(bytes, start, end, charset)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Problem parsing line [" + new String(bytes, start, end - start, charset)
+                    + "] - cause: invalid response-time log line format");
+            }
+            return;
+        }
+
+        String url = this.parsedUrl;
+
+        // The URL should always begin with a slash. If it doesn't, log an error and skip the entry,
+        // so we don't end up with bogus data in the DB.
+        if (url.charAt(0) != '/') {
+            String truncatedUrl = url.substring(0, Math.min(url.length(), 120));
+            if (url.length() > 120)
+                truncatedUrl += "...";
+            log.error("URL ('" + truncatedUrl + "') parsed from response-time log file does not begin with '/'. "
+                + "Line being parsed is [" + new String(bytes, start, end - start, charset) + "].");
+            return;
+        }
+
+        // Only collect stats for successful (2xx or 3xx) requests...
+        if ((this.parsedStatusCode >= 0) && ((this.parsedStatusCode < 200) || (this.parsedStatusCode >= 400))) {
+            return;
+        }
+
+        String destination = destinations.get(url);
+        if (destination == null) {
+            destination = isExcluded(url) ? EXCLUDED : applyTransforms(url);
+            if (destinations.size() < MAX_CACHED_URLS) {
+                destinations.put(url, destination);
+            }
+        }
+        if (destination == EXCLUDED) {
+            return;
+        }
+
+        if (this.parsedDuration < 0) {
+            log.error(new IllegalArgumentException("Call time is a duration and so must be >= 0."));
+            return;
+        }
+
+        CallTime callTime = callTimes.get(destination);
+        if (callTime == null) {
+            callTime = new CallTime();
+            callTimes.put(destination, callTime);
+        }
+        callTime.add(this.parsedStartTime, this.parsedDuration);
+    }
+
+    /**
+     * Parses the fields of a line the way {@link #parseLine(String)} does, without creating strings for the numeric
+     * fields.
+     *
+     * @return false if the line does not have the expected format
+     */
+    private boolean parseFields(byte[] bytes, int start, int end, Charset charset) {
+        int tokenStart = skipWhitespace(bytes, start, end);
+        int tokenEnd = skipToken(bytes, tokenStart, end);
+        if (tokenStart == tokenEnd) {
+            return false;
+        }
+        String url = new String(bytes, tokenStart, tokenEnd - tokenStart, charset);
+
+        tokenStart = skipWhitespace(bytes, tokenEnd, end);
+        tokenEnd = skipToken(bytes, tokenStart, end);
+        long startTime = parseLong(bytes, tokenStart, tokenEnd);
+        if (startTime < 0) {
+            return false;
+        }
+
+        tokenStart = skipWhitespace(bytes, tokenEnd, end);
+        tokenEnd = skipToken(bytes, tokenStart, end);
+        double duration = parseDouble(bytes, tokenStart, tokenEnd);
+        if (Double.isNaN(duration)) {
+            return false;
+        }
+
+        int statusCode = -1;
+        tokenStart = skipWhitespace(bytes, tokenEnd, end);
+        if (tokenStart < end) {
+            tokenEnd = skipToken(bytes, tokenStart, end);
+            long status = parseLong(bytes, tokenStart, tokenEnd);
+            if (status < 0 || status > Integer.MAX_VALUE) {
+                return false;
+            }
+            statusCode = (int) status;
+        }
+
+        this.parsedUrl = url;
+        this.parsedStartTime = startTime;
+        this.parsedDuration = (long) (duration * this.timeMultiplier);
+        this.parsedStatusCode = statusCode;
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        // the delimiters of a StringTokenizer
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    private static int skipWhitespace(byte[] bytes, int start, int end) {
+        while (start < end && isWhitespace(bytes[start])) {
+            ++start;
+        }
+        return start;
+    }
+
+    private static int skipToken(byte[] bytes, int start, int end) {
+        while (start < end && !isWhitespace(bytes[start])) {
+            ++start;
+        }
+        return start;
+    }
+
+    /**
+     * @return the non-negative decimal number, or -1 if the token is not one
+     */
+    private static long parseLong(byte[] bytes, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1L;
+        }
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1L;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the number, or NaN if the token is not one
+     */
+    private static double parseDouble(byte[] bytes, int start, int end) {
+        if (start == end) {
+            return Double.NaN;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (int i = start; i < end; ++i) {
+            byte b = bytes[i];
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && digits < 15) {
+                mantissa = mantissa * 10 + (b - '0');
+                ++digits;
+                if (fractionDigits >= 0) {
+                    ++fractionDigits;
+                }
+            } else {
+                // signs, exponents and long numbers are left to the JDK
+                try {
+                    return Double.parseDouble(new String(bytes, start, end - start, "US-ASCII"));
+                } catch (Exception e) {
+                    return Double.NaN;
+                }
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        // both operands are exact, so the quotient is rounded exactly like Double.parseDouble() would round it
+        return (fractionDigits > 0) ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+    }
+
+    private boolean isLineParserOverridden() {
+        if (this.lineParserOverridden == null) {
+            boolean overridden = false;
+            for (Class<?> c = getClass(); c != ResponseTimeLogParser.class && !overridden; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("parseLine", String.class);
+                    overridden = true;
+                } catch (NoSuchMethodException e) {
+                    // keep looking
+                }
+            }
+            this.lineParserOverridden = Boolean.valueOf(overridden);
+        }
+        return this.lineParserOverridden.booleanValue();
     }
 
     protected boolean isExcluded(String url) {
+        if (this.excludes == null || this.excludes.isEmpty()) {
+            return false;
+        }
+
+        Pattern combined = getCombinedExcludes();
+        if (combined != null && !log.isDebugEnabled()) {
+            return combined.matcher(url).find();
+        }
+
         boolean excluded = false;
-        if (this.excludes != null) {
-            for (Pattern exclude : this.excludes) {
-                Matcher matcher = exclude.matcher(url);
-                if (matcher.find()) {
-                    log.debug("URL '" + url + "' excluded by exclude '" + exclude + "'");
-                    excluded = true;
-                }
+        for (Pattern exclude : this.excludes) {
+            Matcher matcher = exclude.matcher(url);
+            if (matcher.find()) {
+                log.debug("URL '" + url + "' excluded by exclude '" + exclude + "'");
+                excluded = true;
             }
         }
 
         return excluded;
     }
 
+    /**
+     * Compiles the excludes into a single pattern that matches wherever one of them matches. Excludes with different
+     * flags or with back references cannot be combined.
+     *
+     * @return the combined pattern, or null if the excludes have to be matched one by one
+     */
+    private Pattern getCombinedExcludes() {
+        if (this.excludes != this.combinedExcludesSource) {
+            this.combinedExcludesSource = this.excludes;
+            this.combinedExcludes = null;
+            StringBuilder regex = new StringBuilder();
+            int flags = this.excludes.get(0).flags();
+            for (Pattern exclude : this.excludes) {
+                if (exclude.flags() != flags || BACK_REFERENCE.matcher(exclude.pattern()).find()) {
+                    return null;
+                }
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                regex.append("(?:").append(exclude.pattern()).append(')');
+            }
+            this.combinedExcludes = Pattern.compile(regex.toString(), flags);
+        }
+        return this.combinedExcludes;
+    }
+
     protected String applyTransforms(String url) {
         String transformedUrl = null;
         if (this.transforms != null) {
@@ -320,4 +615,45 @@ public class ResponseTimeLogParser {
             return ipAddress;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sums up the response times of a URL.
+     */
+    private static class CallTime {
+        private long beginTime = Long.MAX_VALUE;
+        private long endTime = Long.MIN_VALUE;
+        private double minimum = Double.NaN;
+        private double maximum;
+        private double total;
+        private long count;
+
+        void add(long startTime, long duration) {
+            this.beginTime = Math.min(this.beginTime, startTime);
+            this.endTime = Math.max(this.endTime, startTime + duration);
+            if (duration < this.minimum || Double.isNaN(this.minimum)) {
+                this.minimum = duration;
+            }
+            if (duration > this.maximum) {
+                this.maximum = duration;
+            }
+            this.total += duration;
+            ++this.count;
+        }
+
+        void addTo(CallTimeData callTimeData, String destination) {
+            double minimum = this.minimum;
+            double maximum = this.maximum;
+            double total = this.total;
+            long count = this.count;
+            CallTimeDataValue existing = callTimeData.getValues().get(destination);
+            if (existing != null && existing.getCount() > 0) {
+                minimum = Math.min(minimum, existing.getMinimum());
+                maximum = Math.max(maximum, existing.getMaximum());
+                total += existing.getTotal();
+                count += existing.getCount();
+            }
+            callTimeData.addAggregatedCallData(destination, new Date(this.beginTime), new Date(this.endTime), minimum,
+                maximum, total, count);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pluginapi.event.log;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.event.Event;
+
+@Test
+public class LogFileTailerTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File logFile;
+    private long lastModified;
+
+    @BeforeMethod
+    public void createLogFile() throws Exception {
+        logFile = File.createTempFile("LogFileTailerTest", ".log");
+        lastModified = logFile.lastModified();
+    }
+
+    @AfterMethod
+    public void deleteLogFile() {
+        logFile.delete();
+    }
+
+    public void testSkipExistingLinesButNotPartialLine() throws Exception {
+        write("old 1\nold 2\npart", false);
+        LogFileTailer tailer = new LogFileTailer(logFile, UTF8);
+        assertEquals(readLines(tailer), Collections.emptyList());
+
+        write("ial\r\nnew 1\nhalf", true);
+        assertEquals(readLines(tailer), Arrays.asList("partial", "new 1"));
+        assertEquals(readLines(tailer), Collections.emptyList());
+
+        write(" line\n", true);
+        assertEquals(readLines(tailer), Arrays.asList("half line"));
+    }
+
+    public void testLinesSpanningBuffers() throws Exception {
+        LogFileTailer tailer = new LogFileTailer(logFile, UTF8);
+        readLines(tailer);
+
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 200000; ++i) {
+            longLine.append('x');
+        }
+        longLine.append('\u00e9');
+        StringBuilder content = new StringBuilder(longLine).append('\n');
+        for (int i = 0; i < 50000; ++i) {
+            content.append("entry ").append(i).append('\n');
+        }
+        write(content.toString(), true);
+
+        List<String> lines = readLines(tailer);
+        assertEquals(lines.size(), 50001);
+        assertEquals(lines.get(0), longLine.toString());
+        assertEquals(lines.get(50000), "entry 49999");
+    }
+
+    public void testTruncatedAndReplacedFile() throws Exception {
+        write("line 1\nline 2\n", false);
+        LogFileTailer tailer = new LogFileTailer(logFile, UTF8);
+        readLines(tailer);
+
+        write("rotated\n", false);
+        assertEquals(readLines(tailer), Arrays.asList("rotated"), "A truncated file should be read from its start");
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            content.append("other ").append(i).append('\n');
+        }
+        write(content.toString(), false);
+        List<String> lines = readLines(tailer);
+        assertEquals(lines.size(), 100, "A replaced file should be read from its start");
+        assertEquals(lines.get(0), "other 0");
+    }
+
+    public void testReader() throws Exception {
+        LogFileTailer tailer = new LogFileTailer(logFile, UTF8);
+        readLines(tailer);
+
+        write("a\nb\n", true);
+        assertTrue(tailer.open());
+        try {
+            BufferedReader reader = new BufferedReader(tailer.newReader());
+            assertEquals(reader.readLine(), "a");
+            assertEquals(reader.readLine(), "b");
+            assertNull(reader.readLine());
+        } finally {
+            tailer.close();
+        }
+    }
+
+    public void testMultiLineProcessor() throws Exception {
+        LogFileTailer tailer = new LogFileTailer(logFile, UTF8);
+        readLines(tailer);
+
+        write("2008-02-09 02:10:11,909 INFO [com.example.FooBar] a multi-line entry\n\tyada yada yada\n"
+            + "2008-02-09 02:10:12,000 ERROR [com.example.FooBar] failed\n", true);
+        Log4JLogEntryProcessor processor = new Log4JLogEntryProcessor("logEntry", logFile);
+        Set<Event> events;
+        assertTrue(tailer.open());
+        try {
+            events = processor.processLines(tailer);
+        } finally {
+            tailer.close();
+        }
+
+        assertEquals(events.size(), 2);
+        Iterator<Event> iterator = events.iterator();
+        Event event = iterator.next();
+        assertEquals(event.getDetail(), "[com.example.FooBar] a multi-line entry\n\tyada yada yada");
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2008, 1, 9, 2, 10, 11);
+        calendar.set(Calendar.MILLISECOND, 909);
+        assertEquals(event.getTimestamp(), calendar.getTimeInMillis());
+        assertEquals(iterator.next().getDetail(), "[com.example.FooBar] failed");
+    }
+
+    private List<String> readLines(LogFileTailer tailer) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        if (tailer.open()) {
+            try {
+                CharSequence line;
+                while ((line = tailer.readLine()) != null) {
+                    lines.add(line.toString());
+                }
+            } finally {
+                tailer.close();
+            }
+        }
+        return lines;
+    }
+
+    private void write(String content, boolean append) throws Exception {
+        FileOutputStream out = new FileOutputStream(logFile, append);
+        try {
+            out.write(content.getBytes(UTF8.name()));
+        } finally {
+            out.close();
+        }
+        // make sure every write is noticed, even on file systems with a coarse modification time
+        lastModified += 2000L;
+        logFile.setLastModified(lastModified);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pluginapi.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
+
+public class ResponseTimeLogParserTest {
+
+    private File logFile;
+
+    @BeforeMethod
+    public void createLogFile() throws Exception {
+        logFile = File.createTempFile("ResponseTimeLogParserTest", ".log");
+    }
+
+    @AfterMethod
+    public void deleteLogFile() {
+        logFile.delete();
+    }
+
+    @Test
+    public void shouldSumUpResponseTimesPerUrl() throws Exception {
+        write("/a 1000 10 200 127.0.0.1\n" //
+            + "/a 3000 30\r\n" //
+            + "/b 2000 5 304\n" //
+            + "/a 5000 20 500\n" //
+            + "garbage\n" //
+            + "no-slash 1000 10\n");
+
+        CallTimeData data = parse(new ResponseTimeLogParser(logFile));
+
+        assertEquals(data.getValues().keySet(), new HashSet<String>(Arrays.asList("/a", "/b")));
+        CallTimeDataValue a = data.getValues().get("/a");
+        assertEquals(a.getCount(), 2L);
+        assertEquals(a.getMinimum(), 10.0);
+        assertEquals(a.getMaximum(), 30.0);
+        assertEquals(a.getTotal(), 40.0);
+        assertEquals(a.getBeginTime(), 1000L);
+        assertEquals(a.getEndTime(), 3030L);
+        assertEquals(data.getValues().get("/b").getCount(), 1L);
+        assertEquals(logFile.length(), 0L, "The log file should have been truncated");
+    }
+
+    @Test
+    public void shouldApplyTimeMultiplier() throws Exception {
+        write("/a 1000 0.3\n/a 2000 1.25\n/a 3000 2e-3\n");
+
+        CallTimeData data = parse(new ResponseTimeLogParser(logFile, 1000));
+
+        CallTimeDataValue a = data.getValues().get("/a");
+        assertEquals(a.getCount(), 3L);
+        assertEquals(a.getMinimum(), 2.0);
+        assertEquals(a.getMaximum(), 1250.0);
+        assertEquals(a.getTotal(), 1552.0);
+    }
+
+    @Test
+    public void shouldApplyExcludesAndTransforms() throws Exception {
+        write("/images/logo.png 1000 10\n" //
+            + "/app/item.jsp?id=1 1000 10\n" //
+            + "/app/item.jsp?id=2 1000 20\n" //
+            + "/app/style.CSS 1000 20\n" //
+            + "/app/index.jsp 1000 30\n");
+
+        ResponseTimeLogParser parser = new ResponseTimeLogParser(logFile);
+        parser.setExcludes(Arrays.asList(Pattern.compile("^/images/"), Pattern.compile("\\.css$",
+            Pattern.CASE_INSENSITIVE)));
+        parser.setTransforms(Collections.singletonList(new RegexSubstitution(Pattern.compile("\\?.*"), "")));
+        CallTimeData data = parse(parser);
+
+        assertEquals(data.getValues().size(), 2);
+        assertEquals(data.getValues().get("/app/item.jsp").getCount(), 2L);
+        assertEquals(data.getValues().get("/app/index.jsp").getCount(), 1L);
+        assertNull(data.getValues().get("/app/style.CSS"));
+    }
+
+    @Test
+    public void shouldOnlyParseNewLines() throws Exception {
+        ResponseTimeLogParser parser = new ResponseTimeLogParser(logFile);
+        write("/a 1000 10\n");
+        assertEquals(parse(parser).getValues().get("/a").getCount(), 1L);
+
+        write("/a 2000 10\n/b 2000 10\n");
+        CallTimeData data = parse(parser);
+        assertEquals(data.getValues().get("/a").getCount(), 1L);
+        assertEquals(data.getValues().get("/b").getCount(), 1L);
+
+        assertTrue(parse(parser).getValues().isEmpty());
+    }
+
+    @Test
+    public void shouldUseOverriddenLineParser() throws Exception {
+        write("/a;1000;10\n");
+
+        ResponseTimeLogParser parser = new ResponseTimeLogParser(logFile) {
+            @Override
+            protected LogEntry parseLine(String line) throws Exception {
+                String[] fields = line.split(";");
+                return new LogEntry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), null, null);
+            }
+        };
+
+        assertEquals(parse(parser).getValues().get("/a").getTotal(), 10.0);
+    }
+
+    private CallTimeData parse(ResponseTimeLogParser parser) throws Exception {
+        CallTimeData data = new CallTimeData(new MeasurementScheduleRequest(1, "ResponseTime", 60000L, true,
+            DataType.CALLTIME));
+        parser.parseLog(data);
+        return data;
+    }
+
+    private void write(String content) throws Exception {
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -78,6 +78,8 @@ public class PluginContainerConfiguration {
     public static final int RESOURCE_FACTORY_MAX_POOL_SIZE_DEFAULT = 100;
     private static final String RESOURCE_FACTORY_KEEP_ALIVE_PROP = PROP_PREFIX + "resource-factory-keep-alive";
     public static final int RESOURCE_FACTORY_KEEP_ALIVE_DEFAULT = 1000;
+    private static final String INVENTORY_FILE_COMPRESSED_PROP = PROP_PREFIX + "inventory-file-compressed";
+    public static final boolean INVENTORY_FILE_COMPRESSED_DEFAULT = false;
 
     // Availability ----------
 
@@ -88,6 +90,8 @@ public class PluginContainerConfiguration {
     public static final long AVAILABILITY_SCAN_PERIOD_DEFAULT = 30L;
     public static final String AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP = "availability-scan-threadpool-size";
     public static final int AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT = 100;
+    private static final String AVAILABILITY_SCAN_PARALLELISM_PROP = PROP_PREFIX + "availability-scan-parallelism";
+    public static final int AVAILABILITY_SCAN_PARALLELISM_DEFAULT = 1;
 
     // Measurement ----------
 
@@ -97,6 +101,10 @@ public class PluginContainerConfiguration {
     private static final String MEASUREMENT_COLLECTION_THREADCOUNT_PROP = PROP_PREFIX
         + "measurement-collection-threadpoolsize";
     public static final int MEASUREMENT_COLLECTION_THREADCOUNT_DEFAULT = 5;
+    private static final String MEASUREMENT_COLLECTION_PARALLEL_PROP = PROP_PREFIX + "measurement-collection-parallel";
+    public static final boolean MEASUREMENT_COLLECTION_PARALLEL_DEFAULT = false;
+    private static final String MEASUREMENT_COLLECTION_TIMEOUT_PROP = PROP_PREFIX + "measurement-collection-timeout";
+    public static final long MEASUREMENT_COLLECTION_TIMEOUT_DEFAULT = 30L; // in seconds
 
     // Drift ----------
 
@@ -104,6 +112,11 @@ public class PluginContainerConfiguration {
     public static final long DRIFT_DETECTION_INITIAL_DELAY_DEFAULT = 30L; // in seconds
     private static final String DRIFT_DETECTION_PERIOD_PROP = PROP_PREFIX + "drift-detection-period";
     public static final long DRIFT_DETECTION_PERIOD_DEFAULT = 60L; // in seconds
+    private static final String DRIFT_DETECTION_DIGEST_THREADS_PROP = PROP_PREFIX + "drift-detection-digest-threads";
+    public static final int DRIFT_DETECTION_DIGEST_THREADS_DEFAULT = 2;
+    private static final String DRIFT_DETECTION_DIGEST_CACHE_SIZE_PROP = PROP_PREFIX
+        + "drift-detection-digest-cache-size";
+    public static final int DRIFT_DETECTION_DIGEST_CACHE_SIZE_DEFAULT = 100000;
 
     // Content ----------
 
@@ -496,6 +509,27 @@ public class PluginContainerConfiguration {
         configuration.put(AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP, Integer.valueOf(size));
     }
 
+    /**
+     * Returns the number of threads that check the availability of different parts of the resource tree concurrently
+     * during an availability scan. If this is 1, the whole tree is scanned by a single thread.
+     *
+     * @return the availability scan parallelism
+     */
+    public int getAvailabilityScanParallelism() {
+        Integer parallelism = (Integer) configuration.get(AVAILABILITY_SCAN_PARALLELISM_PROP);
+        return (parallelism == null) ? AVAILABILITY_SCAN_PARALLELISM_DEFAULT : parallelism.intValue();
+    }
+
+    /**
+     * Sets the number of threads that check the availability of different parts of the resource tree concurrently
+     * during an availability scan.
+     *
+     * @param parallelism the availability scan parallelism, 1 to scan the tree on a single thread
+     */
+    public void setAvailabilityScanParallelism(int parallelism) {
+        configuration.put(AVAILABILITY_SCAN_PARALLELISM_PROP, Integer.valueOf(parallelism));
+    }
+
     /**
      * Returns the length of time, in seconds, before measurements begin getting collected.
      *
@@ -623,6 +657,25 @@ public class PluginContainerConfiguration {
         configuration.put(CHILD_RESOURCE_DISCOVERY_DELAY_PROP, Long.valueOf(delay));
     }
 
+    /**
+     * If <code>true</code>, the inventory is compressed when it is persisted to the data directory on shutdown.
+     *
+     * @return whether the persisted inventory file is compressed
+     */
+    public boolean isInventoryFileCompressed() {
+        Boolean compressed = (Boolean) configuration.get(INVENTORY_FILE_COMPRESSED_PROP);
+        return (compressed == null) ? INVENTORY_FILE_COMPRESSED_DEFAULT : compressed.booleanValue();
+    }
+
+    /**
+     * Defines whether the inventory is compressed when it is persisted to the data directory on shutdown.
+     *
+     * @param compressed
+     */
+    public void setInventoryFileCompressed(boolean compressed) {
+        configuration.put(INVENTORY_FILE_COMPRESSED_PROP, Boolean.valueOf(compressed));
+    }
+
     /**
      * Returns the instance of <code>PluginFinder</code> for the container to use to locate all plugins to be loaded.
      *
@@ -663,6 +716,49 @@ public class PluginContainerConfiguration {
         configuration.put(MEASUREMENT_COLLECTION_THREADCOUNT_PROP, Integer.valueOf(size));
     }
 
+    /**
+     * If <code>true</code>, batches of measurements that are due for collection are dispatched to the measurement
+     * collection thread pool so that resources are collected concurrently. Collections for the same resource are
+     * still performed one at a time. If <code>false</code>, all collections are performed serially by a single thread.
+     *
+     * @return whether measurements of different resources are collected concurrently
+     */
+    public boolean isMeasurementCollectionParallel() {
+        Boolean parallel = (Boolean) configuration.get(MEASUREMENT_COLLECTION_PARALLEL_PROP);
+        return (parallel == null) ? MEASUREMENT_COLLECTION_PARALLEL_DEFAULT : parallel.booleanValue();
+    }
+
+    /**
+     * Defines whether measurements of different resources are collected concurrently.
+     *
+     * @param parallel
+     */
+    public void setMeasurementCollectionParallel(boolean parallel) {
+        configuration.put(MEASUREMENT_COLLECTION_PARALLEL_PROP, Boolean.valueOf(parallel));
+    }
+
+    /**
+     * Returns the length of time, in seconds, a resource component is given to return its measurement values before
+     * the collection is abandoned. The same timeout applies to all resource components. It limits each call into a
+     * single component, not the collection of all resources that are due at the same time, so one slow component
+     * delays the others by at most this long in serial mode and not at all in parallel mode while workers are free.
+     *
+     * @return the collection timeout in seconds
+     */
+    public long getMeasurementCollectionTimeout() {
+        Long timeout = (Long) configuration.get(MEASUREMENT_COLLECTION_TIMEOUT_PROP);
+        return (timeout == null) ? MEASUREMENT_COLLECTION_TIMEOUT_DEFAULT : timeout.longValue();
+    }
+
+    /**
+     * Sets the length of time, in seconds, a resource component is given to return its measurement values.
+     *
+     * @param timeout
+     */
+    public void setMeasurementCollectionTimeout(long timeout) {
+        configuration.put(MEASUREMENT_COLLECTION_TIMEOUT_PROP, Long.valueOf(timeout));
+    }
+
     /**
      * Returns the length of time, in seconds, before drift detection first begins.
      *
@@ -704,6 +800,47 @@ public class PluginContainerConfiguration {
         configuration.put(DRIFT_DETECTION_PERIOD_PROP, period);
     }
 
+    /**
+     * Returns the number of threads that compute the digests of files concurrently during drift detection. If this is
+     * 1, files are digested by the thread running the detection.
+     *
+     * @return the number of drift detection digest threads
+     */
+    public int getDriftDetectionDigestThreads() {
+        Integer threads = (Integer) configuration.get(DRIFT_DETECTION_DIGEST_THREADS_PROP);
+        return (threads == null) ? DRIFT_DETECTION_DIGEST_THREADS_DEFAULT : threads.intValue();
+    }
+
+    /**
+     * Sets the number of threads that compute the digests of files concurrently during drift detection.
+     *
+     * @param threads the number of drift detection digest threads, 1 to digest files on the detection thread
+     */
+    public void setDriftDetectionDigestThreads(int threads) {
+        configuration.put(DRIFT_DETECTION_DIGEST_THREADS_PROP, Integer.valueOf(threads));
+    }
+
+    /**
+     * Returns the maximum number of file digests that drift detection remembers, so that files whose size and last
+     * modified time did not change need not be read again, even after a restart. If this is 0, no digests are
+     * remembered.
+     *
+     * @return the maximum number of cached file digests
+     */
+    public int getDriftDetectionDigestCacheSize() {
+        Integer size = (Integer) configuration.get(DRIFT_DETECTION_DIGEST_CACHE_SIZE_PROP);
+        return (size == null) ? DRIFT_DETECTION_DIGEST_CACHE_SIZE_DEFAULT : size.intValue();
+    }
+
+    /**
+     * Sets the maximum number of file digests that drift detection remembers.
+     *
+     * @param size the maximum number of cached file digests, 0 to not cache any
+     */
+    public void setDriftDetectionDigestCacheSize(int size) {
+        configuration.put(DRIFT_DETECTION_DIGEST_CACHE_SIZE_PROP, Integer.valueOf(size));
+    }
+
     /**
      * Returns the length of time, in seconds, before auto-discovery of content first begins.
      *
@@ -0,0 +1,217 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.drift;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Remembers the SHA-256 digests of files along with the size and last modified time the files had when they were
+ * digested, so that drift detection does not need to read a file again as long as its size and last modified time do
+ * not change. The least recently used digests are dropped once the cache is full.
+ *
+ * The cache can be stored in a file so that it survives agent restarts. Digests of files that were modified too
+ * recently are not cached, since a file could still be changed without changing its last modified time.
+ */
+public class DigestCache {
+    private static final Log log = LogFactory.getLog(DigestCache.class);
+
+    private static final int MAGIC = 0x52484443; // "RHDC"
+    private static final int VERSION = 1;
+
+    /**
+     * Files modified less than this many milliseconds ago are not cached. This covers file systems that only keep the
+     * last modified time in seconds or even in two second steps.
+     */
+    static final long MODIFICATION_GRACE_PERIOD = 3000L;
+
+    private final File file;
+
+    private final Map<String, CachedDigest> entries;
+
+    private boolean dirty;
+
+    /**
+     * @param file the file the cache is loaded from and stored to, or <code>null</code> to keep it in memory only
+     * @param maxSize the maximum number of digests cached
+     */
+    public DigestCache(File file, final int maxSize) {
+        this.file = file;
+        this.entries = new LinkedHashMap<String, CachedDigest>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedDigest> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached digest of the file if it was digested with the given size and last modified time, otherwise
+     *         <code>null</code>
+     */
+    public synchronized String get(File file, long length, long lastModified) {
+        CachedDigest entry = entries.get(file.getAbsolutePath());
+        if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+            return null;
+        }
+        return toHex(entry.digest);
+    }
+
+    public synchronized void put(File file, long length, long lastModified, String digest) {
+        if (lastModified <= 0L || lastModified > System.currentTimeMillis() - MODIFICATION_GRACE_PERIOD) {
+            return;
+        }
+        entries.put(file.getAbsolutePath(), new CachedDigest(length, lastModified, fromHex(digest)));
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Loads the cache from its file, if there is one. A file that cannot be read is ignored; the cache then starts out
+     * empty.
+     */
+    public synchronized void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 32 * 1024));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.info("Ignoring drift digest cache [" + file + "] since it has an unknown format");
+                return;
+            }
+            for (int i = in.readInt(); i > 0; --i) {
+                String path = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                entries.put(path, new CachedDigest(length, lastModified, digest));
+            }
+            dirty = false;
+        } catch (IOException e) {
+            log.warn("Failed to load drift digest cache [" + file + "], all files will be digested again: " + e);
+            entries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the cache to its file if it changed since it was last loaded or stored. The cache is first written to a
+     * temporary file which then replaces the old one, so a failed store never leaves a partial file behind.
+     */
+    public synchronized void store() {
+        if (file == null || !dirty) {
+            return;
+        }
+
+        File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 32 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, CachedDigest> mapEntry : entries.entrySet()) {
+                CachedDigest entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                out.writeByte(entry.digest.length);
+                out.write(entry.digest);
+            }
+            out.close();
+            out = null;
+
+            if (!tmpFile.renameTo(file)) {
+                // some platforms do not rename over an existing file
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("Could not rename [" + tmpFile + "] to [" + file + "]");
+                }
+            }
+            dirty = false;
+        } catch (IOException e) {
+            log.warn("Failed to store drift digest cache [" + file + "]: " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignore) {
+                }
+            }
+            tmpFile.delete();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1),
+                16));
+        }
+        return bytes;
+    }
+
+    private static class CachedDigest {
+        final long length;
+        final long lastModified;
+        final byte[] digest;
+
+        CachedDigest(long length, long lastModified, byte[] digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
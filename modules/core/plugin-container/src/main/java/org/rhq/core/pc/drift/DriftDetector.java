@@ -36,6 +36,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -48,7 +49,6 @@ import org.rhq.common.drift.Headers;
 import org.rhq.core.domain.drift.DriftChangeSetCategory;
 import org.rhq.core.domain.drift.DriftDefinition;
 import org.rhq.core.domain.drift.Filter;
-import org.rhq.core.util.MessageDigestGenerator;
 import org.rhq.core.util.file.FileVisitor;
 
 /**
@@ -67,16 +67,24 @@ public class DriftDetector implements Runnable {
 
     private final ChangeSetManager changeSetMgr;
 
-    private final MessageDigestGenerator digestGenerator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+    private final FileDigester digester;
 
     private final DriftClient driftClient;
 
     public DriftDetector(ScheduleQueue scheduleQueue,
             ChangeSetManager changeSetMgr,
             DriftClient driftClient) {
+        this(scheduleQueue, changeSetMgr, driftClient, new FileDigester(null, 1));
+    }
+
+    public DriftDetector(ScheduleQueue scheduleQueue,
+            ChangeSetManager changeSetMgr,
+            DriftClient driftClient,
+            FileDigester digester) {
         this.scheduleQueue = scheduleQueue;
         this.changeSetMgr = changeSetMgr;
         this.driftClient = driftClient;
+        this.digester = digester;
     }
 
     @Override
@@ -158,6 +166,13 @@ public class DriftDetector implements Runnable {
             log.error("An unexpected error occurred during drift detection: " + message, t);
 
         } finally {
+            try {
+                // keep the digests of this run for later runs, even across agent restarts
+                digester.storeCache();
+            } catch (Throwable t) {
+                log.warn("Failed to store the drift digest cache: " + t);
+            }
+
             try {
                 scheduleQueue.deactivateSchedule(updateSchedule);
                 long endTime = System.currentTimeMillis();
@@ -278,25 +293,26 @@ public class DriftDetector implements Runnable {
             }
 
             // add new files to the snapshotEntries and deltaEntries
-            for (File file : newFiles) {
-                try {
+            digester.digest(newFiles, new FileDigester.Callback() {
+                @Override
+                public void digested(File file, String sha256) {
                     if (log.isInfoEnabled()) {
                         log.info("Detected added file for " + schedule + " --> " + file.getAbsolutePath());
                     }
 
-                    FileEntry addedFileEntry = getAddedFileEntry(basedir, file);
-                    if (null != addedFileEntry) {
-                        addedEntries.add(addedFileEntry);
-                    }
+                    addedEntries.add(getAddedFileEntry(basedir, file, sha256));
+                }
 
-                } catch (Throwable t) {
-                    // report the error but keep going, perhaps it is specific to a single file, try to
-                    // finish the change set generation.
-                    log.error(
-                        "An unexpected error occurred while generating a drift change set for file " + file.getPath()
-                            + " in schedule " + schedule + ". Skipping file.", t);
+                @Override
+                public void failed(File file, Throwable t) {
+                    if (!isUnreadable(file, t)) {
+                        // report the error but keep going, perhaps it is specific to a single file, try to
+                        // finish the change set generation.
+                        log.error("An unexpected error occurred while generating a drift change set for file "
+                            + file.getPath() + " in schedule " + schedule + ". Skipping file.", t);
+                    }
                 }
-            }
+            });
 
             // The new snapshot contains all changed, unchanged and added files. Not removed files.
             final List<FileEntry> snapshotEntries = new LinkedList<FileEntry>(unchangedEntries);
@@ -357,37 +373,34 @@ public class DriftDetector implements Runnable {
         }
     }
 
+    private FileEntry getAddedFileEntry(File basedir, File file, String sha256) {
+        String relativePath = relativePath(basedir, file);
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        return addedFileEntry(relativePath, sha256, lastModified, length);
+    }
+
     /**
      * File.canRead() is basically a security check and does not guarantee that the file contents can truly be read.
      * Certain files, like socket files on linux, can not be processed and it's not known until actually trying to
      * construct a FileInputStream, as is done when we actually try to generate the digest. These files will generate
-     * a FileNotFoundException. This method will catch, log and suppress that issue, and return null
-     * indicating the file is not suitable for drift detection.
+     * a FileNotFoundException. This method will log that issue, so that the caller can skip the file as not suitable
+     * for drift detection.
      *
-     * @param basedir the drift def base directory
-     * @param file the new file to add
-     * @return the new FileEntry, or null if this file is not appropriate for drift detection (typically if the
-     * underlying file does not support the needed File operations.
-     * @throws IOException if something unexpected occurs, outside of the FileNotFoundException it looks for.
+     * @param file the file that could not be digested
+     * @param t the reason
+     * @return true if the file is not appropriate for drift detection (typically if the underlying file does not
+     * support the needed File operations), false if something unexpected occurred
      */
-    private FileEntry getAddedFileEntry(File basedir, File file) throws IOException {
-        FileEntry result = null;
-
-        try {
-            String sha256 = sha256(file);
-            String relativePath = relativePath(basedir, file);
-            long lastModified = file.lastModified();
-            long length = file.length();
-
-            result = addedFileEntry(relativePath, sha256, lastModified, length);
-
-        } catch (FileNotFoundException e) {
-            if (log.isDebugEnabled()) {
-                log.debug("Skipping " + file.getPath() + " since it is missing or is not a physically readable file.");
-            }
+    private boolean isUnreadable(File file, Throwable t) {
+        if (!(t instanceof FileNotFoundException)) {
+            return false;
         }
-
-        return result;
+        if (log.isDebugEnabled()) {
+            log.debug("Skipping " + file.getPath() + " since it is missing or is not a physically readable file.");
+        }
+        return true;
     }
 
     static private void safeClear(Collection<?>... collections) {
@@ -434,6 +447,10 @@ public class DriftDetector implements Runnable {
 
         boolean result = false;
 
+        // the entries of files that still exist, and the files among them that need to be digested
+        List<FileEntry> existingEntries = new LinkedList<FileEntry>();
+        List<File> filesToDigest = new LinkedList<File>();
+
         for (FileEntry entry : snapshotReader) {
             File file = new File(basedir, entry.getFile());
             newFiles.remove(file);
@@ -451,42 +468,66 @@ public class DriftDetector implements Runnable {
                 }
 
                 continue;
+            }
 
-            } else {
-                String currentSHA = null;
-                boolean isChanged = false;
-
-                // perform a SHA comparison if we are unable to compare size and lastModified or if the
-                // size or lastModified test fails.  We may not have size or lastModified values for the
-                // entry when the current snapshot was provided by the server, either due to a synch or
-                // pinning scenario.  The server does not store that information and will provide -1 for defaults.
-                if (entry.getLastModified() == -1 || entry.getSize() == -1
-                    || entry.getLastModified() != file.lastModified() || entry.getSize() != file.length()) {
-
-                    currentSHA = sha256(file);
-                    isChanged = !entry.getNewSHA().equals(currentSHA);
+            existingEntries.add(entry);
+
+            // perform a SHA comparison if we are unable to compare size and lastModified or if the
+            // size or lastModified test fails.  We may not have size or lastModified values for the
+            // entry when the current snapshot was provided by the server, either due to a synch or
+            // pinning scenario.  The server does not store that information and will provide -1 for defaults.
+            if (entry.getLastModified() == -1 || entry.getSize() == -1
+                || entry.getLastModified() != file.lastModified() || entry.getSize() != file.length()) {
+                filesToDigest.add(file);
+            }
+        }
+
+        // digest the files whose size or lastModified changed, possibly concurrently
+        final Map<File, String> currentSHAs = new HashMap<File, String>();
+        final IOException[] digestFailure = new IOException[1];
+        digester.digest(filesToDigest, new FileDigester.Callback() {
+            @Override
+            public void digested(File file, String sha256) {
+                currentSHAs.put(file, sha256);
+            }
+
+            @Override
+            public void failed(File file, Throwable t) {
+                if (digestFailure[0] == null) {
+                    digestFailure[0] = (t instanceof IOException) ? (IOException) t : new IOException(
+                        "Failed to digest " + file.getPath(), t);
                 }
+            }
+        });
+        filesToDigest.clear();
+        if (digestFailure[0] != null) {
+            throw digestFailure[0];
+        }
 
-                if (isChanged) {
-                    FileEntry changedEntry = changedFileEntry(entry.getFile(), entry.getNewSHA(), currentSHA,
-                        file.lastModified(), file.length());
-                    changedEntries.add(changedEntry);
+        for (FileEntry entry : existingEntries) {
+            File file = new File(basedir, entry.getFile());
+            String currentSHA = currentSHAs.get(file);
+            boolean isChanged = (currentSHA != null) && !entry.getNewSHA().equals(currentSHA);
 
-                    if (null != changedPinnedEntries) {
-                        changedPinnedEntries.add(entry);
-                    }
+            if (isChanged) {
+                FileEntry changedEntry = changedFileEntry(entry.getFile(), entry.getNewSHA(), currentSHA,
+                    file.lastModified(), file.length());
+                changedEntries.add(changedEntry);
 
-                } else {
-                    if (-1 == entry.getLastModified()) {
-                        entry.setLastModified(file.lastModified());
-                        result = true;
-                    }
-                    if (-1 == entry.getSize()) {
-                        entry.setSize(file.length());
-                        result = true;
-                    }
-                    unchangedEntries.add(entry);
+                if (null != changedPinnedEntries) {
+                    changedPinnedEntries.add(entry);
+                }
+
+            } else {
+                if (-1 == entry.getLastModified()) {
+                    entry.setLastModified(file.lastModified());
+                    result = true;
                 }
+                if (-1 == entry.getSize()) {
+                    entry.setSize(file.length());
+                    result = true;
+                }
+                unchangedEntries.add(entry);
             }
         }
 
@@ -685,36 +726,44 @@ public class DriftDetector implements Runnable {
         List<Filter> includes = driftDef.getIncludes();
         List<Filter> excludes = driftDef.getExcludes();
 
+        // collect the files first so that they can be digested concurrently, in the order they were visited
+        final List<File> files = new LinkedList<File>();
         for (File dir : getScanDirectories(basedir, includes)) {
             forEachFile(dir, new FilterFileVisitor(basedir, includes, excludes, new FileVisitor() {
                 @Override
                 public void visit(File file) {
-                    try {
-                        if (!file.canRead()) {
-                            if (log.isDebugEnabled()) {
-                                log.debug("Skipping " + file.getPath() + " since we do not have read access.");
-                            }
-                            return;
-                        }
-
+                    if (!file.canRead()) {
                         if (log.isDebugEnabled()) {
-                            log.debug("Adding " + file.getPath() + " to coverage change set for " + schedule);
+                            log.debug("Skipping " + file.getPath() + " since we do not have read access.");
                         }
-
-                        FileEntry addedFileEntry = getAddedFileEntry(basedir, file);
-                        if (null != addedFileEntry) {
-                            writer.write(addedFileEntry);
-                        }
-
-                    } catch (Throwable t) {
-                        // report the error but keep going, perhaps it is specific to a single file, try to
-                        // finish the detection.
-                        log.error("An unexpected error occurred while generating a coverage change set for file "
-                            + file.getPath() + " in schedule " + schedule + ". Skipping file.", t);
+                        return;
                     }
+                    files.add(file);
                 }
             }));
         }
+
+        digester.digest(files, new FileDigester.Callback() {
+            @Override
+            public void digested(File file, String sha256) throws IOException {
+                if (log.isDebugEnabled()) {
+                    log.debug("Adding " + file.getPath() + " to coverage change set for " + schedule);
+                }
+
+                writer.write(getAddedFileEntry(basedir, file, sha256));
+            }
+
+            @Override
+            public void failed(File file, Throwable t) {
+                if (!isUnreadable(file, t)) {
+                    // report the error but keep going, perhaps it is specific to a single file, try to
+                    // finish the detection.
+                    log.error("An unexpected error occurred while generating a coverage change set for file "
+                        + file.getPath() + " in schedule " + schedule + ". Skipping file.", t);
+                }
+            }
+        });
+        files.clear();
     }
 
     private String relativePath(File basedir, File file) {
@@ -730,10 +779,6 @@ public class DriftDetector implements Runnable {
         return filePath.substring(basedirLen);
     }
 
-    private String sha256(File file) throws IOException {
-        return digestGenerator.calcDigestString(file);
-    }
-
     private String basedir(int resourceId, DriftDefinition driftDef) {
         return driftClient.getAbsoluteBaseDirectory(resourceId, driftDef).getAbsolutePath();
     }
@@ -73,6 +73,8 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
 
     private final ScheduledThreadPoolExecutor driftThreadPool;
 
+    private final FileDigester digester;
+
     private final ScheduleQueue schedulesQueue = new ScheduleQueueImpl();
 
     /**
@@ -97,13 +99,23 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
                 log.warn("Could not create change sets directory " + changeSetsDir);
                 initialized = false;
                 driftThreadPool = null;
+                digester = null;
                 changeSetMgr = null;
                 return;
             }
         }
         changeSetMgr = new ChangeSetManagerImpl(changeSetsDir);
 
-        DriftDetector driftDetector = new DriftDetector(schedulesQueue, changeSetMgr, this);
+        DigestCache digestCache = null;
+        int digestCacheSize = pluginContainerConfiguration.getDriftDetectionDigestCacheSize();
+        if (digestCacheSize > 0) {
+            digestCache = new DigestCache(new File(pluginContainerConfiguration.getDataDirectory(),
+                "drift-digests.dat"), digestCacheSize);
+            digestCache.load();
+        }
+        digester = new FileDigester(digestCache, pluginContainerConfiguration.getDriftDetectionDigestThreads());
+
+        DriftDetector driftDetector = new DriftDetector(schedulesQueue, changeSetMgr, this, digester);
 
         long startTime = System.currentTimeMillis();
         initSchedules(inventoryManager.getPlatform(), inventoryManager);
@@ -289,6 +301,9 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
             // TODO (ips, 04/30/12): Is it safe to pass true here to interrupt executing threads?
             PluginContainer.shutdownExecutorService(driftThreadPool, false);
         }
+        if (digester != null) {
+            digester.shutdown();
+        }
 
         schedulesQueue.clear();
         changeSetMgr = null;
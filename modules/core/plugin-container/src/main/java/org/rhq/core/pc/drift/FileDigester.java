@@ -0,0 +1,245 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.drift;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.pc.util.LoggingThreadFactory;
+import org.rhq.core.util.MessageDigestGenerator;
+
+/**
+ * Computes the SHA-256 digests of files for drift detection. Digests of files whose size and last modified time did
+ * not change are taken from a {@link DigestCache}. Other files are read through a direct buffer, by a bounded pool of
+ * threads if more than one thread is configured.
+ */
+public class FileDigester {
+
+    /**
+     * The maximum number of files being digested or waiting for their digests to be consumed, per thread.
+     */
+    private static final int PENDING_FILES_PER_THREAD = 16;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DigestCache cache;
+
+    private final int threads;
+
+    private final ExecutorService threadPool;
+
+    private final ThreadLocal<MessageDigest> messageDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(MessageDigestGenerator.SHA_256);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final ThreadLocal<ByteBuffer> buffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Callback for {@link FileDigester#digest(Iterable, Callback)}.
+     */
+    public interface Callback {
+        /**
+         * Called with the digest of a file.
+         */
+        void digested(File file, String sha256) throws Exception;
+
+        /**
+         * Called if a file could not be digested.
+         */
+        void failed(File file, Throwable t);
+    }
+
+    /**
+     * @param cache the cache of digests of unchanged files, may be <code>null</code>
+     * @param threads the number of threads that digest files concurrently; with 1 or less, files are digested by the
+     *        calling thread
+     */
+    public FileDigester(DigestCache cache, int threads) {
+        this.cache = cache;
+        this.threads = Math.max(1, threads);
+        if (this.threads > 1) {
+            threadPool = new ThreadPoolExecutor(this.threads, this.threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new LoggingThreadFactory("DriftDigest", true));
+        } else {
+            threadPool = null;
+        }
+    }
+
+    /**
+     * Computes the digest of a file on the calling thread.
+     *
+     * @throws java.io.FileNotFoundException if the file cannot be opened for reading, as is the case for sockets,
+     *         for example
+     */
+    public String digest(File file) throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String sha256 = (cache == null) ? null : cache.get(file, length, lastModified);
+        if (sha256 == null) {
+            sha256 = calculate(file);
+            // only trust the digest if the file did not change while it was read
+            if (cache != null && file.length() == length && file.lastModified() == lastModified) {
+                cache.put(file, length, lastModified, sha256);
+            }
+        }
+        return sha256;
+    }
+
+    /**
+     * Computes the digests of the files, concurrently if configured so. The callback is invoked on the calling thread
+     * for each file, in the order of the files, as soon as its digest is available. Only a bounded number of files is
+     * digested ahead of the callback.
+     */
+    public void digest(Iterable<File> files, Callback callback) {
+        LinkedList<Pending> pending = new LinkedList<Pending>();
+        int maxPending = threads * PENDING_FILES_PER_THREAD;
+
+        for (File file : files) {
+            pending.add(submit(file));
+            if (pending.size() >= maxPending) {
+                complete(pending.removeFirst(), callback);
+            }
+        }
+        while (!pending.isEmpty()) {
+            complete(pending.removeFirst(), callback);
+        }
+    }
+
+    /**
+     * Stores the digest cache, if there is one.
+     */
+    public void storeCache() {
+        if (cache != null) {
+            cache.store();
+        }
+    }
+
+    public void shutdown() {
+        if (threadPool != null) {
+            PluginContainer.shutdownExecutorService(threadPool, true);
+        }
+    }
+
+    private Pending submit(final File file) {
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return digest(file);
+            }
+        });
+        try {
+            if (threadPool != null) {
+                threadPool.execute(task);
+            } else {
+                task.run();
+            }
+        } catch (RejectedExecutionException e) {
+            // we are being shut down, finish what the caller asked for on its own thread
+            task.run();
+        }
+        return new Pending(file, task);
+    }
+
+    private void complete(Pending pending, Callback callback) {
+        String sha256;
+        try {
+            sha256 = pending.future.get();
+        } catch (ExecutionException e) {
+            callback.failed(pending.file, e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.cancel(true);
+            callback.failed(pending.file, e);
+            return;
+        }
+
+        try {
+            callback.digested(pending.file, sha256);
+        } catch (Throwable t) {
+            callback.failed(pending.file, t);
+        }
+    }
+
+    private String calculate(File file) throws IOException {
+        MessageDigest md = messageDigest.get();
+        ByteBuffer buf = buffer.get();
+        md.reset();
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            buf.clear();
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        } finally {
+            in.close();
+        }
+
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class Pending {
+        final File file;
+        final Future<String> future;
+
+        Pending(File file, Future<String> future) {
+            this.file = file;
+            this.future = future;
+        }
+    }
+}
@@ -26,12 +26,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +59,11 @@ import org.rhq.core.util.stream.StreamUtil;
 /**
  * Runs a periodic scan for resource availability.
  *
+ * <p>If the inventory manager provides an availability scan executor, the children of a resource are checked by its
+ * threads, so independent parts of the resource tree are checked concurrently. A resource is still only checked after
+ * its parent, so the parent's availability is known and a DOWN parent still makes its descendants DOWN without
+ * asking them. The scan waits for all of its checks to finish before it ends.</p>
+ *
  * @author Jay Shaughnessy
  * @author John Mazzitelli
  * @author Ian Springer
@@ -171,7 +182,19 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
 
         boolean traceEnabled = LOG.isTraceEnabled();
         try {
-            checkInventory(scanRoot, availabilityReport, parentAvailabilityType, false, scan, traceEnabled);
+            ExecutorService executor = inventoryManager.getAvailabilityScanExecutor();
+            if (executor == null) {
+                checkInventory(scanRoot, availabilityReport, parentAvailabilityType, false, scan, traceEnabled);
+            } else {
+                ParallelScan parallelScan = new ParallelScan(executor, availabilityReport, traceEnabled);
+                scan.parallelScan = parallelScan;
+                checkInventory(scanRoot, availabilityReport, parentAvailabilityType, false, scan, traceEnabled);
+                try {
+                    parallelScan.await(scan);
+                } finally {
+                    scan.parallelScan = null;
+                }
+            }
         } catch (InterruptedException e) {
             LOG.debug("Availability check was interrupted", e);
             return;
@@ -191,6 +214,11 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Scan Ended   : " + new Date(scan.getEndTime()) + " : " + scan.toString());
+
+            List<SubtreeTiming> subtreeTimings = scan.getSubtreeTimings();
+            for (SubtreeTiming subtreeTiming : subtreeTimings.subList(0, Math.min(5, subtreeTimings.size()))) {
+                LOG.debug("Scan Subtree : " + subtreeTiming);
+            }
         }
 
         addScanHistory(scan);
@@ -232,6 +260,8 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             return;
         }
 
+        long checkStart = System.nanoTime();
+
         // The avail proxy guarantees fast response time for an avail check
         AvailabilityFacet resourceAvailabilityProxy = resourceContainer.getAvailabilityProxy();
 
@@ -393,11 +423,30 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             }
 
             // update the report
-            availabilityReport.addAvailability(availability);
+            synchronized (availabilityReport) {
+                availabilityReport.addAvailability(availability);
+            }
+        }
+
+        if (scan.subtree != null) {
+            scan.subtree.add(System.nanoTime() - checkStart);
         }
 
         for (Resource child : this.inventoryManager.getContainerChildren(resource, resourceContainer)) {
-            checkInventory(child, availabilityReport, current, isForced, scan, traceEnabled);
+            // the children of the scan root each start a subtree that the time spent checking is accounted to
+            SubtreeTiming subtree = (scan.subtree != null) ? scan.subtree : scan.addSubtree(child);
+
+            if (scan.parallelScan != null) {
+                scan.parallelScan.submit(child, current, isForced, scan, subtree);
+            } else {
+                SubtreeTiming parentSubtree = scan.subtree;
+                scan.subtree = subtree;
+                try {
+                    checkInventory(child, availabilityReport, current, isForced, scan, traceEnabled);
+                } finally {
+                    scan.subtree = parentSubtree;
+                }
+            }
         }
 
     }
@@ -493,11 +542,48 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         int numAvailabilityChanges = 0;
         int numDeferToParent = 0;
 
+        private final List<SubtreeTiming> subtreeTimings = new ArrayList<SubtreeTiming>();
+
+        // the subtree the resources currently being checked belong to, null while checking the scan root
+        SubtreeTiming subtree;
+
+        // not null if the children of a resource are checked concurrently
+        ParallelScan parallelScan;
+
         public Scan(long startTime, boolean isFull) {
             this.startTime = startTime;
             this.isFull = isFull;
         }
 
+        /**
+         * Creates the scan that the checks of a subtree running on another thread count with. Its counts are added to
+         * this scan when the checks are done.
+         */
+        Scan fork(SubtreeTiming subtree) {
+            Scan fork = new Scan(startTime, isFull);
+            fork.isForced = isForced;
+            fork.subtree = subtree;
+            fork.parallelScan = parallelScan;
+            return fork;
+        }
+
+        void add(Scan fork) {
+            numResources += fork.numResources;
+            numGetAvailabilityCalls += fork.numGetAvailabilityCalls;
+            numScheduledRandomly += fork.numScheduledRandomly;
+            numPushedByInterval += fork.numPushedByInterval;
+            numAvailabilityChanges += fork.numAvailabilityChanges;
+            numDeferToParent += fork.numDeferToParent;
+        }
+
+        SubtreeTiming addSubtree(Resource subtreeRoot) {
+            SubtreeTiming subtreeTiming = new SubtreeTiming(subtreeRoot);
+            synchronized (subtreeTimings) {
+                subtreeTimings.add(subtreeTiming);
+            }
+            return subtreeTiming;
+        }
+
         public long getStartTime() {
             return startTime;
         }
@@ -551,6 +637,24 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             return numDeferToParent;
         }
 
+        /**
+         * @return the time spent checking each subtree below the scan root, the most time consuming first
+         */
+        public List<SubtreeTiming> getSubtreeTimings() {
+            List<SubtreeTiming> result;
+            synchronized (subtreeTimings) {
+                result = new ArrayList<SubtreeTiming>(subtreeTimings);
+            }
+            Collections.sort(result, new Comparator<SubtreeTiming>() {
+                public int compare(SubtreeTiming t1, SubtreeTiming t2) {
+                    long time1 = t1.checkTime.get();
+                    long time2 = t2.checkTime.get();
+                    return (time1 > time2) ? -1 : ((time1 == time2) ? 0 : 1);
+                }
+            });
+            return result;
+        }
+
         @Override
         public String toString() {
             return "Scan [startTime=" + startTime + ", endTime=" + endTime + ", runtime=" + runtime + ", isFull="
@@ -560,4 +664,170 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                 + numDeferToParent + "]";
         }
     }
+
+    /**
+     * The time an availability scan spent checking the resources of one subtree, rooted at a child of the scan root.
+     * The time is the sum over all resources of the subtree, so it does not depend on how many threads checked them.
+     */
+    public static class SubtreeTiming {
+        private final int resourceId;
+        private final String resourceName;
+        private final String resourceTypeName;
+        private final String plugin;
+
+        private final AtomicInteger numResources = new AtomicInteger();
+        private final AtomicLong checkTime = new AtomicLong(); // in nanoseconds
+
+        SubtreeTiming(Resource subtreeRoot) {
+            this.resourceId = subtreeRoot.getId();
+            this.resourceName = subtreeRoot.getName();
+            this.resourceTypeName = (subtreeRoot.getResourceType() != null) ? subtreeRoot.getResourceType().getName()
+                : null;
+            this.plugin = (subtreeRoot.getResourceType() != null) ? subtreeRoot.getResourceType().getPlugin() : null;
+        }
+
+        void add(long nanos) {
+            numResources.incrementAndGet();
+            checkTime.addAndGet(nanos);
+        }
+
+        public int getResourceId() {
+            return resourceId;
+        }
+
+        public String getResourceName() {
+            return resourceName;
+        }
+
+        public String getResourceTypeName() {
+            return resourceTypeName;
+        }
+
+        public String getPlugin() {
+            return plugin;
+        }
+
+        public int getNumResources() {
+            return numResources.get();
+        }
+
+        /**
+         * @return the time spent checking the resources of the subtree, in milliseconds
+         */
+        public long getCheckTime() {
+            return checkTime.get() / 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            return "SubtreeTiming [resourceId=" + resourceId + ", resourceName=" + resourceName
+                + ", resourceTypeName=" + resourceTypeName + ", plugin=" + plugin + ", numResources="
+                + getNumResources() + ", checkTime=" + getCheckTime() + "]";
+        }
+    }
+
+    /**
+     * Checks the children of resources on the availability scan executor. Tasks only submit further tasks and never
+     * wait for each other, so the bounded executor cannot deadlock; the scanning thread waits for all of them.
+     */
+    private class ParallelScan {
+        private final ExecutorService executor;
+        private final AvailabilityReport availabilityReport;
+        private final boolean traceEnabled;
+
+        // guarded by this
+        private int pending;
+        private Throwable failure;
+        private final List<Scan> finished = new ArrayList<Scan>();
+
+        private volatile boolean cancelled;
+
+        ParallelScan(ExecutorService executor, AvailabilityReport availabilityReport, boolean traceEnabled) {
+            this.executor = executor;
+            this.availabilityReport = availabilityReport;
+            this.traceEnabled = traceEnabled;
+        }
+
+        void submit(final Resource resource, final AvailabilityType parentAvailType, final boolean isForced,
+            Scan scan, SubtreeTiming subtree) {
+            final Scan fork = scan.fork(subtree);
+
+            synchronized (this) {
+                ++pending;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            if (!cancelled) {
+                                checkInventory(resource, availabilityReport, parentAvailType, isForced, fork,
+                                    traceEnabled);
+                            }
+                        } catch (Throwable t) {
+                            fail(t);
+                        } finally {
+                            done(fork);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                fail(e);
+                done(null);
+            }
+        }
+
+        private synchronized void fail(Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+            cancelled = true;
+        }
+
+        private synchronized void done(Scan fork) {
+            if (fork != null) {
+                finished.add(fork);
+            }
+            if (--pending == 0) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits for all the checks to finish and adds their counts to the scan. If the waiting thread is interrupted,
+         * the checks that have not started yet are skipped, but the running ones are still waited for so that nothing
+         * touches the report once the scan is over.
+         */
+        void await(Scan scan) throws InterruptedException {
+            boolean interrupted = false;
+
+            synchronized (this) {
+                while (pending > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        cancelled = true;
+                    }
+                }
+
+                for (Scan fork : finished) {
+                    scan.add(fork);
+                }
+            }
+
+            if (interrupted) {
+                throw new InterruptedException("Availability scan interrupted");
+            }
+            if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
 }
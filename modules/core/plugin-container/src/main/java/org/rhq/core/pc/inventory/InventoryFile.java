@@ -19,37 +19,97 @@
 
 package org.rhq.core.pc.inventory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.clientapi.agent.PluginContainerException;
 import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.Property;
+import org.rhq.core.domain.configuration.PropertyList;
+import org.rhq.core.domain.configuration.PropertyMap;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.content.transfer.ResourcePackageDetails;
+import org.rhq.core.domain.drift.DriftDefinition;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.NumericType;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.InventoryStatus;
 import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.pc.inventory.ResourceContainer.SynchronizationState;
 
 /**
  * Provides methods to read and write inventory data to a file.
  *
+ * <p>The inventory is written in a versioned binary format: a header made of a magic number, the format version and
+ * flags, followed by a stream of records, each a tag byte and the length of its payload. Each resource is a single
+ * record that refers to its parent by UUID, so the file is read in one pass without rebuilding a Java serialization
+ * object graph. Strings that repeat throughout the inventory, such as resource type, plugin and schedule names, are
+ * written once in their own records and referred to by index afterwards. Plugin and resource configurations and
+ * measurement schedules are written field by field; the rarely populated values, such as installed packages and drift
+ * definitions, are embedded as serialized objects. The records after the header can optionally be compressed.</p>
+ *
+ * <p>Files written by older agents, which hold the platform and the resource containers as plain Java serialized
+ * objects, are still read; they are replaced by the binary format the next time the inventory is stored.</p>
+ *
  * @author John Mazzitelli
  */
 public class InventoryFile {
     private static final Log log = LogFactory.getLog(InventoryFile.class);
 
+    private static final int MAGIC = 0x52485149; // "RHQI"
+    private static final int VERSION = 1;
+    private static final int FLAG_COMPRESSED = 0x01;
+
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_STRING = 1;
+    private static final byte RECORD_RESOURCE = 2;
+    private static final byte RECORD_PLATFORM = 3;
+
+    private static final byte CONFIGURATION_NULL = 0;
+    private static final byte CONFIGURATION_BINARY = 1;
+    private static final byte CONFIGURATION_SERIALIZED = 2;
+
+    private static final byte PROPERTY_SIMPLE = 1;
+    private static final byte PROPERTY_LIST = 2;
+    private static final byte PROPERTY_MAP = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final File inventoryFile;
     private Resource platform;
     private Map<String, ResourceContainer> resourceContainers; // keyed on UUID
+    private boolean compressed;
 
     private final InventoryManager inventoryManager;
 
@@ -76,6 +136,26 @@ public class InventoryFile {
         return inventoryFile;
     }
 
+    /**
+     * Returns whether the records of the file are compressed. After the file is {@link #loadInventory() loaded} this
+     * reflects how the file was written.
+     *
+     * @return <code>true</code> if the inventory records are compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Defines whether the inventory records are compressed the next time the inventory is
+     * {@link #storeInventory(Resource, Map) stored}.
+     *
+     * @param compressed
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     /**
      * Returns the platform resource found in the inventory file.
      *
@@ -112,17 +192,24 @@ public class InventoryFile {
      *                                  inventory
      */
     public void loadInventory() throws PluginContainerException {
-        FileInputStream fis = null;
+        InputStream in = null;
         try {
-            fis = new FileInputStream(inventoryFile);
-            ObjectInputStream ois = new ObjectInputStream(fis);
+            in = new BufferedInputStream(new FileInputStream(inventoryFile), BUFFER_SIZE);
+            in.mark(4);
+            int magic = new DataInputStream(in).readInt();
+            if (magic == MAGIC) {
+                readInventory(new DataInputStream(in));
+            } else {
+                in.reset();
+                readSerializedInventory(in);
+                log.info("Inventory file [" + inventoryFile + "] is in the old serialized format - "
+                    + "it will be converted when the inventory is next stored");
+            }
 
             // this list will contain UUIDs of resources that we should ignore usually due to disabled plugins
             Set<String> uuidsToIgnore = new HashSet<String>();
 
-            this.platform = (Resource) ois.readObject();
             connectTypes(this.platform, uuidsToIgnore);
-            this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
             for (ResourceContainer resourceContainer : this.resourceContainers.values()) {
                 connectTypes(resourceContainer.getResource(), uuidsToIgnore);
             }
@@ -135,17 +222,54 @@ public class InventoryFile {
             removeIgnoredResourcesFromChildren(this.platform, uuidsToIgnore);
             return;
         } catch (Exception e) {
+            this.platform = null;
+            this.resourceContainers = null;
             throw new PluginContainerException("Cannot load inventory file: " + inventoryFile, e);
         } finally {
-            if (fis != null) {
+            if (in != null) {
                 try {
-                    fis.close();
+                    in.close();
                 } catch (Exception e) {
                 }
             }
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private void readSerializedInventory(InputStream in) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream(in);
+        this.platform = (Resource) ois.readObject();
+        this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
+    }
+
+    private void readInventory(DataInputStream in) throws IOException, ClassNotFoundException {
+        int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("Inventory file format version [" + version + "] is newer than the supported ["
+                + VERSION + "]");
+        }
+        int flags = in.readInt();
+        this.compressed = (flags & FLAG_COMPRESSED) != 0;
+        RecordReader reader = new RecordReader();
+        if (this.compressed) {
+            DataInputStream inflated = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in),
+                BUFFER_SIZE));
+            try {
+                reader.read(inflated);
+            } finally {
+                inflated.close(); // releases the inflater
+            }
+        } else {
+            reader.read(in);
+        }
+
+        this.platform = reader.getPlatform();
+        this.resourceContainers = reader.getResourceContainers();
+        if (this.platform == null) {
+            throw new IOException("Inventory file does not contain a platform");
+        }
+    }
+
     private void removeIgnoredResourcesFromChildren(Resource resource, Set<String> uuidsToIgnore) {
         Set<Resource> children = inventoryManager.getContainerChildren(resource);
         if (!children.isEmpty() && !uuidsToIgnore.isEmpty()) {
@@ -203,26 +327,534 @@ public class InventoryFile {
      * {@link #getInventoryFile() inventory file}. This object's {@link #getPlatform() platform} and
      * {@link #getResourceContainers() resource containers} will be set to those passed to this method.
      *
+     * <p>The inventory is first written to a temporary file that then replaces the inventory file, so a failure while
+     * writing leaves the previous inventory intact.</p>
+     *
      * @param  platformResource
      * @param  containers
      *
      * @throws IOException
      */
     public void storeInventory(Resource platformResource, Map<String, ResourceContainer> containers) throws IOException {
-        FileOutputStream fos = new FileOutputStream(inventoryFile);
+        File tmpFile = new File(inventoryFile.getAbsolutePath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile),
+            BUFFER_SIZE));
         try {
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            try {
-                oos.writeObject(platformResource);
-                oos.writeObject(containers);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.compressed ? FLAG_COMPRESSED : 0);
+            if (this.compressed) {
+                out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(out), BUFFER_SIZE));
+            }
 
-                this.platform = platformResource;
-                this.resourceContainers = containers;
-            } finally {
-                oos.close();
+            new RecordWriter(out, containers).write(platformResource);
+        } finally {
+            out.close();
+        }
+
+        if (!tmpFile.renameTo(inventoryFile)) {
+            // some platforms do not allow renaming onto an existing file
+            inventoryFile.delete();
+            if (!tmpFile.renameTo(inventoryFile)) {
+                throw new IOException("Cannot rename [" + tmpFile + "] to [" + inventoryFile + "]");
             }
+        }
+
+        this.platform = platformResource;
+        this.resourceContainers = containers;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeObject(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(value);
+            oos.close();
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    private static Object readObject(DataInputStream in) throws IOException, ClassNotFoundException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return ois.readObject();
         } finally {
-            fos.close();
+            ois.close();
+        }
+    }
+
+    private static String name(Enum<?> value) {
+        return (value == null) ? null : value.name();
+    }
+
+    private static DataType getDataType(MeasurementScheduleRequest schedule) {
+        try {
+            return schedule.getDataType();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null; // the request was created without a data type
+        }
+    }
+
+    /**
+     * Writes the records of an inventory. Every resource of the platform tree is written before its children, followed
+     * by any containers whose resources are not part of the tree.
+     */
+    private static class RecordWriter {
+        private final DataOutputStream out;
+        private final Map<String, ResourceContainer> containers;
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private final List<String> newStrings = new ArrayList<String>();
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(4096);
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+        private final Set<String> writtenUuids = new HashSet<String>();
+
+        RecordWriter(DataOutputStream out, Map<String, ResourceContainer> containers) {
+            this.out = out;
+            this.containers = containers;
+        }
+
+        void write(Resource platform) throws IOException {
+            if (platform != null) {
+                writeTree(platform, null);
+            }
+            for (ResourceContainer container : containers.values()) {
+                Resource resource = container.getResource();
+                if (!writtenUuids.contains(resource.getUuid())) {
+                    Resource parent = resource.getParentResource();
+                    writeResource(resource, (parent == null) ? null : parent.getUuid(), container);
+                }
+            }
+            if (platform != null) {
+                writeString(record, platform.getUuid());
+                writeRecord(RECORD_PLATFORM);
+            }
+            writeRecord(RECORD_END);
+        }
+
+        private void writeTree(Resource resource, String parentUuid) throws IOException {
+            // the container's resource is the up to date one, see InventoryManager.getContainerChildren()
+            ResourceContainer container = containers.get(resource.getUuid());
+            if (container != null) {
+                resource = container.getResource();
+            }
+            if (!writtenUuids.contains(resource.getUuid())) {
+                writeResource(resource, parentUuid, container);
+                for (Resource child : resource.getChildResources()) {
+                    writeTree(child, resource.getUuid());
+                }
+            }
+        }
+
+        private void writeResource(Resource resource, String parentUuid, ResourceContainer container)
+            throws IOException {
+            writtenUuids.add(resource.getUuid());
+
+            writeString(record, resource.getUuid());
+            writeString(record, parentUuid);
+            record.writeInt(resource.getId());
+            writeString(record, resource.getResourceKey());
+            writeString(record, resource.getName());
+            writeString(record, resource.getVersion());
+            writeString(record, resource.getDescription());
+            writeString(record, resource.getLocation());
+            writeInterned(name(resource.getInventoryStatus()));
+            record.writeBoolean(resource.isConnected());
+            record.writeLong(resource.getMtime());
+            record.writeLong(resource.getItime());
+
+            ResourceType type = resource.getResourceType();
+            record.writeBoolean(type != null);
+            if (type != null) {
+                writeInterned(type.getName());
+                writeInterned(type.getPlugin());
+                writeInterned(name(type.getCategory()));
+            }
+
+            writeConfiguration(resource.getPluginConfiguration());
+            writeConfiguration(resource.getResourceConfiguration());
+            writeObject(record, resource.getAgent());
+
+            record.writeBoolean(container != null);
+            if (container != null) {
+                writeInterned(name(container.getSynchronizationState()));
+
+                MeasurementScheduleRequest availabilitySchedule = (type != null && type.getCategory() != null) ? container
+                    .getAvailabilitySchedule() : null;
+                record.writeBoolean(availabilitySchedule != null);
+                if (availabilitySchedule != null) {
+                    writeSchedule(availabilitySchedule);
+                }
+
+                Set<MeasurementScheduleRequest> schedules = container.getMeasurementSchedule();
+                record.writeInt(schedules.size());
+                for (MeasurementScheduleRequest schedule : schedules) {
+                    writeSchedule(schedule);
+                }
+
+                Set<ResourcePackageDetails> packages = container.getInstalledPackages();
+                writeObject(record, packages.isEmpty() ? null : new HashSet<ResourcePackageDetails>(packages));
+
+                Collection<DriftDefinition> driftDefinitions = container.getDriftDefinitions();
+                writeObject(record, driftDefinitions.isEmpty() ? null : new ArrayList<DriftDefinition>(
+                    driftDefinitions));
+            }
+
+            writeRecord(RECORD_RESOURCE);
+        }
+
+        private void writeSchedule(MeasurementScheduleRequest schedule) throws IOException {
+            record.writeInt(schedule.getScheduleId());
+            writeInterned(schedule.getName());
+            record.writeLong(schedule.getInterval());
+            record.writeBoolean(schedule.isEnabled());
+            writeInterned(name(getDataType(schedule)));
+            writeInterned(name(schedule.getRawNumericType()));
+        }
+
+        private void writeConfiguration(Configuration configuration) throws IOException {
+            if (configuration == null) {
+                record.writeByte(CONFIGURATION_NULL);
+            } else if (!configuration.getRawConfigurations().isEmpty()
+                || !isBinaryWritable(configuration.getMap().values())) {
+                record.writeByte(CONFIGURATION_SERIALIZED);
+                writeObject(record, configuration);
+            } else {
+                record.writeByte(CONFIGURATION_BINARY);
+                record.writeInt(configuration.getId());
+                writeString(record, configuration.getNotes());
+                record.writeLong(configuration.getVersion());
+                writeProperties(configuration.getMap().values());
+            }
+        }
+
+        private boolean isBinaryWritable(Collection<Property> properties) {
+            for (Property property : properties) {
+                if (property.getName() == null) {
+                    return false;
+                } else if (property instanceof PropertyList) {
+                    if (!isBinaryWritable(((PropertyList) property).getList())) {
+                        return false;
+                    }
+                } else if (property instanceof PropertyMap) {
+                    if (!isBinaryWritable(((PropertyMap) property).getMap().values())) {
+                        return false;
+                    }
+                } else if (!(property instanceof PropertySimple)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void writeProperties(Collection<Property> properties) throws IOException {
+            record.writeInt(properties.size());
+            for (Property property : properties) {
+                if (property instanceof PropertySimple) {
+                    record.writeByte(PROPERTY_SIMPLE);
+                } else if (property instanceof PropertyList) {
+                    record.writeByte(PROPERTY_LIST);
+                } else {
+                    record.writeByte(PROPERTY_MAP);
+                }
+                writeInterned(property.getName());
+                record.writeInt(property.getId());
+                writeString(record, property.getErrorMessage());
+
+                if (property instanceof PropertySimple) {
+                    PropertySimple simple = (PropertySimple) property;
+                    writeString(record, simple.getStringValue());
+                    Boolean override = simple.getOverride();
+                    record.writeByte((override == null) ? 0 : (override.booleanValue() ? 2 : 1));
+                } else if (property instanceof PropertyList) {
+                    writeProperties(((PropertyList) property).getList());
+                } else {
+                    writeProperties(((PropertyMap) property).getMap().values());
+                }
+            }
+        }
+
+        private void writeInterned(String value) throws IOException {
+            if (value == null) {
+                record.writeInt(-1);
+                return;
+            }
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = Integer.valueOf(strings.size());
+                strings.put(value, index);
+                newStrings.add(value);
+            }
+            record.writeInt(index.intValue());
+        }
+
+        /**
+         * Writes the buffered record, preceded by the strings it introduced.
+         */
+        private void writeRecord(byte tag) throws IOException {
+            for (String value : newStrings) {
+                byte[] bytes = value.getBytes("UTF-8");
+                out.writeByte(RECORD_STRING);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            newStrings.clear();
+
+            record.flush();
+            out.writeByte(tag);
+            out.writeInt(recordBytes.size());
+            recordBytes.writeTo(out);
+            recordBytes.reset();
+        }
+    }
+
+    /**
+     * Reads the records of an inventory. Records with unknown tags are skipped, so that newer agents can add records
+     * without breaking older readers.
+     */
+    private static class RecordReader {
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, ResourceType> types = new HashMap<String, ResourceType>();
+        private final Map<String, Resource> resources = new LinkedHashMap<String, Resource>();
+        private final Map<String, String> parentUuids = new HashMap<String, String>();
+        private final Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        private String platformUuid;
+
+        void read(DataInputStream in) throws IOException, ClassNotFoundException {
+            byte[] buffer = new byte[4096];
+            while (true) {
+                byte tag = in.readByte();
+                int length = in.readInt();
+                if (tag == RECORD_END) {
+                    break;
+                }
+                if (length < 0) {
+                    throw new IOException("Invalid length [" + length + "] of inventory record [" + tag + "]");
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+
+                switch (tag) {
+                case RECORD_STRING:
+                    strings.add(new String(buffer, 0, length, "UTF-8"));
+                    break;
+                case RECORD_RESOURCE:
+                    readResource(record);
+                    break;
+                case RECORD_PLATFORM:
+                    platformUuid = readString(record);
+                    break;
+                default:
+                    break;
+                }
+            }
+
+            // link the resources in the order they were written, which keeps the order of the children
+            for (Resource resource : resources.values()) {
+                String parentUuid = parentUuids.get(resource.getUuid());
+                Resource parent = (parentUuid == null) ? null : resources.get(parentUuid);
+                if (parent != null) {
+                    resource.setParentResourceWithoutAncestry(parent);
+                    parent.getChildResources().add(resource);
+                }
+            }
+        }
+
+        Resource getPlatform() {
+            return (platformUuid == null) ? null : resources.get(platformUuid);
+        }
+
+        Map<String, ResourceContainer> getResourceContainers() {
+            return containers;
+        }
+
+        private void readResource(DataInputStream in) throws IOException, ClassNotFoundException {
+            // use a CopyOnWriteArraySet for childResources, as InventoryManager does for the resources it creates
+            Resource resource = new Resource(new CopyOnWriteArraySet<Resource>());
+            resource.setUuid(readString(in));
+            String parentUuid = readString(in);
+            resource.setId(in.readInt());
+            resource.setResourceKey(readString(in));
+            resource.setName(readString(in));
+            resource.setVersion(readString(in));
+            resource.setDescription(readString(in));
+            resource.setLocation(readString(in));
+            String inventoryStatus = readInterned(in);
+            resource.setInventoryStatus((inventoryStatus == null) ? null : InventoryStatus.valueOf(inventoryStatus));
+            resource.setConnected(in.readBoolean());
+            resource.setMtime(in.readLong());
+            resource.setItime(in.readLong());
+
+            if (in.readBoolean()) {
+                resource.setResourceType(readType(in));
+            }
+
+            resource.setPluginConfiguration(readConfiguration(in));
+            resource.setResourceConfiguration(readConfiguration(in));
+            resource.setAgent((Agent) readObject(in));
+
+            resources.put(resource.getUuid(), resource);
+            if (parentUuid != null) {
+                parentUuids.put(resource.getUuid(), parentUuid);
+            }
+
+            if (in.readBoolean()) {
+                ResourceContainer container = new ResourceContainer(resource, null);
+                String synchronizationState = readInterned(in);
+                if (synchronizationState != null) {
+                    container.setSynchronizationState(SynchronizationState.valueOf(synchronizationState));
+                }
+
+                if (in.readBoolean()) {
+                    container.setAvailabilitySchedule(readSchedule(in));
+                }
+
+                int scheduleCount = in.readInt();
+                if (scheduleCount > 0) {
+                    Set<MeasurementScheduleRequest> schedules = new HashSet<MeasurementScheduleRequest>(
+                        scheduleCount * 2);
+                    for (int i = 0; i < scheduleCount; ++i) {
+                        schedules.add(readSchedule(in));
+                    }
+                    container.setMeasurementSchedule(schedules);
+                }
+
+                @SuppressWarnings("unchecked")
+                Set<ResourcePackageDetails> packages = (Set<ResourcePackageDetails>) readObject(in);
+                if (packages != null) {
+                    container.setInstalledPackages(packages);
+                }
+
+                @SuppressWarnings("unchecked")
+                List<DriftDefinition> driftDefinitions = (List<DriftDefinition>) readObject(in);
+                if (driftDefinitions != null) {
+                    for (DriftDefinition driftDefinition : driftDefinitions) {
+                        container.addDriftDefinition(driftDefinition);
+                    }
+                }
+
+                containers.put(resource.getUuid(), container);
+            }
+        }
+
+        /**
+         * The types read are placeholders that only carry the name, plugin and category of the type; they are
+         * replaced by the plugin container's types once the inventory is loaded.
+         */
+        private ResourceType readType(DataInputStream in) throws IOException {
+            String name = readInterned(in);
+            String plugin = readInterned(in);
+            String category = readInterned(in);
+            String key = plugin + '/' + name;
+            ResourceType type = types.get(key);
+            if (type == null) {
+                type = new ResourceType(name, plugin, (category == null) ? null : ResourceCategory.valueOf(category),
+                    null);
+                types.put(key, type);
+            }
+            return type;
+        }
+
+        private Configuration readConfiguration(DataInputStream in) throws IOException, ClassNotFoundException {
+            switch (in.readByte()) {
+            case CONFIGURATION_BINARY:
+                Configuration configuration = new Configuration();
+                configuration.setId(in.readInt());
+                configuration.setNotes(readString(in));
+                configuration.setVersion(in.readLong());
+                for (Property property : readProperties(in)) {
+                    configuration.put(property);
+                }
+                return configuration;
+            case CONFIGURATION_SERIALIZED:
+                return (Configuration) readObject(in);
+            default:
+                return null;
+            }
+        }
+
+        private List<Property> readProperties(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            List<Property> properties = new ArrayList<Property>(count);
+            for (int i = 0; i < count; ++i) {
+                byte kind = in.readByte();
+                String name = readInterned(in);
+                int id = in.readInt();
+                String errorMessage = readString(in);
+
+                Property property;
+                if (kind == PROPERTY_SIMPLE) {
+                    PropertySimple simple = new PropertySimple(name, readString(in));
+                    byte override = in.readByte();
+                    simple.setOverride((override == 0) ? null : Boolean.valueOf(override == 2));
+                    property = simple;
+                } else if (kind == PROPERTY_LIST) {
+                    PropertyList list = new PropertyList(name);
+                    for (Property member : readProperties(in)) {
+                        list.add(member);
+                    }
+                    property = list;
+                } else if (kind == PROPERTY_MAP) {
+                    PropertyMap map = new PropertyMap(name);
+                    for (Property member : readProperties(in)) {
+                        map.put(member);
+                    }
+                    property = map;
+                } else {
+                    throw new IOException("Unknown property kind [" + kind + "]");
+                }
+                property.setId(id);
+                property.setErrorMessage(errorMessage);
+                properties.add(property);
+            }
+            return properties;
+        }
+
+        private MeasurementScheduleRequest readSchedule(DataInputStream in) throws IOException {
+            int scheduleId = in.readInt();
+            String name = readInterned(in);
+            long interval = in.readLong();
+            boolean enabled = in.readBoolean();
+            String dataType = readInterned(in);
+            String rawNumericType = readInterned(in);
+            return new MeasurementScheduleRequest(scheduleId, name, interval, enabled, (dataType == null) ? null
+                : DataType.valueOf(dataType), (rawNumericType == null) ? null : NumericType.valueOf(rawNumericType));
+        }
+
+        private String readInterned(DataInputStream in) throws IOException {
+            int index = in.readInt();
+            return (index < 0) ? null : strings.get(index);
         }
     }
 }
@@ -41,8 +41,11 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -157,6 +160,7 @@ public class InventoryManager extends AgentService implements ContainerService,
     private static final String INVENTORY_THREAD_POOL_NAME = "InventoryManager.discovery";
     private static final String AVAIL_THREAD_POOL_NAME = "InventoryManager.availability";
     private static final int AVAIL_THREAD_POOL_CORE_POOL_SIZE = 1;
+    private static final String AVAIL_SCAN_THREAD_POOL_NAME = "InventoryManager.availability-scan";
 
     private static final int COMPONENT_START_TIMEOUT = 60 * 1000; // 60 seconds
     private static final int COMPONENT_STOP_TIMEOUT = 5 * 1000; // 5 seconds
@@ -178,6 +182,7 @@ public class InventoryManager extends AgentService implements ContainerService,
 
     private ScheduledThreadPoolExecutor inventoryThreadPoolExecutor;
     private ScheduledThreadPoolExecutor availabilityThreadPoolExecutor;
+    private ThreadPoolExecutor availabilityScanThreadPoolExecutor;
 
     // The executors are Callable
     private final AutoDiscoveryExecutor serverScanExecutor;
@@ -290,6 +295,15 @@ public class InventoryManager extends AgentService implements ContainerService,
             availabilityThreadPoolExecutor = new ScheduledThreadPoolExecutor(AVAIL_THREAD_POOL_CORE_POOL_SIZE,
                 new LoggingThreadFactory(AVAIL_THREAD_POOL_NAME, true));
 
+            // The avail check itself may fan out parts of the resource tree to these threads.
+            int availScanParallelism = configuration.getAvailabilityScanParallelism();
+            if (availScanParallelism > 1) {
+                availabilityScanThreadPoolExecutor = new ThreadPoolExecutor(availScanParallelism,
+                    availScanParallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new LoggingThreadFactory(AVAIL_SCAN_THREAD_POOL_NAME, true));
+                availabilityScanThreadPoolExecutor.allowCoreThreadTimeOut(true);
+            }
+
             // Never run more than one discovery scan at a time (service and service scans share the same pool).
             inventoryThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new LoggingThreadFactory(
                 INVENTORY_THREAD_POOL_NAME, true));
@@ -326,6 +340,9 @@ public class InventoryManager extends AgentService implements ContainerService,
     public void shutdown() {
         PluginContainer.shutdownExecutorService(this.inventoryThreadPoolExecutor, true);
         PluginContainer.shutdownExecutorService(this.availabilityThreadPoolExecutor, true);
+        if (this.availabilityScanThreadPoolExecutor != null) {
+            PluginContainer.shutdownExecutorService(this.availabilityScanThreadPoolExecutor, true);
+        }
         if (this.configuration.isInsideAgent()) {
             this.persistToDisk();
         }
@@ -1572,6 +1589,14 @@ public class InventoryManager extends AgentService implements ContainerService,
         return scanIsNeeded;
     }
 
+    /**
+     * @return the threads an availability scan can check parts of the resource tree with, or <code>null</code> if
+     *         availability scans are to check the whole tree on the scanning thread
+     */
+    ExecutorService getAvailabilityScanExecutor() {
+        return availabilityScanThreadPoolExecutor;
+    }
+
     /**
      * Get the parent resource's children, ensuring we use the resource container version of the resource, because
      * the container's resource is guaranteed to be up to date.
@@ -2365,6 +2390,7 @@ public class InventoryManager extends AgentService implements ContainerService,
             }
             File file = new File(dataDir, "inventory.dat");
             InventoryFile inventoryFile = new InventoryFile(file, this);
+            inventoryFile.setCompressed(this.configuration.isInventoryFileCompressed());
             inventoryFile.storeInventory(this.platform, this.resourceContainersByUUID);
         } catch (Exception e) {
             log.error("Could not persist inventory data to disk", e);
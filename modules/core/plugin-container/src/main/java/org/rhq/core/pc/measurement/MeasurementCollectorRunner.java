@@ -34,7 +34,6 @@ import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.pc.inventory.InventoryManager;
 import org.rhq.core.pc.inventory.ResourceContainer;
-import org.rhq.core.pc.util.ComponentUtil;
 import org.rhq.core.pc.util.FacetLockType;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
 import org.rhq.core.util.exception.ThrowableUtil;
@@ -45,7 +44,8 @@ import org.rhq.core.util.exception.ThrowableUtil;
 *
 * @author Greg Hinkle
 */
-public class MeasurementCollectorRunner implements Callable<MeasurementReport>, Runnable {
+public class MeasurementCollectorRunner implements Callable<MeasurementReport>, Runnable,
+    ResourceCollectionDispatcher.Collector {
     private static final Log log = LogFactory.getLog(MeasurementCollectorRunner.class);
 
     private final MeasurementManager measurementManager;
@@ -63,65 +63,91 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
             this.measurementManager.getLock().readLock().lock();
 
             report = this.measurementManager.getActiveReport();
-            long start = System.currentTimeMillis();
-
-            InventoryManager im = this.measurementManager.getInventoryManager();
 
             Set<ScheduledMeasurementInfo> requests = this.measurementManager.getNextScheduledSet();
 
             if (requests != null) {
-                ScheduledMeasurementInfo next = requests.iterator().next();
-
-                if ((System.currentTimeMillis() - 30000L) > next.getNextCollection()) {
-                    this.measurementManager.incrementLateCollections(requests.size());
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurement collection is falling behind... Missed requested time by ["
-                            + (System.currentTimeMillis() - requests.iterator().next().getNextCollection()) + "ms]");
-
-                        if (!scheduleHistory.isEmpty()) {
-                            log.debug("The most recent measurement requests prior to this detected delay: "
-                                + scheduleHistory);
-                        }
-                    }
+                collect(report, requests);
+            }
+        } catch (Throwable t) {
+            log.error("Failed to run measurement collection", t);
+        } finally {
+            this.measurementManager.getLock().readLock().unlock();
+        }
 
-                    // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
-                    this.measurementManager.rescheduleLateCollections(requests);
-                    return report;
-                }
+        return report;
+    }
 
-                Integer resourceId = next.getResourceId();
-                ResourceContainer container = im.getResourceContainer(resourceId);
-                if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
-                    || container.getAvailability() == null
-                    || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
-                    // Don't collect metrics for resources that are down
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurements not collected for inactive resource component: "
-                            + container.getResource());
-                    }
-                } else {
-                    MeasurementFacet measurementComponent = ComponentUtil
-                        .getComponent(resourceId, MeasurementFacet.class, FacetLockType.READ,
-                            MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
+    /**
+     * Collects the given batch of measurements into the active report. This is used when collections are dispatched
+     * to the collector thread pool, in which case the batch has already been removed from the schedule queue. It is
+     * safe to call this concurrently for different resources.
+     *
+     * @param requests the measurements that are due to be collected, all of which belong to a single resource
+     */
+    public void collect(Set<ScheduledMeasurementInfo> requests) {
+        try {
+            this.measurementManager.getLock().readLock().lock();
+            collect(this.measurementManager.getActiveReport(), requests);
+        } catch (Throwable t) {
+            log.error("Failed to run measurement collection", t);
+        } finally {
+            this.measurementManager.getLock().readLock().unlock();
+        }
+    }
 
-                    if (log.isDebugEnabled()) {
-                        scheduleHistory.addRequests(requests);
-                    }
+    private void collect(MeasurementReport report, Set<ScheduledMeasurementInfo> requests) {
+        long start = System.currentTimeMillis();
+
+        InventoryManager im = this.measurementManager.getInventoryManager();
+
+        ScheduledMeasurementInfo next = requests.iterator().next();
+
+        if ((System.currentTimeMillis() - 30000L) > next.getNextCollection()) {
+            this.measurementManager.incrementLateCollections(requests.size());
+            if (log.isDebugEnabled()) {
+                log.debug("Measurement collection is falling behind... Missed requested time by ["
+                    + (System.currentTimeMillis() - requests.iterator().next().getNextCollection()) + "ms]");
 
-                    getValues(measurementComponent, report, requests, container.getResource());
+                synchronized (scheduleHistory) {
+                    if (!scheduleHistory.isEmpty()) {
+                        log.debug("The most recent measurement requests prior to this detected delay: "
+                            + scheduleHistory);
+                    }
                 }
+            }
 
-                this.measurementManager.reschedule(requests);
+            // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
+            this.measurementManager.rescheduleLateCollections(requests);
+            return;
+        }
 
-                report.incrementCollectionTime(System.currentTimeMillis() - start);
+        Integer resourceId = next.getResourceId();
+        ResourceContainer container = im.getResourceContainer(resourceId);
+        if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
+            || container.getAvailability() == null
+            || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
+            // Don't collect metrics for resources that are down
+            if (log.isDebugEnabled()) {
+                log.debug("Measurements not collected for inactive resource component: " + container.getResource());
             }
-        } catch (Throwable t) {
-            log.error("Failed to run measurement collection", t);
-        } finally {
-            this.measurementManager.getLock().readLock().unlock();
+        } else {
+            // the timeout applies to this one call into the component, not to the collection of all due resources
+            MeasurementFacet measurementComponent = container.createResourceComponentProxy(MeasurementFacet.class,
+                FacetLockType.READ, this.measurementManager.getCollectionTimeout(), true, true, true);
+
+            if (log.isDebugEnabled()) {
+                synchronized (scheduleHistory) {
+                    scheduleHistory.addRequests(requests);
+                }
+            }
+
+            getValues(measurementComponent, report, requests, container.getResource());
         }
 
-        return report;
+        this.measurementManager.reschedule(requests);
+
+        report.incrementCollectionTime(System.currentTimeMillis() - start);
     }
 
     private void getValues(MeasurementFacet measurementComponent, MeasurementReport report,
@@ -20,13 +20,14 @@
 package org.rhq.core.pc.measurement;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -95,8 +96,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     private final PluginContainerConfiguration configuration;
 
-    private final PriorityQueue<ScheduledMeasurementInfo> scheduledRequests = new PriorityQueue<ScheduledMeasurementInfo>(
-        10000);
+    private final MeasurementScheduleStore scheduledRequests = new MeasurementScheduleStore();
 
     private final InventoryManager inventoryManager;
 
@@ -108,6 +108,11 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     private final ReentrantReadWriteLock measurementLock = new ReentrantReadWriteLock(true);
 
+    // -- parallel collection
+    private final long collectionTimeout;
+    // null unless measurements of different resources are collected concurrently
+    private final ResourceCollectionDispatcher collectionDispatcher;
+
     // -- monitoring information
     private final AtomicLong collectedMeasurements = new AtomicLong(0);
     private final AtomicLong totalTimeCollecting = new AtomicLong(0);
@@ -136,7 +141,16 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         int threadPoolSize = configuration.getMeasurementCollectionThreadPoolSize();
         long collectionInitialDelaySecs = configuration.getMeasurementCollectionInitialDelay();
 
+        this.collectionTimeout = configuration.getMeasurementCollectionTimeout() * 1000L;
+
         if (configuration.isInsideAgent()) {
+            boolean parallelCollection = configuration.isMeasurementCollectionParallel();
+            int collectionWorkers = Math.max(1, threadPoolSize);
+            if (parallelCollection) {
+                LOG.info("Measurements will be collected in parallel by up to [" + collectionWorkers + "] threads");
+                // each pool thread but the one running the MeasurementCollectionRequester collects a resource
+                threadPoolSize = collectionWorkers + 1;
+            }
             this.collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize, new LoggingThreadFactory(
                 COLLECTOR_THREAD_POOL_NAME, true));
 
@@ -145,6 +159,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
             this.measurementSenderRunner = new MeasurementSenderRunner(this);
             this.measurementCollectorRunner = new MeasurementCollectorRunner(this);
+            this.collectionDispatcher = parallelCollection ? new ResourceCollectionDispatcher(collectorThreadPool,
+                collectionWorkers, measurementCollectorRunner) : null;
 
             // Schedule the measurement sender to send measurement reports periodically.
             this.senderThreadPool.scheduleAtFixedRate(measurementSenderRunner, collectionInitialDelaySecs, 30,
@@ -164,6 +180,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             collectorThreadPool = null;
             measurementSenderRunner = null;
             measurementCollectorRunner = null;
+            collectionDispatcher = null;
         }
 
 
@@ -181,8 +198,11 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
                     } else {
                         long delay = next - System.currentTimeMillis();
                         if (delay <= 0) {
-                            //                  collectorThreadPool.execute(measurementCollectorRunner);
-                            measurementCollectorRunner.call();
+                            if (collectionDispatcher != null) {
+                                dispatchNextScheduledSet();
+                            } else {
+                                measurementCollectorRunner.call();
+                            }
                         } else {
                             if (!collectorThreadPool.isShutdown()) {
                                 Thread.sleep(delay);
@@ -201,6 +221,23 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         }
     }
 
+    /**
+     * Takes the next batch of due measurements off the schedule queue and hands it to the collector thread pool. This
+     * blocks while all collector threads are busy so that due batches stay on the schedule queue, where the late
+     * collection check still applies to them.
+     */
+    private void dispatchNextScheduledSet() throws InterruptedException {
+        collectionDispatcher.awaitWorker();
+        collectionDispatcher.dispatch(getNextScheduledSet());
+    }
+
+    /**
+     * @return the time, in milliseconds, a resource component is given to return its measurement values
+     */
+    long getCollectionTimeout() {
+        return collectionTimeout;
+    }
+
     private void reschedule(Resource resource) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("In Reschedule for: " + resource);
@@ -347,7 +384,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
 
     }
 
@@ -384,7 +420,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
     }
 
     /**
@@ -393,7 +428,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      * @param resourceId The resource to collect on
      * @param requests   The measurements to collect
      */
-    public synchronized void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
+    public void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
         // This ensures that all the schedules for a single resource start at the same time
         // This will enable them to be collected at the same time
         long firstCollection = System.currentTimeMillis();
@@ -404,43 +439,26 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             firstCollection += 30000L;
         }
 
+        // the store holds one entry per schedule id, so this replaces the previous version of each schedule
+        List<ScheduledMeasurementInfo> enabled = new ArrayList<ScheduledMeasurementInfo>(requests.size());
         for (MeasurementScheduleRequest request : requests) {
             ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(request, resourceId);
 
             info.setNextCollection(firstCollection);
 
-            this.scheduledRequests.remove(info);
-
             // Don't add it if collection is disabled for this resource
             if (info.isEnabled()) {
-                this.scheduledRequests.offer(info);
+                enabled.add(info);
+            } else {
+                this.scheduledRequests.remove(info);
             }
         }
+        this.scheduledRequests.putAll(enabled);
     }
 
     @Override
-    public synchronized void unscheduleCollection(Set<Integer> resourceIds) {
-        Iterator<ScheduledMeasurementInfo> itr = this.scheduledRequests.iterator();
-        while (itr.hasNext()) {
-            ScheduledMeasurementInfo info = itr.next();
-            if (resourceIds.contains(info.getResourceId())) {
-                itr.remove();
-            }
-        }
-    }
-
-    private void clearDuplicateSchedules() {
-        HashSet<Integer> set = new HashSet<Integer>(this.scheduledRequests.size());
-        Iterator<ScheduledMeasurementInfo> iter = this.scheduledRequests.iterator();
-        while (iter.hasNext()) {
-            ScheduledMeasurementInfo info = iter.next();
-            if (set.contains(info.getScheduleId())) {
-                LOG.debug("Found duplicate schedule - will remove it: " + info);
-                iter.remove();
-            } else {
-                set.add(info.getScheduleId());
-            }
-        }
+    public void unscheduleCollection(Set<Integer> resourceIds) {
+        this.scheduledRequests.removeResources(resourceIds);
     }
 
     // spinder 12/16/11. BZ 760139. Modified to return empty sets instead of 'null' even for erroneous conditions.
@@ -503,12 +521,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     @Override
     public long getNextExpectedCollectionTime() {
-        ScheduledMeasurementInfo nextScheduledMeasurement = this.scheduledRequests.peek();
-        if (nextScheduledMeasurement == null) {
-            return Long.MIN_VALUE;
-        } else {
-            return nextScheduledMeasurement.getNextCollection();
-        }
+        return this.scheduledRequests.getNextCollection(System.currentTimeMillis());
     }
 
     /**
@@ -516,22 +529,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @return all measurement schedules
      */
-    public synchronized Set<ScheduledMeasurementInfo> getNextScheduledSet() {
-        ScheduledMeasurementInfo first = this.scheduledRequests.peek();
-        if ((first == null) || (first.getNextCollection() > System.currentTimeMillis())) {
-            return null;
-        }
-
-        Set<ScheduledMeasurementInfo> nextScheduledSet = new HashSet<ScheduledMeasurementInfo>();
-
-        ScheduledMeasurementInfo next = this.scheduledRequests.peek();
-        while ((next != null) && (next.getResourceId() == first.getResourceId())
-            && (next.getNextCollection() == first.getNextCollection())) {
-            nextScheduledSet.add(this.scheduledRequests.poll());
-            next = this.scheduledRequests.peek();
-        }
-
-        return nextScheduledSet;
+    public Set<ScheduledMeasurementInfo> getNextScheduledSet() {
+        return this.scheduledRequests.pollNextScheduledSet(System.currentTimeMillis());
     }
 
     /**
@@ -541,13 +540,14 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the schedules to reschedule
      */
-    public synchronized void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    public void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         for (ScheduledMeasurementInfo scheduledMeasurement : scheduledMeasurementInfos) {
             long interval = scheduledMeasurement.getInterval();
             scheduledMeasurement.setNextCollection(scheduledMeasurement.getNextCollection() + interval);
-            this.scheduledRequests.offer(scheduledMeasurement);
         }
+        // schedules that were updated by the server while these were being collected take precedence
+        this.scheduledRequests.putAllIfAbsent(scheduledMeasurementInfos);
     }
 
     /**
@@ -563,7 +563,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the late schedules to reschedule
      */
-    synchronized void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Rescheduling [" + scheduledMeasurementInfos.size() + "] late collections: "
@@ -589,8 +589,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             }
 
             scheduledMeasurement.setNextCollection(nextCollection);
-            this.scheduledRequests.offer(scheduledMeasurement);
         }
+        this.scheduledRequests.putAllIfAbsent(scheduledMeasurementInfos);
     }
 
     /**
@@ -637,15 +637,13 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     public Map<String, Object> getMeasurementScheduleInfoForResource(int resourceId) {
         Map<String, Object> results = null;
 
-        for (ScheduledMeasurementInfo info : new PriorityQueue<ScheduledMeasurementInfo>(scheduledRequests)) {
-            if (info.getResourceId() == resourceId) {
-                if (results == null) {
-                    results = new HashMap<String, Object>();
-                }
-                String scheduleId = String.valueOf(info.getScheduleId());
-                String interval = String.valueOf(info.getInterval()) + "ms";
-                results.put(scheduleId, interval);
+        for (ScheduledMeasurementInfo info : scheduledRequests.getSchedules(resourceId)) {
+            if (results == null) {
+                results = new HashMap<String, Object>();
             }
+            String scheduleId = String.valueOf(info.getScheduleId());
+            String interval = String.valueOf(info.getInterval()) + "ms";
+            results.put(scheduleId, interval);
         }
 
         return results;
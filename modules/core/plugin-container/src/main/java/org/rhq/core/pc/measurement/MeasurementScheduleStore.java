@@ -0,0 +1,327 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Holds the measurement schedules of the agent, ordered by their next collection time. Schedules are kept in a
+ * hierarchical timing wheel so that adding, replacing and removing a schedule are constant time operations, no matter
+ * how many schedules there are. Only the schedules whose collection is due in the current tick are moved to a small
+ * priority queue, which yields them in the same order as {@link ScheduledMeasurementInfo#compareTo}.
+ *
+ * <p>Schedules are indexed by schedule id and by resource id. There is at most one entry per schedule id, so adding a
+ * schedule replaces any previous entry for the same schedule.</p>
+ *
+ * <p>The schedules must not be modified while they are in the store. All methods are thread safe.</p>
+ */
+class MeasurementScheduleStore {
+
+    /** The width of a tick of the lowest wheel, in milliseconds */
+    static final long TICK = 1000L;
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    // with 1 second ticks the wheels span roughly 1 minute, 1 hour, 3 days and 194 days
+    private static final int LEVELS = 4;
+
+    private static final int READY = -1;
+
+    private final Node[][] wheels = new Node[LEVELS][SLOTS];
+
+    private final PriorityQueue<ScheduledMeasurementInfo> ready = new PriorityQueue<ScheduledMeasurementInfo>();
+
+    private final Map<Integer, Node> schedules = new HashMap<Integer, Node>();
+
+    private final Map<Integer, Set<Node>> resources = new HashMap<Integer, Set<Node>>();
+
+    /** All the slots up to and including this tick have been moved to the ready queue */
+    private long currentTick;
+
+    MeasurementScheduleStore() {
+        this(System.currentTimeMillis());
+    }
+
+    MeasurementScheduleStore(long now) {
+        currentTick = now / TICK;
+    }
+
+    /**
+     * Adds the schedule, replacing the entry of the same schedule id if there is one.
+     */
+    synchronized void put(ScheduledMeasurementInfo info) {
+        Node existing = schedules.get(info.getScheduleId());
+        if (existing != null) {
+            remove(existing);
+        }
+        add(info);
+    }
+
+    /**
+     * Adds the schedules, replacing the entries of the same schedule ids.
+     */
+    synchronized void putAll(Collection<ScheduledMeasurementInfo> infos) {
+        for (ScheduledMeasurementInfo info : infos) {
+            put(info);
+        }
+    }
+
+    /**
+     * Adds the schedules unless there already are entries for their schedule ids. This is used to put schedules back
+     * after they have been collected; if the server sent a new version of a schedule in the mean time, the new version
+     * wins.
+     */
+    synchronized void putAllIfAbsent(Collection<ScheduledMeasurementInfo> infos) {
+        for (ScheduledMeasurementInfo info : infos) {
+            if (!schedules.containsKey(info.getScheduleId())) {
+                add(info);
+            }
+        }
+    }
+
+    /**
+     * @return true if there was an entry for the schedule id of <code>info</code>
+     */
+    synchronized boolean remove(ScheduledMeasurementInfo info) {
+        Node node = schedules.get(info.getScheduleId());
+        if (node == null) {
+            return false;
+        }
+        remove(node);
+        return true;
+    }
+
+    synchronized void removeResources(Collection<Integer> resourceIds) {
+        for (Integer resourceId : resourceIds) {
+            Set<Node> nodes = resources.get(resourceId);
+            if (nodes != null) {
+                for (Node node : nodes.toArray(new Node[nodes.size()])) {
+                    remove(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the schedules of the resource, which is empty if the resource has no schedules
+     */
+    synchronized Set<ScheduledMeasurementInfo> getSchedules(int resourceId) {
+        Set<ScheduledMeasurementInfo> infos = new HashSet<ScheduledMeasurementInfo>();
+        Set<Node> nodes = resources.get(resourceId);
+        if (nodes != null) {
+            for (Node node : nodes) {
+                infos.add(node.info);
+            }
+        }
+        return infos;
+    }
+
+    synchronized int size() {
+        return schedules.size();
+    }
+
+    /**
+     * @return the time of the next collection, or {@link Long#MIN_VALUE} if there are no schedules
+     */
+    synchronized long getNextCollection(long now) {
+        advance(now);
+
+        ScheduledMeasurementInfo first = ready.peek();
+        if (first != null) {
+            return first.getNextCollection();
+        }
+
+        // within a wheel every slot expires before the slots that follow it, but schedules only move down to a lower
+        // wheel when their slot is cascaded, so the first occupied slot of each wheel has to be looked at
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; ++level) {
+            long position = currentTick >> (level * SLOT_BITS);
+            for (int i = 1; i < SLOTS; ++i) {
+                Node head = wheels[level][(int) ((position + i) & SLOT_MASK)];
+                if (head != null) {
+                    for (Node node = head; node != null; node = node.next) {
+                        next = Math.min(next, node.info.getNextCollection());
+                    }
+                    break;
+                }
+            }
+        }
+
+        return (next == Long.MAX_VALUE) ? Long.MIN_VALUE : next;
+    }
+
+    /**
+     * Removes and returns the schedules that are due first, provided they are due at <code>now</code>. The returned
+     * schedules all belong to the same resource and have the same next collection time.
+     *
+     * @return the next scheduled set, or <code>null</code> if no schedule is due
+     */
+    synchronized Set<ScheduledMeasurementInfo> pollNextScheduledSet(long now) {
+        advance(now);
+
+        ScheduledMeasurementInfo first = ready.peek();
+        if ((first == null) || (first.getNextCollection() > now)) {
+            return null;
+        }
+
+        Set<ScheduledMeasurementInfo> nextScheduledSet = new HashSet<ScheduledMeasurementInfo>();
+
+        ScheduledMeasurementInfo next = first;
+        while ((next != null) && (next.getResourceId() == first.getResourceId())
+            && (next.getNextCollection() == first.getNextCollection())) {
+            ready.poll();
+            unindex(schedules.get(next.getScheduleId()));
+            nextScheduledSet.add(next);
+            next = ready.peek();
+        }
+
+        return nextScheduledSet;
+    }
+
+    private void add(ScheduledMeasurementInfo info) {
+        Node node = new Node(info);
+        schedules.put(info.getScheduleId(), node);
+        Set<Node> nodes = resources.get(info.getResourceId());
+        if (nodes == null) {
+            nodes = new HashSet<Node>();
+            resources.put(info.getResourceId(), nodes);
+        }
+        nodes.add(node);
+        place(node);
+    }
+
+    private void remove(Node node) {
+        if (node.level == READY) {
+            ready.remove(node.info);
+        } else {
+            unlink(node);
+        }
+        unindex(node);
+    }
+
+    private void unindex(Node node) {
+        schedules.remove(node.info.getScheduleId());
+        Set<Node> nodes = resources.get(node.info.getResourceId());
+        nodes.remove(node);
+        if (nodes.isEmpty()) {
+            resources.remove(node.info.getResourceId());
+        }
+    }
+
+    private void place(Node node) {
+        long tick = node.info.getNextCollection() / TICK;
+        if (tick <= currentTick) {
+            node.level = READY;
+            ready.offer(node.info);
+            return;
+        }
+
+        int level = 0;
+        while ((level < LEVELS - 1)
+            && ((tick >> (level * SLOT_BITS)) - (currentTick >> (level * SLOT_BITS)) >= SLOTS)) {
+            ++level;
+        }
+
+        int shift = level * SLOT_BITS;
+        if ((tick >> shift) - (currentTick >> shift) >= SLOTS) {
+            // beyond the range of the highest wheel, park it in the farthest slot; it gets placed again from there
+            tick = ((currentTick >> shift) + SLOTS - 1) << shift;
+        }
+        link(node, level, (int) ((tick >> shift) & SLOT_MASK));
+    }
+
+    private void advance(long now) {
+        long targetTick = now / TICK;
+        if (schedules.isEmpty() && (targetTick > currentTick)) {
+            currentTick = targetTick;
+            return;
+        }
+
+        while (currentTick < targetTick) {
+            ++currentTick;
+            // cascade the higher wheels first so that their schedules trickle down to the lowest wheel
+            for (int level = LEVELS - 1; level > 0; --level) {
+                int shift = level * SLOT_BITS;
+                if ((currentTick & ((1L << shift) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >> shift) & SLOT_MASK));
+                }
+            }
+            cascade(0, (int) (currentTick & SLOT_MASK));
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        Node node = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (node != null) {
+            Node next = node.next;
+            node.prev = null;
+            node.next = null;
+            place(node);
+            node = next;
+        }
+    }
+
+    private void link(Node node, int level, int slot) {
+        node.level = level;
+        node.slot = slot;
+        node.prev = null;
+        node.next = wheels[level][slot];
+        if (node.next != null) {
+            node.next.prev = node;
+        }
+        wheels[level][slot] = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            wheels[node.level][node.slot] = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static class Node {
+        final ScheduledMeasurementInfo info;
+        int level;
+        int slot;
+        Node prev;
+        Node next;
+
+        Node(ScheduledMeasurementInfo info) {
+            this.info = info;
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Hands batches of due measurements to a thread pool so that different resources are collected concurrently. The
+ * collections of a single resource are still performed one at a time, in the order in which its batches became due:
+ * batches of a resource that become due while it is being collected are queued up and collected by the same worker,
+ * so a resource component is never asked for its values concurrently.
+ */
+class ResourceCollectionDispatcher {
+
+    /**
+     * Collects a batch of measurements, all of which belong to a single resource.
+     */
+    interface Collector {
+        void collect(Set<ScheduledMeasurementInfo> requests);
+    }
+
+    private final Executor executor;
+
+    private final Collector collector;
+
+    private final Semaphore workers;
+
+    // a resource id is mapped while a collection of that resource is in progress; the value holds the batches of the
+    // resource that became due in the meantime and will be collected by the same worker
+    private final Map<Integer, LinkedList<Set<ScheduledMeasurementInfo>>> resourceCollections = new HashMap<Integer, LinkedList<Set<ScheduledMeasurementInfo>>>();
+
+    /**
+     * @param executor  runs the workers
+     * @param workers   the maximum number of resources collected concurrently
+     * @param collector performs the collections
+     */
+    ResourceCollectionDispatcher(Executor executor, int workers, Collector collector) {
+        this.executor = executor;
+        this.collector = collector;
+        this.workers = new Semaphore(Math.max(1, workers));
+    }
+
+    /**
+     * Blocks until a worker is free. Every call must be followed by a call to {@link #dispatch(Set)}, which hands the
+     * reserved worker a batch. Waiting for a worker before taking a batch off the schedule queue keeps due batches on
+     * the queue while all workers are busy, where the late collection check still applies to them.
+     */
+    void awaitWorker() throws InterruptedException {
+        workers.acquire();
+    }
+
+    /**
+     * Hands a batch to the worker reserved by {@link #awaitWorker()}. If the resource of the batch is already being
+     * collected, the batch is queued up for the worker collecting it and the reserved worker is freed again.
+     *
+     * @param requests the measurements that are due to be collected, all of which belong to a single resource, or
+     *                 <code>null</code> to just free the reserved worker
+     */
+    void dispatch(Set<ScheduledMeasurementInfo> requests) {
+        if (requests == null) {
+            workers.release();
+            return;
+        }
+
+        int resourceId = requests.iterator().next().getResourceId();
+        synchronized (resourceCollections) {
+            LinkedList<Set<ScheduledMeasurementInfo>> pending = resourceCollections.get(resourceId);
+            if (pending != null) {
+                // the resource is already being collected, its worker will pick this batch up when it is done
+                pending.add(requests);
+                workers.release();
+                return;
+            }
+            resourceCollections.put(resourceId, new LinkedList<Set<ScheduledMeasurementInfo>>());
+        }
+
+        try {
+            executor.execute(new ResourceCollection(resourceId, requests));
+        } catch (RejectedExecutionException e) {
+            // the thread pool is shutting down
+            synchronized (resourceCollections) {
+                resourceCollections.remove(resourceId);
+            }
+            workers.release();
+        }
+    }
+
+    private Set<ScheduledMeasurementInfo> nextPendingCollection(int resourceId) {
+        synchronized (resourceCollections) {
+            LinkedList<Set<ScheduledMeasurementInfo>> pending = resourceCollections.get(resourceId);
+            if (pending == null || pending.isEmpty()) {
+                resourceCollections.remove(resourceId);
+                return null;
+            }
+            return pending.removeFirst();
+        }
+    }
+
+    /**
+     * Collects the batches of a single resource, one at a time.
+     */
+    private class ResourceCollection implements Runnable {
+        private final int resourceId;
+        private final Set<ScheduledMeasurementInfo> requests;
+
+        ResourceCollection(int resourceId, Set<ScheduledMeasurementInfo> requests) {
+            this.resourceId = resourceId;
+            this.requests = requests;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Set<ScheduledMeasurementInfo> next = requests;
+                while (next != null) {
+                    collector.collect(next);
+                    next = nextPendingCollection(resourceId);
+                }
+            } finally {
+                workers.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.drift;
+
+import static org.apache.commons.io.FileUtils.writeStringToFile;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.util.MessageDigestGenerator;
+
+public class DigestCacheTest extends DriftTest {
+
+    private static final String SHA = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    private long old() {
+        return System.currentTimeMillis() - 60000L;
+    }
+
+    @Test
+    public void returnCachedDigestOnlyForUnchangedFile() throws Exception {
+        DigestCache cache = new DigestCache(null, 10);
+        File file = new File(resourceDir, "server.conf");
+        long mtime = old();
+
+        cache.put(file, 100L, mtime, SHA);
+
+        assertEquals(cache.get(file, 100L, mtime), SHA);
+        assertNull(cache.get(file, 101L, mtime), "A file whose size changed must not be taken from the cache");
+        assertNull(cache.get(file, 100L, mtime + 1000L), "A modified file must not be taken from the cache");
+    }
+
+    @Test
+    public void doNotCacheRecentlyModifiedFiles() throws Exception {
+        DigestCache cache = new DigestCache(null, 10);
+        File file = new File(resourceDir, "server.conf");
+        long mtime = System.currentTimeMillis();
+
+        cache.put(file, 100L, mtime, SHA);
+
+        assertNull(cache.get(file, 100L, mtime), "A file modified within the grace period must not be cached");
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedDigests() throws Exception {
+        DigestCache cache = new DigestCache(null, 2);
+        long mtime = old();
+        File file1 = new File(resourceDir, "1.conf");
+        File file2 = new File(resourceDir, "2.conf");
+        File file3 = new File(resourceDir, "3.conf");
+
+        cache.put(file1, 1L, mtime, SHA);
+        cache.put(file2, 2L, mtime, SHA);
+        cache.get(file1, 1L, mtime);
+        cache.put(file3, 3L, mtime, SHA);
+
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.get(file1, 1L, mtime), SHA);
+        assertNull(cache.get(file2, 2L, mtime), "The least recently used digest should have been evicted");
+        assertEquals(cache.get(file3, 3L, mtime), SHA);
+    }
+
+    @Test
+    public void storeAndLoad() throws Exception {
+        File cacheFile = new File(changeSetsDir, "digests.dat");
+        File file = new File(resourceDir, "server.conf");
+        long mtime = old();
+
+        DigestCache cache = new DigestCache(cacheFile, 10);
+        cache.put(file, 100L, mtime, SHA);
+        cache.store();
+
+        DigestCache loaded = new DigestCache(cacheFile, 10);
+        loaded.load();
+
+        assertEquals(loaded.size(), 1);
+        assertEquals(loaded.get(file, 100L, mtime), SHA);
+    }
+
+    @Test
+    public void digestFilesInOrderWithMultipleThreads() throws Exception {
+        final List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 100; ++i) {
+            File file = new File(resourceDir, "file-" + i + ".txt");
+            writeStringToFile(file, "contents of file " + i);
+            files.add(file);
+        }
+
+        final List<File> digestedFiles = new ArrayList<File>();
+        final List<String> digests = new ArrayList<String>();
+        FileDigester digester = new FileDigester(new DigestCache(null, 1000), 4);
+        try {
+            digester.digest(files, new FileDigester.Callback() {
+                @Override
+                public void digested(File file, String sha256) {
+                    digestedFiles.add(file);
+                    digests.add(sha256);
+                }
+
+                @Override
+                public void failed(File file, Throwable t) {
+                    throw new AssertionError("Failed to digest " + file + ": " + t);
+                }
+            });
+        } finally {
+            digester.shutdown();
+        }
+
+        assertEquals(digestedFiles, files, "Files should be reported in the order they were given");
+        MessageDigestGenerator generator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+        for (int i = 0; i < files.size(); ++i) {
+            assertEquals(digests.get(i), generator.calcDigestString(files.get(i)), "Wrong digest for "
+                + files.get(i));
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import static org.rhq.core.domain.measurement.AvailabilityType.DOWN;
+import static org.rhq.core.domain.measurement.AvailabilityType.UP;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.pc.PluginContainerConfiguration;
+import org.rhq.core.pc.plugin.FileSystemPluginFinder;
+import org.rhq.core.pluginapi.availability.AvailabilityFacet;
+
+/**
+ * Tests that an availability scan of a multi-subtree inventory produces the same report and counts whether the
+ * resource tree is checked by a single thread or in parallel.
+ */
+@Test
+public class AvailabilityExecutorTest {
+
+    // the platform has 3 servers, each with 3 services that have 2 child services each
+    private static final int SERVERS = 3;
+    private static final int SERVICES = 3;
+    private static final int CHILD_SERVICES = 2;
+    private static final int SUBTREE_SIZE = 1 + SERVICES + (SERVICES * CHILD_SERVICES);
+    private static final int RESOURCES = 1 + (SERVERS * SUBTREE_SIZE);
+
+    // this server is down, so its descendants are not checked but get its availability
+    private static final int DOWN_SERVER_ID = 11;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void parallelScanMatchesSerialScan() throws Exception {
+        ScanResult serial = scan(null);
+        ScanResult parallel = scan(executor);
+
+        assertEquals(serial.availabilities.size(), RESOURCES, "Every resource should be in a full report");
+        for (Map.Entry<Integer, AvailabilityType> availability : serial.availabilities.entrySet()) {
+            int resourceId = availability.getKey();
+            boolean down = (resourceId == DOWN_SERVER_ID) || isBelowDownServer(resourceId);
+            assertEquals(availability.getValue(), down ? DOWN : UP, "Unexpected availability of " + resourceId);
+        }
+        assertEquals(parallel.availabilities, serial.availabilities,
+            "The parallel scan should report the same availabilities as the serial scan");
+
+        assertEquals(serial.scan.getNumResources(), RESOURCES);
+        assertEquals(serial.scan.getNumDeferToParent(), SUBTREE_SIZE - 1);
+        assertEquals(serial.scan.getNumGetAvailabilityCalls(), RESOURCES - (SUBTREE_SIZE - 1));
+        assertEquals(serial.scan.getNumAvailabilityChanges(), RESOURCES);
+
+        // the counts of the checks running on the pool threads are added to the scan when they are done
+        assertEquals(parallel.scan.getNumResources(), serial.scan.getNumResources());
+        assertEquals(parallel.scan.getNumDeferToParent(), serial.scan.getNumDeferToParent());
+        assertEquals(parallel.scan.getNumGetAvailabilityCalls(), serial.scan.getNumGetAvailabilityCalls());
+        assertEquals(parallel.scan.getNumAvailabilityChanges(), serial.scan.getNumAvailabilityChanges());
+        assertEquals(parallel.scan.getNumScheduledRandomly(), serial.scan.getNumScheduledRandomly());
+        assertEquals(parallel.scan.getNumPushedByInterval(), serial.scan.getNumPushedByInterval());
+
+        assertEquals(subtreeSizes(parallel.scan), subtreeSizes(serial.scan));
+        assertEquals(subtreeSizes(serial.scan).size(), SERVERS);
+        for (int subtreeSize : subtreeSizes(serial.scan).values()) {
+            assertEquals(subtreeSize, SUBTREE_SIZE);
+        }
+
+        assertEquals(serial.maxConcurrentChecks, 1);
+        assertTrue(parallel.maxConcurrentChecks > 1, "The subtrees should have been checked concurrently");
+    }
+
+    public void scanWaitsForAllChecks() throws Exception {
+        ScanResult parallel = scan(executor);
+
+        // the scan only ends once no check is pending anymore, so nothing is added to the report afterwards
+        assertEquals(parallel.reportSizeAtEndOfScan, RESOURCES);
+        assertEquals(parallel.checksInProgressAtEndOfScan, 0);
+        Thread.sleep(100L);
+        assertEquals(parallel.report.getResourceAvailability().size(), RESOURCES);
+    }
+
+    public void shutDownScanPoolWithInventoryManager() {
+        PluginContainerConfiguration configuration = new PluginContainerConfiguration();
+        configuration.setPluginFinder(new FileSystemPluginFinder(new File(".")));
+        File dataDir = new File("target/AvailabilityExecutorTest");
+        dataDir.mkdirs();
+        configuration.setDataDirectory(dataDir);
+        configuration.setAvailabilityScanParallelism(4);
+
+        PluginContainer pluginContainer = PluginContainer.getInstance();
+        pluginContainer.setConfiguration(configuration);
+        pluginContainer.initialize();
+        ExecutorService scanExecutor;
+        try {
+            scanExecutor = pluginContainer.getInventoryManager().getAvailabilityScanExecutor();
+            assertNotNull(scanExecutor, "A parallelism above 1 should create the availability scan pool");
+            assertFalse(scanExecutor.isShutdown());
+        } finally {
+            pluginContainer.shutdown();
+        }
+        assertTrue(scanExecutor.isShutdown(), "The availability scan pool should be shut down with the inventory");
+    }
+
+    private boolean isBelowDownServer(int resourceId) {
+        // services are numbered 100 + 10 * server + service, their children 1000 + 100 * server + 10 * service + child
+        int server = DOWN_SERVER_ID - 10;
+        return ((resourceId >= 100) && (resourceId < 1000) && ((resourceId - 100) / 10 == server))
+            || ((resourceId >= 1000) && ((resourceId - 1000) / 100 == server));
+    }
+
+    private Map<Integer, Integer> subtreeSizes(AvailabilityExecutor.Scan scan) {
+        Map<Integer, Integer> sizes = new HashMap<Integer, Integer>();
+        for (AvailabilityExecutor.SubtreeTiming subtreeTiming : scan.getSubtreeTimings()) {
+            sizes.put(subtreeTiming.getResourceId(), subtreeTiming.getNumResources());
+        }
+        return sizes;
+    }
+
+    /**
+     * Runs a full availability scan of a new inventory.
+     *
+     * @param scanExecutor the availability scan pool, or <code>null</code> to scan on the calling thread
+     */
+    private ScanResult scan(ExecutorService scanExecutor) throws Exception {
+        final ScanResult result = new ScanResult();
+        InventoryManager inventoryManager = Mockito.mock(InventoryManager.class);
+        Mockito.when(inventoryManager.getAgent()).thenReturn(new Agent("agent", null, 0, null, null));
+        Mockito.when(inventoryManager.getAvailabilityScanExecutor()).thenReturn(scanExecutor);
+        Mockito.when(
+            inventoryManager.updateAvailability(Mockito.any(Resource.class), Mockito.any(AvailabilityType.class)))
+            .thenAnswer(new Answer<Availability>() {
+                public Availability answer(InvocationOnMock invocation) throws Throwable {
+                    Object[] args = invocation.getArguments();
+                    return new Availability((Resource) args[0], (AvailabilityType) args[1]);
+                }
+            });
+
+        ResourceType platformType = new ResourceType("platform", "platform", ResourceCategory.PLATFORM, null);
+        Resource platform = resource(inventoryManager, result, null, 1, platformType, UP);
+        Mockito.when(inventoryManager.getPlatform()).thenReturn(platform);
+        for (int i = 0; i < SERVERS; ++i) {
+            ResourceType serverType = new ResourceType("server", "plugin" + i, ResourceCategory.SERVER, platformType);
+            ResourceType serviceType = new ResourceType("service", "plugin" + i, ResourceCategory.SERVICE, serverType);
+            int serverId = 10 + i;
+            Resource server = resource(inventoryManager, result, platform, serverId, serverType,
+                (serverId == DOWN_SERVER_ID) ? DOWN : UP);
+            for (int j = 0; j < SERVICES; ++j) {
+                Resource service = resource(inventoryManager, result, server, 100 + (10 * i) + j, serviceType, UP);
+                for (int k = 0; k < CHILD_SERVICES; ++k) {
+                    resource(inventoryManager, result, service, 1000 + (100 * i) + (10 * j) + k, serviceType, UP);
+                }
+            }
+        }
+
+        AvailabilityExecutor availabilityExecutor = new AvailabilityExecutor(inventoryManager);
+        result.report = availabilityExecutor.call();
+        result.reportSizeAtEndOfScan = result.report.getResourceAvailability().size();
+        result.checksInProgressAtEndOfScan = result.getChecksInProgress();
+        result.scan = availabilityExecutor.getMostRecentScanHistory();
+        for (AvailabilityReport.Datum datum : result.report.getResourceAvailability()) {
+            result.availabilities.put(datum.getResourceId(), datum.getAvailabilityType());
+        }
+        return result;
+    }
+
+    /**
+     * Creates a committed, synchronized resource whose component reports the given availability.
+     */
+    private Resource resource(InventoryManager inventoryManager, final ScanResult result, Resource parent, int id,
+        ResourceType type, final AvailabilityType availabilityType) {
+        Resource resource = new Resource("key" + id, "resource" + id, type);
+        resource.setId(id);
+        resource.setUuid("uuid" + id);
+        resource.setInventoryStatus(InventoryStatus.COMMITTED);
+
+        ResourceContainer container = Mockito.mock(ResourceContainer.class);
+        Mockito.when(container.getSynchronizationState()).thenReturn(
+            ResourceContainer.SynchronizationState.SYNCHRONIZED);
+        Mockito.when(container.getResourceComponentState()).thenReturn(
+            ResourceContainer.ResourceComponentState.STARTED);
+        Mockito.when(container.getAvailabilityProxy()).thenReturn(new AvailabilityFacet() {
+            public AvailabilityType getAvailability() {
+                result.checkStarted();
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    result.checkFinished();
+                }
+                return availabilityType;
+            }
+        });
+        Mockito.when(inventoryManager.getResourceContainer(id)).thenReturn(container);
+
+        Set<Resource> children = new LinkedHashSet<Resource>();
+        Mockito.when(inventoryManager.getContainerChildren(resource, container)).thenReturn(children);
+        result.children.put(id, children);
+        if (parent != null) {
+            resource.setParentResource(parent);
+            result.children.get(parent.getId()).add(resource);
+        }
+        return resource;
+    }
+
+    private static class ScanResult {
+        AvailabilityReport report;
+        AvailabilityExecutor.Scan scan;
+        final Map<Integer, AvailabilityType> availabilities = new HashMap<Integer, AvailabilityType>();
+        final Map<Integer, Set<Resource>> children = new HashMap<Integer, Set<Resource>>();
+        int reportSizeAtEndOfScan;
+        int checksInProgressAtEndOfScan;
+
+        // guarded by this
+        private int checksInProgress;
+        private int maxConcurrentChecks;
+
+        synchronized void checkStarted() {
+            maxConcurrentChecks = Math.max(maxConcurrentChecks, ++checksInProgress);
+        }
+
+        synchronized void checkFinished() {
+            --checksInProgress;
+        }
+
+        synchronized int getChecksInProgress() {
+            return checksInProgress;
+        }
+    }
+}
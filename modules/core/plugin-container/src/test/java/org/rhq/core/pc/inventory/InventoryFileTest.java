@@ -0,0 +1,234 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertyList;
+import org.rhq.core.domain.configuration.PropertyMap;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.NumericType;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.pc.PluginContainerConfiguration;
+import org.rhq.core.pc.inventory.ResourceContainer.SynchronizationState;
+
+@Test
+public class InventoryFileTest {
+    private File dataDir;
+    private File file;
+
+    @BeforeClass
+    protected void beforeClass() {
+        PluginContainerConfiguration config = new PluginContainerConfiguration();
+        dataDir = new File("target/InventoryFileTest");
+        dataDir.mkdirs();
+        config.setDataDirectory(dataDir);
+        PluginContainer pc = PluginContainer.getInstance();
+        pc.setConfiguration(config);
+        pc.initialize();
+    }
+
+    @AfterClass
+    protected void afterClass() {
+        PluginContainer.getInstance().shutdown();
+    }
+
+    @BeforeMethod
+    protected void beforeMethod() {
+        file = new File(dataDir, "test-inventory.dat");
+        file.delete();
+    }
+
+    public void testStoreAndLoad() throws Exception {
+        storeAndLoad(false);
+    }
+
+    public void testStoreAndLoadCompressed() throws Exception {
+        storeAndLoad(true);
+    }
+
+    public void testConvertSerializedInventory() throws Exception {
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        Resource platform = createInventory(containers);
+
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            oos.writeObject(platform);
+            oos.writeObject(containers);
+        } finally {
+            oos.close();
+        }
+
+        InventoryFile inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventoryFile.loadInventory();
+        assertInventory(inventoryFile);
+
+        // storing it again writes the binary format
+        inventoryFile.storeInventory(inventoryFile.getPlatform(), inventoryFile.getResourceContainers());
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            assertEquals(in.readInt(), 0x52485149);
+        } finally {
+            in.close();
+        }
+
+        inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventoryFile.loadInventory();
+        assertInventory(inventoryFile);
+    }
+
+    private void storeAndLoad(boolean compressed) throws Exception {
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        Resource platform = createInventory(containers);
+
+        InventoryFile inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventoryFile.setCompressed(compressed);
+        inventoryFile.storeInventory(platform, containers);
+        assertFalse(new File(file.getAbsolutePath() + ".tmp").exists());
+
+        inventoryFile = new InventoryFile(file, getInventoryManager());
+        inventoryFile.loadInventory();
+        assertEquals(inventoryFile.isCompressed(), compressed);
+        assertInventory(inventoryFile);
+    }
+
+    private Resource createInventory(Map<String, ResourceContainer> containers) {
+        Resource platform = createResource(1, "platform");
+        Configuration pluginConfiguration = new Configuration();
+        pluginConfiguration.put(new PropertySimple("host", "localhost"));
+        PropertySimple override = new PropertySimple("port", "2144");
+        override.setOverride(Boolean.TRUE);
+        pluginConfiguration.put(override);
+        pluginConfiguration.put(new PropertyList("names", new PropertySimple("name", "a"), new PropertySimple(
+            "name", "b")));
+        pluginConfiguration.put(new PropertyMap("options", new PropertySimple("verbose", "true")));
+        platform.setPluginConfiguration(pluginConfiguration);
+        ResourceContainer platformContainer = new ResourceContainer(platform, null);
+        platformContainer.setSynchronizationState(SynchronizationState.SYNCHRONIZED);
+        containers.put(platform.getUuid(), platformContainer);
+
+        for (int i = 2; i <= 3; ++i) {
+            Resource child = createResource(i, "child" + i);
+            child.setParentResourceWithoutAncestry(platform);
+            platform.getChildResources().add(child);
+
+            ResourceContainer childContainer = new ResourceContainer(child, null);
+            Set<MeasurementScheduleRequest> schedules = new HashSet<MeasurementScheduleRequest>();
+            schedules.add(new MeasurementScheduleRequest(i * 10, "metric", 60000L, true, DataType.MEASUREMENT,
+                NumericType.DYNAMIC));
+            schedules.add(new MeasurementScheduleRequest(i * 10 + 1, "trait", 600000L, false, DataType.TRAIT));
+            childContainer.setMeasurementSchedule(schedules);
+            containers.put(child.getUuid(), childContainer);
+        }
+
+        return platform;
+    }
+
+    private Resource createResource(int id, String name) {
+        Resource resource = new Resource(new CopyOnWriteArraySet<Resource>());
+        resource.setId(id);
+        resource.setUuid(UUID.randomUUID().toString());
+        resource.setResourceKey(name + "-key");
+        resource.setName(name);
+        resource.setVersion("1.0");
+        resource.setInventoryStatus(InventoryStatus.COMMITTED);
+        resource.setResourceType(PluginMetadataManager.TEST_PLATFORM_TYPE);
+        return resource;
+    }
+
+    private void assertInventory(InventoryFile inventoryFile) {
+        Resource platform = inventoryFile.getPlatform();
+        assertNotNull(platform);
+        assertEquals(platform.getId(), 1);
+        assertEquals(platform.getName(), "platform");
+        assertEquals(platform.getResourceKey(), "platform-key");
+        assertEquals(platform.getVersion(), "1.0");
+        assertEquals(platform.getInventoryStatus(), InventoryStatus.COMMITTED);
+        assertSame(platform.getResourceType(), PluginMetadataManager.TEST_PLATFORM_TYPE);
+
+        Configuration pluginConfiguration = platform.getPluginConfiguration();
+        assertEquals(pluginConfiguration.getSimpleValue("host"), "localhost");
+        assertEquals(pluginConfiguration.getSimple("port").getOverride(), Boolean.TRUE);
+        assertNull(pluginConfiguration.getSimple("host").getOverride());
+        assertEquals(pluginConfiguration.getList("names").getList().size(), 2);
+        assertEquals(pluginConfiguration.getMap("options").getSimpleValue("verbose", null), "true");
+
+        Map<String, ResourceContainer> containers = inventoryFile.getResourceContainers();
+        assertEquals(containers.size(), 3);
+        assertSame(containers.get(platform.getUuid()).getResource(), platform);
+        assertEquals(containers.get(platform.getUuid()).getSynchronizationState(),
+            SynchronizationState.SYNCHRONIZED);
+
+        assertEquals(platform.getChildResources().size(), 2);
+        for (Resource child : platform.getChildResources()) {
+            assertSame(child.getParentResource(), platform);
+            ResourceContainer childContainer = containers.get(child.getUuid());
+            assertSame(childContainer.getResource(), child);
+            assertEquals(childContainer.getMeasurementSchedule().size(), 2);
+            for (MeasurementScheduleRequest schedule : childContainer.getMeasurementSchedule()) {
+                if (schedule.getName().equals("metric")) {
+                    assertEquals(schedule.getScheduleId(), child.getId() * 10);
+                    assertEquals(schedule.getInterval(), 60000L);
+                    assertTrue(schedule.isEnabled());
+                    assertEquals(schedule.getDataType(), DataType.MEASUREMENT);
+                    assertEquals(schedule.getRawNumericType(), NumericType.DYNAMIC);
+                } else {
+                    assertEquals(schedule.getScheduleId(), child.getId() * 10 + 1);
+                    assertEquals(schedule.getInterval(), 600000L);
+                    assertFalse(schedule.isEnabled());
+                    assertEquals(schedule.getDataType(), DataType.TRAIT);
+                    assertNull(schedule.getRawNumericType());
+                }
+            }
+        }
+    }
+
+    private InventoryManager getInventoryManager() {
+        return PluginContainer.getInstance().getInventoryManager();
+    }
+}
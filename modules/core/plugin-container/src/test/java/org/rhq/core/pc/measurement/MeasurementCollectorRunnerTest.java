@@ -0,0 +1,187 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.MeasurementReport;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.PluginContainerConfiguration;
+import org.rhq.core.pc.component.ComponentInvocationContextImpl;
+import org.rhq.core.pc.inventory.InventoryManager;
+import org.rhq.core.pc.inventory.ResourceContainer;
+import org.rhq.core.pluginapi.inventory.ResourceComponent;
+import org.rhq.core.pluginapi.inventory.ResourceContext;
+import org.rhq.core.pluginapi.measurement.MeasurementFacet;
+
+/**
+ * Tests collecting measurements of resource components, one at a time and concurrently.
+ */
+@Test
+public class MeasurementCollectorRunnerTest {
+
+    private static final int FAST_RESOURCE_ID = 1;
+
+    private static final int SLOW_RESOURCE_ID = 2;
+
+    private MeasurementManager measurementManager;
+
+    private MeasurementCollectorRunner runner;
+
+    @BeforeClass
+    public void beforeClass() throws Exception {
+        PluginContainerConfiguration configuration = new PluginContainerConfiguration();
+        configuration.setStartManagementBean(false);
+        configuration.setMeasurementCollectionTimeout(1L);
+        ResourceContainer.initialize(configuration);
+
+        InventoryManager inventoryManager = Mockito.mock(InventoryManager.class);
+        Mockito.when(inventoryManager.getResourceContainer(FAST_RESOURCE_ID)).thenReturn(
+            resourceContainer(FAST_RESOURCE_ID, new MockMeasurementComponent(0L)));
+        Mockito.when(inventoryManager.getResourceContainer(SLOW_RESOURCE_ID)).thenReturn(
+            resourceContainer(SLOW_RESOURCE_ID, new MockMeasurementComponent(TimeUnit.SECONDS.toMillis(5L))));
+
+        measurementManager = new MeasurementManager(configuration, null, inventoryManager);
+        runner = new MeasurementCollectorRunner(measurementManager);
+    }
+
+    @AfterClass
+    public void afterClass() {
+        ResourceContainer.shutdown();
+    }
+
+    public void collectMeasurements() {
+        MeasurementReport report = measurementManager.getActiveReport();
+        long dataCount = report.getDataCount();
+
+        runner.collect(batch(FAST_RESOURCE_ID, 10));
+
+        assertEquals(report.getDataCount(), dataCount + 1, "The value should have been added to the active report");
+    }
+
+    public void abandonCollectionAfterTimeout() {
+        long failedCollections = measurementManager.getFailedCollections();
+        long start = System.currentTimeMillis();
+
+        runner.collect(batch(SLOW_RESOURCE_ID, 20));
+
+        long duration = System.currentTimeMillis() - start;
+        assertTrue(duration < TimeUnit.SECONDS.toMillis(4L), "The collection should have been abandoned after the "
+            + "timeout but took " + duration + "ms");
+        assertEquals(measurementManager.getFailedCollections(), failedCollections + 1,
+            "The abandoned collection should have been counted as failed");
+    }
+
+    public void timeoutOfOneResourceDoesNotDelayOthers() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ResourceCollectionDispatcher dispatcher = new ResourceCollectionDispatcher(executor, 2, runner);
+            MeasurementReport report = measurementManager.getActiveReport();
+            long dataCount = report.getDataCount();
+
+            dispatcher.awaitWorker();
+            dispatcher.dispatch(batch(SLOW_RESOURCE_ID, 21));
+            long start = System.currentTimeMillis();
+            dispatcher.awaitWorker();
+            dispatcher.dispatch(batch(FAST_RESOURCE_ID, 11));
+
+            while (report.getDataCount() == dataCount && System.currentTimeMillis() - start < 5000L) {
+                Thread.sleep(10L);
+            }
+            long duration = System.currentTimeMillis() - start;
+            assertEquals(report.getDataCount(), dataCount + 1);
+            assertTrue(duration < TimeUnit.SECONDS.toMillis(1L), "The fast resource should not have waited for the "
+                + "slow one but took " + duration + "ms");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Set<ScheduledMeasurementInfo> batch(int resourceId, int scheduleId) {
+        MeasurementScheduleRequest request = new MeasurementScheduleRequest(scheduleId, "metric" + scheduleId, 30000L,
+            true, DataType.MEASUREMENT);
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(request, resourceId);
+        info.setNextCollection(System.currentTimeMillis());
+        return Collections.singleton(info);
+    }
+
+    private ResourceContainer resourceContainer(int resourceId, ResourceComponent<?> component) throws Exception {
+        Resource resource = new Resource("key" + resourceId, "resource" + resourceId,
+            PluginMetadataManager.TEST_PLATFORM_TYPE);
+        resource.setId(resourceId);
+        ResourceContainer container = new ResourceContainer(resource, getClass().getClassLoader());
+        ResourceContext resourceContext = new ResourceContext(resource, null, null, null, null, null, null, null, null,
+            null, null, null, null, null, new ComponentInvocationContextImpl());
+        container.setResourceContext(resourceContext);
+        container.setResourceComponent(component);
+        container.setResourceComponentState(ResourceContainer.ResourceComponentState.STARTED);
+        container.updateAvailability(AvailabilityType.UP);
+        return container;
+    }
+
+    private static class MockMeasurementComponent implements ResourceComponent<ResourceComponent<?>>,
+        MeasurementFacet {
+        private final long delay;
+
+        MockMeasurementComponent(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public void start(ResourceContext<ResourceComponent<?>> context) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public AvailabilityType getAvailability() {
+            return AvailabilityType.UP;
+        }
+
+        @Override
+        public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception {
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            for (MeasurementScheduleRequest request : metrics) {
+                report.addData(new MeasurementDataNumeric(request, 1.0));
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares the {@link MeasurementScheduleStore} with the <code>PriorityQueue</code> that the measurement manager
+ * used to keep its schedules in. This is not run as part of the test suite; run it with
+ *
+ * <pre>
+ * java -cp ... org.rhq.core.pc.measurement.MeasurementScheduleStoreBenchmark [schedules] [schedules per resource]
+ * </pre>
+ */
+public class MeasurementScheduleStoreBenchmark {
+
+    private static final long START = 1400000000000L;
+
+    private static final long[] INTERVALS = { 30000L, 60000L, 10 * 60000L, 20 * 60000L, 60 * 60000L };
+
+    private static final int ITERATIONS = 3;
+
+    private final int numSchedules;
+
+    private final int schedulesPerResource;
+
+    public MeasurementScheduleStoreBenchmark(int numSchedules, int schedulesPerResource) {
+        this.numSchedules = numSchedules;
+        this.schedulesPerResource = schedulesPerResource;
+    }
+
+    public static void main(String[] args) {
+        int numSchedules = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int schedulesPerResource = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        new MeasurementScheduleStoreBenchmark(numSchedules, schedulesPerResource).run();
+    }
+
+    public void run() {
+        System.out.println("Benchmarking " + numSchedules + " schedules, " + schedulesPerResource
+            + " per resource");
+        for (int i = 0; i < ITERATIONS; ++i) {
+            boolean report = (i == ITERATIONS - 1);
+            runQueue(report);
+            runStore(report);
+        }
+    }
+
+    private void runQueue(boolean report) {
+        PriorityQueue<ScheduledMeasurementInfo> queue = new PriorityQueue<ScheduledMeasurementInfo>(10000);
+        List<ScheduledMeasurementInfo> schedules = createSchedules();
+
+        long start = System.nanoTime();
+        for (ScheduledMeasurementInfo info : schedules) {
+            queue.remove(info);
+            queue.offer(info);
+        }
+        long load = System.nanoTime() - start;
+
+        // the server sends updated schedules for 1% of the resources
+        List<ScheduledMeasurementInfo> updates = createUpdates();
+        start = System.nanoTime();
+        for (ScheduledMeasurementInfo info : updates) {
+            queue.remove(info);
+            queue.offer(info);
+        }
+        clearDuplicateSchedules(queue);
+        long update = System.nanoTime() - start;
+
+        Set<Integer> resourceIds = createUnscheduledResources();
+        start = System.nanoTime();
+        for (Iterator<ScheduledMeasurementInfo> i = queue.iterator(); i.hasNext();) {
+            if (resourceIds.contains(i.next().getResourceId())) {
+                i.remove();
+            }
+        }
+        long unschedule = System.nanoTime() - start;
+
+        long now = START + 60 * 60000L;
+        start = System.nanoTime();
+        int collected = 0;
+        for (Set<ScheduledMeasurementInfo> set = pollNextScheduledSet(queue, now); set != null; set = pollNextScheduledSet(
+            queue, now)) {
+            collected += set.size();
+            for (ScheduledMeasurementInfo info : set) {
+                info.setNextCollection(now + info.getInterval());
+                queue.offer(info);
+            }
+        }
+        long collect = System.nanoTime() - start;
+
+        if (report) {
+            report("PriorityQueue", load, update, unschedule, collect, collected);
+        }
+    }
+
+    private void runStore(boolean report) {
+        MeasurementScheduleStore store = new MeasurementScheduleStore(START);
+        List<ScheduledMeasurementInfo> schedules = createSchedules();
+
+        long start = System.nanoTime();
+        for (ScheduledMeasurementInfo info : schedules) {
+            store.put(info);
+        }
+        long load = System.nanoTime() - start;
+
+        List<ScheduledMeasurementInfo> updates = createUpdates();
+        start = System.nanoTime();
+        store.putAll(updates);
+        long update = System.nanoTime() - start;
+
+        Set<Integer> resourceIds = createUnscheduledResources();
+        start = System.nanoTime();
+        store.removeResources(resourceIds);
+        long unschedule = System.nanoTime() - start;
+
+        long now = START + 60 * 60000L;
+        start = System.nanoTime();
+        int collected = 0;
+        for (Set<ScheduledMeasurementInfo> set = store.pollNextScheduledSet(now); set != null; set = store
+            .pollNextScheduledSet(now)) {
+            collected += set.size();
+            for (ScheduledMeasurementInfo info : set) {
+                info.setNextCollection(now + info.getInterval());
+            }
+            store.putAllIfAbsent(set);
+        }
+        long collect = System.nanoTime() - start;
+
+        if (report) {
+            report("MeasurementScheduleStore", load, update, unschedule, collect, collected);
+        }
+    }
+
+    private List<ScheduledMeasurementInfo> createSchedules() {
+        Random random = new Random(42);
+        List<ScheduledMeasurementInfo> schedules = new ArrayList<ScheduledMeasurementInfo>(numSchedules);
+        for (int i = 0; i < numSchedules; ++i) {
+            int resourceId = i / schedulesPerResource;
+            long interval = INTERVALS[random.nextInt(INTERVALS.length)];
+            schedules.add(MeasurementScheduleStoreTest.schedule(i, resourceId, START + random.nextInt(60 * 60000),
+                interval));
+        }
+        return schedules;
+    }
+
+    private List<ScheduledMeasurementInfo> createUpdates() {
+        Random random = new Random(43);
+        List<ScheduledMeasurementInfo> updates = new ArrayList<ScheduledMeasurementInfo>();
+        int numResources = numSchedules / schedulesPerResource;
+        for (int i = 0; i < numResources / 100; ++i) {
+            int resourceId = random.nextInt(numResources);
+            for (int j = 0; j < schedulesPerResource; ++j) {
+                int scheduleId = resourceId * schedulesPerResource + j;
+                updates.add(MeasurementScheduleStoreTest.schedule(scheduleId, resourceId, START + 30000L,
+                    INTERVALS[j % INTERVALS.length]));
+            }
+        }
+        return updates;
+    }
+
+    private Set<Integer> createUnscheduledResources() {
+        Random random = new Random(44);
+        Set<Integer> resourceIds = new HashSet<Integer>();
+        int numResources = numSchedules / schedulesPerResource;
+        for (int i = 0; i < numResources / 100; ++i) {
+            resourceIds.add(random.nextInt(numResources));
+        }
+        return resourceIds;
+    }
+
+    private void clearDuplicateSchedules(PriorityQueue<ScheduledMeasurementInfo> queue) {
+        Set<Integer> set = new HashSet<Integer>(queue.size());
+        for (Iterator<ScheduledMeasurementInfo> i = queue.iterator(); i.hasNext();) {
+            if (!set.add(i.next().getScheduleId())) {
+                i.remove();
+            }
+        }
+    }
+
+    private Set<ScheduledMeasurementInfo> pollNextScheduledSet(PriorityQueue<ScheduledMeasurementInfo> queue,
+        long now) {
+        ScheduledMeasurementInfo first = queue.peek();
+        if ((first == null) || (first.getNextCollection() > now)) {
+            return null;
+        }
+        Set<ScheduledMeasurementInfo> set = new HashSet<ScheduledMeasurementInfo>();
+        ScheduledMeasurementInfo next = first;
+        while ((next != null) && (next.getResourceId() == first.getResourceId())
+            && (next.getNextCollection() == first.getNextCollection())) {
+            set.add(queue.poll());
+            next = queue.peek();
+        }
+        return set;
+    }
+
+    private void report(String name, long load, long update, long unschedule, long collect, int collected) {
+        System.out.println(name + ":");
+        System.out.println("  load:       " + millis(load) + " ms");
+        System.out.println("  update:     " + millis(update) + " ms");
+        System.out.println("  unschedule: " + millis(unschedule) + " ms");
+        System.out.println("  collect:    " + millis(collect) + " ms (" + collected + " schedules)");
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+
+@Test
+public class MeasurementScheduleStoreTest {
+
+    private static final long START = 1400000000000L;
+
+    public void pollSchedulesInCollectionOrder() {
+        MeasurementScheduleStore store = new MeasurementScheduleStore(START);
+        store.put(schedule(1, 10, START + 60000L, 60000L));
+        store.put(schedule(2, 10, START + 60000L, 60000L));
+        store.put(schedule(3, 11, START + 30000L, 30000L));
+        store.put(schedule(4, 12, START + 2 * 60 * 60 * 1000L, 60000L));
+
+        assertEquals(store.getNextCollection(START), START + 30000L);
+        assertNull(store.pollNextScheduledSet(START + 29999L), "No schedule should be due yet");
+
+        Set<ScheduledMeasurementInfo> set = store.pollNextScheduledSet(START + 60000L);
+        assertEquals(scheduleIds(set), ids(3));
+        set = store.pollNextScheduledSet(START + 60000L);
+        assertEquals(scheduleIds(set), ids(1, 2));
+        assertNull(store.pollNextScheduledSet(START + 60000L));
+
+        assertEquals(store.getNextCollection(START + 60000L), START + 2 * 60 * 60 * 1000L);
+        assertEquals(scheduleIds(store.pollNextScheduledSet(START + 3 * 60 * 60 * 1000L)), ids(4));
+        assertEquals(store.size(), 0);
+        assertEquals(store.getNextCollection(START + 3 * 60 * 60 * 1000L), Long.MIN_VALUE);
+    }
+
+    public void replaceAndRemoveSchedules() {
+        MeasurementScheduleStore store = new MeasurementScheduleStore(START);
+        store.put(schedule(1, 10, START + 60000L, 60000L));
+        store.put(schedule(2, 10, START + 60000L, 60000L));
+        store.put(schedule(3, 11, START + 60000L, 60000L));
+
+        // a new version of a schedule replaces the old one
+        store.put(schedule(1, 10, START + 120000L, 120000L));
+        assertEquals(store.size(), 3);
+        assertEquals(store.getSchedules(10).size(), 2);
+
+        // a schedule that comes back from collection does not replace a newer version
+        List<ScheduledMeasurementInfo> collected = new ArrayList<ScheduledMeasurementInfo>();
+        collected.add(schedule(1, 10, START + 30000L, 30000L));
+        store.putAllIfAbsent(collected);
+        assertEquals(store.getNextCollection(START), START + 60000L);
+
+        store.removeResources(Collections.singleton(11));
+        assertTrue(store.getSchedules(11).isEmpty(), "The schedules of resource 11 should have been removed");
+        assertEquals(store.size(), 2);
+
+        assertEquals(scheduleIds(store.pollNextScheduledSet(START + 60000L)), ids(2));
+        assertEquals(scheduleIds(store.pollNextScheduledSet(START + 120000L)), ids(1));
+        assertEquals(store.size(), 0);
+    }
+
+    public void matchPriorityQueue() {
+        Random random = new Random(17);
+        MeasurementScheduleStore store = new MeasurementScheduleStore(START);
+        PriorityQueue<ScheduledMeasurementInfo> queue = new PriorityQueue<ScheduledMeasurementInfo>();
+        long[] intervals = { 30000L, 60000L, 10 * 60000L, 60 * 60000L, 24 * 60 * 60000L };
+
+        for (int i = 0; i < 2000; ++i) {
+            long interval = intervals[random.nextInt(intervals.length)];
+            ScheduledMeasurementInfo info = schedule(i, i / 5, START + random.nextInt(3600000), interval);
+            store.put(info);
+            queue.offer(info);
+        }
+
+        long now = START;
+        long end = START + 3L * 24 * 60 * 60 * 1000;
+        while (now < end) {
+            long expectedNext = queue.isEmpty() ? Long.MIN_VALUE : queue.peek().getNextCollection();
+            assertEquals(store.getNextCollection(now), expectedNext, "The next collection time is wrong at " + now);
+
+            if (random.nextInt(1000) == 0) {
+                // the server unschedules a resource
+                int resourceId = random.nextInt(400);
+                store.removeResources(Collections.singleton(resourceId));
+                for (Iterator<ScheduledMeasurementInfo> i = queue.iterator(); i.hasNext();) {
+                    if (i.next().getResourceId() == resourceId) {
+                        i.remove();
+                    }
+                }
+            }
+
+            Set<ScheduledMeasurementInfo> actual = store.pollNextScheduledSet(now);
+            Set<ScheduledMeasurementInfo> expected = pollNextScheduledSet(queue, now);
+            assertEquals(actual, expected, "The wrong schedules were due at " + now);
+
+            if (actual == null) {
+                now += 1 + random.nextInt(5000);
+            } else {
+                for (ScheduledMeasurementInfo info : actual) {
+                    info.setNextCollection(info.getNextCollection() + info.getInterval());
+                }
+                store.putAllIfAbsent(actual);
+                queue.addAll(actual);
+            }
+            assertEquals(store.size(), queue.size());
+        }
+    }
+
+    private Set<ScheduledMeasurementInfo> pollNextScheduledSet(PriorityQueue<ScheduledMeasurementInfo> queue,
+        long now) {
+        ScheduledMeasurementInfo first = queue.peek();
+        if ((first == null) || (first.getNextCollection() > now)) {
+            return null;
+        }
+        Set<ScheduledMeasurementInfo> set = new HashSet<ScheduledMeasurementInfo>();
+        ScheduledMeasurementInfo next = first;
+        while ((next != null) && (next.getResourceId() == first.getResourceId())
+            && (next.getNextCollection() == first.getNextCollection())) {
+            set.add(queue.poll());
+            next = queue.peek();
+        }
+        return set;
+    }
+
+    static ScheduledMeasurementInfo schedule(int scheduleId, int resourceId, long nextCollection, long interval) {
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, interval, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(nextCollection);
+        return info;
+    }
+
+    private Set<Integer> scheduleIds(Set<ScheduledMeasurementInfo> infos) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (ScheduledMeasurementInfo info : infos) {
+            ids.add(info.getScheduleId());
+        }
+        return ids;
+    }
+
+    private Set<Integer> ids(Integer... ids) {
+        Set<Integer> set = new HashSet<Integer>();
+        Collections.addAll(set, ids);
+        return set;
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+
+@Test
+public class ResourceCollectionDispatcherTest {
+
+    private ExecutorService executor;
+
+    private BlockingCollector collector;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        collector = new BlockingCollector();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        collector.release.countDown();
+        executor.shutdownNow();
+    }
+
+    public void collectDifferentResourcesConcurrently() throws Exception {
+        ResourceCollectionDispatcher dispatcher = new ResourceCollectionDispatcher(executor, 2, collector);
+        collector.expect(2);
+
+        dispatch(dispatcher, batch(1, 10));
+        dispatch(dispatcher, batch(2, 20));
+
+        assertTrue(collector.started.await(5, TimeUnit.SECONDS),
+            "Both resources should be collected while neither collection has completed");
+        collector.release.countDown();
+        collector.awaitCollections(2);
+        assertEquals(collector.maxConcurrency, 2);
+    }
+
+    public void serializeCollectionsOfTheSameResource() throws Exception {
+        ResourceCollectionDispatcher dispatcher = new ResourceCollectionDispatcher(executor, 3, collector);
+        collector.expect(1);
+
+        dispatch(dispatcher, batch(1, 10));
+        assertTrue(collector.started.await(5, TimeUnit.SECONDS));
+        // these become due while the resource is being collected
+        dispatch(dispatcher, batch(1, 11));
+        dispatch(dispatcher, batch(1, 12));
+
+        collector.release.countDown();
+        collector.awaitCollections(3);
+        assertEquals(collector.maxConcurrency, 1, "A resource should never be collected concurrently");
+        assertEquals(collector.getScheduleIds(1), ids(10, 11, 12), "Batches should be collected in the order they "
+            + "became due");
+    }
+
+    public void waitForAFreeWorker() throws Exception {
+        final ResourceCollectionDispatcher dispatcher = new ResourceCollectionDispatcher(executor, 1, collector);
+        collector.expect(1);
+
+        dispatch(dispatcher, batch(1, 10));
+        assertTrue(collector.started.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch reserved = new CountDownLatch(1);
+        Thread requester = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    dispatcher.awaitWorker();
+                    reserved.countDown();
+                    dispatcher.dispatch(null);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        requester.start();
+        assertFalse(reserved.await(200, TimeUnit.MILLISECONDS), "No worker should be free while one is collecting");
+
+        collector.release.countDown();
+        assertTrue(reserved.await(5, TimeUnit.SECONDS), "The worker should be free after the collection completed");
+        requester.join(5000);
+    }
+
+    private void dispatch(ResourceCollectionDispatcher dispatcher, Set<ScheduledMeasurementInfo> requests)
+        throws InterruptedException {
+        dispatcher.awaitWorker();
+        dispatcher.dispatch(requests);
+    }
+
+    private Set<ScheduledMeasurementInfo> batch(int resourceId, int scheduleId) {
+        MeasurementScheduleRequest request = new MeasurementScheduleRequest(scheduleId, "metric" + scheduleId, 30000L,
+            true, DataType.MEASUREMENT);
+        return Collections.singleton(new ScheduledMeasurementInfo(request, resourceId));
+    }
+
+    private List<Integer> ids(Integer... ids) {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+
+    /**
+     * Blocks every collection until it is released and records the batches it collected.
+     */
+    private static class BlockingCollector implements ResourceCollectionDispatcher.Collector {
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile CountDownLatch started;
+        int concurrency;
+        int maxConcurrency;
+        int collections;
+        final Map<Integer, List<Integer>> scheduleIds = new HashMap<Integer, List<Integer>>();
+
+        void expect(int collections) {
+            started = new CountDownLatch(collections);
+        }
+
+        @Override
+        public void collect(Set<ScheduledMeasurementInfo> requests) {
+            synchronized (this) {
+                maxConcurrency = Math.max(maxConcurrency, ++concurrency);
+            }
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                --concurrency;
+                ScheduledMeasurementInfo request = requests.iterator().next();
+                List<Integer> ids = scheduleIds.get(request.getResourceId());
+                if (ids == null) {
+                    ids = new ArrayList<Integer>();
+                    scheduleIds.put(request.getResourceId(), ids);
+                }
+                ids.add(request.getScheduleId());
+                ++collections;
+                notifyAll();
+            }
+        }
+
+        synchronized void awaitCollections(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000L;
+            while (collections < count && System.currentTimeMillis() < end) {
+                wait(100L);
+            }
+            assertEquals(collections, count);
+        }
+
+        synchronized List<Integer> getScheduleIds(int resourceId) {
+            return scheduleIds.get(resourceId);
+        }
+    }
+}
@@ -1136,6 +1136,10 @@ public class AgentConfiguration {
             AgentConfigurationConstants.PLUGINS_CHILD_RESOURCE_DISOVERY_PERIOD,
             AgentConfigurationConstants.DEFAULT_PLUGINS_CHILD_RESOURCE_DISCOVERY_PERIOD);
 
+        boolean inventoryFileCompressed = m_preferences.getBoolean(
+            AgentConfigurationConstants.PLUGINS_INVENTORY_FILE_COMPRESSED,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_INVENTORY_FILE_COMPRESSED);
+
         // get the time interval in which availability scans run
         long avail_scan_period = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_PERIOD,
             AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_PERIOD);
@@ -1147,6 +1151,9 @@ public class AgentConfiguration {
         int avail_scan_threadpool_size = m_preferences.getInt(
             AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE,
             AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE);
+        int avail_scan_parallelism = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_PARALLELISM,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_PARALLELISM);
 
         // get the initial delay before measurement collections begin
         long meas_scan_initial_delay = m_preferences.getLong(
@@ -1160,6 +1167,11 @@ public class AgentConfiguration {
         int meas_threadpool_size = m_preferences.getInt(
             AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE,
             AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE);
+        boolean meas_parallel = m_preferences.getBoolean(
+            AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLLECTION_PARALLEL,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_COLLECTION_PARALLEL);
+        long meas_timeout = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT);
 
         // get the drift settings
         long drift_period = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_PERIOD,
@@ -1167,6 +1179,12 @@ public class AgentConfiguration {
         long drift_initial_delay = m_preferences.getLong(
             AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_INITIAL_DELAY,
             AgentConfigurationConstants.DEFAULT_PLUGINS_DRIFT_DETECTION_INITIAL_DELAY);
+        int drift_digest_threads = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_DIGEST_THREADS,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_DRIFT_DETECTION_DIGEST_THREADS);
+        int drift_digest_cache_size = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_DIGEST_CACHE_SIZE,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_DRIFT_DETECTION_DIGEST_CACHE_SIZE);
 
         // determine how many operation invoker threads should be in the threadpool that is used to execute operations
         int op_threadpool_size = m_preferences.getInt(
@@ -1262,13 +1280,19 @@ public class AgentConfiguration {
         config.setServiceDiscoveryInitialDelay(service_discovery_initial_delay);
         config.setServiceDiscoveryPeriod(service_discovery_period);
         config.setChildResourceDiscoveryDelay(childResourceDiscoveryDelay);
+        config.setInventoryFileCompressed(inventoryFileCompressed);
         config.setAvailabilityScanInitialDelay(avail_scan_initial_delay);
         config.setAvailabilityScanPeriod(avail_scan_period);
         config.setAvailabilityScanThreadPoolSize(avail_scan_threadpool_size);
+        config.setAvailabilityScanParallelism(avail_scan_parallelism);
         config.setMeasurementCollectionThreadPoolSize(meas_threadpool_size);
         config.setMeasurementCollectionInitialDelay(meas_scan_initial_delay);
+        config.setMeasurementCollectionParallel(meas_parallel);
+        config.setMeasurementCollectionTimeout(meas_timeout);
         config.setDriftDetectionInitialDelay(drift_initial_delay);
         config.setDriftDetectionPeriod(drift_period);
+        config.setDriftDetectionDigestThreads(drift_digest_threads);
+        config.setDriftDetectionDigestCacheSize(drift_digest_cache_size);
         config.setOperationInvokerThreadPoolSize(op_threadpool_size);
         config.setOperationInvocationTimeout(op_timeout);
         config.setContentDiscoveryThreadPoolSize(con_threadpool_size);
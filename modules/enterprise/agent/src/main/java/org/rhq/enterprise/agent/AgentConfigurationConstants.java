@@ -623,6 +623,16 @@ public interface AgentConfigurationConstants {
      */
     long DEFAULT_PLUGINS_CHILD_RESOURCE_DISCOVERY_PERIOD = PluginContainerConfiguration.CHILD_RESOURCE_DISCOVERY_DELAY_DEFAULT;
 
+    /**
+     * If <code>true</code>, the inventory the agent persists to its data directory on shutdown is compressed.
+     */
+    String PLUGINS_INVENTORY_FILE_COMPRESSED = PROPERTY_NAME_PREFIX + "plugins.inventory-file.compressed";
+
+    /**
+     * The default is to persist the inventory uncompressed.
+     */
+    boolean DEFAULT_PLUGINS_INVENTORY_FILE_COMPRESSED = PluginContainerConfiguration.INVENTORY_FILE_COMPRESSED_DEFAULT;
+
     /**
      * Defines, in seconds, the initial delay before the first availability scan is run.
      */
@@ -655,6 +665,16 @@ public interface AgentConfigurationConstants {
      */
     int DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE = PluginContainerConfiguration.AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT;
 
+    /**
+     * Defines how many threads an availability scan uses to check different parts of the resource tree concurrently.
+     */
+    String PLUGINS_AVAILABILITY_SCAN_PARALLELISM = PROPERTY_NAME_PREFIX + "plugins.availability-scan.parallelism";
+
+    /**
+     * The default is to scan the resource tree on a single thread.
+     */
+    int DEFAULT_PLUGINS_AVAILABILITY_SCAN_PARALLELISM = PluginContainerConfiguration.AVAILABILITY_SCAN_PARALLELISM_DEFAULT;
+
     /**
      * If defined, this is to be the size of the measurement collection thread pool. If not defined, the plugin
      * container should default to something it considers appropriate.
@@ -678,6 +698,29 @@ public interface AgentConfigurationConstants {
      */
     long DEFAULT_PLUGINS_MEASUREMENT_COLLECTION_INITIAL_DELAY = PluginContainerConfiguration.MEASUREMENT_COLLECTION_INITIAL_DELAY_DEFAULT;
 
+    /**
+     * If <code>true</code>, measurements of different resources are collected concurrently by the measurement
+     * collection thread pool rather than serially by a single thread.
+     */
+    String PLUGINS_MEASUREMENT_COLLECTION_PARALLEL = PROPERTY_NAME_PREFIX + "plugins.measurement-collection.parallel";
+
+    /**
+     * The default is to collect measurements serially.
+     */
+    boolean DEFAULT_PLUGINS_MEASUREMENT_COLLECTION_PARALLEL = PluginContainerConfiguration.MEASUREMENT_COLLECTION_PARALLEL_DEFAULT;
+
+    /**
+     * Defines, in seconds, how long a resource component is given to return its measurement values. This applies to
+     * every component and limits each of its collections separately.
+     */
+    String PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT = PROPERTY_NAME_PREFIX
+        + "plugins.measurement-collection.timeout-secs";
+
+    /**
+     * The default measurement collection timeout, in seconds.
+     */
+    long DEFAULT_PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT = PluginContainerConfiguration.MEASUREMENT_COLLECTION_TIMEOUT_DEFAULT;
+
     /**
      * Defines, in seconds, the initial delay before the first drift detection scan is run.
      */
@@ -698,6 +741,27 @@ public interface AgentConfigurationConstants {
      */
     long DEFAULT_PLUGINS_DRIFT_DETECTION_PERIOD = PluginContainerConfiguration.DRIFT_DETECTION_PERIOD_DEFAULT;
 
+    /**
+     * Defines the number of threads that compute file digests concurrently during a drift detection scan.
+     */
+    String PLUGINS_DRIFT_DETECTION_DIGEST_THREADS = PROPERTY_NAME_PREFIX + "plugins.drift-detection.digest-threads";
+
+    /**
+     * The default number of threads that compute file digests during a drift detection scan.
+     */
+    int DEFAULT_PLUGINS_DRIFT_DETECTION_DIGEST_THREADS = PluginContainerConfiguration.DRIFT_DETECTION_DIGEST_THREADS_DEFAULT;
+
+    /**
+     * Defines the maximum number of file digests remembered across drift detection scans and agent restarts.
+     */
+    String PLUGINS_DRIFT_DETECTION_DIGEST_CACHE_SIZE = PROPERTY_NAME_PREFIX
+        + "plugins.drift-detection.digest-cache-size";
+
+    /**
+     * The default maximum number of file digests remembered across drift detection scans.
+     */
+    int DEFAULT_PLUGINS_DRIFT_DETECTION_DIGEST_CACHE_SIZE = PluginContainerConfiguration.DRIFT_DETECTION_DIGEST_CACHE_SIZE_DEFAULT;
+
     /**
      * If defined, this is to be the size of the content discovery thread pool. If not defined, the plugin container
      * should default to something it considers appropriate.
@@ -600,6 +600,33 @@ public class ServiceContainerConfiguration {
         return value;
     }
 
+    /**
+     * Returns the size of the chunks in which remote clients stream the {@link RemoteOutputStream output} and
+     * {@link RemoteInputStream input} streams remoted by this server. If 0, remote clients do not stream them but
+     * invoke the stream methods one at a time.
+     *
+     * @return the chunk size in bytes
+     */
+    public int getRemoteStreamChunkSize() {
+        int value = m_preferences.getInt(ServiceContainerConfigurationConstants.REMOTE_STREAM_CHUNK_SIZE,
+            ServiceContainerConfigurationConstants.DEFAULT_REMOTE_STREAM_CHUNK_SIZE);
+
+        return value;
+    }
+
+    /**
+     * Returns the maximum number of chunks a remote client has in flight at the same time when it streams one of the
+     * {@link RemoteOutputStream output} or {@link RemoteInputStream input} streams remoted by this server.
+     *
+     * @return the maximum number of chunks in flight
+     */
+    public int getRemoteStreamMaxOutstandingChunks() {
+        int value = m_preferences.getInt(ServiceContainerConfigurationConstants.REMOTE_STREAM_MAX_OUTSTANDING_CHUNKS,
+            ServiceContainerConfigurationConstants.DEFAULT_REMOTE_STREAM_MAX_OUTSTANDING_CHUNKS);
+
+        return value;
+    }
+
     /**
      * Returns the flag to indicate if the command service directory has been enabled to perform dynamic discovery of
      * new command services that are added to (or old services removed from) the system after the initial startup
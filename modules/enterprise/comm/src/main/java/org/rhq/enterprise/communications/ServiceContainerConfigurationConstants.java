@@ -321,6 +321,29 @@ public interface ServiceContainerConfigurationConstants {
      */
     long DEFAULT_REMOTE_STREAM_MAX_IDLE_TIME = 300000L;
 
+    /**
+     * The size of the chunks in which remoted streams hosted in a server are transferred when remote clients stream
+     * them. A remote client keeps several chunks in flight so that transfers are not slowed down by waiting a round
+     * trip for every chunk. 0 disables streaming; remote clients then invoke the stream methods one at a time.
+     */
+    String REMOTE_STREAM_CHUNK_SIZE = PROPERTY_NAME_PREFIX + "remote-stream-chunk-size";
+
+    /**
+     * The default chunk size for the remote streams.
+     */
+    int DEFAULT_REMOTE_STREAM_CHUNK_SIZE = 65536;
+
+    /**
+     * The maximum number of chunks of a remoted stream a remote client has in flight at the same time when it streams
+     * the stream.
+     */
+    String REMOTE_STREAM_MAX_OUTSTANDING_CHUNKS = PROPERTY_NAME_PREFIX + "remote-stream-max-outstanding-chunks";
+
+    /**
+     * The default maximum number of chunks in flight for the remote streams.
+     */
+    int DEFAULT_REMOTE_STREAM_MAX_OUTSTANDING_CHUNKS = 4;
+
     /**
      * A fully qualified class name of the {@link CommandAuthenticator} implementation that will be used to authenticate
      * incoming commands.
@@ -21,11 +21,15 @@ package org.rhq.enterprise.communications.command.client;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import mazz.i18n.Logger;
@@ -36,38 +40,33 @@ import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
 import org.rhq.enterprise.communications.util.DumpBytes;
 
 /**
- * Persists byte arrays in a FIFO queue file. The file will grow to a limited, maximum size. If more entries are put on
- * the queue and those new entries cause the file to grow beyond the maximum file size, the file will be compressed and,
- * quite possibly, older entries will get deleted to shrink the file back down under a configured percentage of used
- * space.
+ * Persists byte arrays in a FIFO queue on disk. The queue will grow to a limited, maximum size. If more entries are put
+ * on the queue and those new entries cause the queue to grow beyond the maximum size, the oldest entries in the queue
+ * will get deleted to shrink the queue back down under a configured percentage of used space.
  *
- * <p>This queue is implemented as a linked list with each entry in the file sequentially written (that is, the linked
- * list is actually a chain link running from start to end of the file - the next linked entry is always the next entry
- * in the file). Each list entry consists of a next pointer (a long) followed by a byte array that contains the entry's
- * true data. The next pointer is actually relative to the entry - meaning the next pointer is really the size of the
- * entry in bytes not including the size of the next pointer itself. If you know the file position of the next pointer
- * and the next pointer value itself, add the two together along with the size of the next pointer itself (a <code>
- * long</code> which is 8-bytes usually) and you get the file position of the next entry. We do it this way in order to
- * make the purging more efficient - since all the next pointers are relative to the actual position of the file (and we
- * know all entries are written sequentially in the file), we don't have to update the next pointers if we shift all
- * entries down in the file en masse.</p>
+ * <p>The entries are appended to a chain of fixed size segment files that are memory mapped. The segment files are
+ * named after the FIFO file with a sequence number appended (e.g. <code>command-spool.dat.42</code>). Each entry in a
+ * segment consists of its size (an <code>int</code>) followed by the entry's true data. An entry that does not fit in
+ * the remaining space of a segment starts a new segment; a size of <code>-1</code> (or the end of the segment file)
+ * marks that the next entry is found at the start of the next segment. Entries are never moved once written - when all
+ * the entries of a segment have been taken from the queue, or when the oldest entries have to be purged, the whole
+ * segment file is deleted.</p>
  *
- * <p>The first <code>long</code> in the file is the count of elements in the FIFO - this allows you to know the number
- * of entries in the FIFO without walking all the links to count along the way. The second <code>long</code> in the file
- * is the head pointer. The third <code>long</code> in the file is the tail pointer. If the head pointer is -1, the FIFO
- * queue is considered empty. If it is 0 or larger, it is the file pointer position within the file where the first
- * entry starts. When entries are put on the queue, they are added to the tail. When entries are taken from the queue,
- * they are removed from head.</p>
+ * <p>The FIFO file itself is a small, memory mapped checkpoint that records where the queue starts and ends:</p>
  *
  * <pre>
- * count | HEAD | TAIL | next | entry-byte-array-data | next | entry-byte-array-data | next | entry | EOF
- *          |      |     ^  |                           ^  |                           ^ ^
- *          |      |     |  |                           |  |                           | |
- *          |      |     |  +---------------------------+  +---------------------------+ |
- *          |      +-----|---------------------------------------------------------------+
- *          +------------+
+ * magic | count | size | HEAD segment | HEAD offset | TAIL segment | TAIL offset
  * </pre>
  *
+ * <p>The count is the number of entries in the queue and the size is the number of bytes they take up in the segments.
+ * The head points to the first entry in the queue, the tail to the position where the next entry will be written. If
+ * the segment numbers are -1, no segment file has been written yet. When entries are put on the queue, they are added
+ * to the tail. When entries are taken from the queue, they are removed from head.</p>
+ *
+ * <p>Earlier versions of this class stored the queue in a single file that starts with the count of entries instead of
+ * the magic number. Such a file is converted to segments when it is opened, so the entries spooled by an older version
+ * are not lost.</p>
+ *
  * @author John Mazzitelli
  */
 public class PersistentFifo {
@@ -78,17 +77,35 @@ public class PersistentFifo {
 
     private static final Object m_fileLock = PersistentFifo.class;
 
+    /**
+     * Identifies a checkpoint file. Files of the older format start with the count of entries, which is never negative.
+     */
+    private static final long MAGIC = 0xFFFF524851464946L;
+
+    private static final int CHECKPOINT_SIZE = 64;
+    private static final int COUNT_POSITION = 8;
+    private static final int SIZE_POSITION = 16;
+    private static final int HEAD_SEGMENT_POSITION = 24;
+    private static final int HEAD_OFFSET_POSITION = 32;
+    private static final int TAIL_SEGMENT_POSITION = 36;
+    private static final int TAIL_OFFSET_POSITION = 44;
+
+    private static final int ENTRY_HEADER_SIZE = 4; // the size of an entry's size
+    private static final int END_OF_SEGMENT = -1;
+    private static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
     private File m_file;
-    private RandomAccessFile m_randomAccessFile;
+    private MappedByteBuffer m_checkpoint;
     private long m_count; // the current count of entries in the FIFO
-    private long m_head; // the position pointed to by the head pointer
-    private long m_tail; // the position pointed to by the tail pointer
-    private long m_countPosition; // the file position where the count is stored (i.e. the number of entries in the fifo)
-    private long m_headPosition; // the file position where the head pointer can be found
-    private long m_tailPosition; // the file position where the tail pointer can be found
-    private long m_longSize; // the size in bytes that it takes to store a long number
-    private long m_maxSizeBytes; // size of the file that, when reached, triggers a purge
-    private long m_purgeResultMaxBytes; // the number of bytes the file must be less than after a purge
+    private long m_size; // the number of bytes the entries take up in the segments, including their sizes
+    private Segment m_head; // the segment where the first entry is found, null if no segment has been written
+    private int m_headOffset; // the position of the first entry in the head segment
+    private Segment m_tail; // the segment where the next entry will be written, null if no segment has been written
+    private int m_tailOffset; // the position in the tail segment where the next entry will be written
+    private int m_segmentSize; // the size of a new segment file
+    private long m_maxSizeBytes; // size of the queue that, when reached, triggers a purge
+    private long m_purgeResultMaxBytes; // the number of bytes the queue must be less than after a purge
     private boolean m_compress; // will be true if we are to compress the data before persisting
 
     /**
@@ -145,73 +162,72 @@ public class PersistentFifo {
             return;
         }
 
-        RandomAccessFile raf = fifo.getRandomAccessFile();
-        boolean last_entry = (fifo.m_head == -1L); // if head is -1, there are no entries
-        long entry_num = 0;
-        byte[] entry;
-
-        // go to the first entry
-        if (!last_entry) {
-            raf.seek(fifo.m_head);
-        }
-
-        while (!last_entry) {
-            // get the next pointer; if this is the last entry, then we'll read to the end of the file
-            long next = raf.readLong();
-            if (next == -1) {
-                next = raf.length() - raf.getFilePointer();
-                last_entry = true;
-            }
-
-            // we can now determine the size of the entry to read - go from current position to the next pointer
-            int entry_size = (int) next;
-            entry = new byte[entry_size];
-
-            // fully read in the entry
-            raf.readFully(entry);
-
-            if (fifo.m_compress) {
-                entry = fifo.decompress(entry);
-            }
-
-            String entry_string;
-
-            out.print("[" + entry_num++ + "] ");
-
-            if (raw_byte_base == 0) {
-                Object obj = StreamUtil.deserialize(entry);
-                entry_string = obj.toString();
-            } else {
-                out.println();
+        synchronized (m_fileLock) {
+            Segment segment = fifo.m_head;
+            int offset = fifo.m_headOffset;
+            byte[] entry;
 
-                switch (raw_byte_base) {
-                case DumpBytes.BASE_HEX: {
-                    entry_string = DumpBytes.dumpHexData(entry);
-                    break;
+            for (long entry_num = 0; entry_num < fifo.m_count; entry_num++) {
+                // if the next entry is in the next segment, walk over to it; we only peek so the entries remain queued
+                if (isEndOfSegment(segment, offset)) {
+                    Segment next = fifo.openSegment(segment.sequence + 1);
+                    if ((segment != fifo.m_head) && (segment != fifo.m_tail)) {
+                        segment.release();
+                    }
+                    segment = next;
+                    offset = 0;
                 }
 
-                case DumpBytes.BASE_DEC: {
-                    entry_string = DumpBytes.dumpDecData(entry);
-                    break;
-                }
+                entry = segment.read(offset);
+                offset += ENTRY_HEADER_SIZE + entry.length;
 
-                case DumpBytes.BASE_OCT: {
-                    entry_string = DumpBytes.dumpOctData(entry);
-                    break;
+                if (fifo.m_compress) {
+                    entry = fifo.decompress(entry);
                 }
 
-                case DumpBytes.BASE_BIN: {
-                    entry_string = DumpBytes.dumpBinData(entry);
-                    break;
+                String entry_string;
+
+                out.print("[" + entry_num + "] ");
+
+                if (raw_byte_base == 0) {
+                    Object obj = StreamUtil.deserialize(entry);
+                    entry_string = obj.toString();
+                } else {
+                    out.println();
+
+                    switch (raw_byte_base) {
+                    case DumpBytes.BASE_HEX: {
+                        entry_string = DumpBytes.dumpHexData(entry);
+                        break;
+                    }
+
+                    case DumpBytes.BASE_DEC: {
+                        entry_string = DumpBytes.dumpDecData(entry);
+                        break;
+                    }
+
+                    case DumpBytes.BASE_OCT: {
+                        entry_string = DumpBytes.dumpOctData(entry);
+                        break;
+                    }
+
+                    case DumpBytes.BASE_BIN: {
+                        entry_string = DumpBytes.dumpBinData(entry);
+                        break;
+                    }
+
+                    default: {
+                        entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
+                    }
+                    }
                 }
 
-                default: {
-                    entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
-                }
-                }
+                out.println(entry_string);
             }
 
-            out.println(entry_string);
+            if ((segment != null) && (segment != fifo.m_head) && (segment != fifo.m_tail)) {
+                segment.release();
+            }
         }
 
         out.flush();
@@ -220,14 +236,16 @@ public class PersistentFifo {
     }
 
     /**
-     * Creates a new {@link PersistentFifo} object. The <code>max_size_bytes</code> indicates the maximum size this file
-     * is allowed to grow before a purge is triggered. If this threshold is crossed (that is, if the file grows larger
-     * than the maximum size allowed), the file is compressed and, if needed, the oldest entries in the queue will get
-     * deleted to make room for new entries. The amount of space purged will be enough to lower the used space
-     * percentage down to <code>purge_percentage</code> or less.
-     *
-     * @param  file             the file containing the FIFO data
-     * @param  max_size_bytes   the maximum size, in bytes, the persistent file is allowed to grow before a purge is
+     * Creates a new {@link PersistentFifo} object. The <code>max_size_bytes</code> indicates the maximum size the queue
+     * is allowed to grow before a purge is triggered. If this threshold is crossed (that is, if the queue grows larger
+     * than the maximum size allowed), the oldest entries in the queue will get deleted to make room for new entries.
+     * The amount of space purged will be enough to lower the used space percentage down to <code>
+     * purge_percentage</code> or less.
+     *
+     * <p>If the file was written by an older version of this class, its entries are converted to segment files.</p>
+     *
+     * @param  file             the file containing the FIFO checkpoint
+     * @param  max_size_bytes   the maximum size, in bytes, the persistent queue is allowed to grow before a purge is
      *                          triggered
      * @param  purge_percentage when a purge is triggered, it will free up enough space to lower the amount of used
      *                          space down to this percentage of the total max space
@@ -248,30 +266,23 @@ public class PersistentFifo {
         }
 
         m_file = file;
-        m_purgeResultMaxBytes = (int) (max_size_bytes * (purge_percentage / 100.0f));
+        m_purgeResultMaxBytes = (long) (max_size_bytes * (purge_percentage / 100.0f));
         m_maxSizeBytes = max_size_bytes;
         m_compress = compress;
 
+        // purges delete whole segments, so a segment must be a small fraction of the maximum size
+        m_segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, max_size_bytes / 8));
+
         synchronized (m_fileLock) {
             // if file doesn't exist or is virtually empty
             if (!m_file.exists() || (m_file.length() < 8)) {
                 initializeEmptyFile();
+            } else if (readMagic() != MAGIC) {
+                convertLegacyFile();
             } else {
-                // file exists, let's get our count, head and tail pointers and their positions
-                RandomAccessFile raf = getRandomAccessFile();
-
-                // count is first, head is second, tail is third
-                m_countPosition = 0L;
-                readCount(raf);
-                m_headPosition = raf.getFilePointer();
-                readHead(raf);
-                m_tailPosition = raf.getFilePointer();
-                readTail(raf);
+                readCheckpoint();
+                deleteStaleSegments();
             }
-
-            // this is me being paranoid - rather than hardcode the obvious value of 8, let's calculate it in case for some strange
-            // reason, the value is different on some platform
-            m_longSize = m_tailPosition - m_headPosition;
         }
 
         return;
@@ -324,34 +335,8 @@ public class PersistentFifo {
         }
 
         synchronized (m_fileLock) {
-            RandomAccessFile raf = getRandomAccessFile();
-            long new_entry_pos = raf.length(); // where the new entry will start
-            boolean is_first_entry = (m_head == -1);
-
-            // bump up the count
-            writeCount(raf, ++m_count);
-
-            if (is_first_entry) {
-                // this will be the first item in the queue, set the head to indicate we have data now
-                writeHead(raf, new_entry_pos);
-            } else {
-                // update the previous entry's next pointer
-                raf.seek(m_tail);
-                raf.writeLong(new_entry_pos - m_tail - m_longSize);
-            }
-
-            // go to the new entry's position and write its next pointer and the data
-            raf.seek(new_entry_pos);
-            raf.writeLong(-1L); // sets the next pointer to indicate this is the last entry
-            raf.write(bytes);
-
-            // finally, update the tail
-            writeTail(raf, new_entry_pos);
-
-            // if we went over the maximum file size limit, start purging some entries to make room
-            if (raf.length() > m_maxSizeBytes) {
-                purge(raf, raf.length() - m_purgeResultMaxBytes);
-            }
+            append(bytes);
+            writeCheckpoint();
         }
 
         return;
@@ -365,50 +350,23 @@ public class PersistentFifo {
      * @throws IOException
      */
     public byte[] take() throws IOException {
+        byte[] entry;
+
         synchronized (m_fileLock) {
             // return immediately if there are no entries in the queue
-            if (m_head == -1L) {
+            if (m_count == 0L) {
                 return null;
             }
 
-            RandomAccessFile raf = getRandomAccessFile();
-            boolean last_entry = false;
-            byte[] entry;
-
-            // go to the first entry
-            raf.seek(m_head);
-
-            // get the next pointer; if this is the last entry, then we'll read to the end of the file
-            long next = raf.readLong();
-            if (next == -1) {
-                next = raf.length() - raf.getFilePointer();
-                last_entry = true;
-            }
-
-            // we can now determine the size of the entry to read - go from current position to the next pointer
-            int entry_size = (int) next;
-            entry = new byte[entry_size];
-
-            // fully read in the entry
-            raf.readFully(entry);
-
-            if (last_entry) {
-                // this was the last entry - let's shrink the file down to its minimal size
-                initializeEmptyFile();
-            } else {
-                // move the head to the next entry
-                writeHead(raf, m_head + next + m_longSize);
-
-                // decrement the count
-                writeCount(raf, --m_count);
-            }
-
-            if (m_compress) {
-                entry = decompress(entry);
-            }
+            entry = removeHead();
+            writeCheckpoint();
+        }
 
-            return entry;
+        if (m_compress) {
+            entry = decompress(entry);
         }
+
+        return entry;
     }
 
     /**
@@ -421,7 +379,7 @@ public class PersistentFifo {
      */
     public boolean isEmpty() throws IOException {
         synchronized (m_fileLock) {
-            return readHead(getRandomAccessFile()) == -1;
+            return m_count == 0L;
         }
     }
 
@@ -434,219 +392,396 @@ public class PersistentFifo {
      */
     public long count() throws IOException {
         synchronized (m_fileLock) {
-            return readCount(getRandomAccessFile());
+            return m_count;
         }
     }
 
     /**
      * This initializes the file to indicate that the queue is empty - call this when the file does not yet exist or if
-     * you want to shrink the file down to its minimal size.
+     * you want to shrink the queue down to its minimal size. All segment files are deleted.
      *
      * @throws IOException
      */
     public void initializeEmptyFile() throws IOException {
         synchronized (m_fileLock) {
+            if (m_head != null) {
+                m_head.release();
+            }
+
+            if (m_tail != null) {
+                m_tail.release();
+            }
+
             m_count = 0L;
-            m_head = -1L; // -1 means the FIFO queue is empty
-            m_tail = -1L;
+            m_size = 0L;
+            m_head = null;
+            m_headOffset = 0;
+            m_tail = null;
+            m_tailOffset = 0;
+
+            deleteStaleSegments();
+            mapCheckpoint();
+            writeCheckpoint();
+        }
 
-            RandomAccessFile raf = getRandomAccessFile();
+        return;
+    }
 
-            // the first number in the file is the count
-            m_countPosition = 0L;
-            raf.seek(m_countPosition);
-            raf.writeLong(m_count);
+    /**
+     * Writes the entry at the tail of the queue, starting a new segment if it does not fit in the tail segment. If the
+     * queue grows beyond its maximum size, the oldest entries are purged.
+     *
+     * @param  bytes the entry's data as it is to be stored
+     *
+     * @throws IOException if failed to write the segment
+     */
+    private void append(byte[] bytes) throws IOException {
+        int entry_size = ENTRY_HEADER_SIZE + bytes.length;
+
+        if (m_tail == null) {
+            m_tail = createSegment(0L, entry_size);
+            m_tailOffset = 0;
+            m_head = m_tail;
+            m_headOffset = 0;
+        } else if (m_tailOffset + entry_size > m_tail.capacity) {
+            if (m_tailOffset + ENTRY_HEADER_SIZE <= m_tail.capacity) {
+                m_tail.buffer.putInt(m_tailOffset, END_OF_SEGMENT);
+            }
 
-            // the second number in the file is the head pointer
-            m_headPosition = raf.getFilePointer();
-            raf.seek(m_headPosition);
-            raf.writeLong(m_head);
+            Segment new_tail = createSegment(m_tail.sequence + 1, entry_size);
+
+            if (m_count == 0L) {
+                // nothing is left in the old segment, the queue starts over in the new one
+                Segment old_tail = m_tail;
+                m_head = new_tail;
+                m_headOffset = 0;
+                m_tail = new_tail;
+                m_tailOffset = 0;
+                writeCheckpoint();
+                old_tail.delete();
+            } else {
+                if (m_tail != m_head) {
+                    m_tail.release();
+                }
 
-            // the third number in the file is the tail pointer
-            m_tailPosition = raf.getFilePointer();
-            raf.writeLong(m_tail);
+                m_tail = new_tail;
+                m_tailOffset = 0;
+            }
+        }
 
-            // set the file length to right after the tail pointer thus shrinking the file size down to its minimal size
-            raf.setLength(raf.getFilePointer());
+        m_tail.write(m_tailOffset, bytes);
+        m_tailOffset += entry_size;
+        m_count++;
+        m_size += entry_size;
+
+        // if we went over the maximum size limit, start purging some entries to make room
+        if (m_size > m_maxSizeBytes) {
+            purge();
         }
 
         return;
     }
 
     /**
-     * This purges the file by compressing the old entries that have already been taken and, if that isn't possible,
-     * will remove head entries (i.e. the oldest entries) and moves all items down in the file, thus shrinking the file.
-     * The number of bytes to free up (that is, the number of bytes to shrink the file by) is determined by the <code>
-     * bytes_to_purge</code> parameter. The file will be shrink by at least (but maybe more) that number of bytes.
+     * Removes the first entry from the queue and returns its data as it is stored. The queue must not be empty.
      *
-     * @param  raf            the file
-     * @param  bytes_to_purge the minimum amount of bytes to purge
+     * @return the entry's data as it is stored
      *
-     * @throws IOException if failed to access file
+     * @throws IOException if failed to access a segment
      */
-    private void purge(RandomAccessFile raf, long bytes_to_purge) throws IOException {
-        // first see if there are any unused bytes in the beginning of the file (entries that have already been taken from the queue
-        // but not yet deleted from the file)
-        long first_data_byte = m_tailPosition + m_longSize;
-        long unused_bytes = m_head - first_data_byte;
-
-        while (unused_bytes < bytes_to_purge) {
-            // not enough unused bytes - we must sacrifice the oldest entry (at the head) to free up some more space
-            take();
-
-            if (m_head == -1) {
-                return; // nothing left to purge
-            }
-
-            unused_bytes = m_head - first_data_byte;
+    private byte[] removeHead() throws IOException {
+        if (isEndOfSegment(m_head, m_headOffset)) {
+            advanceHead();
         }
 
-        // now move all the entries down to the beginning of the file; need to move in chunks so as not to override the data we want to keep
-        // we start at the head and read in chunks to move down
-        // chunk = the size of each full chunk that we move
-        // total_bytes_to_move = the size of all the data we are moving down
-        // num_full_chunks = the total number of fully filled chunks to be moved
-        // final_chunk_size = the size of the last chunk to be moved, may be a partially filled chunk
-        // cur_pos_to_read = the file position of the current chunk we are reading in
-        // cur_pos_to_write = the file position where the current chunk will be moved to
-        byte[] chunk = new byte[(int) unused_bytes];
-        long total_bytes_to_move = raf.length() - first_data_byte - unused_bytes;
-        long num_full_chunks = total_bytes_to_move / unused_bytes;
-        long final_chunk_size = total_bytes_to_move % unused_bytes;
-        long cur_pos_to_read = m_head;
-        long cur_pos_to_write = first_data_byte;
+        byte[] entry = m_head.read(m_headOffset);
+        int entry_size = ENTRY_HEADER_SIZE + entry.length;
 
-        for (int i = 0; i < num_full_chunks; i++) {
-            raf.seek(cur_pos_to_read);
-            raf.readFully(chunk);
-            raf.seek(cur_pos_to_write);
-            raf.write(chunk);
+        m_headOffset += entry_size;
+        m_count--;
+        m_size -= entry_size;
 
-            cur_pos_to_read += chunk.length;
-            cur_pos_to_write += chunk.length;
+        if (m_count == 0L) {
+            // this was the last entry - the head and tail are in the same segment, so let's reuse it from its start
+            m_headOffset = 0;
+            m_tailOffset = 0;
         }
 
-        // do the last, partial chunk
-        if (final_chunk_size > 0) {
-            raf.seek(cur_pos_to_read);
-            raf.readFully(chunk, 0, (int) final_chunk_size);
-            raf.seek(cur_pos_to_write);
-            raf.write(chunk, 0, (int) final_chunk_size);
-        }
+        return entry;
+    }
+
+    /**
+     * Deletes the head segment and moves the head to the start of the next segment.
+     *
+     * @throws IOException if failed to open the next segment
+     */
+    private void advanceHead() throws IOException {
+        Segment old_head = m_head;
 
-        // we've purged and compacted the file - now let's shrink the file so its smaller
-        raf.setLength(raf.getFilePointer());
+        m_head = (m_head.sequence + 1 == m_tail.sequence) ? m_tail : openSegment(m_head.sequence + 1);
+        m_headOffset = 0;
 
-        // fix our head and tail pointers by moving them back the number of bytes we just purged
-        writeHead(raf, first_data_byte);
-        writeTail(raf, m_tail - unused_bytes);
+        // record the new head before the old segment goes away
+        writeCheckpoint();
+        old_head.delete();
 
         return;
     }
 
     /**
-     * Returns the <code>RandomAccessFile</code> object representation of the file that enables the caller to read
-     * and/or write the file using random access.
+     * This purges the queue by deleting the segments holding the oldest entries until the queue is under the size left
+     * after a purge. Once the head is in the tail segment, the oldest entries are dropped one by one.
      *
-     * @return the file that can be randomly accessed
-     *
-     * @throws FileNotFoundException
+     * @throws IOException if failed to access a segment
      */
-    private RandomAccessFile getRandomAccessFile() throws FileNotFoundException {
-        if (m_randomAccessFile == null) {
-            m_randomAccessFile = new RandomAccessFile(m_file, "rw");
+    private void purge() throws IOException {
+        while ((m_size > m_purgeResultMaxBytes) && (m_count > 0L)) {
+            if (m_head != m_tail) {
+                // sacrifice all the entries left in the head segment
+                int offset = m_headOffset;
+                while (!isEndOfSegment(m_head, offset)) {
+                    int entry_size = ENTRY_HEADER_SIZE + m_head.buffer.getInt(offset);
+                    offset += entry_size;
+                    m_count--;
+                    m_size -= entry_size;
+                }
+
+                advanceHead();
+            } else {
+                removeHead();
+            }
         }
 
-        return m_randomAccessFile;
+        return;
     }
 
     /**
-     * Reads and returns the count - this is the number of entries currently in the FIFO.
+     * Returns <code>true</code> if there is no entry in the segment at the given offset, meaning the next entry is at
+     * the start of the next segment.
+     */
+    private static boolean isEndOfSegment(Segment segment, int offset) {
+        return (offset + ENTRY_HEADER_SIZE > segment.capacity) || (segment.buffer.getInt(offset) == END_OF_SEGMENT);
+    }
+
+    /**
+     * Creates a new segment file that is large enough to hold an entry of the given size.
      *
-     * @param  raf the file
+     * @param  sequence   the sequence number of the segment
+     * @param  entry_size the size of the entry that is going to be written in the segment
      *
-     * @return the number of entries currently in the FIFO
+     * @return the mapped segment
      *
-     * @throws IOException if failed to access the file
+     * @throws IOException if failed to create the file
      */
-    private long readCount(RandomAccessFile raf) throws IOException {
-        raf.seek(m_countPosition);
-        m_count = raf.readLong();
-        return m_count;
+    private Segment createSegment(long sequence, int entry_size) throws IOException {
+        File file = getSegmentFile(sequence);
+        file.delete();
+        return new Segment(sequence, file, Math.max(m_segmentSize, entry_size));
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        return new Segment(sequence, getSegmentFile(sequence), 0);
+    }
+
+    private File getSegmentFile(long sequence) {
+        return new File(m_file.getAbsoluteFile().getParentFile(), m_file.getName() + "." + sequence);
     }
 
     /**
-     * Writes the given count to the file.
-     *
-     * @param  raf   the file
-     * @param  count the new count to store
-     *
-     * @throws IOException if failed to write to the file
+     * Deletes all the segment files that do not belong to the queue anymore. These are left behind when the file was
+     * initialized while another {@link PersistentFifo} still had the segments mapped or if the process stopped before
+     * it could delete them.
      */
-    private void writeCount(RandomAccessFile raf, long count) throws IOException {
-        raf.seek(m_countPosition);
-        raf.writeLong(count);
-        m_count = count;
+    private void deleteStaleSegments() {
+        final String prefix = m_file.getName() + ".";
+        File[] files = m_file.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(prefix.length()));
+            } catch (NumberFormatException e) {
+                continue; // not one of our segments
+            }
+
+            if ((m_head == null) || (sequence < m_head.sequence) || (sequence > m_tail.sequence)) {
+                if (!file.delete()) {
+                    LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_CANNOT_DELETE_SEGMENT, file);
+                }
+            }
+        }
+
         return;
     }
 
     /**
-     * Reads the head pointer from the file.
-     *
-     * @param  raf the file
-     *
-     * @return the current position that the head pointer points to
+     * Copies the entries of a file written by an older version of this class to segment files and then replaces the
+     * file with a checkpoint. The entries are copied as they are stored, so they stay compressed if they were.
      *
-     * @throws IOException if failed to access the file
+     * @throws IOException if failed to access the files
      */
-    private long readHead(RandomAccessFile raf) throws IOException {
-        raf.seek(m_headPosition);
-        m_head = raf.readLong();
-        return m_head;
+    private void convertLegacyFile() throws IOException {
+        m_count = 0L;
+        m_size = 0L;
+        m_head = null;
+        m_tail = null;
+        deleteStaleSegments();
+
+        RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+        try {
+            // count is first, head is second, tail is third; entries are chained by their relative next pointers
+            raf.readLong();
+            long head = raf.readLong();
+
+            if (head != -1L) {
+                raf.seek(head);
+
+                boolean last_entry = false;
+                while (!last_entry) {
+                    // get the next pointer; if this is the last entry, then we'll read to the end of the file
+                    long next = raf.readLong();
+                    if (next == -1) {
+                        next = raf.length() - raf.getFilePointer();
+                        last_entry = true;
+                    }
+
+                    byte[] entry = new byte[(int) next];
+                    raf.readFully(entry);
+                    append(entry);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        mapCheckpoint();
+        writeCheckpoint();
+        m_checkpoint.force();
+
+        LOG.info(CommI18NResourceKeys.PERSISTENT_FIFO_CONVERTED, m_file, m_count);
+
+        return;
+    }
+
+    private long readMagic() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+        try {
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
     }
 
     /**
-     * Writes the head pointer to the file.
+     * Maps the checkpoint file, truncating anything beyond the checkpoint.
      *
-     * @param  raf      the file
-     * @param  head_pos the new position of the head pointer
+     * @throws IOException if failed to map the file
+     */
+    private void mapCheckpoint() throws IOException {
+        if (m_checkpoint == null) {
+            m_checkpoint = map(m_file, CHECKPOINT_SIZE);
+        }
+
+        return;
+    }
+
+    /**
+     * Reads the count, head and tail from the checkpoint and maps the head and tail segments.
      *
-     * @throws IOException if failed to write to the file
+     * @throws IOException if failed to access the files
      */
-    private void writeHead(RandomAccessFile raf, long head_pos) throws IOException {
-        raf.seek(m_headPosition);
-        raf.writeLong(head_pos);
-        m_head = head_pos;
+    private void readCheckpoint() throws IOException {
+        mapCheckpoint();
+
+        m_count = m_checkpoint.getLong(COUNT_POSITION);
+        m_size = m_checkpoint.getLong(SIZE_POSITION);
+        long head_sequence = m_checkpoint.getLong(HEAD_SEGMENT_POSITION);
+        m_headOffset = m_checkpoint.getInt(HEAD_OFFSET_POSITION);
+        long tail_sequence = m_checkpoint.getLong(TAIL_SEGMENT_POSITION);
+        m_tailOffset = m_checkpoint.getInt(TAIL_OFFSET_POSITION);
+
+        if (tail_sequence < 0L) {
+            m_head = null;
+            m_tail = null;
+        } else {
+            m_tail = openSegment(tail_sequence);
+            m_head = (head_sequence == tail_sequence) ? m_tail : openSegment(head_sequence);
+        }
+
         return;
     }
 
     /**
-     * Reads the tail pointer from the file.
+     * Writes the count, head and tail to the checkpoint. Nothing is written while a legacy file is being converted.
+     */
+    private void writeCheckpoint() {
+        if (m_checkpoint == null) {
+            return;
+        }
+
+        m_checkpoint.putLong(COUNT_POSITION, m_count);
+        m_checkpoint.putLong(SIZE_POSITION, m_size);
+        m_checkpoint.putLong(HEAD_SEGMENT_POSITION, (m_head != null) ? m_head.sequence : -1L);
+        m_checkpoint.putInt(HEAD_OFFSET_POSITION, m_headOffset);
+        m_checkpoint.putLong(TAIL_SEGMENT_POSITION, (m_tail != null) ? m_tail.sequence : -1L);
+        m_checkpoint.putInt(TAIL_OFFSET_POSITION, m_tailOffset);
+        m_checkpoint.putLong(0, MAGIC);
+
+        return;
+    }
+
+    /**
+     * Maps the file in read-write mode, giving it the given length. If the length is 0, the file is mapped as it is.
      *
-     * @param  raf the file
+     * @param  file   the file to map
+     * @param  length the length of the file or 0 to keep the length of an existing file
      *
-     * @return the current position that the tail pointer points to
+     * @return the mapped file
      *
-     * @throws IOException if failed to access the file
+     * @throws IOException if failed to map the file
      */
-    private long readTail(RandomAccessFile raf) throws IOException {
-        raf.seek(m_tailPosition);
-        m_tail = raf.readLong();
-        return m_tail;
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (length > 0L) {
+                raf.setLength(length);
+            } else {
+                length = raf.length();
+            }
+
+            // the mapping stays valid after the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, length);
+        } finally {
+            raf.close();
+        }
     }
 
     /**
-     * Writes the tail pointer to the file pointing to the last entry in the queue.
-     *
-     * @param  raf      the file
-     * @param  tail_pos the new position of the tail pointer
+     * Releases the mapping of the buffer right away instead of waiting for it to be garbage collected, which is what
+     * allows a mapped file to be deleted on some platforms. The buffer must not be accessed afterwards. If the VM does
+     * not allow this, the mapping is released when the buffer is garbage collected.
      *
-     * @throws IOException if failed to write to the file
+     * @param buffer the mapped buffer
      */
-    private void writeTail(RandomAccessFile raf, long tail_pos) throws IOException {
-        raf.seek(m_tailPosition);
-        raf.writeLong(tail_pos);
-        m_tail = tail_pos;
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleaner_method = buffer.getClass().getMethod("cleaner");
+            cleaner_method.setAccessible(true);
+            Object cleaner = cleaner_method.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable ignore) {
+        }
+
         return;
     }
 
@@ -690,4 +825,54 @@ public class PersistentFifo {
 
         return entry;
     }
-}
\ No newline at end of file
+
+    /**
+     * A memory mapped segment file.
+     */
+    private static class Segment {
+        private final long sequence;
+        private final File file;
+        private final int capacity;
+        private MappedByteBuffer buffer;
+
+        /**
+         * Maps the segment file. If the capacity is 0, the existing file is mapped, otherwise the file is created with
+         * the given capacity.
+         */
+        Segment(long sequence, File file, int capacity) throws IOException {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = map(file, capacity);
+            this.capacity = this.buffer.capacity();
+        }
+
+        byte[] read(int offset) {
+            byte[] entry = new byte[buffer.getInt(offset)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + ENTRY_HEADER_SIZE);
+            view.get(entry);
+            return entry;
+        }
+
+        void write(int offset, byte[] entry) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + ENTRY_HEADER_SIZE);
+            view.put(entry);
+            buffer.putInt(offset, entry.length);
+        }
+
+        void release() {
+            if (buffer != null) {
+                unmap(buffer);
+                buffer = null;
+            }
+        }
+
+        void delete() {
+            release();
+            if (!file.delete()) {
+                LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_CANNOT_DELETE_SEGMENT, file);
+            }
+        }
+    }
+}
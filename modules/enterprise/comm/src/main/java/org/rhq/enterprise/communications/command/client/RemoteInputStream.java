@@ -20,14 +20,21 @@ package org.rhq.enterprise.communications.command.client;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import mazz.i18n.Logger;
 import org.jboss.remoting.invocation.NameBasedInvocation;
 import org.rhq.enterprise.communications.ServiceContainer;
+import org.rhq.enterprise.communications.ServiceContainerConfiguration;
 import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.impl.stream.RemoteInputStreamCommand;
 import org.rhq.enterprise.communications.command.impl.stream.RemoteInputStreamCommandResponse;
+import org.rhq.enterprise.communications.command.impl.stream.server.ChunkedInputStream;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
 
@@ -54,6 +61,14 @@ import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
  * Note that remote input streams should be {@link #close() closed} in order to clean up server-side resources in a
  * timely manner.</p>
  *
+ * <p>If the server hosting the stream is configured with a
+ * {@link ServiceContainerConfiguration#getRemoteStreamChunkSize() remote stream chunk size}, the stream is read ahead:
+ * the read methods request the stream data in chunks of that size, keeping up to the
+ * {@link ServiceContainerConfiguration#getRemoteStreamMaxOutstandingChunks() configured number of chunks} in flight,
+ * so that reading the stream is not slowed down by waiting a round trip for every read. Such a stream does not support
+ * {@link #mark(int) mark} and {@link #reset() reset}. If a chunk cannot be read, the rest of the stream cannot be read
+ * either: all reads following the failed one fail the same way.</p>
+ *
  * @author John Mazzitelli
  */
 public class RemoteInputStream extends InputStream implements Serializable {
@@ -112,6 +127,50 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     private final String m_serverEndpoint;
 
+    /**
+     * The size of the chunks the stream is read ahead in, 0 if the stream is not read ahead. This is taken from the
+     * configuration of the server hosting the stream, so streams hosted by servers that cannot serve chunks are not
+     * read ahead.
+     */
+    private final int m_chunkSize;
+
+    /**
+     * The maximum number of chunk requests in flight when the stream is read ahead.
+     */
+    private final int m_maxOutstandingChunks;
+
+    /**
+     * Sends the chunk requests, created when the stream is first read ahead.
+     */
+    private transient ThreadPoolExecutor m_chunkExecutor;
+
+    /**
+     * The chunk requests in flight, in the order of their chunks.
+     */
+    private transient LinkedList<Future<byte[]>> m_chunkRequests;
+
+    /**
+     * The number of the next chunk to request.
+     */
+    private transient long m_nextChunk;
+
+    /**
+     * The chunk being read and the position of the next byte to read in it.
+     */
+    private transient byte[] m_chunk;
+    private transient int m_chunkPosition;
+
+    /**
+     * Whether the last chunk of the stream has been received.
+     */
+    private transient boolean m_endOfStream;
+
+    /**
+     * The failure of the first chunk request that failed. Once a chunk is lost, the rest of the stream cannot be read,
+     * so every later read fails with it.
+     */
+    private transient IOException m_chunkFailure;
+
     /**
      * Creates a new {@link RemoteInputStream} object. This constructor is the same as
      * {@link RemoteInputStream#RemoteInputStream(Long, ServiceContainer)} but additionally adds the stream's
@@ -139,6 +198,10 @@ public class RemoteInputStream extends InputStream implements Serializable {
     public RemoteInputStream(Long id, ServiceContainer server) {
         m_streamId = id;
         m_serverEndpoint = server.getServerEndpoint();
+
+        ServiceContainerConfiguration config = server.getConfiguration();
+        m_chunkSize = (config != null) ? Math.max(0, config.getRemoteStreamChunkSize()) : 0;
+        m_maxOutstandingChunks = (config != null) ? Math.max(1, config.getRemoteStreamMaxOutstandingChunks()) : 1;
     }
 
     /**
@@ -175,6 +238,20 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public int available() throws IOException {
+        if (isReadAhead()) {
+            if (m_chunkFailure != null) {
+                throw m_chunkFailure;
+            }
+
+            if ((m_chunk != null) && (m_chunkPosition < m_chunk.length)) {
+                return m_chunk.length - m_chunkPosition;
+            }
+
+            if (m_endOfStream) {
+                return 0;
+            }
+        }
+
         return ((Integer) sendRequest(AVAILABLE, null)).intValue();
     }
 
@@ -183,6 +260,16 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public void close() throws IOException {
+        if (m_chunkExecutor != null) {
+            // the responses to the chunk requests still in flight are of no interest anymore
+            for (Future<byte[]> request : m_chunkRequests) {
+                request.cancel(false);
+            }
+
+            m_chunkRequests.clear();
+            m_chunkExecutor.shutdown();
+        }
+
         sendRequest(CLOSE, null);
     }
 
@@ -191,6 +278,10 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public void mark(int readlimit) {
+        if (isReadAhead()) {
+            return;
+        }
+
         try {
             sendRequest(MARK, new Object[] { new Integer(readlimit) });
         } catch (IOException e) {
@@ -203,6 +294,10 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public boolean markSupported() {
+        if (isReadAhead()) {
+            return false;
+        }
+
         try {
             return ((Boolean) sendRequest(MARKSUPPORTED, null)).booleanValue();
         } catch (IOException e) {
@@ -215,6 +310,10 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public int read() throws IOException {
+        if (isReadAhead()) {
+            return nextChunk() ? (m_chunk[m_chunkPosition++] & 0xFF) : -1;
+        }
+
         return ((Integer) sendRequest(READ, null)).intValue();
     }
 
@@ -223,6 +322,10 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public int read(byte[] b) throws IOException {
+        if (isReadAhead()) {
+            return read(b, 0, b.length);
+        }
+
         return ((Integer) sendRequest(READBYTEARRAY, new Object[] { b })).intValue();
     }
 
@@ -231,6 +334,21 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
+        if (isReadAhead()) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            int count = Math.min(len, m_chunk.length - m_chunkPosition);
+            System.arraycopy(m_chunk, m_chunkPosition, b, off, count);
+            m_chunkPosition += count;
+            return count;
+        }
+
         return ((Integer) sendRequest(READBYTEARRAY_LEN, new Object[] { b, off, len })).intValue();
     }
 
@@ -239,7 +357,11 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public void reset() throws IOException {
-        sendRequest(RESET, null);
+        if (isReadAhead()) {
+            super.reset(); // throws, a stream read ahead cannot be reset
+        } else {
+            sendRequest(RESET, null);
+        }
     }
 
     /**
@@ -247,9 +369,86 @@ public class RemoteInputStream extends InputStream implements Serializable {
      */
     @Override
     public long skip(long n) throws IOException {
+        if (isReadAhead()) {
+            return super.skip(n); // reads through the chunks
+        }
+
         return ((Long) sendRequest(SKIP, new Object[] { n })).longValue();
     }
 
+    /**
+     * Returns <code>true</code> if the stream is read ahead in chunks rather than by invoking the stream methods one at
+     * a time.
+     *
+     * @return <code>true</code> if the stream is read ahead
+     */
+    protected boolean isReadAhead() {
+        return m_chunkSize > 0;
+    }
+
+    /**
+     * Makes sure there is something left to read in the current chunk, waiting for the next chunk if necessary, and
+     * keeps the configured number of chunk requests in flight.
+     *
+     * @return <code>false</code> if the end of the stream has been reached
+     *
+     * @throws IOException if a chunk request failed, now or before
+     */
+    private boolean nextChunk() throws IOException {
+        if (m_chunkFailure != null) {
+            throw m_chunkFailure;
+        }
+
+        while ((m_chunk == null) || (m_chunkPosition >= m_chunk.length)) {
+            if (m_endOfStream) {
+                return false;
+            }
+
+            requestChunks();
+
+            try {
+                m_chunk = RemoteStreamChunks.get(m_chunkRequests.getFirst());
+            } catch (InterruptedIOException e) {
+                throw e; // the chunk is still on its way, the next read can wait for it again
+            } catch (IOException e) {
+                m_chunkFailure = e;
+                throw e;
+            }
+
+            m_chunkRequests.removeFirst();
+            m_chunkPosition = 0;
+
+            // only the last chunk is shorter than the chunk size; all chunks past the end of the stream are empty
+            if (m_chunk.length < m_chunkSize) {
+                m_endOfStream = true;
+            }
+        }
+
+        requestChunks();
+
+        return true;
+    }
+
+    private void requestChunks() {
+        if (m_chunkExecutor == null) {
+            m_chunkExecutor = RemoteStreamChunks.createExecutor("RemoteInputStream " + m_streamId,
+                m_maxOutstandingChunks);
+            m_chunkRequests = new LinkedList<Future<byte[]>>();
+        }
+
+        while (!m_endOfStream && (m_chunkRequests.size() < m_maxOutstandingChunks)) {
+            final Object[] args = new Object[] { Long.valueOf(m_nextChunk++), Integer.valueOf(m_chunkSize) };
+            final NameBasedInvocation invocation = new NameBasedInvocation(ChunkedInputStream.READ_CHUNK, args,
+                new String[] { Long.class.getName(), Integer.class.getName() });
+
+            m_chunkRequests.add(m_chunkExecutor.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return (byte[]) sendInvocation(invocation, args);
+                }
+            }));
+        }
+    }
+
     /**
      * Builds the command to execute the method on the remote stream and submit the request.
      *
@@ -262,6 +461,10 @@ public class RemoteInputStream extends InputStream implements Serializable {
      *                           encountered a problem
      */
     protected Object sendRequest(Method method, Object[] args) throws RemoteIOException {
+        return sendInvocation(new NameBasedInvocation(method, args), args);
+    }
+
+    private Object sendInvocation(NameBasedInvocation invocation, Object[] args) throws RemoteIOException {
         if (m_sender == null) {
             throw new RemoteIOException(LOG.getMsgString(CommI18NResourceKeys.REMOTE_INPUT_STREAM_HAS_NO_SENDER,
                 m_streamId, m_serverEndpoint));
@@ -270,7 +473,7 @@ public class RemoteInputStream extends InputStream implements Serializable {
         RemoteInputStreamCommandResponse response;
         RemoteInputStreamCommand cmd = new RemoteInputStreamCommand();
 
-        cmd.setNameBasedInvocation(new NameBasedInvocation(method, args));
+        cmd.setNameBasedInvocation(invocation);
         cmd.setStreamId(m_streamId);
 
         try {
@@ -22,12 +22,18 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import mazz.i18n.Logger;
 import org.jboss.remoting.invocation.NameBasedInvocation;
 import org.rhq.enterprise.communications.ServiceContainer;
+import org.rhq.enterprise.communications.ServiceContainerConfiguration;
 import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.impl.stream.RemoteOutputStreamCommand;
 import org.rhq.enterprise.communications.command.impl.stream.RemoteOutputStreamCommandResponse;
+import org.rhq.enterprise.communications.command.impl.stream.server.ChunkedOutputStream;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
 
@@ -54,6 +60,14 @@ import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
  * Note that remote output streams should be {@link #close() closed} in order to clean up server-side resources in a
  * timely manner.</p>
  *
+ * <p>If the server hosting the stream is configured with a
+ * {@link ServiceContainerConfiguration#getRemoteStreamChunkSize() remote stream chunk size}, the stream is written
+ * behind: the write methods buffer the stream data and send it in chunks of that size, keeping up to the
+ * {@link ServiceContainerConfiguration#getRemoteStreamMaxOutstandingChunks() configured number of chunks} in flight,
+ * so that writing the stream is not slowed down by waiting a round trip for every write. A failure to write a chunk is
+ * reported by a later write, or at the latest by {@link #flush()} or {@link #close()}, which send the buffered data and
+ * wait for all chunks to be written.</p>
+ *
  * @author John Mazzitelli
  */
 public class RemoteOutputStream extends OutputStream implements Serializable {
@@ -101,6 +115,39 @@ public class RemoteOutputStream extends OutputStream implements Serializable {
      */
     private final String m_serverEndpoint;
 
+    /**
+     * The size of the chunks the stream is written behind in, 0 if the stream is not written behind. This is taken
+     * from the configuration of the server hosting the stream, so streams hosted by servers that cannot accept chunks
+     * are not written behind.
+     */
+    private final int m_chunkSize;
+
+    /**
+     * The maximum number of chunk requests in flight when the stream is written behind.
+     */
+    private final int m_maxOutstandingChunks;
+
+    /**
+     * Sends the chunk requests, created when the first chunk is sent.
+     */
+    private transient ThreadPoolExecutor m_chunkExecutor;
+
+    /**
+     * The chunk requests in flight, in the order of their chunks.
+     */
+    private transient LinkedList<Future<Object>> m_chunkRequests;
+
+    /**
+     * The number of the next chunk to send.
+     */
+    private transient long m_nextChunk;
+
+    /**
+     * The data written but not sent yet.
+     */
+    private transient byte[] m_buffer;
+    private transient int m_bufferCount;
+
     /**
      * Creates a new {@link RemoteOutputStream} object. This constructor is the same as
      * {@link RemoteOutputStream#RemoteOutputStream(Long, ServiceContainer)} but additionally adds the stream's
@@ -128,6 +175,10 @@ public class RemoteOutputStream extends OutputStream implements Serializable {
     public RemoteOutputStream(Long id, ServiceContainer server) {
         m_streamId = id;
         m_serverEndpoint = server.getServerEndpoint();
+
+        ServiceContainerConfiguration config = server.getConfiguration();
+        m_chunkSize = (config != null) ? Math.max(0, config.getRemoteStreamChunkSize()) : 0;
+        m_maxOutstandingChunks = (config != null) ? Math.max(1, config.getRemoteStreamMaxOutstandingChunks()) : 1;
     }
 
     /**
@@ -162,29 +213,153 @@ public class RemoteOutputStream extends OutputStream implements Serializable {
 
     @Override
     public void close() throws IOException {
+        IOException failure = null;
+
+        if (isWriteBehind()) {
+            try {
+                writeChunks();
+            } catch (IOException e) {
+                failure = e; // still close the stream to release it in the server
+            }
+
+            if (m_chunkExecutor != null) {
+                m_chunkExecutor.shutdown();
+            }
+        }
+
         sendRequest(CLOSE, null);
+
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     @Override
     public void flush() throws IOException {
+        if (isWriteBehind()) {
+            writeChunks();
+        }
+
         sendRequest(FLUSH, null);
     }
 
     @Override
     public void write(int b) throws IOException {
+        if (isWriteBehind()) {
+            if (m_buffer == null) {
+                m_buffer = new byte[m_chunkSize];
+            }
+
+            m_buffer[m_bufferCount++] = (byte) b;
+            if (m_bufferCount == m_chunkSize) {
+                sendChunk();
+            }
+
+            return;
+        }
+
         sendRequest(WRITE_INT, new Object[] { new Integer(b) });
     }
 
     @Override
     public void write(byte[] b) throws IOException {
+        if (isWriteBehind()) {
+            write(b, 0, b.length);
+            return;
+        }
+
         sendRequest(WRITE_BYTEARRAY, new Object[] { b });
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
+        if (isWriteBehind()) {
+            while (len > 0) {
+                if (m_buffer == null) {
+                    m_buffer = new byte[m_chunkSize];
+                }
+
+                int count = Math.min(len, m_chunkSize - m_bufferCount);
+                System.arraycopy(b, off, m_buffer, m_bufferCount, count);
+                m_bufferCount += count;
+                off += count;
+                len -= count;
+
+                if (m_bufferCount == m_chunkSize) {
+                    sendChunk();
+                }
+            }
+
+            return;
+        }
+
         sendRequest(WRITE_BYTEARRAY_INT_INT, new Object[] { b, off, len });
     }
 
+    /**
+     * Returns <code>true</code> if the stream is written behind in chunks rather than by invoking the stream methods
+     * one at a time.
+     *
+     * @return <code>true</code> if the stream is written behind
+     */
+    protected boolean isWriteBehind() {
+        return m_chunkSize > 0;
+    }
+
+    /**
+     * Sends the buffered data as the next chunk, after waiting for the oldest chunk requests in flight if there are too
+     * many of them.
+     *
+     * @throws IOException if a chunk request failed
+     */
+    private void sendChunk() throws IOException {
+        if (m_chunkExecutor == null) {
+            m_chunkExecutor = RemoteStreamChunks.createExecutor("RemoteOutputStream " + m_streamId,
+                m_maxOutstandingChunks);
+            m_chunkRequests = new LinkedList<Future<Object>>();
+        }
+
+        byte[] chunk = m_buffer;
+        if (m_bufferCount < chunk.length) {
+            chunk = new byte[m_bufferCount];
+            System.arraycopy(m_buffer, 0, chunk, 0, m_bufferCount);
+        } else {
+            m_buffer = null; // the full buffer is handed over to the chunk request
+        }
+        m_bufferCount = 0;
+
+        while (m_chunkRequests.size() >= m_maxOutstandingChunks) {
+            RemoteStreamChunks.get(m_chunkRequests.removeFirst());
+        }
+
+        final Object[] args = new Object[] { Long.valueOf(m_nextChunk++), chunk };
+        final NameBasedInvocation invocation = new NameBasedInvocation(ChunkedOutputStream.WRITE_CHUNK, args,
+            new String[] { Long.class.getName(), byte[].class.getName() });
+
+        m_chunkRequests.add(m_chunkExecutor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return sendInvocation(invocation);
+            }
+        }));
+    }
+
+    /**
+     * Sends the buffered data, if any, and waits for all chunk requests in flight.
+     *
+     * @throws IOException if a chunk request failed
+     */
+    private void writeChunks() throws IOException {
+        if (m_bufferCount > 0) {
+            sendChunk();
+        }
+
+        if (m_chunkRequests != null) {
+            while (!m_chunkRequests.isEmpty()) {
+                RemoteStreamChunks.get(m_chunkRequests.removeFirst());
+            }
+        }
+    }
+
     /**
      * Builds the command to execute the method on the remote stream and submit the request.
      *
@@ -197,6 +372,10 @@ public class RemoteOutputStream extends OutputStream implements Serializable {
      *                           encountered a problem
      */
     protected Object sendRequest(Method method, Object[] args) throws RemoteIOException {
+        return sendInvocation(new NameBasedInvocation(method, args));
+    }
+
+    private Object sendInvocation(NameBasedInvocation invocation) throws RemoteIOException {
         if (m_sender == null) {
             throw new RemoteIOException(LOG.getMsgString(CommI18NResourceKeys.REMOTE_OUTPUT_STREAM_HAS_NO_SENDER,
                 m_streamId, m_serverEndpoint));
@@ -205,7 +384,7 @@ public class RemoteOutputStream extends OutputStream implements Serializable {
         RemoteOutputStreamCommandResponse response;
         RemoteOutputStreamCommand cmd = new RemoteOutputStreamCommand();
 
-        cmd.setNameBasedInvocation(new NameBasedInvocation(method, args));
+        cmd.setNameBasedInvocation(invocation);
         cmd.setStreamId(m_streamId);
 
         try {
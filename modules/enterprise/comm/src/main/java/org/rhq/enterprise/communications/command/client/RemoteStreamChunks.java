@@ -0,0 +1,82 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helps {@link RemoteInputStream} and {@link RemoteOutputStream} keep several chunks of a stream in flight.
+ */
+class RemoteStreamChunks {
+    private RemoteStreamChunks() {
+    }
+
+    /**
+     * Creates the threads that transfer the chunks of a stream, each of which sends one chunk request at a time. The
+     * threads go away when the stream is idle.
+     *
+     * @param  name    names the stream whose chunks are transferred
+     * @param  threads the maximum number of chunks in flight
+     *
+     * @return the thread pool
+     */
+    static ThreadPoolExecutor createExecutor(final String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30000L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        executor.setThreadFactory(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RHQ Remote Stream Chunk Thread [" + name + "]");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        return executor;
+    }
+
+    /**
+     * Waits for a chunk request to complete.
+     *
+     * @param  chunk the chunk request
+     *
+     * @return the results of the chunk request
+     *
+     * @throws IOException if the chunk request failed or waiting for it was interrupted
+     */
+    static <T> T get(Future<T> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.toString());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RemoteIOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.impl.stream.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import mazz.i18n.Logger;
+
+import org.rhq.enterprise.communications.i18n.CommI18NFactory;
+import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+
+/**
+ * Wraps a remoted input stream so that remote clients can read it in numbered chunks, several of which can be
+ * requested at the same time. Chunks are read off the stream in order; a chunk requested before the chunks preceding
+ * it is read along with those, which are kept until they are requested. Once the end of the stream is reached, all
+ * chunks are empty.
+ *
+ * <p>A client should either read chunks or invoke the <code>InputStream</code> methods, which are passed through to
+ * the wrapped stream, but not both.</p>
+ */
+public class ChunkedInputStream extends FilterInputStream {
+    /**
+     * The name of the {@link #readChunk(Long, Integer)} method that clients invoke.
+     */
+    public static final String READ_CHUNK = "readChunk";
+
+    /**
+     * How many chunks a client can request ahead of the next chunk to be read off the stream.
+     */
+    static final int MAX_CHUNKS_AHEAD = 64;
+
+    private static final Logger LOG = CommI18NFactory.getLogger(ChunkedInputStream.class);
+
+    /**
+     * the largest chunk a client can request
+     */
+    private final int m_maxChunkSize;
+
+    /**
+     * the number of the next chunk to be read off the stream
+     */
+    private long m_nextChunk;
+
+    /**
+     * chunks that were read off the stream but not requested yet, keyed on their numbers
+     */
+    private final Map<Long, byte[]> m_readAhead = new HashMap<Long, byte[]>();
+
+    /**
+     * Wraps a remoted input stream.
+     *
+     * @param stream       the remoted stream
+     * @param maxChunkSize the largest chunk a client can request, which should be the chunk size configured for the
+     *                     server remoting the stream
+     */
+    public ChunkedInputStream(InputStream stream, int maxChunkSize) {
+        super(stream);
+        m_maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * Returns a chunk of the stream, reading it and any preceding chunks off the stream if that was not done yet.
+     *
+     * @param  chunk the number of the chunk, the first chunk being 0
+     * @param  size  the size of every chunk
+     *
+     * @return the chunk, which is only shorter than <code>size</code> if it is the last one, and empty past the end of
+     *         the stream
+     *
+     * @throws IOException if the chunk size is larger than allowed, the chunk was requested before, is too far ahead,
+     *                     or reading the stream failed
+     */
+    public synchronized byte[] readChunk(Long chunk, Integer size) throws IOException {
+        if (size < 1 || size > m_maxChunkSize) {
+            throw new IOException(LOG.getMsgString(CommI18NResourceKeys.REMOTE_STREAM_CHUNK_SIZE_INVALID, size,
+                m_maxChunkSize));
+        }
+
+        if (chunk < m_nextChunk) {
+            byte[] bytes = m_readAhead.remove(chunk);
+            if (bytes == null) {
+                throw new IOException(LOG.getMsgString(CommI18NResourceKeys.REMOTE_STREAM_CHUNK_UNAVAILABLE, chunk,
+                    m_nextChunk));
+            }
+            return bytes;
+        }
+
+        if (chunk - m_nextChunk >= MAX_CHUNKS_AHEAD) {
+            throw new IOException(LOG.getMsgString(CommI18NResourceKeys.REMOTE_STREAM_CHUNK_UNAVAILABLE, chunk,
+                m_nextChunk));
+        }
+
+        while (true) {
+            byte[] bytes = readFully(size);
+            if (m_nextChunk++ == chunk) {
+                return bytes;
+            }
+            m_readAhead.put(m_nextChunk - 1, bytes);
+        }
+    }
+
+    private byte[] readFully(int size) throws IOException {
+        byte[] buffer = new byte[size];
+        int count = 0;
+        while (count < size) {
+            int read = in.read(buffer, count, size - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+
+        if (count == size) {
+            return buffer;
+        }
+
+        byte[] bytes = new byte[count];
+        System.arraycopy(buffer, 0, bytes, 0, count);
+        return bytes;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.impl.stream.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import mazz.i18n.Logger;
+
+import org.rhq.enterprise.communications.i18n.CommI18NFactory;
+import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+
+/**
+ * Wraps a remoted output stream so that remote clients can write it in numbered chunks, several of which can be sent
+ * at the same time. Chunks are written to the stream in order; a chunk that arrives before the chunks preceding it is
+ * kept until those arrived and were written.
+ *
+ * <p>A client should either write chunks or invoke the <code>OutputStream</code> methods, which are passed through to
+ * the wrapped stream, but not both. A client writing chunks must not flush or close the stream before all of its chunks
+ * were written.</p>
+ */
+public class ChunkedOutputStream extends OutputStream {
+    /**
+     * The name of the {@link #writeChunk(Long, byte[])} method that clients invoke.
+     */
+    public static final String WRITE_CHUNK = "writeChunk";
+
+    /**
+     * How many chunks a client can send ahead of the next chunk to be written to the stream.
+     */
+    static final int MAX_CHUNKS_AHEAD = 64;
+
+    private static final Logger LOG = CommI18NFactory.getLogger(ChunkedOutputStream.class);
+
+    private final OutputStream m_stream;
+
+    /**
+     * the number of the next chunk to be written to the stream
+     */
+    private long m_nextChunk;
+
+    /**
+     * chunks that arrived before their preceding chunks, keyed on their numbers
+     */
+    private final Map<Long, byte[]> m_writeBehind = new HashMap<Long, byte[]>();
+
+    public ChunkedOutputStream(OutputStream stream) {
+        m_stream = stream;
+    }
+
+    /**
+     * Writes a chunk to the stream, along with the chunks that follow it and arrived before it.
+     *
+     * @param  chunk the number of the chunk, the first chunk being 0
+     * @param  bytes the contents of the chunk
+     *
+     * @throws IOException if the chunk was written before, is too far ahead, or writing the stream failed
+     */
+    public synchronized void writeChunk(Long chunk, byte[] bytes) throws IOException {
+        if (chunk < m_nextChunk || chunk - m_nextChunk >= MAX_CHUNKS_AHEAD || m_writeBehind.containsKey(chunk)) {
+            throw new IOException(LOG.getMsgString(CommI18NResourceKeys.REMOTE_STREAM_CHUNK_UNAVAILABLE, chunk,
+                m_nextChunk));
+        }
+
+        m_writeBehind.put(chunk, bytes);
+        for (byte[] next = m_writeBehind.remove(m_nextChunk); next != null; next = m_writeBehind.remove(m_nextChunk)) {
+            m_stream.write(next);
+            m_nextChunk++;
+        }
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        m_stream.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        m_stream.write(b, off, len);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        m_stream.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        m_stream.close();
+    }
+}
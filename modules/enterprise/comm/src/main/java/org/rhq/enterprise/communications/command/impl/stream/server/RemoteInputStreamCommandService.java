@@ -28,6 +28,9 @@ import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicLong;
 import mazz.i18n.Logger;
 import org.jboss.remoting.invocation.NameBasedInvocation;
+import org.rhq.enterprise.communications.ServiceContainer;
+import org.rhq.enterprise.communications.ServiceContainerConfiguration;
+import org.rhq.enterprise.communications.ServiceContainerConfigurationConstants;
 import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.CommandExecutor;
 import org.rhq.enterprise.communications.command.CommandResponse;
@@ -67,7 +70,7 @@ public class RemoteInputStreamCommandService extends CommandService {
      * The input streams that this service effectively remotes to its clients. The key values are the streams' index
      * numbers.
      */
-    private final Map<Long, InputStream> m_remotedInputStreams;
+    private final Map<Long, ChunkedInputStream> m_remotedInputStreams;
 
     /**
      * The last access times for all the streams - the key values are the streams' index numbers.
@@ -91,7 +94,7 @@ public class RemoteInputStreamCommandService extends CommandService {
      */
     public RemoteInputStreamCommandService() {
         m_index = 0L;
-        m_remotedInputStreams = new HashMap<Long, InputStream>();
+        m_remotedInputStreams = new HashMap<Long, ChunkedInputStream>();
         m_lastAccessTimes = new HashMap<Long, AtomicLong>();
         m_maxIdleTime = 30000L;
         m_idleTimer = null;
@@ -110,10 +113,16 @@ public class RemoteInputStreamCommandService extends CommandService {
         Long stream_id;
         AtomicLong lat = new AtomicLong(System.currentTimeMillis());
 
+        // clients read the stream in chunks of the size configured for this server, and no larger
+        ServiceContainer container = getServiceContainer();
+        ServiceContainerConfiguration config = (container != null) ? container.getConfiguration() : null;
+        int max_chunk_size = (config != null) ? config.getRemoteStreamChunkSize()
+            : ServiceContainerConfigurationConstants.DEFAULT_REMOTE_STREAM_CHUNK_SIZE;
+
         synchronized (m_lock) {
             stream_id = Long.valueOf(++m_index);
 
-            m_remotedInputStreams.put(stream_id, stream);
+            m_remotedInputStreams.put(stream_id, new ChunkedInputStream(stream, max_chunk_size));
             m_lastAccessTimes.put(stream_id, lat);
 
             if (m_idleTimer == null) {
@@ -223,7 +232,7 @@ public class RemoteInputStreamCommandService extends CommandService {
         try {
             // get the stream that the command wants to access
             Long stream_id = remote_command.getStreamId();
-            InputStream the_stream;
+            ChunkedInputStream the_stream;
 
             synchronized (m_lock) {
                 the_stream = m_remotedInputStreams.get(stream_id);
@@ -238,13 +247,19 @@ public class RemoteInputStreamCommandService extends CommandService {
 
             LOG.debug(CommI18NResourceKeys.INVOKING_STREAM_FROM_REMOTE_CLIENT, stream_id, method_name);
 
-            // use reflection to make the call
-            for (int x = 0; x < signature.length; x++) {
-                class_signature[x] = ClassUtil.getClassFromTypeName(signature[x]);
-            }
+            Object results;
 
-            Method method = InputStream.class.getMethod(method_name, class_signature);
-            Object results = method.invoke(the_stream, params);
+            if (ChunkedInputStream.READ_CHUNK.equals(method_name)) {
+                results = the_stream.readChunk((Long) params[0], (Integer) params[1]);
+            } else {
+                // use reflection to make the call
+                for (int x = 0; x < signature.length; x++) {
+                    class_signature[x] = ClassUtil.getClassFromTypeName(signature[x]);
+                }
+
+                Method method = InputStream.class.getMethod(method_name, class_signature);
+                results = method.invoke(the_stream, params);
+            }
 
             response = new RemoteInputStreamCommandResponse(remote_command, results);
 
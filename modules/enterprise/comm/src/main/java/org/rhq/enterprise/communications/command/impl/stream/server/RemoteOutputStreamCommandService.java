@@ -64,7 +64,7 @@ public class RemoteOutputStreamCommandService extends CommandService {
      * The output streams that this service effectively remotes to its clients. The key values are the streams' index
      * numbers.
      */
-    private final Map<Long, OutputStream> m_remotedOutputStreams;
+    private final Map<Long, ChunkedOutputStream> m_remotedOutputStreams;
 
     /**
      * The last access times for all the streams - the key values are the streams' index numbers.
@@ -88,7 +88,7 @@ public class RemoteOutputStreamCommandService extends CommandService {
      */
     public RemoteOutputStreamCommandService() {
         m_index = 0L;
-        m_remotedOutputStreams = new HashMap<Long, OutputStream>();
+        m_remotedOutputStreams = new HashMap<Long, ChunkedOutputStream>();
         m_lastAccessTimes = new HashMap<Long, AtomicLong>();
         m_maxIdleTime = 30000L;
         m_idleTimer = null;
@@ -110,7 +110,7 @@ public class RemoteOutputStreamCommandService extends CommandService {
         synchronized (m_lock) {
             stream_id = Long.valueOf(++m_index);
 
-            m_remotedOutputStreams.put(stream_id, stream);
+            m_remotedOutputStreams.put(stream_id, new ChunkedOutputStream(stream));
             m_lastAccessTimes.put(stream_id, lat);
 
             if (m_idleTimer == null) {
@@ -220,7 +220,7 @@ public class RemoteOutputStreamCommandService extends CommandService {
         try {
             // get the stream that the command wants to access
             Long stream_id = remote_command.getStreamId();
-            OutputStream the_stream;
+            ChunkedOutputStream the_stream;
 
             synchronized (m_lock) {
                 the_stream = m_remotedOutputStreams.get(stream_id);
@@ -235,13 +235,19 @@ public class RemoteOutputStreamCommandService extends CommandService {
 
             LOG.debug(CommI18NResourceKeys.INVOKING_OUTSTREAM_FROM_REMOTE_CLIENT, stream_id, method_name);
 
-            // use reflection to make the call
-            for (int x = 0; x < signature.length; x++) {
-                class_signature[x] = ClassUtil.getClassFromTypeName(signature[x]);
-            }
+            Object results = null;
+
+            if (ChunkedOutputStream.WRITE_CHUNK.equals(method_name)) {
+                the_stream.writeChunk((Long) params[0], (byte[]) params[1]);
+            } else {
+                // use reflection to make the call
+                for (int x = 0; x < signature.length; x++) {
+                    class_signature[x] = ClassUtil.getClassFromTypeName(signature[x]);
+                }
 
-            Method method = OutputStream.class.getMethod(method_name, class_signature);
-            Object results = method.invoke(the_stream, params);
+                Method method = OutputStream.class.getMethod(method_name, class_signature);
+                results = method.invoke(the_stream, params);
+            }
 
             response = new RemoteOutputStreamCommandResponse(remote_command, results);
 
@@ -237,6 +237,12 @@ public interface CommI18NResourceKeys {
         @I18NMessage(value = "Die Maximalgrüße [{0}] muss größer oder gleich [{1}] sein", locale = "de") })
     String INVALID_MAX_SIZE = "PersistentFifo.invalid-max-size";
 
+    @I18NMessages( { @I18NMessage("Converted the FIFO file [{0}] to the segmented format; [{1}] entries were carried over") })
+    String PERSISTENT_FIFO_CONVERTED = "PersistentFifo.converted";
+
+    @I18NMessages( { @I18NMessage("Could not delete the FIFO segment file [{0}]; it will be deleted the next time the FIFO is opened") })
+    String PERSISTENT_FIFO_CANNOT_DELETE_SEGMENT = "PersistentFifo.cannot-delete-segment";
+
     @I18NMessages( { @I18NMessage("Failed to execute remote POJO method [{0}]. Cause: {1}") })
     String CLIENT_REMOTE_POJO_INVOKER_EXECUTION_FAILURE = "ClientRemotePojoFactory.execution-failure";
 
@@ -824,6 +830,12 @@ public interface CommI18NResourceKeys {
     @I18NMessages( { @I18NMessage("A remote output stream with an ID of [{0}] and server endpoint of [{1}] has not yet been assigned a sender object - cannot access the stream") })
     String REMOTE_OUTPUT_STREAM_HAS_NO_SENDER = "RemoteOutputStream.remote-output-stream-missing-sender";
 
+    @I18NMessages( { @I18NMessage("Chunk [{0}] of a remote stream cannot be transferred - it was transferred before or is too far ahead of the next chunk [{1}]") })
+    String REMOTE_STREAM_CHUNK_UNAVAILABLE = "RemoteStream.chunk-unavailable";
+
+    @I18NMessages( { @I18NMessage("A remote stream cannot be read in chunks of [{0}] bytes - the chunks must be between 1 and [{1}] bytes") })
+    String REMOTE_STREAM_CHUNK_SIZE_INVALID = "RemoteStream.chunk-size-invalid";
+
     @I18NMessages( { @I18NMessage("Failed to create a command sender for [{0}]") })
     String FAILED_TO_CREATE_SENDER = "ServiceContainer.failed-to-create-sender";
 
@@ -19,6 +19,8 @@
 package org.rhq.enterprise.communications.command.client;
 
 import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
 import org.testng.annotations.Test;
 
 /**
@@ -190,10 +192,155 @@ public class PersistentFifoTest {
         } catch (Throwable t) {
             t.printStackTrace();
         } finally {
-            fifoFile.delete();
+            deleteFifo(fifoFile);
         }
     }
 
+    /**
+     * Tests that the entries survive reopening the fifo while they span several segments and that the segments are
+     * deleted once their entries have been taken.
+     *
+     * @throws Exception
+     */
+    public void testReopen() throws Exception {
+        String tmpDir = System.getProperty("java.io.tmpdir");
+        File fifoFile = new File(tmpDir, "TEST-reopen.data");
+        deleteFifo(fifoFile);
+
+        try {
+            // a 100000 byte max size means 12500 byte segments
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 75, false);
+            for (int i = 0; i < 1000; i++) {
+                fifo.put(("0123456789012345678901234567890123456789x-" + i).getBytes());
+            }
+
+            assert fifo.count() == 1000 : "count should be 1000";
+            assert getSegmentFiles(fifoFile).length > 1 : "entries should span several segments";
+
+            for (int i = 0; i < 500; i++) {
+                String entry = new String(fifo.take());
+                assert entry.endsWith("x-" + i) : "entries out of order: " + entry;
+            }
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 75, false);
+            assert fifo.count() == 500 : "count should be 500 after reopening: " + fifo.count();
+
+            for (int i = 500; i < 1000; i++) {
+                String entry = new String(fifo.take());
+                assert entry.endsWith("x-" + i) : "entries out of order after reopening: " + entry;
+            }
+
+            assert fifo.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+            assert getSegmentFiles(fifoFile).length == 1 : "only the tail segment should be left";
+
+            fifo.initializeEmptyFile();
+            assert getSegmentFiles(fifoFile).length == 0 : "all segments should be deleted";
+        } finally {
+            deleteFifo(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that a purge drops the oldest entries and keeps the newest.
+     *
+     * @throws Exception
+     */
+    public void testPurge() throws Exception {
+        String tmpDir = System.getProperty("java.io.tmpdir");
+        File fifoFile = new File(tmpDir, "TEST-purge.data");
+        deleteFifo(fifoFile);
+
+        try {
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            for (int i = 0; i < 10000; i++) {
+                fifo.put(("0123456789012345678901234567890123456789x-" + i).getBytes());
+            }
+
+            assert fifo.count() < 10000 : "old entries should have been purged";
+            assert fifo.count() * 50 < 100000L : "the fifo should be under its max size: " + fifo.count();
+
+            long count = fifo.count();
+            String entry = null;
+            for (long i = 0; i < count; i++) {
+                entry = new String(fifo.take());
+            }
+
+            assert entry.endsWith("x-9999") : "the newest entry should be kept: " + entry;
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            deleteFifo(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that a fifo file written in the older single file format is converted and its entries are kept.
+     *
+     * @throws Exception
+     */
+    public void testConvertLegacyFile() throws Exception {
+        String tmpDir = System.getProperty("java.io.tmpdir");
+        File fifoFile = new File(tmpDir, "TEST-legacy.data");
+        deleteFifo(fifoFile);
+
+        try {
+            // count | HEAD | TAIL | next | entry | next | entry ... with the first entry already taken
+            String[] entries = { "taken", "Mazz Was Here 1", "Mazz Was Here 2!", "Mazz Was Here 3!!" };
+            RandomAccessFile raf = new RandomAccessFile(fifoFile, "rw");
+            raf.writeLong(entries.length - 1);
+            raf.writeLong(-1L);
+            raf.writeLong(-1L);
+            long head = -1L;
+            long tail = -1L;
+            for (int i = 0; i < entries.length; i++) {
+                long pos = raf.getFilePointer();
+                if (i == 1) {
+                    head = pos;
+                }
+                if (tail >= 0) {
+                    raf.seek(tail);
+                    raf.writeLong(pos - tail - 8);
+                    raf.seek(pos);
+                }
+                raf.writeLong(-1L);
+                raf.write(entries[i].getBytes());
+                tail = pos;
+            }
+            raf.seek(8);
+            raf.writeLong(head);
+            raf.writeLong(tail);
+            raf.close();
+
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 75, false);
+            assert fifo.count() == 3 : "count should be 3: " + fifo.count();
+            assert "Mazz Was Here 1".equals(new String(fifo.take()));
+            assert "Mazz Was Here 2!".equals(new String(fifo.take()));
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 75, false);
+            assert fifo.count() == 1 : "count should be 1: " + fifo.count();
+            assert "Mazz Was Here 3!!".equals(new String(fifo.take()));
+            assert fifo.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        } finally {
+            deleteFifo(fifoFile);
+        }
+    }
+
+    private File[] getSegmentFiles(final File fifoFile) {
+        return fifoFile.getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(fifoFile.getName() + ".");
+            }
+        });
+    }
+
+    private void deleteFifo(File fifoFile) {
+        for (File segment : getSegmentFiles(fifoFile)) {
+            segment.delete();
+        }
+
+        fifoFile.delete();
+    }
+
     /**
      * In case something goes wrong in this test, we can manually enable it to dump things to stdout here.
      *
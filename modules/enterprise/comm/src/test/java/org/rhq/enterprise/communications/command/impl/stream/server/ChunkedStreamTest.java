@@ -0,0 +1,107 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.impl.stream.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests reading and writing remoted streams in chunks that are requested out of order.
+ */
+@Test
+public class ChunkedStreamTest {
+    public void testReadChunksOutOfOrder() throws Exception {
+        ChunkedInputStream in = new ChunkedInputStream(new ByteArrayInputStream("0123456789".getBytes()), 3);
+
+        assert "45".equals(new String(in.readChunk(2L, 2)));
+        assert "01".equals(new String(in.readChunk(0L, 2)));
+        assert "23".equals(new String(in.readChunk(1L, 2)));
+
+        in = new ChunkedInputStream(new ByteArrayInputStream("0123456789".getBytes()), 3);
+        assert "012".equals(new String(in.readChunk(0L, 3)));
+        assert "9".equals(new String(in.readChunk(3L, 3)));
+        assert "345".equals(new String(in.readChunk(1L, 3)));
+        assert "678".equals(new String(in.readChunk(2L, 3)));
+        assert in.readChunk(4L, 3).length == 0;
+        assert in.readChunk(5L, 3).length == 0;
+    }
+
+    public void testReadChunkTwice() throws Exception {
+        ChunkedInputStream in = new ChunkedInputStream(new ByteArrayInputStream("0123456789".getBytes()), 3);
+        in.readChunk(0L, 2);
+
+        try {
+            in.readChunk(0L, 2);
+            assert false : "a chunk should not be read twice";
+        } catch (IOException expected) {
+        }
+
+        try {
+            in.readChunk(1L + ChunkedInputStream.MAX_CHUNKS_AHEAD, 2);
+            assert false : "a chunk should not be read too far ahead";
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testReadChunkTooLarge() throws Exception {
+        ChunkedInputStream in = new ChunkedInputStream(new ByteArrayInputStream("0123456789".getBytes()), 3);
+
+        try {
+            in.readChunk(0L, 4);
+            assert false : "a chunk should not be larger than the maximum chunk size";
+        } catch (IOException expected) {
+        }
+
+        try {
+            in.readChunk(0L, -1);
+            assert false : "a chunk should not have a negative size";
+        } catch (IOException expected) {
+        }
+
+        assert "012".equals(new String(in.readChunk(0L, 3)));
+    }
+
+    public void testWriteChunksOutOfOrder() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ChunkedOutputStream out = new ChunkedOutputStream(baos);
+
+        out.writeChunk(1L, "23".getBytes());
+        assert baos.size() == 0;
+        out.writeChunk(3L, "6".getBytes());
+        out.writeChunk(0L, "01".getBytes());
+        assert "0123".equals(baos.toString());
+        out.writeChunk(2L, "45".getBytes());
+        assert "0123456".equals(baos.toString());
+
+        try {
+            out.writeChunk(2L, "45".getBytes());
+            assert false : "a chunk should not be written twice";
+        } catch (IOException expected) {
+        }
+
+        try {
+            out.writeChunk(4L + ChunkedOutputStream.MAX_CHUNKS_AHEAD, "7".getBytes());
+            assert false : "a chunk should not be written too far ahead";
+        } catch (IOException expected) {
+        }
+    }
+}
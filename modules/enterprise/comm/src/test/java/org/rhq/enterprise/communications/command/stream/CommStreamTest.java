@@ -200,6 +200,23 @@ public class CommStreamTest {
         assert pojo.slurpInputStream(in, streamString);
     }
 
+    @Test(enabled = ENABLE_TESTS)
+    public void testInputStreamParamReadAhead() throws Exception {
+        assert pojo.ping();
+
+        // long enough to be read ahead in several chunks, the last of them a short one
+        StringBuilder streamString = new StringBuilder();
+        while (streamString.length() < (5 * ServiceContainerConfigurationConstants.DEFAULT_REMOTE_STREAM_CHUNK_SIZE)
+            + 100) {
+            streamString.append("Comm Stream Test String ").append(streamString.length()).append('\n');
+        }
+
+        // this will throw an exception if it failed
+        InputStream in = prepareRemoteStreamInServer1(new ByteArrayInputStream(streamString.toString().getBytes()));
+        assert in instanceof RemoteInputStream;
+        assert pojo.slurpInputStream(in, streamString.toString());
+    }
+
     @Test(enabled = ENABLE_TESTS)
     public void testOutputStreamReturn() throws Exception {
         assert pojo.ping();
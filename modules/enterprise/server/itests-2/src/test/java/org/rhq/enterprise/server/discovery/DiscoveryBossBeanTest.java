@@ -31,10 +31,14 @@ import java.io.ObjectOutputStream;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.ejb.EJBException;
@@ -74,12 +78,14 @@ import org.rhq.core.domain.resource.CreateResourceHistory;
 import org.rhq.core.domain.resource.InventoryStatus;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.group.ResourceGroup;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.core.domain.util.collection.ArrayUtils;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceTypeManagerLocal;
+import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.test.AbstractEJB3Test;
 import org.rhq.enterprise.server.test.TestServerCommunicationsService;
 import org.rhq.enterprise.server.test.TransactionCallback;
@@ -100,6 +106,8 @@ public class DiscoveryBossBeanTest extends AbstractEJB3Test {
 
     private ResourceTypeManagerLocal resourceTypeManager;
 
+    private ResourceGroupManagerLocal resourceGroupManager;
+
     private ResourceType platformType;
 
     private ResourceType serverType;
@@ -108,6 +116,12 @@ public class DiscoveryBossBeanTest extends AbstractEJB3Test {
 
     private ResourceType serviceType2;
 
+    private ResourceType otherPluginServerType;
+
+    private ResourceType otherPluginServiceType;
+
+    private ResourceType otherPluginChildServiceType;
+
     private ResourceType storagePlatformType;
 
     private ResourceType storageServerType;
@@ -122,6 +136,7 @@ public class DiscoveryBossBeanTest extends AbstractEJB3Test {
         subjectManager = LookupUtil.getSubjectManager();
         resourceManager = LookupUtil.getResourceManager();
         resourceTypeManager = LookupUtil.getResourceTypeManager();
+        resourceGroupManager = LookupUtil.getResourceGroupManager();
 
         initDB();
 
@@ -129,6 +144,9 @@ public class DiscoveryBossBeanTest extends AbstractEJB3Test {
         serverType = getEntityManager().find(ResourceType.class, 15642);
         serviceType1 = getEntityManager().find(ResourceType.class, 15643);
         serviceType2 = getEntityManager().find(ResourceType.class, 15644);
+        otherPluginServerType = getEntityManager().find(ResourceType.class, 15661);
+        otherPluginServiceType = getEntityManager().find(ResourceType.class, 15662);
+        otherPluginChildServiceType = getEntityManager().find(ResourceType.class, 15663);
         agent = getEntityManager().find(Agent.class, 15641);
 
         storagePlatformType = getEntityManager().find(ResourceType.class, 15651);
@@ -609,6 +627,139 @@ public class DiscoveryBossBeanTest extends AbstractEJB3Test {
         assertEquals(userSuppliedResourceName, service1Resource.getName());
     }
 
+    @Test(groups = "integration.ejb3")
+    public void testMergeReportWithNewAndExistingResources() throws Exception {
+        // First inventory a platform with resources of two plugins, three levels deep
+        Resource platform = new Resource(prefix("platform"), prefix("platform"), platformType);
+        Resource server = new Resource(prefix("server"), prefix("server"), serverType);
+        platform.addChildResource(server);
+        server.addChildResource(new Resource(prefix("service"), prefix("service"), serviceType1));
+        Resource otherServer = new Resource(prefix("other server"), prefix("other server"), otherPluginServerType);
+        platform.addChildResource(otherServer);
+        Resource otherService = new Resource(prefix("other service"), prefix("other service"),
+            otherPluginServiceType);
+        otherServer.addChildResource(otherService);
+        otherService.addChildResource(new Resource(prefix("other child"), prefix("other child"),
+            otherPluginChildServiceType));
+        setRandomUuids(platform);
+
+        InventoryReport inventoryReport = new InventoryReport(agent);
+        inventoryReport.addAddedRoot(platform);
+        MergeInventoryReportResults results = discoveryBoss.mergeInventoryReport(serialize(inventoryReport));
+        assertNotNull(results);
+        assert checkIgnoredTypes(results) : "nothing should have been ignored in this test";
+
+        Map<String, Integer> existingIds = findResourceIdsByPath();
+        assertEquals("The first report should have added all its resources", 6, existingIds.size());
+        int platformId = results.getPlatformSyncInfo().getPlatform().getId();
+
+        // Put the platform into a recursive group, which all of its new descendants have to join implicitly
+        ResourceGroup group = new ResourceGroup(prefix("recursive group"));
+        group.setRecursive(true);
+        group = resourceGroupManager.createResourceGroup(subjectManager.getOverlord(), group);
+        try {
+            resourceGroupManager.addResourcesToGroup(subjectManager.getOverlord(), group.getId(),
+                new int[] { platformId });
+            assertEquals(new HashSet<Integer>(existingIds.values()), findImplicitMemberIds(group));
+
+            // Now report the same tree again, still without resource ids, with new resources below the existing ones.
+            // Some of the new resources have the business key of an existing resource, but a different parent.
+            server.addChildResource(new Resource(prefix("new service"), prefix("new service"), serviceType1));
+            Resource newOtherServer = new Resource(prefix("new other server"), prefix("new other server"),
+                otherPluginServerType);
+            platform.addChildResource(newOtherServer);
+            Resource newOtherService = new Resource(prefix("other service"), prefix("other service"),
+                otherPluginServiceType);
+            newOtherServer.addChildResource(newOtherService);
+            newOtherService.addChildResource(new Resource(prefix("other child"), prefix("other child"),
+                otherPluginChildServiceType));
+            otherService.addChildResource(new Resource(prefix("new other child"), prefix("new other child"),
+                otherPluginChildServiceType));
+            setRandomUuids(platform);
+
+            inventoryReport = new InventoryReport(agent);
+            inventoryReport.addAddedRoot(platform);
+            results = discoveryBoss.mergeInventoryReport(serialize(inventoryReport));
+            assertNotNull(results);
+            assert checkIgnoredTypes(results) : "nothing should have been ignored in this test";
+            assertEquals(platformId, results.getPlatformSyncInfo().getPlatform().getId());
+
+            // The existing resources have been found by parent and key, the others have been added
+            Map<String, Integer> ids = findResourceIdsByPath();
+            Set<String> expectedPaths = new HashSet<String>(existingIds.keySet());
+            String platformPath = prefix("platform");
+            String newOtherServerPath = platformPath + "/" + prefix("new other server");
+            expectedPaths.add(platformPath + "/" + prefix("server") + "/" + prefix("new service"));
+            expectedPaths.add(newOtherServerPath);
+            expectedPaths.add(newOtherServerPath + "/" + prefix("other service"));
+            expectedPaths.add(newOtherServerPath + "/" + prefix("other service") + "/" + prefix("other child"));
+            expectedPaths.add(platformPath + "/" + prefix("other server") + "/" + prefix("other service") + "/"
+                + prefix("new other child"));
+            assertEquals(expectedPaths, ids.keySet());
+            for (Map.Entry<String, Integer> existing : existingIds.entrySet()) {
+                assertEquals("The existing resource " + existing.getKey() + " should have been updated",
+                    existing.getValue(), ids.get(existing.getKey()));
+            }
+
+            // All the new resources have joined the group once, including the ones whose parents were new as well
+            assertEquals(new HashSet<Integer>(ids.values()), findImplicitMemberIds(group));
+        } finally {
+            resourceGroupManager.deleteResourceGroup(subjectManager.getOverlord(), group.getId());
+        }
+    }
+
+    private void setRandomUuids(Resource resource) {
+        if (null == resource.getUuid()) {
+            resource.setUuid(String.valueOf(new Random().nextInt()));
+        }
+        for (Resource child : resource.getChildResources()) {
+            setRandomUuids(child);
+        }
+    }
+
+    /**
+     * @return the ids of the resources of this test, keyed by the resource keys of their lineages
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Integer> findResourceIdsByPath() {
+        List<Object[]> rows = getEntityManager().createQuery("" //
+            + "SELECT r.id, r.resourceKey, parent.id " //
+            + "  FROM Resource r " //
+            + "  LEFT JOIN r.parentResource parent " //
+            + " WHERE r.resourceKey LIKE :prefix").setParameter("prefix", getPrefix() + "%").getResultList();
+
+        Map<Integer, Object[]> resources = new HashMap<Integer, Object[]>();
+        for (Object[] row : rows) {
+            resources.put((Integer) row[0], row);
+        }
+
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (Object[] row : rows) {
+            String path = (String) row[1];
+            for (Object[] parent = resources.get(row[2]); null != parent; parent = resources.get(parent[2])) {
+                path = parent[1] + "/" + path;
+            }
+            assertNull("Two resources have the same lineage " + path, ids.put(path, (Integer) row[0]));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids of the implicit members of the group, failing if a resource is a member more than once
+     */
+    private Set<Integer> findImplicitMemberIds(ResourceGroup group) {
+        List<?> rows = getEntityManager()
+            .createNativeQuery("SELECT RESOURCE_ID FROM RHQ_RESOURCE_GROUP_RES_IMP_MAP WHERE RESOURCE_GROUP_ID = ?")
+            .setParameter(1, group.getId()).getResultList();
+
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Object row : rows) {
+            assertTrue("Resource " + row + " is an implicit member more than once", ids.add(((Number) row)
+                .intValue()));
+        }
+        return ids;
+    }
+
     /**
      * Use this to fake like your remoting objects. Can be used to keep your own copy of objects locally transient.
      *
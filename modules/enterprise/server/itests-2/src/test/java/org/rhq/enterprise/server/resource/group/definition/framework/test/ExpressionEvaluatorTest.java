@@ -811,6 +811,44 @@ public class ExpressionEvaluatorTest extends AbstractEJB3Test {
         });
     }
 
+    @Test(groups = "integration.session")
+    public void testEvaluableForChangedResources() throws Exception {
+        String[] evaluable = { "resource.name = joseph", "resource.type.plugin = harry; groupBy resource.version",
+            "resource.trait[partitionName] = cluster-1", "groupBy resource.trait[partitionName]",
+            "empty resource.version" };
+        String[] notEvaluable = { "resource.child.name = joseph", "resource.parent.name = joseph",
+            "resource.grandParent.trait[partitionName] = cluster-1", "resource.availability = UP",
+            "resource.pluginConfiguration[partition] = cluster-1", "resource.name = joseph; memberof = Group Name" };
+
+        getTransactionManager().begin();
+        try {
+            for (String expressions : evaluable) {
+                assert createEvaluator(expressions).isEvaluableForChangedResources() : expressions;
+            }
+            for (String expressions : notEvaluable) {
+                assert !createEvaluator(expressions).isEvaluableForChangedResources() : expressions;
+            }
+
+            ExpressionEvaluator evaluator = createEvaluator("resource.name = joseph");
+            evaluator.setResourceIdFilter(Arrays.asList(1, 2));
+            evaluator.execute();
+            String expected = "SELECT res.id FROM Resource res WHERE res.name = :arg1 AND res.id IN ( :resourceIdFilter )";
+            assert cleanUp(expected).equalsIgnoreCase(cleanUp(evaluator.getComputedJPQLStatement())) : evaluator
+                .getComputedJPQLStatement();
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
+    private ExpressionEvaluator createEvaluator(String expressions) throws Exception {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        evaluator.setTestMode(true);
+        for (String expression : expressions.split(";")) {
+            evaluator.addExpression(expression);
+        }
+        return evaluator;
+    }
+
     private String cleanUp(String result) {
         return result.replaceAll("\\s+", " ").trim();
     }
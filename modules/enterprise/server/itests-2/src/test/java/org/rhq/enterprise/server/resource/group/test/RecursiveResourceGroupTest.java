@@ -182,6 +182,51 @@ public class RecursiveResourceGroupTest extends AbstractEJB3Test {
         }
     }
 
+    @Test(groups = "integration.session")
+    public void testImplicitGroupMembershipOfDeepTree() throws Throwable {
+        getTransactionManager().begin();
+        try {
+            EntityManager em = getEntityManager();
+
+            // setup simple test structures
+            Subject subject = SessionTestHelper.createNewSubject(em, "fake subject");
+            Role role = SessionTestHelper
+                .createNewRoleForSubject(em, subject, "fake role", Permission.MANAGE_INVENTORY);
+
+            ResourceGroup recursiveGroup = SessionTestHelper.createNewMixedGroupForRole(em, role, "fake group", true);
+
+            // setup a test tree ten levels deep, with a branch below the fifth level
+            List<Resource> fullTree = ResourceTreeHelper.createTree(em,
+                "d0=d1; d1=d2; d2=d3; d3=d4; d4=d5,b5; d5=d6; d6=d7; d7=d8; d8=d9; b5=b6");
+            Resource root = ResourceTreeHelper.findNode(fullTree, "d0");
+            Resource leaf = ResourceTreeHelper.findNode(fullTree, "d9");
+
+            // adding the root should give us the whole tree
+            List<Resource> expectedImplicit = ResourceTreeHelper.getSubtree(root);
+            resourceGroupManager.addResourcesToGroup(subject, recursiveGroup.getId(), new int[] { root.getId() });
+            verifyEqual("Failed: deep implicit add", getIds(expectedImplicit),
+                resourceManager.findImplicitResourceIdsByResourceGroup(recursiveGroup.getId()));
+
+            // a new subtree, seven levels deep, committed below the leaf should join with all of its descendants
+            List<Resource> committedChain = createChain(em, leaf, "c", 7);
+            resourceGroupManager.updateImplicitGroupMembership(subject, committedChain.get(0));
+            expectedImplicit.addAll(committedChain);
+            verifyEqual("Failed: deep implicit update of a resource", getIds(expectedImplicit),
+                resourceManager.findImplicitResourceIdsByResourceGroup(recursiveGroup.getId()));
+
+            // and so should a batch of new resources, seven levels deep, that are all given at once
+            List<Resource> mergedChain = createChain(em, leaf, "m", 7);
+            resourceGroupManager.updateImplicitGroupMembership(subject, mergedChain);
+            expectedImplicit.addAll(mergedChain);
+            verifyEqual("Failed: deep implicit update of resources", getIds(expectedImplicit),
+                resourceManager.findImplicitResourceIdsByResourceGroup(recursiveGroup.getId()));
+        } catch (Throwable t) {
+            handleThrowable(t);
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
     @Test(groups = "integration.session")
     public void testImplicitGroupMembershipFromComplexGroupUpdates() throws Throwable {
         Subject subject = null;
@@ -467,6 +512,26 @@ public class RecursiveResourceGroupTest extends AbstractEJB3Test {
         return results;
     }
 
+    /**
+     * Persists a chain of new, committed resources below the parent, each one the child of the one before it.
+     *
+     * @return the resources of the chain, starting with the child of the parent
+     */
+    private List<Resource> createChain(EntityManager em, Resource parent, String namePrefix, int length) {
+        List<Resource> chain = new ArrayList<Resource>();
+        for (int i = 0; i < length; i++) {
+            Resource child = new Resource(namePrefix + i, namePrefix + i, parent.getResourceType());
+            child.setUuid("" + new Random().nextInt());
+            child.setInventoryStatus(InventoryStatus.COMMITTED);
+            parent.addChildResource(child);
+            em.persist(child);
+            chain.add(child);
+            parent = child;
+        }
+        em.flush();
+        return chain;
+    }
+
     private List<Resource> getSimpleTree(EntityManager em) {
         return ResourceTreeHelper.createTree(em, "A=1,2; 1=a,b; a=i,ii; b=iii,iv; B=3");
     }
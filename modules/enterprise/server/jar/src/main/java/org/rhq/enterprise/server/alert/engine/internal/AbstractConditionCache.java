@@ -141,5 +141,21 @@ abstract class AbstractConditionCache {
         return success;
     }
 
+    <T extends AbstractCacheElement<?>> boolean addTo(String mapName, IntKeyedCacheMap<T> cache, int key,
+        T cacheElement, int alertConditionId, AlertConditionCacheStats stats) {
+        if (cacheElement == null) {
+            log.warn("Cannot insert null cache element in '" + mapName + "' element: " + "key=" + key);
+            return false;
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Inserting '" + mapName + "' element: " + "key=" + key + ", " + "value=" + cacheElement);
+        }
+
+        cache.add(key, cacheElement);
+        stats.created++;
+        return true;
+    }
+
     public abstract int getCacheSize(AlertConditionCacheCoordinator.Cache cache);
 }
@@ -76,11 +76,15 @@ import org.rhq.enterprise.server.util.LookupUtil;
  */
 class AgentConditionCache extends AbstractConditionCache {
 
-    private Map<Integer, List<NumericDoubleCacheElement>> measurementDataCache; // key: schedule ID
-    private Map<Integer, List<MeasurementTraitCacheElement>> measurementTraitCache; // key: schedule ID
-    private Map<Integer, List<CallTimeDataCacheElement>> callTimeCache; // key: schedule ID
-    private Map<Integer, List<EventCacheElement>> eventsCache; // key: resource ID
-    private Map<Integer, List<DriftCacheElement>> driftCache; // key: resource ID
+    /*
+     * these are only filled while the cache is loaded in the constructor; once the cache is published by the
+     * coordinator it is never modified again, which allows it to be read without any locking
+     */
+    private final IntKeyedCacheMap<NumericDoubleCacheElement> measurementDataCache; // key: schedule ID
+    private final IntKeyedCacheMap<MeasurementTraitCacheElement> measurementTraitCache; // key: schedule ID
+    private final IntKeyedCacheMap<CallTimeDataCacheElement> callTimeCache; // key: schedule ID
+    private final IntKeyedCacheMap<EventCacheElement> eventsCache; // key: resource ID
+    private final IntKeyedCacheMap<DriftCacheElement> driftCache; // key: resource ID
 
     private AlertConditionManagerLocal alertConditionManager;
     private MeasurementDataManagerLocal measurementDataManager;
@@ -93,11 +97,11 @@ class AgentConditionCache extends AbstractConditionCache {
 
         this.agentId = agentId;
 
-        measurementDataCache = new HashMap<Integer, List<NumericDoubleCacheElement>>();
-        measurementTraitCache = new HashMap<Integer, List<MeasurementTraitCacheElement>>();
-        callTimeCache = new HashMap<Integer, List<CallTimeDataCacheElement>>();
-        eventsCache = new HashMap<Integer, List<EventCacheElement>>();
-        driftCache = new HashMap<Integer, List<DriftCacheElement>>();
+        measurementDataCache = new IntKeyedCacheMap<NumericDoubleCacheElement>();
+        measurementTraitCache = new IntKeyedCacheMap<MeasurementTraitCacheElement>();
+        callTimeCache = new IntKeyedCacheMap<CallTimeDataCacheElement>();
+        eventsCache = new IntKeyedCacheMap<EventCacheElement>();
+        driftCache = new IntKeyedCacheMap<DriftCacheElement>();
 
         alertConditionManager = LookupUtil.getAlertConditionManager();
         measurementDataManager = LookupUtil.getMeasurementDataManager();
@@ -625,15 +629,15 @@ class AgentConditionCache extends AbstractConditionCache {
     @Override
     public int getCacheSize(Cache cache) {
         if (cache == AlertConditionCacheCoordinator.Cache.MeasurementDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementDataCache);
+            return measurementDataCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.MeasurementTraitCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementTraitCache);
+            return measurementTraitCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.CallTimeDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(callTimeCache);
+            return callTimeCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.EventsCache) {
-            return AlertConditionCacheUtils.getMapListCount(eventsCache);
+            return eventsCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.DriftCache) {
-            return AlertConditionCacheUtils.getMapListCount(driftCache);
+            return driftCache.getElementCount();
         } else {
             throw new IllegalArgumentException("The " + AgentConditionCache.class.getSimpleName()
                 + " either does not manage caches of type " + cache.type + ", or does not support obtaining their size");
@@ -0,0 +1,143 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact map from schedule or resource ids to the cache elements registered for them. Keys are kept in a primitive
+ * open addressing table and the elements of a key in an exactly sized array, so there is no boxed key, map entry or
+ * spare list capacity per id.
+ *
+ * The map is filled while its cache is loaded and must not be modified after the cache has been published; from then
+ * on any number of threads may read it without locking.
+ */
+final class IntKeyedCacheMap<T> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // zero marks an empty slot so its elements are kept separately
+    private List<T> zeroElements;
+
+    private int[] keys;
+
+    private List<T>[] elements;
+
+    private int keyCount;
+
+    private int elementCount;
+
+    IntKeyedCacheMap() {
+        this(16);
+    }
+
+    @SuppressWarnings("unchecked")
+    IntKeyedCacheMap(int initialCapacity) {
+        int size = 1;
+        while (size < initialCapacity / LOAD_FACTOR) {
+            size <<= 1;
+        }
+        keys = new int[size];
+        elements = new List[size];
+    }
+
+    /**
+     * @return the elements registered for the key, or <code>null</code> if there are none
+     */
+    List<T> get(int key) {
+        if (key == 0) {
+            return zeroElements;
+        }
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return elements[i];
+            }
+            if (keys[i] == 0) {
+                return null;
+            }
+        }
+    }
+
+    void add(int key, T element) {
+        ++elementCount;
+        if (key == 0) {
+            zeroElements = append(zeroElements, element);
+            return;
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == 0) {
+            keys[i] = key;
+            ++keyCount;
+        }
+        elements[i] = append(elements[i], element);
+        if (keyCount > keys.length * LOAD_FACTOR) {
+            rehash();
+        }
+    }
+
+    /**
+     * @return the number of elements over all keys
+     */
+    int getElementCount() {
+        return elementCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> append(List<T> current, T element) {
+        Object[] array;
+        if (current == null) {
+            array = new Object[] { element };
+        } else {
+            array = current.toArray(new Object[current.size() + 1]);
+            array[current.size()] = element;
+        }
+        return (List<T>) Arrays.asList(array);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash() {
+        int[] oldKeys = keys;
+        List<T>[] oldElements = elements;
+        keys = new int[oldKeys.length << 1];
+        elements = new List[oldKeys.length << 1];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldKeys[j] != 0) {
+                int i = hash(oldKeys[j]) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                elements[i] = oldElements[j];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.measurement.MeasurementData;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.util.LookupUtil;
+
+/**
+ * Queues newly stored measurement data to be checked against the alert condition caches later, so that the storage
+ * threads reporting the inserted data do not pay for alerting.
+ *
+ * Submitted data is split into partitions by schedule id. Each partition has its own bounded queue, which is drained
+ * by at most one container managed asynchronous invocation at a time, so all data of a schedule is checked in order
+ * while different schedules are checked in parallel. When a partition falls behind and its queue is full, submitting
+ * waits for room in the queue for a while and then checks the data on the submitting thread, which slows the storage
+ * threads down rather than missing alerts. Data checked that way may be checked before data of the same schedules that
+ * is still queued.
+ *
+ * The pipeline is configured through these system properties:
+ * <ul>
+ *   <li>rhq.server.alert-condition.measurement.partitions - the number of partitions, default 4</li>
+ *   <li>rhq.server.alert-condition.measurement.queue-size - the batches queued per partition, default 1000</li>
+ *   <li>rhq.server.alert-condition.measurement.offer-timeout - the milliseconds to wait for room in a full partition
+ *   before checking the data on the submitting thread, default 1000</li>
+ * </ul>
+ */
+public final class MeasurementConditionPipeline {
+
+    /**
+     * Arranges for a partition to be drained on another thread.
+     */
+    interface Dispatcher {
+        /**
+         * Makes sure that {@link MeasurementConditionPipeline#drain(int, AlertConditionCacheManagerLocal)} is called
+         * for the partition without waiting for it.
+         */
+        void dispatch(int partition);
+    }
+
+    private static final Log log = LogFactory.getLog(MeasurementConditionPipeline.class);
+
+    private static final long INLINE_WARNING_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final MeasurementConditionPipeline instance = new MeasurementConditionPipeline(
+        getIntProperty("rhq.server.alert-condition.measurement.partitions", 4),
+        getIntProperty("rhq.server.alert-condition.measurement.queue-size", 1000),
+        getIntProperty("rhq.server.alert-condition.measurement.offer-timeout", 1000), new Dispatcher() {
+            @Override
+            public void dispatch(int partition) {
+                LookupUtil.getMeasurementDataManager().checkQueuedAlertConditions(partition);
+            }
+        });
+
+    private static final Comparator<MeasurementData> TIMESTAMP_ORDER = new Comparator<MeasurementData>() {
+        @Override
+        public int compare(MeasurementData d1, MeasurementData d2) {
+            return (d1.getTimestamp() < d2.getTimestamp()) ? -1 : ((d1.getTimestamp() == d2.getTimestamp()) ? 0 : 1);
+        }
+    };
+
+    private final List<Partition> partitions;
+
+    private final long offerTimeout;
+
+    private final Dispatcher dispatcher;
+
+    private final AtomicLong droppedBatches = new AtomicLong();
+
+    private final AtomicLong inlineBatches = new AtomicLong();
+
+    private volatile long lastInlineWarning;
+
+    private volatile boolean shutdown;
+
+    // the batches that were submitted but not checked yet, guarded by this
+    private int pendingBatches;
+
+    MeasurementConditionPipeline(int partitions, int queueSize, long offerTimeout, Dispatcher dispatcher) {
+        this.offerTimeout = Math.max(0L, offerTimeout);
+        this.dispatcher = dispatcher;
+        this.partitions = new ArrayList<Partition>(Math.max(1, partitions));
+        for (int i = 0; i < Math.max(1, partitions); ++i) {
+            this.partitions.add(new Partition(Math.max(1, queueSize)));
+        }
+    }
+
+    public static MeasurementConditionPipeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * Queues the data to be checked against the alert condition caches. All of the data must have been reported by
+     * the same agent. Data that does not fit into its partition's queue within the offer timeout, or that is submitted
+     * after the pipeline was shut down, is checked on the calling thread instead.
+     *
+     * @param data                       the data to check
+     * @param alertConditionCacheManager checks the data that cannot be queued
+     */
+    public void submit(Collection<? extends MeasurementData> data,
+        AlertConditionCacheManagerLocal alertConditionCacheManager) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+
+        List<List<MeasurementData>> partitionData = new ArrayList<List<MeasurementData>>(partitions.size());
+        for (int i = 0; i < partitions.size(); ++i) {
+            partitionData.add(null);
+        }
+        for (MeasurementData datum : data) {
+            int partition = (datum.getScheduleId() & Integer.MAX_VALUE) % partitions.size();
+            List<MeasurementData> batch = partitionData.get(partition);
+            if (batch == null) {
+                batch = new ArrayList<MeasurementData>();
+                partitionData.set(partition, batch);
+            }
+            batch.add(datum);
+        }
+
+        for (int i = 0; i < partitionData.size(); ++i) {
+            List<MeasurementData> batch = partitionData.get(i);
+            if (batch != null) {
+                MeasurementData[] sortedBatch = batch.toArray(new MeasurementData[batch.size()]);
+                Arrays.sort(sortedBatch, TIMESTAMP_ORDER);
+                enqueue(i, sortedBatch, alertConditionCacheManager);
+            }
+        }
+    }
+
+    /**
+     * Checks the data queued in a partition until the queue is empty. This is invoked on behalf of the
+     * {@link Dispatcher} and never runs concurrently for the same partition.
+     *
+     * @param partition                  the partition to drain
+     * @param alertConditionCacheManager checks the data
+     */
+    public void drain(int partition, AlertConditionCacheManagerLocal alertConditionCacheManager) {
+        Partition queue = partitions.get(partition);
+        do {
+            for (MeasurementData[] batch = queue.batches.poll(); batch != null; batch = queue.batches.poll()) {
+                try {
+                    check(batch, alertConditionCacheManager);
+                } finally {
+                    batchChecked();
+                }
+            }
+            queue.draining.set(false);
+            // a batch queued after the queue was found empty but before the flag was cleared was not dispatched, so
+            // keep draining unless another invocation was dispatched for it in the meantime
+        } while (!queue.batches.isEmpty() && queue.draining.compareAndSet(false, true));
+    }
+
+    /**
+     * @return the number of batches waiting to be checked
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (Partition partition : partitions) {
+            size += partition.batches.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of batches whose check against the alert conditions failed
+     */
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    /**
+     * @return the number of batches that were checked on the submitting thread because their partition was full or
+     *         the pipeline was shut down
+     */
+    public long getInlineBatches() {
+        return inlineBatches.get();
+    }
+
+    /**
+     * Stops queueing data and checks the data that is still queued. Partitions that are not being drained are checked
+     * on the calling thread right away. Partitions that are being drained get the timeout to finish; the data they
+     * have not checked by then is checked on the calling thread as well.
+     *
+     * @param  timeout                    the maximum time to wait for the partitions being drained in milliseconds
+     * @param  alertConditionCacheManager checks the queued data
+     *
+     * @return <code>true</code> if all queued data was checked, <code>false</code> if checks on other threads were
+     *         still running after the timeout
+     */
+    public boolean shutdown(long timeout, AlertConditionCacheManagerLocal alertConditionCacheManager) {
+        synchronized (this) {
+            shutdown = true;
+        }
+
+        for (int i = 0; i < partitions.size(); ++i) {
+            if (partitions.get(i).draining.compareAndSet(false, true)) {
+                drain(i, alertConditionCacheManager);
+            }
+        }
+        if (awaitChecked(timeout)) {
+            return true;
+        }
+
+        log.warn("Checking the measurement data of partitions that did not finish in time on the shutting down thread");
+        for (Partition queue : partitions) {
+            for (MeasurementData[] batch = queue.batches.poll(); batch != null; batch = queue.batches.poll()) {
+                try {
+                    check(batch, alertConditionCacheManager);
+                } finally {
+                    batchChecked();
+                }
+            }
+        }
+        // the batches being checked on other threads
+        if (!awaitChecked(timeout)) {
+            log.warn("Shut down while " + pendingBatches + " batches of measurement data were being checked "
+                + "against the alert conditions");
+            return false;
+        }
+        return true;
+    }
+
+    private void enqueue(int partition, MeasurementData[] batch,
+        AlertConditionCacheManagerLocal alertConditionCacheManager) {
+        Partition queue = partitions.get(partition);
+        boolean accepted;
+        synchronized (this) {
+            accepted = !shutdown;
+            if (accepted) {
+                // counted before the batch is queued so that draining it cannot get ahead of the count
+                ++pendingBatches;
+            }
+        }
+        if (!accepted) {
+            checkInline(batch, alertConditionCacheManager);
+            return;
+        }
+
+        boolean queued;
+        try {
+            queued = queue.batches.offer(batch, offerTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            try {
+                checkInline(batch, alertConditionCacheManager);
+            } finally {
+                batchChecked();
+            }
+            return;
+        }
+
+        if (queue.draining.compareAndSet(false, true)) {
+            try {
+                dispatcher.dispatch(partition);
+            } catch (Throwable t) {
+                // the queued data is picked up by the next dispatch
+                queue.draining.set(false);
+                log.error("Failed to dispatch the alert condition checks of measurement partition " + partition, t);
+            }
+        }
+    }
+
+    private synchronized boolean awaitChecked(long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        try {
+            for (long wait = timeout; pendingBatches > 0 && wait > 0; wait = end - System.currentTimeMillis()) {
+                wait(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return pendingBatches == 0;
+    }
+
+    private synchronized void batchChecked() {
+        if (--pendingBatches == 0) {
+            notifyAll();
+        }
+    }
+
+    private void check(MeasurementData[] batch, AlertConditionCacheManagerLocal alertConditionCacheManager) {
+        try {
+            AlertConditionCacheStats stats = alertConditionCacheManager.checkConditions(batch);
+            if (log.isDebugEnabled()) {
+                log.debug("mergeMeasurementReport: " + stats);
+            }
+        } catch (Throwable t) {
+            droppedBatches.incrementAndGet();
+            log.error("Failed to check alert conditions for " + batch.length + " measurements", t);
+        }
+    }
+
+    private void checkInline(MeasurementData[] batch, AlertConditionCacheManagerLocal alertConditionCacheManager) {
+        long inline = inlineBatches.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (!shutdown && now - lastInlineWarning > INLINE_WARNING_INTERVAL) {
+            lastInlineWarning = now;
+            log.warn("Measurement data is checked against the alert conditions by the storage threads because the "
+                + "checks fell behind, " + inline + " batches have been checked that way so far");
+        } else if (log.isDebugEnabled()) {
+            log.debug("Checking " + batch.length + " measurements against the alert conditions on the storage thread");
+        }
+        check(batch, alertConditionCacheManager);
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    private static class Partition {
+        private final BlockingQueue<MeasurementData[]> batches;
+
+        // set while an invocation is dispatched to drain the partition
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Partition(int queueSize) {
+            batches = new ArrayBlockingQueue<MeasurementData[]>(queueSize);
+        }
+    }
+
+}
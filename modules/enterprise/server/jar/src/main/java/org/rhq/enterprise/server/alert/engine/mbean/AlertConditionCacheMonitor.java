@@ -38,6 +38,7 @@ import javax.management.ObjectName;
 
 import org.rhq.core.util.ObjectNameFactory;
 import org.rhq.enterprise.server.alert.engine.internal.AlertConditionCacheCoordinator;
+import org.rhq.enterprise.server.alert.engine.internal.MeasurementConditionPipeline;
 import org.rhq.enterprise.server.util.JMXUtil;
 import org.rhq.enterprise.server.util.LookupUtil;
 
@@ -303,6 +304,18 @@ public class AlertConditionCacheMonitor implements AlertConditionCacheMonitorMBe
         LookupUtil.getAlertConditionCacheManager().reloadAllCaches();
     }
 
+    public int getMeasurementConditionQueueSize() {
+        return MeasurementConditionPipeline.getInstance().getQueueSize();
+    }
+
+    public long getMeasurementConditionDroppedBatches() {
+        return MeasurementConditionPipeline.getInstance().getDroppedBatches();
+    }
+
+    public long getMeasurementConditionInlineBatches() {
+        return MeasurementConditionPipeline.getInstance().getInlineBatches();
+    }
+
     @PostConstruct
     private void init() {
         JMXUtil.registerMBean(this, OBJECT_NAME);
@@ -315,6 +328,7 @@ public class AlertConditionCacheMonitor implements AlertConditionCacheMonitorMBe
         mbeanServer = null;
         objectName = null;
         JMXUtil.unregisterMBeanQuietly(OBJECT_NAME);
+        MeasurementConditionPipeline.getInstance().shutdown(5000L, LookupUtil.getAlertConditionCacheManager());
     }
 
 }
@@ -122,6 +122,15 @@ public interface AlertConditionCacheMonitorMBean {
 
     public void incrementDriftCacheElementMatches(int matches);
 
+    /*
+     * for the asynchronous measurement condition checks
+     */
+    public int getMeasurementConditionQueueSize();
+
+    public long getMeasurementConditionDroppedBatches();
+
+    public long getMeasurementConditionInlineBatches();
+
     /*
      * cache contents
      */
@@ -0,0 +1,415 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.authz;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.rhq.core.domain.authz.Permission;
+
+/**
+ * Remembers, per subject, the ids of the resources and groups the subject can view or holds a permission on, so that
+ * authorization checks on list pages and remote API calls that check many resources or groups one at a time can be
+ * answered from memory instead of running an authorization query for every one of them.
+ *
+ * The cache only ever grants: an id found in a cached set is authorized, anything else is checked against the database
+ * as before. A set is only loaded once the same subject and permission have been checked a few times, so one-off checks
+ * keep using the database's count queries. Sets with more ids than allowed are cached empty, which leaves the checks
+ * for those subjects to the database, and the least recently used subjects are dropped once the ids of all cached sets
+ * together exceed their limit. Changes that can take authorizations away - roles losing subjects, groups or permissions, groups losing
+ * members or their recursiveness - invalidate the whole cache, both when they are made and once their transaction has
+ * completed, so that sets loaded from the state before the commit are not trusted afterwards. Other servers of the
+ * cloud do not invalidate this cache at all, which is why cached sets expire; a revoked authorization can be granted
+ * by the cache for that long after it was revoked on another server. The least recently used subjects are dropped once
+ * the cache is full.
+ *
+ * The cache is configured through these system properties:
+ * <ul>
+ *   <li>rhq.server.authz.cache.size - the maximum number of subjects cached, default 1000, 0 to disable</li>
+ *   <li>rhq.server.authz.cache.max-age - the milliseconds cached sets are trusted, default 30000</li>
+ *   <li>rhq.server.authz.cache.max-ids - the maximum number of ids cached for all subjects together, default
+ *   1000000</li>
+ *   <li>rhq.server.authz.cache.max-set-ids - the maximum number of ids in a cached set, default 10000</li>
+ *   <li>rhq.server.authz.cache.load-after - the number of checks of a subject and permission within the max-age after
+ *   which the set of ids is loaded, default 3</li>
+ * </ul>
+ */
+public final class AuthorizationCache {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private static final AuthorizationCache instance = new AuthorizationCache(getLongProperty(
+        "rhq.server.authz.cache.size", 1000L), getLongProperty("rhq.server.authz.cache.max-age", 30000L),
+        getLongProperty("rhq.server.authz.cache.max-ids", 1000000L),
+        (int) getLongProperty("rhq.server.authz.cache.max-set-ids", 10000L),
+        (int) getLongProperty("rhq.server.authz.cache.load-after", 3L));
+
+    private final long maxSize;
+
+    private final long maxAge;
+
+    private final long maxIds;
+
+    private final int maxSetIds;
+
+    private final int loadAfter;
+
+    // least recently used first
+    private final LinkedHashMap<Integer, Authorizations> entries;
+
+    // the ids of all cached sets together
+    private long cachedIds;
+
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    AuthorizationCache(long size, long maxAge, long maxIds, int maxSetIds, int loadAfter) {
+        this.maxSize = size;
+        this.maxAge = maxAge;
+        this.maxIds = maxIds;
+        this.maxSetIds = (int) Math.min(maxSetIds, maxIds);
+        this.loadAfter = loadAfter;
+        this.entries = new LinkedHashMap<Integer, Authorizations>(16, 0.75f, true);
+    }
+
+    public static AuthorizationCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return the maximum number of ids in a cached set; loading more than one more is pointless
+     */
+    public int getMaxSetIds() {
+        return maxSetIds;
+    }
+
+    /**
+     * @return the current generation of the cache, to be passed to the <code>put</code> methods for sets loaded
+     * afterwards, so that sets loaded while the cache was invalidated are not cached
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param subjectId the subject
+     * @param permission the permission, or <code>null</code> for the resources the subject can view
+     * @param now the current time
+     *
+     * @return the sorted ids of the resources the subject holds the permission on, or <code>null</code> if not cached
+     */
+    public int[] getResourceIds(int subjectId, Permission permission, long now) {
+        return get(subjectId, key(true, permission), now);
+    }
+
+    /**
+     * @param subjectId the subject
+     * @param permission the permission, or <code>null</code> for the groups the subject can view
+     * @param now the current time
+     *
+     * @return the sorted ids of the groups the subject holds the permission on, or <code>null</code> if not cached
+     */
+    public int[] getGroupIds(int subjectId, Permission permission, long now) {
+        return get(subjectId, key(false, permission), now);
+    }
+
+    /**
+     * Counts a check of the resources a subject holds a permission on, or can view if the permission is
+     * <code>null</code>, that could not be answered from the cache.
+     *
+     * @return true if the subject and permission are checked often enough for their ids to be loaded into the cache,
+     *         false if the check is better left to the database
+     */
+    public boolean isWorthLoadingResourceIds(int subjectId, Permission permission, long now) {
+        return countCheck(subjectId, key(true, permission), now);
+    }
+
+    /**
+     * Counts a check of the groups a subject holds a permission on, or can view if the permission is
+     * <code>null</code>, that could not be answered from the cache.
+     *
+     * @return true if the subject and permission are checked often enough for their ids to be loaded into the cache,
+     *         false if the check is better left to the database
+     */
+    public boolean isWorthLoadingGroupIds(int subjectId, Permission permission, long now) {
+        return countCheck(subjectId, key(false, permission), now);
+    }
+
+    /**
+     * @return the ids as cached, which is empty if there are too many of them
+     */
+    public int[] putResourceIds(int subjectId, Permission permission, Collection<Integer> ids, long generation,
+        long now) {
+        return put(subjectId, key(true, permission), ids, generation, now);
+    }
+
+    /**
+     * @return the ids as cached, which is empty if there are too many of them
+     */
+    public int[] putGroupIds(int subjectId, Permission permission, Collection<Integer> ids, long generation, long now) {
+        return put(subjectId, key(false, permission), ids, generation, now);
+    }
+
+    /**
+     * Forgets everything cached, for when authorizations may have been taken away.
+     */
+    public synchronized void invalidate() {
+        ++generation;
+        entries.clear();
+        cachedIds = 0;
+    }
+
+    /**
+     * Forgets what is cached for a subject, for when the subject's roles may have changed.
+     */
+    public synchronized void invalidate(int subjectId) {
+        ++generation;
+        remove(subjectId);
+    }
+
+    /**
+     * Forgets everything cached now and again once the current transaction has completed, for when the transaction
+     * may take authorizations away. Checks made before the commit still see the old authorizations, and the second
+     * invalidation forgets whatever they cached.
+     *
+     * @param registry the registry of the current transaction
+     */
+    public void invalidate(TransactionSynchronizationRegistry registry) {
+        invalidate();
+        afterCompletion(registry, new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Forgets what is cached for a subject now and again once the current transaction has completed, for when the
+     * transaction may change the subject's roles.
+     *
+     * @param subjectId the subject
+     * @param registry  the registry of the current transaction
+     *
+     * @see #invalidate(TransactionSynchronizationRegistry)
+     */
+    public void invalidate(final int subjectId, TransactionSynchronizationRegistry registry) {
+        invalidate(subjectId);
+        afterCompletion(registry, new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                invalidate(subjectId);
+            }
+        });
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of ids in all cached sets together
+     */
+    public synchronized long getCachedIds() {
+        return cachedIds;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @param ids sorted ids, possibly <code>null</code>
+     * @param id an id
+     *
+     * @return true if the id is one of the ids
+     */
+    public static boolean contains(int[] ids, int id) {
+        return ids != null && Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * @param ids sorted ids, possibly <code>null</code>
+     * @param candidates some ids
+     *
+     * @return true if all candidates are among the ids
+     */
+    public static boolean containsAll(int[] ids, Collection<Integer> candidates) {
+        for (Integer candidate : candidates) {
+            if (!contains(ids, candidate)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] get(int subjectId, String key, long now) {
+        if (!isEnabled()) {
+            return null;
+        }
+        int[] ids = null;
+        synchronized (this) {
+            Authorizations entry = getEntry(subjectId, now, false);
+            if (entry != null) {
+                ids = entry.ids.get(key);
+            }
+        }
+        if (ids != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return ids;
+    }
+
+    private synchronized boolean countCheck(int subjectId, String key, long now) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Authorizations entry = getEntry(subjectId, now, true);
+        Integer checks = entry.checks.get(key);
+        int count = (checks == null) ? 1 : checks + 1;
+        if (count >= loadAfter) {
+            entry.checks.remove(key);
+            return true;
+        }
+        entry.checks.put(key, count);
+        return false;
+    }
+
+    private int[] put(int subjectId, String key, Collection<Integer> ids, long generation, long now) {
+        int[] sorted;
+        if (ids.size() > maxSetIds) {
+            sorted = NO_IDS;
+        } else {
+            sorted = new int[ids.size()];
+            int i = 0;
+            for (Integer id : ids) {
+                sorted[i++] = id;
+            }
+            Arrays.sort(sorted);
+        }
+
+        if (isEnabled()) {
+            synchronized (this) {
+                if (generation == this.generation) {
+                    Authorizations entry = getEntry(subjectId, now, true);
+                    int[] replaced = entry.ids.put(key, sorted);
+                    int added = sorted.length - ((replaced == null) ? 0 : replaced.length);
+                    entry.cachedIds += added;
+                    cachedIds += added;
+                    evict();
+                }
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the entry of the subject, or <code>null</code> if there is none that has not expired and none is to be
+     *         created
+     */
+    private Authorizations getEntry(int subjectId, long now, boolean create) {
+        Authorizations entry = entries.get(subjectId);
+        if (entry != null && now - entry.cachedAt >= maxAge) {
+            remove(subjectId);
+            entry = null;
+        }
+        if (entry == null && create) {
+            entry = new Authorizations(now);
+            entries.put(subjectId, entry);
+            evict();
+        }
+        return entry;
+    }
+
+    private void remove(int subjectId) {
+        Authorizations entry = entries.remove(subjectId);
+        if (entry != null) {
+            cachedIds -= entry.cachedIds;
+        }
+    }
+
+    private void evict() {
+        Iterator<Authorizations> leastRecentlyUsed = entries.values().iterator();
+        while ((entries.size() > maxSize || cachedIds > maxIds) && leastRecentlyUsed.hasNext()) {
+            cachedIds -= leastRecentlyUsed.next().cachedIds;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    private static void afterCompletion(TransactionSynchronizationRegistry registry, Synchronization synchronization) {
+        // without a transaction the change is already visible, and invalidating once is enough
+        if (registry.getTransactionStatus() != Status.STATUS_NO_TRANSACTION) {
+            registry.registerInterposedSynchronization(synchronization);
+        }
+    }
+
+    private static String key(boolean resources, Permission permission) {
+        return (resources ? "resource:" : "group:") + (permission == null ? "view" : permission.name());
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        try {
+            return Long.parseLong(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    private static class Authorizations {
+        // all sets and check counts of a subject expire together, with the first one
+        private final long cachedAt;
+        private final Map<String, int[]> ids = new HashMap<String, int[]>();
+        private final Map<String, Integer> checks = new HashMap<String, Integer>();
+        private int cachedIds;
+
+        Authorizations(long cachedAt) {
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -150,6 +150,10 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        if (AuthorizationCache.contains(getCachedGroupIds(subject, permission), groupId)) {
+            return true;
+        }
+
         ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
         Subject owner = group.getSubject();
 
@@ -183,6 +187,10 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        if (AuthorizationCache.contains(getCachedResourceIds(subject, permission), resourceId)) {
+            return true;
+        }
+
         Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_RESOURCE_PERMISSION);
         query.setParameter("subject", subject);
         query.setParameter("permission", permission);
@@ -291,6 +299,10 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        if (AuthorizationCache.contains(getCachedResourceIds(subject, null), resourceId)) {
+            return true;
+        }
+
         Query query = entityManager.createNamedQuery(Subject.QUERY_CAN_VIEW_RESOURCE);
         query.setParameter("subject", subject);
         query.setParameter("resourceId", resourceId);
@@ -304,6 +316,10 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        if (AuthorizationCache.containsAll(getCachedResourceIds(subject, null), resourceIds)) {
+            return true;
+        }
+
         Query query = entityManager.createNamedQuery(Subject.QUERY_CAN_VIEW_RESOURCES);
         query.setParameter("subject", subject);
         query.setParameter("resourceIds", resourceIds);
@@ -318,6 +334,10 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        if (AuthorizationCache.contains(getCachedGroupIds(subject, null), groupId)) {
+            return true;
+        }
+
         Query query = entityManager.createNamedQuery(Subject.QUERY_CAN_VIEW_GROUP);
         query.setParameter("subject", subject);
         query.setParameter("groupId", groupId);
@@ -434,4 +454,65 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
         return num > 0;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the sorted ids of the resources the subject holds the permission on, or can view if the permission is
+     * null, as found in the authorization cache and loaded into it once the subject and permission are checked
+     * repeatedly; <code>null</code> if they are not cached, which leaves the check to the count query
+     */
+    @SuppressWarnings("unchecked")
+    private int[] getCachedResourceIds(Subject subject, Permission permission) {
+        AuthorizationCache cache = AuthorizationCache.getInstance();
+        if (subject == null || !cache.isEnabled()) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        int[] ids = cache.getResourceIds(subject.getId(), permission, now);
+        if (ids == null && cache.isWorthLoadingResourceIds(subject.getId(), permission, now)) {
+            long generation = cache.getGeneration();
+            Query query;
+            if (permission == null) {
+                query = entityManager.createNamedQuery(Subject.QUERY_GET_VIEWABLE_RESOURCE_IDS);
+            } else {
+                query = entityManager.createNamedQuery(Subject.QUERY_GET_PERMITTED_RESOURCE_IDS);
+                query.setParameter("permission", permission);
+            }
+            query.setParameter("subject", subject);
+            query.setMaxResults(cache.getMaxSetIds() + 1);
+            List<Integer> results = query.getResultList();
+            ids = cache.putResourceIds(subject.getId(), permission, results, generation, now);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the sorted ids of the groups the subject holds the permission on, or can view if the permission is null,
+     * as found in the authorization cache and loaded into it once the subject and permission are checked repeatedly;
+     * <code>null</code> if they are not cached, which leaves the check to the count query
+     */
+    @SuppressWarnings("unchecked")
+    private int[] getCachedGroupIds(Subject subject, Permission permission) {
+        AuthorizationCache cache = AuthorizationCache.getInstance();
+        if (subject == null || !cache.isEnabled()) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        int[] ids = cache.getGroupIds(subject.getId(), permission, now);
+        if (ids == null && cache.isWorthLoadingGroupIds(subject.getId(), permission, now)) {
+            long generation = cache.getGeneration();
+            Query query;
+            if (permission == null) {
+                query = entityManager.createNamedQuery(Subject.QUERY_GET_VIEWABLE_GROUP_IDS);
+            } else {
+                query = entityManager.createNamedQuery(Subject.QUERY_GET_PERMITTED_GROUP_IDS);
+                query.setParameter("permission", permission);
+            }
+            query.setParameter("subject", subject);
+            query.setMaxResults(cache.getMaxSetIds() + 1);
+            List<Integer> results = query.getResultList();
+            ids = cache.putGroupIds(subject.getId(), permission, results, generation, now);
+        }
+        return ids;
+    }
+}
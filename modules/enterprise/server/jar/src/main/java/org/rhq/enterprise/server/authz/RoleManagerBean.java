@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.interceptor.ExcludeDefaultInterceptors;
@@ -32,6 +33,7 @@ import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -69,6 +71,9 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
     @EJB
     private RoleManagerLocal roleManager; // self-referencing
 
@@ -189,6 +194,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void deleteRoles(Subject subject, int[] doomedRoleIds) {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         if (doomedRoleIds != null) {
             for (int roleId : doomedRoleIds) {
                 Role doomedRole = entityManager.find(Role.class, roleId);
@@ -320,6 +326,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeRolesFromSubject(Subject subject, int subjectId, int[] roleIds) {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         if (roleIds != null) {
             Subject subjectToModify = subjectManager.getSubjectById(subjectId); // attach it
 
@@ -387,6 +394,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void setPermissions(Subject subject, Integer roleId, Set<Permission> permissions) {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         Role role = entityManager.find(Role.class, roleId);
         Set<Permission> rolePermissions = role.getPermissions();
         rolePermissions.clear();
@@ -412,6 +420,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public Role updateRole(Subject whoami, Role role) {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         Role attachedRole = entityManager.find(Role.class, role.getId());
         if (attachedRole == null) {
             throw new IllegalStateException("Cannot update " + role + ", since no role exists with that id.");
@@ -694,6 +703,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeResourceGroupsFromRole(Subject subject, int roleId, int[] groupIds) {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         if ((groupIds != null) && (groupIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -807,6 +817,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeSubjectsFromRole(Subject subject, int roleId, int[] subjectIds) {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         if ((subjectIds != null) && (subjectIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -889,6 +900,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeRolesFromResourceGroup(Subject subject, int groupId, int[] roleIds) {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         if ((roleIds != null) && (roleIds.length > 0)) {
             ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
             if (group == null) {
@@ -41,6 +41,7 @@ import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.cloud.TopologyManagerLocal;
 import org.rhq.enterprise.server.cloud.instance.ServerManagerLocal;
+import org.rhq.enterprise.server.measurement.CallTimeDataManagerLocal;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
 import org.rhq.enterprise.server.util.LookupUtil;
 
@@ -76,6 +77,9 @@ public class ShutdownListener {
     @EJB
     private TopologyManagerLocal topologyManager;
 
+    @EJB
+    private CallTimeDataManagerLocal callTimeDataManager;
+
     @Resource(name = "RHQ_DS", mappedName = RHQConstants.DATASOURCE_JNDI_NAME)
     private DataSource dataSource;
 
@@ -95,6 +99,7 @@ public class ShutdownListener {
         log.info("Shutdown listener has been told we are shutting down - starting to clean up now...");
         logShutdownTime();
         stopScheduler();
+        flushCallTimeData();
         updateServerOperationMode();
         stopEmbeddedDatabase();
         log.info("Shutdown listener completed its shutdown tasks. It is safe to shutdown now.");
@@ -172,6 +177,20 @@ public class ShutdownListener {
         }
     }
 
+    private void flushCallTimeData() {
+        try {
+            // write the call-time data that is still pending aggregation, or it would be lost
+            callTimeDataManager.flushCallTimeData();
+        } catch (Throwable t) {
+            // only show ugly stack traces if the user runs the server in debug mode
+            if (log.isDebugEnabled()) {
+                log.warn("Failed to write pending call-time data", t);
+            } else {
+                log.warn("Failed to write pending call-time data: " + t.getMessage());
+            }
+        }
+    }
+
     private void updateServerOperationMode() {
         try {
             // Set the server operation mode to DOWN unless in MM
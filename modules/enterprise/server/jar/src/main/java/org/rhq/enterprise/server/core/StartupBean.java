@@ -70,6 +70,7 @@ import org.rhq.enterprise.server.cloud.instance.ServerManagerLocal;
 import org.rhq.enterprise.server.cloud.instance.SyncEndpointAddressException;
 import org.rhq.enterprise.server.core.comm.ServerCommunicationsServiceUtil;
 import org.rhq.enterprise.server.core.plugin.PluginDeploymentScannerMBean;
+import org.rhq.enterprise.server.measurement.CallTimeDataManagerLocal;
 import org.rhq.enterprise.server.naming.NamingHack;
 import org.rhq.enterprise.server.plugin.pc.MasterServerPluginContainer;
 import org.rhq.enterprise.server.plugin.pc.ServerPluginServiceMBean;
@@ -118,6 +119,9 @@ public class StartupBean implements StartupLocal {
     @EJB
     private CacheConsistencyManagerLocal cacheConsistencyManager;
 
+    @EJB
+    private CallTimeDataManagerLocal callTimeDataManager;
+
     @EJB
     private TopologyManagerLocal topologyManager;
 
@@ -597,6 +601,7 @@ public class StartupBean implements StartupLocal {
         systemManager.scheduleConfigCacheReloader();
         subjectManager.scheduleSessionPurgeJob();
         storageClientManager.scheduleStorageSessionMaintenance();
+        callTimeDataManager.scheduleCallTimeDataFlush();
 
         try {
             // Do not check until we are up at least 1 min, and every minute thereafter.
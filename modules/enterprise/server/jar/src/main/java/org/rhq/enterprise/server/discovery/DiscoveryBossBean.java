@@ -109,6 +109,7 @@ import org.rhq.enterprise.server.resource.ResourceAvailabilityManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceTypeManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.DynaGroupChangeTracker;
 import org.rhq.enterprise.server.resource.metadata.PluginManagerLocal;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -210,7 +211,12 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         Set<Resource> roots = report.getAddedRoots();
         LOG.debug(report);
 
-        Map<String, ResourceType> allTypes = new HashMap<String, ResourceType>();
+        // Load the types of all the plugins in the report up front, instead of one type at a time
+        Map<String, ResourceType> allTypes = loadResourceTypes(roots);
+
+        // Flatten all the roots into one list, so that batches are filled across roots. Parents still come before
+        // their children.
+        List<Resource> resourceList = new ArrayList<Resource>();
 
         for (Resource root : roots) {
             // Make sure all platform, server, and service types are valid. Also, make sure they're fetched - otherwise
@@ -228,16 +234,19 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                 root.setParentResource(Resource.ROOT);
             }
 
-            mergeResource(root, knownAgent);
+            // NOTE: this will also strip out all resources that are to be ignored; thus, ignored resources won't get merged
+            resourceList.addAll(treeToBreadthFirstList(root));
 
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Root merged: resource/millis=" + root.getName() + '/'
+                LOG.debug("Root prepared: resource/millis=" + root.getName() + '/'
                     + (System.currentTimeMillis() - rootStart));
             }
         }
 
         allTypes = null; // maybe help GC? we don't need this anymore
 
+        mergeResources(resourceList, knownAgent);
+
         // Prepare the ResourceSyncInfo tree which contains all the info the PC needs to sync itself up with us.
         // The platform can be null in only one scenario.. a brand new agent has connected to the server
         // and that agent is currently trying to upgrade its resources. For that it asks us to send down
@@ -665,7 +674,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                 + resource.getResourceType());
         }
 
-        Resource existingResource = findExistingResource(resource, null);
+        Resource existingResource = findExistingResource(resource, null, null);
         if (existingResource != null) {
             mergeResourceResponse = new MergeResourceResponse(existingResource.getId(), existingResource.getMtime(),
                 true);
@@ -691,6 +700,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             } catch (ResourceAlreadyExistsException e) {
                 throw new IllegalStateException(e);
             }
+            DynaGroupChangeTracker.getInstance().resourceChanged(resource.getId());
 
             mergeResourceResponse = new MergeResourceResponse(resource.getId(), resource.getCtime(), false);
         }
@@ -775,6 +785,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                     productVersion = productVersionManager.addProductVersion(resource.getResourceType(), newVersion);
                 }
                 resource.setProductVersion(productVersion);
+                DynaGroupChangeTracker.getInstance().resourceChanged(resource.getId());
             }
         }
         return versionChanged;
@@ -816,6 +827,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
             if (allowGenericPropertiesUpgrade && needsUpgrade(resource.getName(), name)) {
                 resource.setName(name);
+                DynaGroupChangeTracker.getInstance().resourceChanged(resource.getId());
                 logMessage.append("name, ");
                 ret.setUpgradedResourceName(resource.getName());
             }
@@ -891,32 +903,26 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
     /**
      * <p>Should Not Be Called With Existing Transaction !!!</p>
      *
-     * <p>Merges the specified resource and its children into inventory. If the resource already exists in inventory,
-     * it is updated; if it does not already exist in inventory, it is added and its parent is set to the specified, already inventoried,
+     * <p>Merges the specified resources into inventory. If a resource already exists in inventory, it is updated; if
+     * it does not already exist in inventory, it is added and its parent is set to the specified, already inventoried,
      * parent resource.</p>
      *
-     * <p>Does not require an existing transaction.  The resource and each child will be merged in an isolated
+     * <p>Does not require an existing transaction.  The resources are merged in batches, each in an isolated
      * transaction</p>
      *
-     * @param  resource       NotNull pojo, the resource to be merged, should have parent and children pojos set
-     * @param  agent          NotNull detached entity, the agent that should be set on the resource being merged
+     * @param  resourceList   NotNull pojos, the resources to be merged, parents before their children, should have
+     *                        parent and children pojos set; the list is emptied
+     * @param  agent          NotNull detached entity, the agent that should be set on the resources being merged
      *
-     * @throws InvalidInventoryReportException if a critical field in the resource is missing or invalid
+     * @throws InvalidInventoryReportException if a critical field in a resource is missing or invalid
      */
-    private void mergeResource(Resource resource, Agent agent) throws InvalidInventoryReportException {
+    private void mergeResources(List<Resource> resourceList, Agent agent) throws InvalidInventoryReportException {
 
         long start = System.currentTimeMillis();
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Merging [" + resource + "]...");
-        }
-
         // We don't merge the entire resource tree. Instead we batch them in order to reduce transaction overhead
-        // while ensuring no transaction is too big (and thus risks timeout). To do this we need to flatten the
-        // tree and chunk through it.  Parents must be merged before children, so use a breadth first approach.
-        // NOTE: this will also strip out all resources that are to be ignored; thus, ignored resources won't get merged
-        List<Resource> resourceList = treeToBreadthFirstList(resource);
-
+        // while ensuring no transaction is too big (and thus risks timeout). To do this the tree was flattened
+        // and we chunk through it.  Parents must be merged before children, so it was flattened breadth first.
         if (LOG.isDebugEnabled()) {
             LOG.debug("Preparing to merge [" + resourceList.size() + "] Resources with a batch size of ["
                 + MERGE_BATCH_SIZE + "]");
@@ -934,8 +940,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         }
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Resource and children merged: resource/millis=" + resource.getName() + '/'
-                + (System.currentTimeMillis() - start));
+            LOG.debug("Resources merged: millis=" + (System.currentTimeMillis() - start));
         }
 
         return;
@@ -977,20 +982,30 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         boolean isDebugEnabled = LOG.isDebugEnabled();
         // Cache parent resources we've already fetched from the DB, many resources will have the same parent
         Map<Integer, Resource> parentMap = new HashMap<Integer, Resource>();
+        List<Integer> mergedResourceIds = new ArrayList<Integer>(resourceBatch.size());
+        // Look up the resources of the batch that are already in inventory with a few queries up front
+        ExistingResources existingResources = findExistingResources(resourceBatch);
+        List<Resource> persistedResources = new ArrayList<Resource>();
 
         for (Resource resource : resourceBatch) {
             Resource existingResource = null;
             long start = System.currentTimeMillis();
 
-            existingResource = findExistingResource(resource, parentMap);
+            existingResource = findExistingResource(resource, parentMap, existingResources);
 
             // Does this resource already exist in inventory? If so, update, otherwise add
             if (null != existingResource) {
                 updateExistingResource(resource, existingResource);
+                mergedResourceIds.add(existingResource.getId());
 
             } else {
                 presetAgent(resource, agent);
                 persistResource(resource, parentMap);
+                existingResources.addPersisted(resource);
+                mergedResourceIds.add(resource.getId());
+                if (null != resource.getParentResource()) {
+                    persistedResources.add(resource);
+                }
             }
 
             if (isDebugEnabled) {
@@ -999,9 +1014,16 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             }
         }
 
+        // Extend implicit (recursive) group membership of the parents to the new children, all at once
+        if (!persistedResources.isEmpty()) {
+            groupManager.updateImplicitGroupMembership(subjectManager.getOverlord(), persistedResources);
+        }
+
         // Help out the GC
         parentMap.clear();
 
+        DynaGroupChangeTracker.getInstance().resourcesChanged(mergedResourceIds);
+
         if (isDebugEnabled) {
             long delta = (System.currentTimeMillis() - batchStart);
             LOG.debug("Resource Batch merged: size/average/millis=" + resourceBatch.size() + "/" + delta
@@ -1009,6 +1031,82 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         }
     }
 
+    /**
+     * <p>Requires A Transaction</p>
+     *
+     * Looks up the resources of a batch that are already in inventory in bulk. The resources the agent claims to be
+     * in inventory are loaded by id, so that finding them by id does not hit the database again. The others are looked
+     * up by business key under any of their ancestors, which is how {@link #findExistingResource(Resource, Map,
+     * ExistingResources)} would otherwise look them up one by one.
+     *
+     * @param resourceBatch the batch, pojos
+     * @return the resources found by business key
+     */
+    @SuppressWarnings("unchecked")
+    private ExistingResources findExistingResources(List<Resource> resourceBatch) {
+        ExistingResources existingResources = new ExistingResources();
+
+        List<Integer> claimedIds = new ArrayList<Integer>();
+        for (Resource resource : resourceBatch) {
+            if (resource.getId() != 0) {
+                claimedIds.add(resource.getId());
+            }
+        }
+
+        Set<Integer> foundIds = new HashSet<Integer>();
+        // batch the lookups to prevent the ORA error about IN clauses containing more than 1000 items
+        for (int batchIndex = 0; batchIndex < claimedIds.size(); batchIndex += 1000) {
+            Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_BY_IDS_ADMIN);
+            query.setParameter("ids", claimedIds.subList(batchIndex, Math.min(batchIndex + 1000, claimedIds.size())));
+            for (Resource resource : (List<Resource>) query.getResultList()) {
+                foundIds.add(resource.getId());
+            }
+        }
+
+        Set<String> keys = new HashSet<String>();
+        Set<Integer> parentIds = new HashSet<Integer>();
+        for (Resource resource : resourceBatch) {
+            if (!foundIds.contains(resource.getId())) {
+                keys.add(resource.getResourceKey());
+                for (Resource parent = resource.getParentResource(); null != parent; parent = parent
+                    .getParentResource()) {
+                    parentIds.add(parent.getId());
+                }
+            }
+        }
+
+        if (keys.isEmpty()) {
+            return existingResources;
+        }
+
+        existingResources.addCovered(parentIds, keys);
+        if (parentIds.isEmpty()) {
+            // only roots to look up, which have no parent; avoid an empty IN clause
+            parentIds.add(Resource.ROOT_ID);
+        }
+
+        List<String> keyList = new ArrayList<String>(keys);
+        List<Integer> parentIdList = new ArrayList<Integer>(parentIds);
+        for (int keyIndex = 0; keyIndex < keyList.size(); keyIndex += 1000) {
+            for (int parentIndex = 0; parentIndex < parentIdList.size(); parentIndex += 1000) {
+                Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_BY_PARENTS_AND_KEYS);
+                query.setParameter("keys", keyList.subList(keyIndex, Math.min(keyIndex + 1000, keyList.size())));
+                query.setParameter("parentIds",
+                    parentIdList.subList(parentIndex, Math.min(parentIndex + 1000, parentIdList.size())));
+                for (Object[] row : (List<Object[]>) query.getResultList()) {
+                    Resource resource = (Resource) row[0];
+                    Integer parentId = (Integer) row[1];
+                    // parentless resources are returned by every lookup
+                    if (null != parentId || parentIndex == 0) {
+                        existingResources.add(parentId, resource);
+                    }
+                }
+            }
+        }
+
+        return existingResources;
+    }
+
     /**
      * Recursively set the agent on the resource tree.
      *
@@ -1033,9 +1131,12 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
      * @param resource Pojo containing resourceId, key, and parentResoure (if applicable)
      * @param parentMap, if supplied, holds previously fetched parent pojos. useful when the calling code does many
      * finds for a few parents.  If not found in the map the db will be searched, the map will be updated if possible.
+     * @param existingResources, if supplied, holds the resources looked up in bulk by business key. The db is only
+     * searched by business key for the parents not covered.
      * @return the Resource entity found in the database and matching the given resource.
      */
-    private Resource findExistingResource(Resource resource, Map<Integer, Resource> parentMap) {
+    private Resource findExistingResource(Resource resource, Map<Integer, Resource> parentMap,
+        ExistingResources existingResources) {
 
         boolean isDebugEnabled = LOG.isDebugEnabled();
 
@@ -1114,6 +1215,12 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
                 // We found the parent in inventory, so now see if we can find this resource in inventory by using
                 // the parent, the resource key (unique among siblings), the plugin and the type.
+                Integer existingParentId = (null != parent) ? parent.getId() : null;
+                if (null != existingResources && existingResources.covers(existingParentId, resource)) {
+                    existingResource = existingResources.find(existingParentId, resource);
+                    continue;
+                }
+
                 Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_BY_PARENT_AND_KEY);
                 query.setParameter("parent", existingParent);
                 query.setParameter("key", resource.getResourceKey());
@@ -1240,6 +1347,29 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         return;
     }
 
+    /**
+     * @param roots the reported roots, pojos
+     * @return all (detached) types of the plugins of the reported resources, keyed as {@link #initResourceTypes(Resource,
+     * Map)} expects them
+     */
+    private Map<String, ResourceType> loadResourceTypes(Set<Resource> roots) {
+        Set<String> plugins = new HashSet<String>();
+        LinkedList<Resource> queue = new LinkedList<Resource>(roots);
+        while (!queue.isEmpty()) {
+            Resource node = queue.remove();
+            plugins.add(node.getResourceType().getPlugin());
+            queue.addAll(node.getChildResources());
+        }
+
+        Map<String, ResourceType> loadedTypeMap = new HashMap<String, ResourceType>();
+        for (String plugin : plugins) {
+            for (ResourceType resourceType : resourceTypeManager.getResourceTypesByPlugin(plugin)) {
+                loadedTypeMap.put(plugin + ":::" + resourceType.getName(), resourceType);
+            }
+        }
+        return loadedTypeMap;
+    }
+
     private boolean initResourceTypes(Resource resource) {
         final HashMap<String, ResourceType> types = new HashMap<String, ResourceType>();
         try {
@@ -1353,10 +1483,8 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
         setInventoryStatus(parentResource, resource);
 
-        // Extend implicit (recursive) group membership of the parent to the new child
-        if (null != parentResource) {
-            groupManager.updateImplicitGroupMembership(overlord, resource);
-        }
+        // Implicit (recursive) group membership of the parent is extended to the new child by the caller, for the
+        // whole batch at once
     }
 
     private CreateResourceHistory findMatchingCreateResourceHistory(Integer parentId, String resourceKey) {
@@ -1560,4 +1688,60 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         }
     }
 
+    /**
+     * The resources of a merge batch that are already in inventory, as looked up by business key in bulk, plus the
+     * resources persisted by the batch so far.
+     */
+    private static class ExistingResources {
+        // parents whose children were looked up for all the keys, null standing for no parent
+        private final Set<Integer> coveredParentIds = new HashSet<Integer>();
+        private final Set<String> coveredKeys = new HashSet<String>();
+        // parents persisted by the batch, which have no children but the ones persisted by the batch
+        private final Set<Integer> newParentIds = new HashSet<Integer>();
+        private final Map<String, Resource> resources = new HashMap<String, Resource>();
+        // business keys matching more than one resource, left to the database to complain about
+        private final Set<String> ambiguousKeys = new HashSet<String>();
+
+        void addCovered(Set<Integer> parentIds, Set<String> keys) {
+            coveredParentIds.add(null);
+            coveredParentIds.addAll(parentIds);
+            coveredKeys.addAll(keys);
+        }
+
+        void add(Integer parentId, Resource resource) {
+            String businessKey = getBusinessKey(parentId, resource);
+            if (ambiguousKeys.contains(businessKey)) {
+                return;
+            }
+            if (null != resources.put(businessKey, resource)) {
+                resources.remove(businessKey);
+                ambiguousKeys.add(businessKey);
+            }
+        }
+
+        void addPersisted(Resource resource) {
+            newParentIds.add(resource.getId());
+            Resource parent = resource.getParentResource();
+            add((null != parent) ? parent.getId() : null, resource);
+        }
+
+        /**
+         * @return true if it is known whether the resource exists under the parent
+         */
+        boolean covers(Integer parentId, Resource resource) {
+            return (newParentIds.contains(parentId) || (coveredParentIds.contains(parentId) && coveredKeys
+                .contains(resource.getResourceKey())))
+                && !ambiguousKeys.contains(getBusinessKey(parentId, resource));
+        }
+
+        Resource find(Integer parentId, Resource resource) {
+            return resources.get(getBusinessKey(parentId, resource));
+        }
+
+        private static String getBusinessKey(Integer parentId, Resource resource) {
+            ResourceType resourceType = resource.getResourceType();
+            return parentId + ":::" + resourceType.getPlugin() + ":::" + resourceType.getName() + ":::"
+                + resource.getResourceKey();
+        }
+    }
 }
@@ -20,10 +20,14 @@ package org.rhq.enterprise.server.event;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -89,11 +93,18 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
         + "SELECT (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)), ?, ? FROM RHQ_Numbers WHERE i = 42 "
         + "AND NOT EXISTS (SELECT * FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?)";
 
+    private static final String EVENT_SOURCE_ID_SELECT_STMT = "SELECT id FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?";
+
+    private static final String EVENT_SOURCE_ID_EXISTS_STMT = "SELECT id FROM RHQ_Event_Source WHERE id IN ( @@IDS@@ )";
+
+    // Oracle does not allow more than 1000 elements in an IN list
+    private static final int MAX_IN_CLAUSE_PARAMS = 1000;
+
     private static final String EVENT_INSERT_STMT = "INSERT INTO RHQ_Event (id, event_source_id, timestamp, severity, detail) "
-        + "VALUES (%s, (SELECT id FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?), ?, ?, ?)";
+        + "VALUES (%s, ?, ?, ?, ?)";
 
     private static final String EVENT_INSERT_STMT_AUTOINC = "INSERT INTO RHQ_Event (event_source_id, timestamp, severity, detail) "
-        + "VALUES ((SELECT id FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?), ?, ?, ?)";
+        + "VALUES (?, ?, ?, ?)";
 
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
@@ -121,38 +132,8 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
             conn = rhqDs.getConnection();
             DatabaseType dbType = DatabaseTypeFactory.getDatabaseType(conn);
 
-            if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
-                || dbType instanceof H2DatabaseType) {
-                String nextvalSql = JDBCUtil.getNextValSql(conn, EventSource.TABLE_NAME);
-                statementSql = String.format(EVENT_SOURCE_INSERT_STMT, nextvalSql);
-            } else if (dbType instanceof SQLServerDatabaseType) {
-                statementSql = EVENT_SOURCE_INSERT_STMT_AUTOINC;
-            } else {
-                throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
-            }
-
-            // First insert the "keys" (i.e. the EventSources).
-            ps = conn.prepareStatement(statementSql);
-            try {
-                for (EventSource eventSource : events.keySet()) {
-                    int paramIndex = 1;
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
-                    ps.setInt(paramIndex++, eventSource.getResource().getId());
-                    ps.setString(paramIndex++, eventSource.getLocation());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
-                    ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
-                    ps.setInt(paramIndex++, eventSource.getResource().getId());
-                    ps.setString(paramIndex++, eventSource.getLocation());
-
-                    ps.addBatch();
-                }
-                ps.executeBatch();
-            } finally {
-                JDBCUtil.safeClose(ps);
-            }
+            // First resolve the ids of the "keys" (i.e. the EventSources), inserting the ones that do not exist yet.
+            Map<EventSource, Integer> eventSourceIds = getEventSourceIds(conn, dbType, events.keySet());
 
             if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
                 || dbType instanceof H2DatabaseType) {
@@ -167,15 +148,18 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
             // Then insert the "values" (i.e. the Events).
             ps = conn.prepareStatement(statementSql);
             try {
-                for (EventSource eventSource : events.keySet()) {
-                    Set<Event> eventData = events.get(eventSource);
+                for (Map.Entry<EventSource, Set<Event>> entry : events.entrySet()) {
+                    EventSource eventSource = entry.getKey();
+                    Integer eventSourceId = eventSourceIds.get(eventSource);
+                    if (eventSourceId == null) {
+                        log.warn("addEventData: Skipping events of unknown event source " + eventSource);
+                        continue;
+                    }
+
+                    Set<Event> eventData = entry.getValue();
                     for (Event event : eventData) {
                         int paramIndex = 1;
-                        ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
-                        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
-                        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
-                        ps.setInt(paramIndex++, eventSource.getResource().getId());
-                        ps.setString(paramIndex++, eventSource.getLocation());
+                        ps.setInt(paramIndex++, eventSourceId);
                         ps.setLong(paramIndex++, event.getTimestamp());
                         ps.setString(paramIndex++, event.getSeverity().toString());
                         ps.setString(paramIndex++, event.getDetail());
@@ -206,6 +190,125 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
         }
     }
 
+    /**
+     * Returns the ids of the event sources, inserting the sources that do not exist yet. Ids are taken from the
+     * {@link EventSourceIdCache} where possible, so that only sources that were not seen before need to be looked up
+     * by their definition, resource and location.
+     */
+    private Map<EventSource, Integer> getEventSourceIds(Connection conn, DatabaseType dbType,
+        Set<EventSource> eventSources) throws SQLException {
+
+        EventSourceIdCache cache = EventSourceIdCache.getInstance();
+        Map<EventSource, Integer> eventSourceIds = new HashMap<EventSource, Integer>(eventSources.size());
+        List<EventSource> uncachedEventSources = new ArrayList<EventSource>();
+        for (EventSource eventSource : eventSources) {
+            Integer eventSourceId = cache.get(eventSource);
+            if (eventSourceId != null) {
+                eventSourceIds.put(eventSource, eventSourceId);
+            } else {
+                uncachedEventSources.add(eventSource);
+            }
+        }
+
+        // cached ids are only hints, the sources may have been deleted since, possibly by another server
+        if (!eventSourceIds.isEmpty()) {
+            Set<Integer> existingIds = findExistingEventSourceIds(conn, eventSourceIds.values());
+            List<Integer> staleIds = new ArrayList<Integer>();
+            for (Iterator<Map.Entry<EventSource, Integer>> i = eventSourceIds.entrySet().iterator(); i.hasNext();) {
+                Map.Entry<EventSource, Integer> entry = i.next();
+                if (!existingIds.contains(entry.getValue())) {
+                    staleIds.add(entry.getValue());
+                    uncachedEventSources.add(entry.getKey());
+                    i.remove();
+                }
+            }
+            cache.removeIds(staleIds);
+        }
+
+        if (uncachedEventSources.isEmpty()) {
+            return eventSourceIds;
+        }
+
+        String statementSql;
+        if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
+            || dbType instanceof H2DatabaseType) {
+            String nextvalSql = JDBCUtil.getNextValSql(conn, EventSource.TABLE_NAME);
+            statementSql = String.format(EVENT_SOURCE_INSERT_STMT, nextvalSql);
+        } else if (dbType instanceof SQLServerDatabaseType) {
+            statementSql = EVENT_SOURCE_INSERT_STMT_AUTOINC;
+        } else {
+            throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
+        }
+
+        PreparedStatement ps = conn.prepareStatement(statementSql);
+        try {
+            for (EventSource eventSource : uncachedEventSources) {
+                int paramIndex = 1;
+                paramIndex = setEventSourceParameters(ps, paramIndex, eventSource);
+                setEventSourceParameters(ps, paramIndex, eventSource);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            JDBCUtil.safeClose(ps);
+        }
+
+        ps = conn.prepareStatement(EVENT_SOURCE_ID_SELECT_STMT);
+        ResultSet rs = null;
+        try {
+            for (EventSource eventSource : uncachedEventSources) {
+                setEventSourceParameters(ps, 1, eventSource);
+                rs = ps.executeQuery();
+                if (rs.next()) {
+                    int eventSourceId = rs.getInt(1);
+                    eventSourceIds.put(eventSource, eventSourceId);
+                    cache.put(eventSource, eventSourceId);
+                }
+                rs.close();
+                rs = null;
+            }
+        } finally {
+            JDBCUtil.safeClose(ps, rs);
+        }
+
+        return eventSourceIds;
+    }
+
+    private int setEventSourceParameters(PreparedStatement ps, int paramIndex, EventSource eventSource)
+        throws SQLException {
+        ps.setString(paramIndex++, eventSource.getEventDefinition().getName());
+        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getName());
+        ps.setString(paramIndex++, eventSource.getEventDefinition().getResourceType().getPlugin());
+        ps.setInt(paramIndex++, eventSource.getResource().getId());
+        ps.setString(paramIndex++, eventSource.getLocation());
+        return paramIndex;
+    }
+
+    private Set<Integer> findExistingEventSourceIds(Connection conn, Collection<Integer> eventSourceIds)
+        throws SQLException {
+        Set<Integer> existingIds = new HashSet<Integer>(eventSourceIds.size());
+        List<Integer> ids = new ArrayList<Integer>(eventSourceIds);
+        for (int from = 0; from < ids.size(); from += MAX_IN_CLAUSE_PARAMS) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + MAX_IN_CLAUSE_PARAMS, ids.size()));
+            PreparedStatement ps = conn.prepareStatement(JDBCUtil.transformQueryForMultipleInParameters(
+                EVENT_SOURCE_ID_EXISTS_STMT, "@@IDS@@", chunk.size()));
+            ResultSet rs = null;
+            try {
+                int paramIndex = 1;
+                for (Integer id : chunk) {
+                    ps.setInt(paramIndex++, id);
+                }
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    existingIds.add(rs.getInt(1));
+                }
+            } finally {
+                JDBCUtil.safeClose(ps, rs);
+            }
+        }
+        return existingIds;
+    }
+
     private void notifyAlertConditionCacheManager(String callingMethod, EventSource source, Event... events) {
         AlertConditionCacheStats stats = alertConditionCacheManager.checkConditions(source, events);
 
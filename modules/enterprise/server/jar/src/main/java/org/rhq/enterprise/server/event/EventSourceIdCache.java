@@ -0,0 +1,156 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.event;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.rhq.core.domain.event.EventDefinition;
+import org.rhq.core.domain.event.EventSource;
+
+/**
+ * Maps event sources, as reported by agents, to the ids of their rows in RHQ_Event_Source. Agents do not know the ids
+ * of event definitions, so a source is identified by its definition's name, resource type name and plugin, its resource
+ * id and its location.
+ *
+ * Cached ids are hints only: the caller has to make sure an id still exists before it relies on it, since event
+ * sources can be deleted by any server in the cluster. The least recently used ids are dropped once the cache is full.
+ *
+ * The cache is configured through this system property:
+ * <ul>
+ *   <li>rhq.server.event.source.cache.size - the maximum number of event sources cached, default 50000, 0 to
+ *   disable</li>
+ * </ul>
+ */
+public final class EventSourceIdCache {
+
+    private static final EventSourceIdCache instance = new EventSourceIdCache(getIntProperty(
+        "rhq.server.event.source.cache.size", 50000));
+
+    private final int maxSize;
+
+    private final Map<Key, Integer> ids;
+
+    EventSourceIdCache(int size) {
+        this.maxSize = size;
+        this.ids = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static EventSourceIdCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return the id of the event source, or <code>null</code> if it is not cached
+     */
+    public synchronized Integer get(EventSource eventSource) {
+        return isEnabled() ? ids.get(new Key(eventSource)) : null;
+    }
+
+    public synchronized void put(EventSource eventSource, int id) {
+        if (isEnabled()) {
+            ids.put(new Key(eventSource), id);
+        }
+    }
+
+    /**
+     * Drops the cached ids of event sources whose rows no longer exist.
+     */
+    public synchronized void removeIds(Collection<Integer> removedIds) {
+        if (!removedIds.isEmpty()) {
+            ids.values().removeAll(removedIds);
+        }
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    private static class Key {
+        private final String definitionName;
+        private final String resourceTypeName;
+        private final String plugin;
+        private final int resourceId;
+        private final String location;
+        private final int hashCode;
+
+        Key(EventSource eventSource) {
+            EventDefinition definition = eventSource.getEventDefinition();
+            this.definitionName = definition.getName();
+            this.resourceTypeName = definition.getResourceType().getName();
+            this.plugin = definition.getResourceType().getPlugin();
+            this.resourceId = eventSource.getResource().getId();
+            this.location = eventSource.getLocation();
+
+            int result = resourceId;
+            result = 31 * result + hash(definitionName);
+            result = 31 * result + hash(resourceTypeName);
+            result = 31 * result + hash(plugin);
+            result = 31 * result + hash(location);
+            this.hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return resourceId == other.resourceId && hashCode == other.hashCode
+                && equal(definitionName, other.definitionName) && equal(resourceTypeName, other.resourceTypeName)
+                && equal(plugin, other.plugin) && equal(location, other.location);
+        }
+
+        private static int hash(String s) {
+            return (s == null) ? 0 : s.hashCode();
+        }
+
+        private static boolean equal(String s1, String s2) {
+            return (s1 == null) ? s2 == null : s1.equals(s2);
+        }
+    }
+}
@@ -20,12 +20,16 @@ package org.rhq.enterprise.server.measurement;
 
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -682,7 +686,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
     public void setResourceAvailabilities(Map<Agent, int[]> map, AvailabilityType avail) {
         long now = System.currentTimeMillis();
         for (Agent agent : map.keySet()) {
-            AvailabilityReport report = new AvailabilityReport(true, null);
+            AvailabilityReport report = new AvailabilityReport(true, agent.getName());
             report.setServerSideReport(true);
             for (int resourceId : map.get(agent)) {
                 report.addAvailability(new Datum(resourceId, avail, now));
@@ -729,7 +733,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
             availabilityManager.updateLastAvailabilityReportInNewTransaction(agentToUpdate.intValue());
         }
 
-        MergeInfo mergeInfo = new MergeInfo(report);
+        MergeInfo mergeInfo = new MergeInfo(report, agentToUpdate);
 
         // if this report is from an agent, and is a changes-only report, and the agent appears backfilled,
         // then we need to skip this report so as not to waste our time. Then, immediately request and process
@@ -744,15 +748,25 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
             // process the report in batches to avoid an overly long transaction and to potentially increase the
             // speed in which an avail change becomes visible.
 
-            while (!availabilities.isEmpty()) {
-                int size = availabilities.size();
-                int end = (MERGE_BATCH_SIZE < size) ? MERGE_BATCH_SIZE : size;
+            try {
+                while (!availabilities.isEmpty()) {
+                    int size = availabilities.size();
+                    int end = (MERGE_BATCH_SIZE < size) ? MERGE_BATCH_SIZE : size;
+
+                    List<Availability> availBatch = availabilities.subList(0, end);
+                    availabilityManager.mergeAvailabilitiesInNewTransaction(availBatch, mergeInfo);
 
-                List<Availability> availBatch = availabilities.subList(0, end);
-                availabilityManager.mergeAvailabilitiesInNewTransaction(availBatch, mergeInfo);
+                    // the batch is committed, so the latest avails it saw or wrote can now be cached
+                    mergeInfo.updateLatestAvailabilityCache();
 
-                // Advance our progress and possibly help GC. This will remove the processed avails from the backing list
-                availBatch.clear();
+                    // Advance our progress and possibly help GC. This will remove the processed avails from the backing list
+                    availBatch.clear();
+                }
+            } finally {
+                // let all servers know that what they cached for this agent's resources may be stale now
+                if (mergeInfo.isChanged() && agentToUpdate != null) {
+                    availabilityManager.updateAgentAvailabilityChangedInNewTransaction(agentToUpdate.intValue());
+                }
             }
 
             MeasurementMonitor.getMBean().incrementAvailabilityReports(report.isChangesOnlyReport());
@@ -781,12 +795,21 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
 
     static class MergeInfo {
         private AvailabilityReport report;
+        private Integer agentId;
         private int numInserted = 0;
         private boolean askForFullReport = false;
+        private boolean changed = false;
+
+        // latest avails seen or written by the current batch, cached once the batch is committed
+        private int numLatest = 0;
+        private int[] latestResourceIds = new int[16];
+        private AvailabilityType[] latestTypes = new AvailabilityType[16];
+        private long[] latestStartTimes = new long[16];
 
-        public MergeInfo(AvailabilityReport report) {
+        public MergeInfo(AvailabilityReport report, Integer agentId) {
             super();
             this.report = report;
+            this.agentId = agentId;
         }
 
         public int getNumInserted() {
@@ -813,6 +836,52 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
             return report.isServerSideReport();
         }
 
+        /**
+         * @return true if the reported avails can be checked against the {@link LatestAvailabilityCache}. This is
+         * only the case for reports of a known agent that the agent sent itself, since only those validate the
+         * cached avails of the agent's resources beforehand.
+         */
+        public boolean isLatestAvailabilityCacheable() {
+            return agentId != null && !report.isServerSideReport() && !report.isEnablementReport();
+        }
+
+        public int getAgentId() {
+            return agentId.intValue();
+        }
+
+        public boolean isChanged() {
+            return changed;
+        }
+
+        public void setChanged() {
+            this.changed = true;
+        }
+
+        public void addLatestAvailability(int resourceId, AvailabilityType type, long startTime) {
+            if (agentId == null) {
+                return;
+            }
+            if (numLatest == latestResourceIds.length) {
+                int length = numLatest * 2;
+                latestResourceIds = Arrays.copyOf(latestResourceIds, length);
+                latestTypes = Arrays.copyOf(latestTypes, length);
+                latestStartTimes = Arrays.copyOf(latestStartTimes, length);
+            }
+            latestResourceIds[numLatest] = resourceId;
+            latestTypes[numLatest] = type;
+            latestStartTimes[numLatest] = startTime;
+            ++numLatest;
+        }
+
+        public void updateLatestAvailabilityCache() {
+            if (numLatest > 0) {
+                LatestAvailabilityCache.getInstance().put(agentId.intValue(), latestResourceIds, latestTypes,
+                    latestStartTimes, numLatest);
+                Arrays.fill(latestTypes, 0, numLatest, null);
+                numLatest = 0;
+            }
+        }
+
         public String toString(boolean includeAll) {
             return report.toString(includeAll);
         }
@@ -825,13 +894,45 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         // We will alert only on the avails for enabled resources. Keep track of any that are disabled.
         List<Availability> disabledAvailabilities = new ArrayList<Availability>();
 
+        // Resolve the reported avails that do not change anything from the cache. The others, and any later avail of
+        // the same resource in this batch, are checked against the database.
+        List<Availability> uncachedAvailabilities = availabilities;
+        if (mergeInfo.isLatestAvailabilityCacheable()) {
+            LatestAvailabilityCache cache = LatestAvailabilityCache.getInstance();
+            int agentId = mergeInfo.getAgentId();
+            uncachedAvailabilities = new ArrayList<Availability>(availabilities.size());
+            Set<Integer> uncachedResourceIds = new HashSet<Integer>();
+            for (Availability reported : availabilities) {
+                Integer resourceId = reported.getResource().getId();
+                AvailabilityType latestType = uncachedResourceIds.contains(resourceId) ? null : cache.get(agentId,
+                    resourceId, reported.getStartTime());
+
+                if (AvailabilityType.DISABLED == latestType) {
+                    disabledAvailabilities.add(reported);
+                } else if (reported.getAvailabilityType() == latestType) {
+                    // our last known state was unknown, ask for a full report to ensure we are in sync with agent
+                    if (AvailabilityType.UNKNOWN == latestType) {
+                        mergeInfo.setAskForFullReport(true);
+                    }
+                } else {
+                    uncachedResourceIds.add(resourceId);
+                    uncachedAvailabilities.add(reported);
+                }
+            }
+        }
+
         Query q = entityManager.createNamedQuery(Availability.FIND_LATEST_BY_RESOURCE_IDS);
-        List<Integer> resourceIds = new ArrayList<Integer>(availabilities.size());
-        for (Availability reported : availabilities) {
+        List<Integer> resourceIds = new ArrayList<Integer>(uncachedAvailabilities.size());
+        for (Availability reported : uncachedAvailabilities) {
             resourceIds.add(reported.getResource().getId());
         }
-        q.setParameter("resourceIds", resourceIds);
-        List<Availability> latestAvailabilitiesList = q.getResultList();
+        List<Availability> latestAvailabilitiesList;
+        if (resourceIds.isEmpty()) {
+            latestAvailabilitiesList = Collections.emptyList();
+        } else {
+            q.setParameter("resourceIds", resourceIds);
+            latestAvailabilitiesList = q.getResultList();
+        }
         resourceIds.clear(); // done with this, perhaps helps GC
         resourceIds = null;
 
@@ -849,9 +950,12 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         }
 
         // keep track of the changes in availability so we can update the relevant ResourceAvailabilities in a batch
-        List<Availability> changedAvailabilities = new ArrayList<Availability>(availabilities.size());
+        List<Availability> changedAvailabilities = new ArrayList<Availability>(uncachedAvailabilities.size());
 
-        for (Availability reported : availabilities) {
+        // keep track of the resources whose latest avail can be cached once this transaction is committed
+        Set<Integer> latestResourceIds = new LinkedHashSet<Integer>();
+
+        for (Availability reported : uncachedAvailabilities) {
 
             // availability reports only tell us the current state at the start time; end time is ignored/must be null
             reported.setEndTime(null);
@@ -900,6 +1004,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
 
                         // update the Map to reflect the repaired latest avail
                         latestAvailabilities.put(resourceId, latest);
+                        mergeInfo.setChanged();
 
                         updateResourceAvailability(latest);
 
@@ -941,6 +1046,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
 
                     // update the Map to reflect the repaired latest avail
                     latestAvailabilities.put(resourceId, latest);
+                    mergeInfo.setChanged();
 
                     // this is an unusual report - ask the agent for a full report so as to ensure we are in sync with agent
                     mergeInfo.setAskForFullReport(true);
@@ -963,6 +1069,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
             if (AvailabilityType.DISABLED == latestType) {
                 if (!(mergeInfo.isEnablementReport() && (AvailabilityType.UNKNOWN == reportedType))) {
                     disabledAvailabilities.add(reported);
+                    latestResourceIds.add(resourceId);
                     continue;
                 }
             }
@@ -979,12 +1086,14 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                     latestAvailabilities.put(resourceId, reported);
 
                     mergeInfo.incrementNumInserted();
+                    mergeInfo.setChanged();
 
                     latest.setEndTime(reported.getStartTime());
                     latest = entityManager.merge(latest);
 
                     changedAvailabilities.add(reported);
                 }
+                latestResourceIds.add(resourceId);
 
                 // our last known state was unknown, ask for a full report to ensure we are in sync with agent
                 if (latest.getAvailabilityType() == AvailabilityType.UNKNOWN) {
@@ -998,6 +1107,11 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                 // We need to insert it into our past timeline.
                 insertAvailability(reported);
                 mergeInfo.incrementNumInserted();
+                mergeInfo.setChanged();
+
+                // the timeline of this resource was rewritten, do not cache whatever we last saw of it
+                latestResourceIds.remove(resourceId);
+                LatestAvailabilityCache.getInstance().invalidate(resourceId);
 
                 // this is an unusual report - ask the agent for a full report so as to ensure we are in sync with agent
                 mergeInfo.setAskForFullReport(true);
@@ -1007,6 +1121,12 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         // update the affected ResourceAvailabilities
         updateResourceAvailabilities(changedAvailabilities);
 
+        for (Integer resourceId : latestResourceIds) {
+            Availability latest = (Availability) latestAvailabilities.get(resourceId);
+            mergeInfo.addLatestAvailability(resourceId, latest.getAvailabilityType(), latest.getStartTime());
+        }
+        latestResourceIds.clear(); // done with these, perhaps helps GC
+        latestResourceIds = null;
         latestAvailabilities.clear(); // done with these, perhaps helps GC
         latestAvailabilities = null;
         changedAvailabilities.clear();
@@ -1083,13 +1203,61 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
          * since we already know we have to update the agent row with the last avail report time, might as well
          * set the backfilled to false here (as opposed to called agentManager.setBackfilled(agentId, false)
          */
+        long reportTime = System.currentTimeMillis();
+
+        // check whether what we cached for this agent's resources can still be trusted before we overwrite the state
+        LatestAvailabilityCache cache = LatestAvailabilityCache.getInstance();
+        if (cache.isEnabled()) {
+            Query query = entityManager.createNamedQuery(Agent.QUERY_FIND_LAST_AVAIL_REPORT_STATE);
+            query.setParameter("agentId", agentId);
+            List<Object[]> results = query.getResultList();
+            if (results.isEmpty()) {
+                cache.invalidateAgent(agentId);
+            } else {
+                Object[] state = results.get(0);
+                cache.validateAgent(agentId, (Long) state[0], ((Number) state[1]).longValue(),
+                    Boolean.TRUE.equals(state[2]), reportTime);
+            }
+        }
+
         Query query = entityManager.createNamedQuery(Agent.QUERY_UPDATE_LAST_AVAIL_REPORT);
-        query.setParameter("reportTime", System.currentTimeMillis());
+        query.setParameter("reportTime", reportTime);
         query.setParameter("agentId", agentId);
 
         query.executeUpdate();
     }
 
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void updateAgentAvailabilityChangedInNewTransaction(int agentId) {
+        updateAgentAvailabilityChanged(agentId);
+    }
+
+    private void updateAgentAvailabilityChanged(int agentId) {
+        // touch the agent's mtime so that other servers stop trusting their cached avails of the agent's resources.
+        // we keep trusting our own only if nobody else touched it since we last looked.
+        LatestAvailabilityCache cache = LatestAvailabilityCache.getInstance();
+        long expectedMtime = cache.getAgentMtime(agentId);
+        long now = System.currentTimeMillis();
+        if (now == expectedMtime) {
+            ++now;
+        }
+
+        Query query = entityManager.createNamedQuery(Agent.QUERY_UPDATE_MTIME_IF_UNCHANGED);
+        query.setParameter("now", now);
+        query.setParameter("agentId", agentId);
+        query.setParameter("mtime", expectedMtime);
+        boolean expected = (query.executeUpdate() > 0);
+
+        if (!expected) {
+            query = entityManager.createNamedQuery(Agent.QUERY_UPDATE_MTIME);
+            query.setParameter("now", now);
+            query.setParameter("agentId", agentId);
+            query.executeUpdate();
+        }
+
+        cache.agentChanged(agentId, expectedMtime, now, expected);
+    }
+
     @SuppressWarnings("unchecked")
     public void updateAgentResourceAvailabilities(int agentId, AvailabilityType platformAvailType,
         AvailabilityType childAvailType) {
@@ -1124,6 +1292,10 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
 
         Date now = new Date();
 
+        // backfilling changes avails behind the cache's back, nobody may trust what they cached for this agent
+        LatestAvailabilityCache.getInstance().invalidateAgent(agentId);
+        updateAgentAvailabilityChanged(agentId);
+
         int newAvailsSize = platformResourcesWithStatus.size() + resourcesWithStatus.size();
         List<Availability> newAvailabilities = new ArrayList<Availability>(newAvailsSize);
 
@@ -186,6 +186,15 @@ public interface AvailabilityManagerLocal extends AvailabilityManagerRemote {
      */
     void updateLastAvailabilityReportInNewTransaction(int agentId);
 
+    /**
+     * Executing this method will mark, in a new transaction, that the availabilities of the given agent's resources
+     * are about to be changed by something other than an availability report of the agent itself. This tells all
+     * servers to stop trusting what they cached about the latest availabilities of the agent's resources.
+     *
+     * @param agentId the id of the agent
+     */
+    void updateAgentAvailabilityChangedInNewTransaction(int agentId);
+
     /**
      * Update availabilities for all resources managed by the given agent to the given availability type (which may be
      * <code>null</code> to indicate unknown).  NOTE: This does not include the top-level platform resource for
@@ -0,0 +1,226 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
+
+/**
+ * Merges the call-time data reported to this server over a time window, so that every call destination of a schedule
+ * is written as a single value per window instead of one value per report. The merged value spans from the earliest
+ * begin time to the latest end time of the merged values; its minimum and maximum are the extremes of theirs, and its
+ * total and count are their sums.
+ *
+ * Pending data only lives in the memory of this server and is lost if the server dies before it is written, which is
+ * why aggregation is disabled by default. Pending data is handed out for writing once the window has passed since the
+ * first of it was added, once too many call destinations are pending, or when it is drained.
+ *
+ * The aggregator is configured through these system properties:
+ * <ul>
+ *   <li>rhq.server.calltime.aggregation.window - the window in milliseconds, default 0 to disable aggregation</li>
+ *   <li>rhq.server.calltime.aggregation.max-pending - the maximum number of call destinations pending, default
+ *   50000</li>
+ * </ul>
+ */
+public final class CallTimeDataAggregator {
+
+    private static final CallTimeDataAggregator instance = new CallTimeDataAggregator(getLongProperty(
+        "rhq.server.calltime.aggregation.window", 0L), (int) getLongProperty(
+        "rhq.server.calltime.aggregation.max-pending", 50000L));
+
+    private final long window;
+
+    private final int maxPending;
+
+    private Map<Integer, Map<String, Aggregate>> pending = new HashMap<Integer, Map<String, Aggregate>>();
+
+    private int pendingCount;
+
+    private long windowStart;
+
+    private final AtomicLong valuesReceived = new AtomicLong();
+
+    CallTimeDataAggregator(long window, int maxPending) {
+        this.window = window;
+        this.maxPending = maxPending;
+    }
+
+    public static CallTimeDataAggregator getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return window > 0;
+    }
+
+    /**
+     * @return the window in milliseconds, 0 if aggregation is disabled
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Adds reported call-time data.
+     *
+     * @param callTimeDataSet the reported data
+     * @param now the current time
+     *
+     * @return the data that is due for writing, which is the reported data itself if aggregation is disabled
+     */
+    public Set<CallTimeData> add(Set<CallTimeData> callTimeDataSet, long now) {
+        int count = 0;
+        for (CallTimeData callTimeData : callTimeDataSet) {
+            count += callTimeData.getValues().size();
+        }
+        valuesReceived.addAndGet(count);
+
+        if (!isEnabled()) {
+            return callTimeDataSet;
+        }
+
+        synchronized (this) {
+            if (pendingCount == 0) {
+                windowStart = now;
+            }
+            for (CallTimeData callTimeData : callTimeDataSet) {
+                Map<String, Aggregate> aggregates = pending.get(callTimeData.getScheduleId());
+                if (aggregates == null) {
+                    aggregates = new HashMap<String, Aggregate>();
+                    pending.put(callTimeData.getScheduleId(), aggregates);
+                }
+                for (Map.Entry<String, CallTimeDataValue> entry : callTimeData.getValues().entrySet()) {
+                    Aggregate aggregate = aggregates.get(entry.getKey());
+                    if (aggregate == null) {
+                        aggregates.put(entry.getKey(), new Aggregate(entry.getValue()));
+                        ++pendingCount;
+                    } else {
+                        aggregate.merge(entry.getValue());
+                    }
+                }
+            }
+
+            if (pendingCount >= maxPending || now - windowStart >= window) {
+                return drain();
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Hands out all pending data, whether or not its window has passed.
+     *
+     * @return the pending data
+     */
+    public Set<CallTimeData> drain() {
+        Map<Integer, Map<String, Aggregate>> drained;
+        synchronized (this) {
+            if (pendingCount == 0) {
+                return Collections.emptySet();
+            }
+            drained = pending;
+            pending = new HashMap<Integer, Map<String, Aggregate>>();
+            pendingCount = 0;
+        }
+
+        Set<CallTimeData> callTimeDataSet = new HashSet<CallTimeData>(drained.size());
+        for (Map.Entry<Integer, Map<String, Aggregate>> scheduleEntry : drained.entrySet()) {
+            CallTimeData callTimeData = new CallTimeData(new MeasurementScheduleRequest(scheduleEntry.getKey(), null,
+                0L, true, DataType.CALLTIME));
+            for (Map.Entry<String, Aggregate> entry : scheduleEntry.getValue().entrySet()) {
+                Aggregate aggregate = entry.getValue();
+                if (aggregate.count > 0) {
+                    callTimeData.addAggregatedCallData(entry.getKey(), new Date(aggregate.beginTime), new Date(
+                        aggregate.endTime), aggregate.minimum, aggregate.maximum, aggregate.total, aggregate.count);
+                }
+            }
+            if (!callTimeData.getValues().isEmpty()) {
+                callTimeDataSet.add(callTimeData);
+            }
+        }
+        return callTimeDataSet;
+    }
+
+    /**
+     * @return the number of call-time values reported to this server
+     */
+    public long getValuesReceived() {
+        return valuesReceived.get();
+    }
+
+    /**
+     * @return the number of call destinations whose merged values are waiting to be written
+     */
+    public synchronized int getValuesPending() {
+        return pendingCount;
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        try {
+            return Long.parseLong(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    private static class Aggregate {
+        private long beginTime;
+        private long endTime;
+        private double minimum;
+        private double maximum;
+        private double total;
+        private long count;
+
+        Aggregate(CallTimeDataValue value) {
+            this.beginTime = value.getBeginTime();
+            this.endTime = value.getEndTime();
+            this.minimum = value.getMinimum();
+            this.maximum = value.getMaximum();
+            this.total = value.getTotal();
+            this.count = value.getCount();
+        }
+
+        void merge(CallTimeDataValue value) {
+            if (value.getCount() <= 0) {
+                return;
+            }
+            if (this.count <= 0) {
+                this.minimum = value.getMinimum();
+                this.maximum = value.getMaximum();
+            } else {
+                this.minimum = Math.min(this.minimum, value.getMinimum());
+                this.maximum = Math.max(this.maximum, value.getMaximum());
+            }
+            this.beginTime = Math.min(this.beginTime, value.getBeginTime());
+            this.endTime = Math.max(this.endTime, value.getEndTime());
+            this.total += value.getTotal();
+            this.count += value.getCount();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps call destinations of measurement schedules to the ids of their rows in RHQ_CALLTIME_DATA_KEY, so that reported
+ * call-time values can be inserted without looking their keys up, and keys that are known to exist are not inserted
+ * again.
+ *
+ * Key rows are only deleted together with their schedules. A cached id whose row was deleted makes the insert of the
+ * values fail, after which the caller is expected to {@link #clear()} the cache. The least recently used ids are
+ * dropped once the cache is full.
+ *
+ * The cache is configured through this system property:
+ * <ul>
+ *   <li>rhq.server.calltime.key.cache.size - the maximum number of call destinations cached, default 100000, 0 to
+ *   disable</li>
+ * </ul>
+ */
+public final class CallTimeDataKeyCache {
+
+    private static final CallTimeDataKeyCache instance = new CallTimeDataKeyCache(getIntProperty(
+        "rhq.server.calltime.key.cache.size", 100000));
+
+    private final int maxSize;
+
+    private final Map<Key, Integer> ids;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    CallTimeDataKeyCache(int size) {
+        this.maxSize = size;
+        this.ids = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static CallTimeDataKeyCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return the id of the key row of the call destination, or <code>null</code> if it is not cached
+     */
+    public Integer get(int scheduleId, String callDestination) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Integer id;
+        synchronized (this) {
+            id = ids.get(new Key(scheduleId, callDestination));
+        }
+        if (id == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return id;
+    }
+
+    /**
+     * Like {@link #get(int, String)}, but without counting a hit or miss.
+     */
+    public synchronized boolean contains(int scheduleId, String callDestination) {
+        return isEnabled() && ids.containsKey(new Key(scheduleId, callDestination));
+    }
+
+    public synchronized void put(int scheduleId, String callDestination, int id) {
+        if (isEnabled()) {
+            ids.put(new Key(scheduleId, callDestination), id);
+        }
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+    }
+
+    public synchronized int getSize() {
+        return ids.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    private static class Key {
+        private final int scheduleId;
+        private final String callDestination;
+
+        Key(int scheduleId, String callDestination) {
+            this.scheduleId = scheduleId;
+            this.callDestination = callDestination;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * scheduleId + callDestination.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return scheduleId == other.scheduleId && callDestination.equals(other.callDestination);
+        }
+    }
+}
@@ -21,14 +21,22 @@ package org.rhq.enterprise.server.measurement;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
@@ -98,6 +106,16 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
         + "(key_id, begin_time, end_time, minimum, maximum, total, count) SELECT key.id, ?, ?, ?, ?, ?, ? FROM "
         + DATA_KEY_TABLE_NAME + " key WHERE key.schedule_id = ? AND key.call_destination = ?";
 
+    private static final String CALLTIME_VALUE_INSERT_BY_KEY_STATEMENT = "INSERT INTO " + DATA_VALUE_TABLE_NAME
+        + "(id, key_id, begin_time, end_time, minimum, maximum, total, count) VALUES (%s, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String CALLTIME_VALUE_INSERT_BY_KEY_STATEMENT_AUTOINC = "INSERT INTO "
+        + DATA_VALUE_TABLE_NAME
+        + "(key_id, begin_time, end_time, minimum, maximum, total, count) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String CALLTIME_KEY_SELECT_STATEMENT = "SELECT id FROM " + DATA_KEY_TABLE_NAME
+        + " WHERE schedule_id = ? AND call_destination = ?";
+
     private static final String CALLTIME_VALUE_PURGE_STATEMENT = "DELETE FROM " + DATA_VALUE_TABLE_NAME
         + " WHERE end_time < ?";
 
@@ -118,22 +136,90 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
     @EJB
     private AlertConditionCacheManagerLocal alertConditionCacheManager;
 
+    @javax.annotation.Resource
+    private TimerService timerService;
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void addCallTimeData(@NotNull Set<CallTimeData> callTimeDataSet) {
         if (callTimeDataSet.isEmpty()) {
             return;
         }
 
+        // if aggregation is enabled, the reported data is merged with the pending data and only written once due
+        writeCallTimeData(CallTimeDataAggregator.getInstance().add(callTimeDataSet, System.currentTimeMillis()));
+
+        // alert conditions are checked against the data as reported, so that aggregation does not delay alerts
+        try {
+            notifyAlertConditionCacheManager("addCallTimeData",
+                callTimeDataSet.toArray(new CallTimeData[callTimeDataSet.size()]));
+        } catch (Throwable t) {
+            log.error("Failed to check alert conditions against call-time data", t);
+        }
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void flushCallTimeData() {
+        writeCallTimeData(CallTimeDataAggregator.getInstance().drain());
+    }
+
+    public void scheduleCallTimeDataFlush() {
+        // each time the webapp is reloaded, we don't want to create duplicate jobs
+        Collection<Timer> timers = timerService.getTimers();
+        for (Timer existingTimer : timers) {
+            log.debug("Found timer - attempting to cancel: " + existingTimer.toString());
+            try {
+                existingTimer.cancel();
+            } catch (Exception e) {
+                log.warn("Failed in attempting to cancel timer: " + existingTimer.toString());
+            }
+        }
+
+        // pending data is due once the aggregation window has passed, so look for it once per window
+        long window = CallTimeDataAggregator.getInstance().getWindow();
+        if (window > 0) {
+            timerService.createIntervalTimer(window, window, new TimerConfig(null, false));
+        }
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void handleCallTimeDataFlushTimer(Timer timer) {
+        try {
+            flushCallTimeData();
+        } catch (Throwable t) {
+            log.error("Failed to write aggregated call-time data - will try again later. Cause: " + t);
+        }
+    }
+
+    private void writeCallTimeData(Set<CallTimeData> callTimeDataSet) {
+        if (callTimeDataSet.isEmpty()) {
+            return;
+        }
+
         log.debug("Persisting call-time data for " + callTimeDataSet.size() + " schedules...");
         long startTime = System.currentTimeMillis();
 
-        // First make sure a single row exists in the key table for each reported call destination.
-        callTimeDataManager.insertCallTimeDataKeys(callTimeDataSet);
+        // First make sure a single row exists in the key table for each reported call destination. Destinations whose
+        // keys are cached are known to have one already.
+        if (hasUncachedKeys(callTimeDataSet)) {
+            callTimeDataManager.insertCallTimeDataKeys(callTimeDataSet);
+        }
 
         // Finally, add the stats themselves to the value table.
         callTimeDataManager.insertCallTimeDataValues(callTimeDataSet);
         MeasurementMonitor.getMBean().incrementCallTimeInsertTime(System.currentTimeMillis() - startTime);
+    }
 
+    private boolean hasUncachedKeys(Set<CallTimeData> callTimeDataSet) {
+        CallTimeDataKeyCache keyCache = CallTimeDataKeyCache.getInstance();
+        for (CallTimeData callTimeData : callTimeDataSet) {
+            for (String callDestination : callTimeData.getValues().keySet()) {
+                if (!keyCache.contains(callTimeData.getScheduleId(), callDestination)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     public PageList<CallTimeDataComposite> findCallTimeDataRawForResource(Subject subject, int scheduleId, long beginTime,
@@ -344,18 +430,30 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
                 throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
             }
 
+            CallTimeDataKeyCache keyCache = CallTimeDataKeyCache.getInstance();
+            List<Integer> scheduleIds = new ArrayList<Integer>();
+            List<String> destinations = new ArrayList<String>();
             ps = conn.prepareStatement(insertKeySql);
             for (CallTimeData callTimeData : callTimeDataSet) {
                 ps.setInt(1, callTimeData.getScheduleId());
                 ps.setInt(3, callTimeData.getScheduleId());
                 Set<String> callDestinations = callTimeData.getValues().keySet();
                 for (String callDestination : callDestinations) {
+                    if (keyCache.contains(callTimeData.getScheduleId(), callDestination)) {
+                        continue;
+                    }
                     ps.setString(2, callDestination);
                     ps.setString(4, callDestination);
                     ps.addBatch();
+                    scheduleIds.add(callTimeData.getScheduleId());
+                    destinations.add(callDestination);
                 }
             }
 
+            if (scheduleIds.isEmpty()) {
+                return;
+            }
+
             results = ps.executeBatch();
 
             int insertedRowCount = 0;
@@ -371,6 +469,10 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
 
             log.debug("Inserted new call-time data key rows for " + ((insertedRowCount >= 0) ? insertedRowCount : "?")
                 + " out of " + results.length + " reported key-value pairs.");
+
+            if (keyCache.isEnabled()) {
+                cacheCallTimeDataKeyIds(conn, scheduleIds, destinations);
+            }
         } catch (SQLException e) {
             logSQLException("Failed to persist call-time data keys", e);
         } catch (Throwable t) {
@@ -385,9 +487,9 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
      */
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void insertCallTimeDataValues(Set<CallTimeData> callTimeDataSet) {
-        int[] results;
         String insertValueSql;
         PreparedStatement ps = null;
+        PreparedStatement psByKey = null;
         Connection conn = null;
 
         try {
@@ -405,48 +507,51 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
                 }
             }
 
+            String insertValueByKeySql;
             if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
                 || dbType instanceof H2DatabaseType) {
                 String valueNextvalSql = JDBCUtil.getNextValSql(conn, "RHQ_calltime_data_value");
                 insertValueSql = String.format(CALLTIME_VALUE_INSERT_STATEMENT, valueNextvalSql);
+                insertValueByKeySql = String.format(CALLTIME_VALUE_INSERT_BY_KEY_STATEMENT, valueNextvalSql);
             } else if (dbType instanceof SQLServerDatabaseType) {
                 insertValueSql = CALLTIME_VALUE_INSERT_STATEMENT_AUTOINC;
+                insertValueByKeySql = CALLTIME_VALUE_INSERT_BY_KEY_STATEMENT_AUTOINC;
             } else {
                 throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
             }
 
-            ps = conn.prepareStatement(insertValueSql);
+            // values of destinations whose keys are cached are inserted by key id, the others look their keys up
+            CallTimeDataKeyCache keyCache = CallTimeDataKeyCache.getInstance();
             for (CallTimeData callTimeData : callTimeDataSet) {
-                ps.setInt(7, callTimeData.getScheduleId());
-                Set<String> callDestinations = callTimeData.getValues().keySet();
-                for (String callDestination : callDestinations) {
-                    CallTimeDataValue callTimeDataValue = callTimeData.getValues().get(callDestination);
-                    ps.setLong(1, callTimeDataValue.getBeginTime());
-                    ps.setLong(2, callTimeDataValue.getEndTime());
-                    ps.setDouble(3, callTimeDataValue.getMinimum());
-                    ps.setDouble(4, callTimeDataValue.getMaximum());
-                    ps.setDouble(5, callTimeDataValue.getTotal());
-                    ps.setLong(6, callTimeDataValue.getCount());
-                    ps.setString(8, callDestination);
-                    ps.addBatch();
+                for (Map.Entry<String, CallTimeDataValue> entry : callTimeData.getValues().entrySet()) {
+                    CallTimeDataValue callTimeDataValue = entry.getValue();
+                    Integer keyId = keyCache.get(callTimeData.getScheduleId(), entry.getKey());
+                    if (keyId != null) {
+                        if (psByKey == null) {
+                            psByKey = conn.prepareStatement(insertValueByKeySql);
+                        }
+                        psByKey.setInt(1, keyId);
+                        setCallTimeDataValue(psByKey, 2, callTimeDataValue);
+                        psByKey.addBatch();
+                    } else {
+                        if (ps == null) {
+                            ps = conn.prepareStatement(insertValueSql);
+                        }
+                        setCallTimeDataValue(ps, 1, callTimeDataValue);
+                        ps.setInt(7, callTimeData.getScheduleId());
+                        ps.setString(8, entry.getKey());
+                        ps.addBatch();
+                    }
                 }
             }
 
-            results = ps.executeBatch();
-
             int insertedRowCount = 0;
-            for (int i = 0; i < results.length; i++) {
-                if ((results[i] != 1) && (results[i] != -2)) // Oracle likes to return -2 becuase it doesn't track batch update counts
-                {
-                    throw new MeasurementStorageException("Failed to insert call-time data value rows - result ["
-                        + results[i] + "] for batch command [" + i + "] does not equal 1.");
-                }
-
-                insertedRowCount += results[i] == -2 ? 1 : results[i]; // If Oracle returns -2, just count 1 row;
+            if (psByKey != null) {
+                insertedRowCount += checkInsertedValueRows(psByKey.executeBatch());
+            }
+            if (ps != null) {
+                insertedRowCount += checkInsertedValueRows(ps.executeBatch());
             }
-
-            notifyAlertConditionCacheManager("insertCallTimeDataValues", callTimeDataSet
-                .toArray(new CallTimeData[callTimeDataSet.size()]));
 
             if (insertedRowCount > 0) {
                 MeasurementMonitor.getMBean().incrementCalltimeValuesInserted(insertedRowCount);
@@ -455,13 +560,62 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
             }
 
         } catch (SQLException e) {
+            // a cached key may have been deleted along with its schedule
+            CallTimeDataKeyCache.getInstance().clear();
             logSQLException("Failed to persist call-time data values", e);
         } catch (Throwable t) {
+            CallTimeDataKeyCache.getInstance().clear();
             log.error("Failed to persist call-time data values", t);
         } finally {
+            JDBCUtil.safeClose(psByKey);
             JDBCUtil.safeClose(conn, ps, null);
         }
+    }
+
+    private void cacheCallTimeDataKeyIds(Connection conn, List<Integer> scheduleIds, List<String> callDestinations)
+        throws SQLException {
+        CallTimeDataKeyCache keyCache = CallTimeDataKeyCache.getInstance();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(CALLTIME_KEY_SELECT_STATEMENT);
+            for (int i = 0; i < scheduleIds.size(); ++i) {
+                ps.setInt(1, scheduleIds.get(i));
+                ps.setString(2, callDestinations.get(i));
+                rs = ps.executeQuery();
+                if (rs.next()) {
+                    keyCache.put(scheduleIds.get(i), callDestinations.get(i), rs.getInt(1));
+                }
+                rs.close();
+                rs = null;
+            }
+        } finally {
+            JDBCUtil.safeClose(null, ps, rs);
+        }
+    }
+
+    private static void setCallTimeDataValue(PreparedStatement ps, int index, CallTimeDataValue callTimeDataValue)
+        throws SQLException {
+        ps.setLong(index, callTimeDataValue.getBeginTime());
+        ps.setLong(index + 1, callTimeDataValue.getEndTime());
+        ps.setDouble(index + 2, callTimeDataValue.getMinimum());
+        ps.setDouble(index + 3, callTimeDataValue.getMaximum());
+        ps.setDouble(index + 4, callTimeDataValue.getTotal());
+        ps.setLong(index + 5, callTimeDataValue.getCount());
+    }
+
+    private static int checkInsertedValueRows(int[] results) {
+        int insertedRowCount = 0;
+        for (int i = 0; i < results.length; i++) {
+            if ((results[i] != 1) && (results[i] != -2)) // Oracle likes to return -2 becuase it doesn't track batch update counts
+            {
+                throw new MeasurementStorageException("Failed to insert call-time data value rows - result ["
+                    + results[i] + "] for batch command [" + i + "] does not equal 1.");
+            }
 
+            insertedRowCount += results[i] == -2 ? 1 : results[i]; // If Oracle returns -2, just count 1 row;
+        }
+        return insertedRowCount;
     }
 
     private void notifyAlertConditionCacheManager(String callingMethod, CallTimeData... data) {
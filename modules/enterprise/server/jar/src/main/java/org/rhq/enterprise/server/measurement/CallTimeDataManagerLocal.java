@@ -39,6 +39,16 @@ import org.rhq.core.domain.util.PageList;
 public interface CallTimeDataManagerLocal extends CallTimeDataManagerRemote {
     void addCallTimeData(Set<CallTimeData> callTimeDataSet);
 
+    /**
+     * Writes the call-time data that is pending aggregation, whether or not its aggregation window has passed.
+     */
+    void flushCallTimeData();
+
+    /**
+     * Schedules the writing of aggregated call-time data once per aggregation window, if aggregation is enabled.
+     */
+    void scheduleCallTimeDataFlush();
+
     PageList<CallTimeDataComposite> findCallTimeDataForCompatibleGroup(Subject subject, int groupId, long beginTime,
         long endTime, PageControl pageControl);
 
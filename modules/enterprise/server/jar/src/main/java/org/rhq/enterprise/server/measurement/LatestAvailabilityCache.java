@@ -0,0 +1,409 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.measurement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rhq.core.domain.measurement.AvailabilityType;
+
+/**
+ * Remembers the type and start time of the latest availability of resources, so that reported availabilities that do
+ * not change anything can be merged without querying the database.
+ *
+ * Entries are written through by the availability merge once its transaction has committed. Every entry belongs to the
+ * agent of its resource and is only trusted while this server knows that nobody else changed the availabilities of
+ * that agent's resources. This is checked once per agent report against the agent row: the
+ * <code>lastAvailabilityReport</code> time must still be the one this server wrote for the previous report, the agent
+ * must not be backfilled, and its <code>mtime</code> must not have changed. Every server touches the agent's
+ * <code>mtime</code> once it has committed changes to the availabilities of the agent's resources, be it by merging a
+ * report or by backfilling. When the check fails, all entries of the agent are dropped at once.
+ *
+ * The cache is split into segments by resource id. Each segment keeps its entries in primitive arrays and, once it is
+ * full, evicts entries that were not used since the last sweep, like a clock.
+ *
+ * The cache is configured through this system property:
+ * <ul>
+ *   <li>rhq.server.availability.cache.size - the maximum number of resources cached, default 250000, 0 to disable</li>
+ * </ul>
+ */
+public final class LatestAvailabilityCache {
+
+    private static final LatestAvailabilityCache instance = new LatestAvailabilityCache(getIntProperty(
+        "rhq.server.availability.cache.size", 250000));
+
+    private static final int SEGMENTS = 16;
+
+    private static final AvailabilityType[] TYPES = AvailabilityType.values();
+
+    private final Segment[] segments;
+
+    private final Map<Integer, AgentStamp> agentStamps = new HashMap<Integer, AgentStamp>();
+
+    private final AtomicInteger epochs = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    LatestAvailabilityCache(int size) {
+        if (size > 0) {
+            segments = new Segment[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; ++i) {
+                segments[i] = new Segment(Math.max(1, size / SEGMENTS));
+            }
+        } else {
+            segments = null;
+        }
+    }
+
+    public static LatestAvailabilityCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return segments != null;
+    }
+
+    /**
+     * Checks the agent's row, as read just before this server records a new availability report of the agent, against
+     * what this server recorded for the previous report. If anybody else changed the agent's availabilities in the
+     * meantime, the agent's entries are dropped.
+     *
+     * @param agentId the agent whose report is being merged
+     * @param lastReportTime the agent's <code>lastAvailabilityReport</code> before it is updated
+     * @param mtime the agent's <code>mtime</code>
+     * @param backfilled whether the agent is backfilled
+     * @param newReportTime the <code>lastAvailabilityReport</code> this server is about to write
+     */
+    public void validateAgent(int agentId, Long lastReportTime, long mtime, boolean backfilled, long newReportTime) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (agentStamps) {
+            AgentStamp stamp = agentStamps.get(agentId);
+            if (stamp == null) {
+                stamp = new AgentStamp();
+                agentStamps.put(agentId, stamp);
+            }
+            if (backfilled || lastReportTime == null || lastReportTime.longValue() != stamp.reportTime
+                || mtime != stamp.mtime) {
+                stamp.epoch = epochs.incrementAndGet();
+            }
+            stamp.reportTime = newReportTime;
+            stamp.mtime = mtime;
+        }
+    }
+
+    /**
+     * @return the <code>mtime</code> of the agent as last seen or written by this server, or -1 if the agent's entries
+     *         are not trusted
+     */
+    public long getAgentMtime(int agentId) {
+        if (!isEnabled()) {
+            return -1L;
+        }
+        synchronized (agentStamps) {
+            AgentStamp stamp = agentStamps.get(agentId);
+            return (stamp == null) ? -1L : stamp.mtime;
+        }
+    }
+
+    /**
+     * Records that this server touched the agent's <code>mtime</code> after changing availabilities of the agent's
+     * resources. The agent's entries stay trusted only if the touch found the <code>mtime</code> this server expected,
+     * meaning that nobody else signalled a change in the meantime.
+     *
+     * @param agentId the agent whose resources' availabilities were changed
+     * @param expectedMtime the <code>mtime</code> the touch expected, see {@link #getAgentMtime(int)}
+     * @param mtime the new <code>mtime</code>
+     * @param expected whether the touch found the expected <code>mtime</code>
+     */
+    public void agentChanged(int agentId, long expectedMtime, long mtime, boolean expected) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (agentStamps) {
+            AgentStamp stamp = agentStamps.get(agentId);
+            if (stamp != null && expected && stamp.mtime == expectedMtime) {
+                stamp.mtime = mtime;
+            } else {
+                agentStamps.remove(agentId);
+            }
+        }
+    }
+
+    /**
+     * Drops all entries of the agent.
+     */
+    public void invalidateAgent(int agentId) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (agentStamps) {
+            agentStamps.remove(agentId);
+        }
+    }
+
+    /**
+     * Drops the entries of the resources.
+     */
+    public void invalidate(int... resourceIds) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (int resourceId : resourceIds) {
+            segmentFor(resourceId).remove(resourceId);
+        }
+    }
+
+    /**
+     * Returns the type of the latest availability of the resource, if the cache knows it and it did not start after the
+     * given time. Merging an availability of that type and start time would not change anything.
+     *
+     * @return the type of the resource's latest availability, or <code>null</code> if the database must be asked
+     */
+    public AvailabilityType get(int agentId, int resourceId, long startTime) {
+        if (!isEnabled()) {
+            return null;
+        }
+        int epoch = getEpoch(agentId);
+        int type = (epoch == 0) ? -1 : segmentFor(resourceId).get(resourceId, epoch, startTime);
+        if (type < 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return TYPES[type];
+    }
+
+    /**
+     * Records the latest availability of resources of the agent. This must only be called once the availabilities are
+     * committed.
+     */
+    public void put(int agentId, int[] resourceIds, AvailabilityType[] types, long[] startTimes, int count) {
+        if (!isEnabled()) {
+            return;
+        }
+        int epoch = getEpoch(agentId);
+        for (int i = 0; i < count; ++i) {
+            if (epoch == 0) {
+                segmentFor(resourceIds[i]).remove(resourceIds[i]);
+            } else {
+                segmentFor(resourceIds[i]).put(resourceIds[i], epoch, types[i], startTimes[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of reported availabilities whose resource's latest availability was found in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of reported availabilities that had to be checked against the database
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of resources currently cached, including entries of agents that were dropped but not yet
+     *         evicted
+     */
+    public int getSize() {
+        int size = 0;
+        if (isEnabled()) {
+            for (Segment segment : segments) {
+                size += segment.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the epoch of the agent's entries, or 0 if the agent's entries are not trusted
+     */
+    private int getEpoch(int agentId) {
+        synchronized (agentStamps) {
+            AgentStamp stamp = agentStamps.get(agentId);
+            return (stamp == null) ? 0 : stamp.epoch;
+        }
+    }
+
+    private Segment segmentFor(int resourceId) {
+        return segments[(hash(resourceId) >>> 28) & (SEGMENTS - 1)];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    private static class AgentStamp {
+        long reportTime;
+        long mtime;
+        int epoch;
+    }
+
+    /**
+     * A fixed size open addressing table from resource ids to latest availabilities. Resource ids are never 0, so 0
+     * marks an empty slot.
+     */
+    private static class Segment {
+        private final int maxSize;
+        private final int[] keys;
+        private final int[] entryEpochs;
+        private final byte[] types;
+        private final long[] startTimes;
+        private final boolean[] referenced;
+        private int size;
+        private int hand;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+            int capacity = 2;
+            while (capacity < maxSize * 2) {
+                capacity <<= 1;
+            }
+            keys = new int[capacity];
+            entryEpochs = new int[capacity];
+            types = new byte[capacity];
+            startTimes = new long[capacity];
+            referenced = new boolean[capacity];
+        }
+
+        synchronized int get(int key, int epoch, long startTime) {
+            int i = indexOf(key);
+            if (i < 0 || entryEpochs[i] != epoch || startTimes[i] > startTime) {
+                return -1;
+            }
+            referenced[i] = true;
+            return types[i];
+        }
+
+        synchronized void put(int key, int epoch, AvailabilityType type, long startTime) {
+            if (key == 0) {
+                return;
+            }
+            int i = indexOf(key);
+            if (i < 0) {
+                if (size >= maxSize) {
+                    evict();
+                }
+                int mask = keys.length - 1;
+                i = hash(key) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                ++size;
+            }
+            entryEpochs[i] = epoch;
+            types[i] = (byte) type.ordinal();
+            startTimes[i] = startTime;
+            referenced[i] = true;
+        }
+
+        synchronized void remove(int key) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                removeAt(i);
+            }
+        }
+
+        synchronized int getSize() {
+            return size;
+        }
+
+        private int indexOf(int key) {
+            if (key == 0) {
+                return -1;
+            }
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                if (keys[i] == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * Removes the first entry at or after the hand that was not referenced since the hand last passed it.
+         */
+        private void evict() {
+            int mask = keys.length - 1;
+            while (true) {
+                int i = hand;
+                hand = (hand + 1) & mask;
+                if (keys[i] != 0) {
+                    if (referenced[i]) {
+                        referenced[i] = false;
+                    } else {
+                        removeAt(i);
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Empties the slot and moves later entries of the same probe sequence back, so that lookups never stop early.
+         */
+        private void removeAt(int i) {
+            int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == 0) {
+                    break;
+                }
+                int home = hash(keys[j]) & mask;
+                // keep the entry at j if its home slot lies cyclically in (i, j]
+                boolean keep = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+                if (!keep) {
+                    keys[i] = keys[j];
+                    entryEpochs[i] = entryEpochs[j];
+                    types[i] = types[j];
+                    startTimes[i] = startTimes[j];
+                    referenced[i] = referenced[j];
+                    i = j;
+                }
+            }
+            keys[i] = 0;
+            referenced[i] = false;
+            --size;
+        }
+    }
+}
@@ -26,14 +26,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
@@ -49,6 +47,9 @@ import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.sql.DataSource;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import com.google.common.base.Stopwatch;
 
@@ -93,6 +94,7 @@ import org.rhq.enterprise.server.agentclient.AgentClient;
 import org.rhq.enterprise.server.alert.AlertManagerLocal;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.alert.engine.internal.MeasurementConditionPipeline;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
@@ -100,6 +102,7 @@ import org.rhq.enterprise.server.core.AgentManagerLocal;
 import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
 import org.rhq.enterprise.server.measurement.util.MeasurementDataManagerUtility;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.DynaGroupChangeTracker;
 import org.rhq.enterprise.server.rest.ResourceHandlerBean;
 import org.rhq.enterprise.server.storage.StorageClientManager;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
@@ -143,6 +146,9 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
     @javax.annotation.Resource(name = "RHQ_DS")
     private DataSource rhqDs;
 
+    @javax.annotation.Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
     @EJB
     private AuthorizationManagerLocal authorizationManager;
     @EJB
@@ -185,6 +191,7 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
             stmt.setLong(1, oldest);
             long startTime = System.currentTimeMillis();
             int deleted = stmt.executeUpdate();
+            MeasurementDataTraitCache.getInstance().clear();
             MeasurementMonitor.getMBean().incrementPurgeTime(System.currentTimeMillis() - startTime);
             MeasurementMonitor.getMBean().setPurgedMeasurementTraits(deleted);
             return deleted;
@@ -242,17 +249,12 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
 
             private ReentrantLock lock = new ReentrantLock();
 
-            private Set<MeasurementData> insertedData = new TreeSet<MeasurementData>(new Comparator<MeasurementData>() {
-                @Override
-                public int compare(MeasurementData d1, MeasurementData d2) {
-                    return (d1.getTimestamp() < d2.getTimestamp()) ? -1 : ((d1.getTimestamp() == d2.getTimestamp()) ? 0 : 1);
-                }
-            });
+            private List<MeasurementData> insertedData = new ArrayList<MeasurementData>(data.size());
 
             @Override
             public void onFinish() {
-                measurementDataManager.updateAlertConditionCache("mergeMeasurementReport",
-                    insertedData.toArray(new MeasurementData[insertedData.size()]));
+                // this runs on a storage client thread, hand the alert condition checks off so that it is not held up
+                MeasurementConditionPipeline.getInstance().submit(insertedData, alertConditionCacheManager);
             }
 
             @Override
@@ -277,30 +279,49 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
             return;
         }
 
+        // unchanged traits would not be stored anyway, but they are still handed to the alert condition cache below
+        MeasurementDataTraitCache traitCache = MeasurementDataTraitCache.getInstance();
+        long now = System.currentTimeMillis();
+        List<MeasurementDataTrait> changedData = new ArrayList<MeasurementDataTrait>(data.size());
+        for (MeasurementDataTrait aData : data) {
+            if (!traitCache.isUnchanged(aData, now)) {
+                changedData.add(aData);
+            }
+        }
+
         Connection conn = null;
         PreparedStatement ps = null;
         try {
-            conn = rhqDs.getConnection();
-            ps = conn.prepareStatement(TRAIT_INSERT_STATEMENT);
-
-            for (MeasurementDataTrait aData : data) {
-                // time_stamp, schedule_id, value, schedule_id, schedule_id, value, value, value, value
-                ps.setLong(1, aData.getTimestamp());
-                ps.setInt(2, aData.getScheduleId());
-                ps.setString(3, aData.getValue());
-                ps.setInt(4, aData.getScheduleId());
-                ps.setInt(5, aData.getScheduleId());
-                ps.setString(6, aData.getValue());
-                ps.setString(7, aData.getValue());
-                ps.setString(8, aData.getValue());
-                ps.setString(9, aData.getValue());
-                ps.addBatch();
-            }
+            if (!changedData.isEmpty()) {
+                conn = rhqDs.getConnection();
+                ps = conn.prepareStatement(TRAIT_INSERT_STATEMENT);
+
+                for (MeasurementDataTrait aData : changedData) {
+                    // time_stamp, schedule_id, value, schedule_id, schedule_id, value, value, value, value
+                    ps.setLong(1, aData.getTimestamp());
+                    ps.setInt(2, aData.getScheduleId());
+                    ps.setString(3, aData.getValue());
+                    ps.setInt(4, aData.getScheduleId());
+                    ps.setInt(5, aData.getScheduleId());
+                    ps.setString(6, aData.getValue());
+                    ps.setString(7, aData.getValue());
+                    ps.setString(8, aData.getValue());
+                    ps.setString(9, aData.getValue());
+                    ps.addBatch();
+                }
 
-            int[] res = ps.executeBatch();
-            if (res.length != data.size()) {
-                throw new MeasurementStorageException("Failure to store measurement trait data.");
-                // It is expected that some of these batch updates didn't update anything as the previous value was the same
+                int[] res = ps.executeBatch();
+                if (res.length != changedData.size()) {
+                    throw new MeasurementStorageException("Failure to store measurement trait data.");
+                    // It is expected that some of these batch updates didn't update anything as the previous value was the same
+                }
+
+                List<Integer> changedScheduleIds = new ArrayList<Integer>(changedData.size());
+                for (MeasurementDataTrait aData : changedData) {
+                    changedScheduleIds.add(aData.getScheduleId());
+                }
+                cacheTraitsAfterCommit(traitCache, changedData, now);
+                DynaGroupChangeTracker.getInstance().schedulesChanged(changedScheduleIds);
             }
 
             notifyAlertConditionCacheManager("mergeMeasurementReport", data.toArray(new MeasurementData[data.size()]));
@@ -313,6 +334,32 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
         }
     }
 
+    /**
+     * Caches stored traits once the current transaction has committed, so that the cache never holds a value that was
+     * rolled back.
+     */
+    private void cacheTraitsAfterCommit(final MeasurementDataTraitCache traitCache,
+        final List<MeasurementDataTrait> data, final long now) {
+        if (!traitCache.isEnabled()) {
+            return;
+        }
+
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    for (MeasurementDataTrait aData : data) {
+                        traitCache.put(aData, now);
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Return a map of &lt;resource id, List&lt;MetricDisplaySummary&gt;&gt;, where the list contains the
      * {@link MetricDisplaySummary} for the (enabled) schedules of the resource
@@ -609,6 +656,13 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
         log.debug(callingMethod + ": " + stats.toString());
     }
 
+    @Asynchronous
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void checkQueuedAlertConditions(int partition) {
+        MeasurementConditionPipeline.getInstance().drain(partition, alertConditionCacheManager);
+    }
+
     private void notifyAlertConditionCacheManager(String callingMethod, MeasurementData[] data) {
         AlertConditionCacheStats stats = alertConditionCacheManager.checkConditions(data);
 
@@ -143,4 +143,13 @@ public interface MeasurementDataManagerLocal extends MeasurementDataManagerRemot
 
     void updateAlertConditionCache(String callingMethod, MeasurementData[] data);
 
+    /**
+     * Asynchronously checks the measurement data queued in a partition of the
+     * {@link org.rhq.enterprise.server.alert.engine.internal.MeasurementConditionPipeline} against the alert
+     * condition caches.
+     *
+     * @param partition the partition to drain
+     */
+    void checkQueuedAlertConditions(int partition);
+
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
+
+/**
+ * Remembers the latest value stored in RHQ_MEASUREMENT_DATA_TRAIT for measurement schedules, so that reported traits
+ * whose value did not change can be dropped without asking the database. Most traits, like versions, paths or host
+ * names, hardly ever change.
+ *
+ * A schedule is only cached once a trait of it went through the database, which only stores it if its value differs
+ * from the latest stored one; either way the reported value is the latest stored value afterwards. Other servers of
+ * the cloud may store traits of the same schedule when agents fail over, which is why cached values expire. The least
+ * recently used schedules are dropped once the cache is full.
+ *
+ * The cache is configured through these system properties:
+ * <ul>
+ *   <li>rhq.server.measurement.trait.cache.size - the maximum number of schedules cached, default 100000, 0 to
+ *   disable</li>
+ *   <li>rhq.server.measurement.trait.cache.max-age - the milliseconds a cached value is trusted, default 3600000</li>
+ * </ul>
+ */
+public final class MeasurementDataTraitCache {
+
+    private static final MeasurementDataTraitCache instance = new MeasurementDataTraitCache(getLongProperty(
+        "rhq.server.measurement.trait.cache.size", 100000L), getLongProperty(
+        "rhq.server.measurement.trait.cache.max-age", 3600000L));
+
+    private final long maxSize;
+
+    private final long maxAge;
+
+    private final Map<Integer, Entry> values;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    MeasurementDataTraitCache(long size, long maxAge) {
+        this.maxSize = size;
+        this.maxAge = maxAge;
+        this.values = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static MeasurementDataTraitCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @param trait a reported trait
+     * @param now the current time
+     *
+     * @return true if the trait's value is known to be the latest stored value of its schedule, in which case the
+     * trait need not be stored
+     */
+    public boolean isUnchanged(MeasurementDataTrait trait, long now) {
+        if (!isEnabled()) {
+            return false;
+        }
+        boolean unchanged;
+        synchronized (this) {
+            Entry entry = values.get(trait.getScheduleId());
+            unchanged = entry != null && now - entry.cachedAt < maxAge && trait.getTimestamp() >= entry.timestamp
+                && (entry.value == null ? trait.getValue() == null : entry.value.equals(trait.getValue()));
+        }
+        if (unchanged) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return unchanged;
+    }
+
+    /**
+     * Remembers the value of a trait that went through the database, unless a later trait of its schedule is cached.
+     *
+     * @param trait a stored trait
+     * @param now the current time
+     */
+    public synchronized void put(MeasurementDataTrait trait, long now) {
+        if (!isEnabled()) {
+            return;
+        }
+        Entry entry = values.get(trait.getScheduleId());
+        if (entry == null || trait.getTimestamp() >= entry.timestamp) {
+            values.put(trait.getScheduleId(), new Entry(trait.getValue(), trait.getTimestamp(), now));
+        }
+    }
+
+    public synchronized void clear() {
+        values.clear();
+    }
+
+    public synchronized int getSize() {
+        return values.size();
+    }
+
+    /**
+     * @return the number of reported traits that were dropped because their value did not change
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        try {
+            return Long.parseLong(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    private static class Entry {
+        private final String value;
+        private final long timestamp;
+        private final long cachedAt;
+
+        Entry(String value, long timestamp, long cachedAt) {
+            this.value = value;
+            this.timestamp = timestamp;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -35,6 +35,10 @@ import javax.management.MBeanServerInvocationHandler;
 import javax.management.ObjectName;
 
 import org.rhq.core.util.ObjectNameFactory;
+import org.rhq.enterprise.server.measurement.CallTimeDataAggregator;
+import org.rhq.enterprise.server.measurement.CallTimeDataKeyCache;
+import org.rhq.enterprise.server.measurement.LatestAvailabilityCache;
+import org.rhq.enterprise.server.measurement.MeasurementDataTraitCache;
 import org.rhq.enterprise.server.storage.StorageClientManager;
 import org.rhq.enterprise.server.util.JMXUtil;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -141,6 +145,38 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
         this.callTimeInsertTime.addAndGet(delta);
     }
 
+    public long getCallTimeValuesReceived() {
+        return CallTimeDataAggregator.getInstance().getValuesReceived();
+    }
+
+    public int getCallTimeValuesPending() {
+        return CallTimeDataAggregator.getInstance().getValuesPending();
+    }
+
+    public long getCallTimeKeyCacheHits() {
+        return CallTimeDataKeyCache.getInstance().getHits();
+    }
+
+    public long getCallTimeKeyCacheMisses() {
+        return CallTimeDataKeyCache.getInstance().getMisses();
+    }
+
+    public int getCallTimeKeyCacheSize() {
+        return CallTimeDataKeyCache.getInstance().getSize();
+    }
+
+    public long getTraitCacheHits() {
+        return MeasurementDataTraitCache.getInstance().getHits();
+    }
+
+    public long getTraitCacheMisses() {
+        return MeasurementDataTraitCache.getInstance().getMisses();
+    }
+
+    public int getTraitCacheSize() {
+        return MeasurementDataTraitCache.getInstance().getSize();
+    }
+
     public long getAvailabilityInsertTime() {
         return availabilityInsertTime.get();
     }
@@ -177,6 +213,18 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
         }
     }
 
+    public long getAvailabilityCacheHits() {
+        return LatestAvailabilityCache.getInstance().getHits();
+    }
+
+    public long getAvailabilityCacheMisses() {
+        return LatestAvailabilityCache.getInstance().getMisses();
+    }
+
+    public int getAvailabilityCacheSize() {
+        return LatestAvailabilityCache.getInstance().getSize();
+    }
+
     public int getScheduledMeasurementsPerMinute() {
         return LookupUtil.getMeasurementScheduleManager().getScheduledMeasurementsPerMinute();
     }
@@ -39,6 +39,22 @@ public interface MeasurementMonitorMBean {
 
     void incrementCalltimeValuesInserted(long delta);
 
+    long getCallTimeValuesReceived();
+
+    int getCallTimeValuesPending();
+
+    long getCallTimeKeyCacheHits();
+
+    long getCallTimeKeyCacheMisses();
+
+    int getCallTimeKeyCacheSize();
+
+    long getTraitCacheHits();
+
+    long getTraitCacheMisses();
+
+    int getTraitCacheSize();
+
     int getScheduledMeasurementsPerMinute();
 
     long getPurgeTime();
@@ -67,6 +83,12 @@ public interface MeasurementMonitorMBean {
 
     void incrementAvailabilityReports(boolean changesOnlyReport);
 
+    long getAvailabilityCacheHits();
+
+    long getAvailabilityCacheMisses();
+
+    int getAvailabilityCacheSize();
+
     long getPurgedAlerts();
 
     void setPurgedAlerts(long delta);
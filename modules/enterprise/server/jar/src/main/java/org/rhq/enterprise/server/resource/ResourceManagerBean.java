@@ -136,11 +136,13 @@ import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.core.AgentManagerLocal;
 import org.rhq.enterprise.server.discovery.DiscoveryServerServiceImpl;
 import org.rhq.enterprise.server.measurement.AvailabilityManagerLocal;
+import org.rhq.enterprise.server.measurement.LatestAvailabilityCache;
 import org.rhq.enterprise.server.measurement.MeasurementScheduleManagerLocal;
 import org.rhq.enterprise.server.resource.disambiguation.DisambiguationUpdateStrategy;
 import org.rhq.enterprise.server.resource.disambiguation.Disambiguator;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.DynaGroupChangeTracker;
 import org.rhq.enterprise.server.rest.ResourceHandlerBean;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
@@ -263,6 +265,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
 
         persistedResource.setAgentSynchronizationNeeded();
         persistedResource.setModifiedBy(user.getName());
+        DynaGroupChangeTracker.getInstance().resourceChanged(persistedResource.getId());
 
         return entityManager.merge(persistedResource);
     }
@@ -441,6 +444,9 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
                     + " resources, but actually uninventoried " + resourcesDeleted);
             }
 
+            // the uninventoried resources no longer take part in avail merges
+            LatestAvailabilityCache.getInstance().invalidate(ArrayUtils.unwrapCollection(toBeDeletedResourceIds));
+
             // flush to make sure the db is successfully updated with changes before we make more slsb calls and
             // before we notify the agent
             entityManager.flush();
@@ -825,6 +831,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         resource.setInventoryStatus(newStatus);
         resource.setItime(now);
         resource.setAgentSynchronizationNeeded();
+        DynaGroupChangeTracker.getInstance().resourceChanged(resource.getId());
     }
 
     @SuppressWarnings("unchecked")
@@ -31,6 +31,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.naming.CompositeName;
@@ -48,6 +49,7 @@ import javax.naming.ldap.PagedResultsResponseControl;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -63,6 +65,7 @@ import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.authz.AuthorizationCache;
 import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.exception.LdapCommunicationException;
 import org.rhq.enterprise.server.exception.LdapFilterException;
@@ -87,6 +90,9 @@ public class LdapGroupManagerBean implements LdapGroupManagerLocal {
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
     @EJB
     private SubjectManagerLocal subjectManager;
 
@@ -281,6 +287,7 @@ public class LdapGroupManagerBean implements LdapGroupManagerLocal {
     }
 
     public void assignRolesToLdapSubject(int subjectId, List<String> ldapGroupNames) {
+        AuthorizationCache.getInstance().invalidate(subjectId, transactionSynchronizationRegistry);
         Subject sub = entityManager.find(Subject.class, subjectId);
         List<Role> roles = findRolesByLdapGroupNames(ldapGroupNames);
         sub.getRoles().clear();
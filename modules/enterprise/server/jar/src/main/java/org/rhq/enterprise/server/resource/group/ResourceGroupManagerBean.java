@@ -25,11 +25,11 @@ import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -45,6 +45,7 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.sql.DataSource;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -83,6 +84,7 @@ import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.alert.GroupAlertDefinitionManagerLocal;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.authz.AuthorizationCache;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.authz.RequiredPermission;
@@ -128,6 +130,8 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
     @javax.annotation.Resource(name = "RHQ_DS")
     private DataSource rhqDs;
+    @javax.annotation.Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     private DatabaseType dbType;
 
     @PostConstruct
@@ -249,6 +253,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     }
 
     private void clearImplicitResources(int resourceGroupId) throws ResourceGroupUpdateException {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         Connection conn = null;
         PreparedStatement removeImplicitStatement = null;
         try {
@@ -292,6 +297,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public void deleteResourceGroup(Subject subject, int groupId) throws ResourceGroupNotFoundException,
         ResourceGroupDeleteException {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         ResourceGroup group = getResourceGroupById(subject, groupId, null);
 
         // create a copy of the collection in order to avoid ConcurrentModificationException
@@ -535,20 +541,8 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
             // insert implicit resources
             if (isRecursive) {
-                insertImplicitStatement = conn
-                    .prepareStatement(ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT_RECURSIVE);
-                insertImplicitStatement.setInt(1, groupId);
-                insertImplicitStatement.setInt(9, groupId);
-                for (int resourceId : resourceIdsToAdd) {
-                    insertImplicitStatement.setInt(2, resourceId);
-                    insertImplicitStatement.setInt(3, resourceId);
-                    insertImplicitStatement.setInt(4, resourceId);
-                    insertImplicitStatement.setInt(5, resourceId);
-                    insertImplicitStatement.setInt(6, resourceId);
-                    insertImplicitStatement.setInt(7, resourceId);
-                    insertImplicitStatement.setInt(8, resourceId);
-                    insertImplicitStatement.executeUpdate();
-                }
+                // the resources and all their descendants
+                addResourceTreesImplicit(conn, groupId, resourceIdsToAdd);
             } else {
                 String insertImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
                     ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT, "@@RESOURCE_IDS@@",
@@ -570,6 +564,76 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
         return;
     }
 
+    /**
+     * Adds resources and all of their descendants to the implicit membership of recursive groups, one level of the
+     * resource tree at a time, so that trees of any depth are covered. Descending stops at the first level that adds no
+     * membership, because the descendants of resources that already are members of a recursive group are members too.
+     *
+     * @param conn        the connection to insert the memberships with
+     * @param groupId     the group to add the resources to, or <code>null</code> to add each resource to the
+     *                    recursive groups its parent is in
+     * @param resourceIds the resources at the top of the trees to add
+     */
+    private void addResourceTreesImplicit(Connection conn, Integer groupId, int[] resourceIds) throws SQLException {
+        for (int[] levelIds = resourceIds; levelIds.length > 0; levelIds = findChildResourceIds(levelIds)) {
+            if (addResourcesImplicit(conn, groupId, levelIds) == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds resources, but not their descendants, to the implicit membership of recursive groups, skipping the
+     * resources that already are members.
+     *
+     * @return the number of memberships added
+     *
+     * @see #addResourceTreesImplicit(Connection, Integer, int[])
+     */
+    private int addResourcesImplicit(Connection conn, Integer groupId, int[] resourceIds) throws SQLException {
+        int added = 0;
+        // batch the inserts to prevent the ORA error about IN clauses containing more than 1000 items
+        for (int batchIndex = 0; batchIndex < resourceIds.length; batchIndex += 1000) {
+            int[] batchIds = ArrayUtils.copyOfRange(resourceIds, batchIndex, batchIndex + 1000);
+            PreparedStatement insertImplicitStatement = null;
+            try {
+                if (groupId == null) {
+                    String insertImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
+                        ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_PARENT_GROUPS_IMPLICIT_RECURSIVE,
+                        "@@RESOURCE_IDS@@", batchIds.length);
+                    insertImplicitStatement = conn.prepareStatement(insertImplicitQueryString);
+                    JDBCUtil.bindNTimes(insertImplicitStatement, batchIds, 1);
+                    insertImplicitStatement.setBoolean(batchIds.length + 1, true);
+                } else {
+                    String insertImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
+                        ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT_RECURSIVE, "@@RESOURCE_IDS@@",
+                        batchIds.length);
+                    insertImplicitStatement = conn.prepareStatement(insertImplicitQueryString);
+                    insertImplicitStatement.setInt(1, groupId);
+                    JDBCUtil.bindNTimes(insertImplicitStatement, batchIds, 2);
+                    insertImplicitStatement.setInt(batchIds.length + 2, groupId);
+                }
+                added += insertImplicitStatement.executeUpdate();
+            } finally {
+                JDBCUtil.safeClose(insertImplicitStatement);
+            }
+        }
+        return added;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int[] findChildResourceIds(int[] parentIds) {
+        List<Integer> childIds = new ArrayList<Integer>();
+        // batch the selects to prevent the ORA error about IN clauses containing more than 1000 items
+        for (int batchIndex = 0; batchIndex < parentIds.length; batchIndex += 1000) {
+            int[] batchIds = ArrayUtils.copyOfRange(parentIds, batchIndex, batchIndex + 1000);
+            Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_CHILDREN_IDS_BY_PARENT_IDS);
+            query.setParameter("parentIds", ArrayUtils.wrapInList(batchIds));
+            childIds.addAll(query.getResultList());
+        }
+        return ArrayUtils.unwrapCollection(childIds);
+    }
+
     private boolean isRecursive(int groupId) {
         Subject overlord = subjectManager.getOverlord();
         ResourceGroup attachedGroup = getResourceGroupById(overlord, groupId, null);
@@ -628,6 +692,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
         }
 
         groupAlertDefinitionManager.removeGroupMemberAlertDefinitions(subject, groupId, resourceIds);
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
 
         Connection conn = null;
         PreparedStatement deleteExplicitStatement = null;
@@ -693,6 +758,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void removeAllResourcesFromGroup(Subject subject, int groupId) throws ResourceGroupDeleteException {
+        AuthorizationCache.getInstance().invalidate(transactionSynchronizationRegistry);
         Connection conn = null;
         PreparedStatement explicitStatement = null;
         PreparedStatement implicitStatement = null;
@@ -787,77 +853,59 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     }
 
     @RequiredPermission(Permission.MANAGE_INVENTORY)
-    @SuppressWarnings("unchecked")
     public void updateImplicitGroupMembership(Subject subject, Resource resource) {
         /*
-         * Get all the groups the parent of this resource is implicitly in. This will tell us which we need to update
-         * (because we added new descendants).
+         * add this resource and all of its descendants to whatever recursive groups its parent is already in, one level
+         * of the resource tree at a time, each level joining the groups of the level above it; they are being newly
+         * committed to inventory and thus shouldn't be in any group except the work being done right now
+         *
+         * the group category is based on the implicit membership, which is computed from the explicit membership, and
+         * this method only modifies the implicit membership, so there is no need to call setResourceType here
          */
-        Query query = entityManager
-            .createNamedQuery(ResourceGroup.QUERY_FIND_IMPLICIT_RECURSIVE_GROUP_IDS_BY_RESOURCE_ID);
-        query.setParameter("id", resource.getParentResource().getId());
-        List<Integer> implicitRecursiveGroupIds = query.getResultList();
+        Connection conn = null;
+        try {
+            // the native statements have to see the resource tree
+            entityManager.flush();
 
-        // the resource isn't currently in a group -> no work to do
-        if (implicitRecursiveGroupIds.size() == 0) {
-            return;
+            conn = rhqDs.getConnection();
+            addResourceTreesImplicit(conn, null, new int[] { resource.getId() });
+        } catch (Exception e) {
+            throw new ResourceGroupUpdateException("Could not add resource[id=" + resource.getId()
+                + "] to necessary implicit groups", e);
+        } finally {
+            JDBCUtil.safeClose(conn);
         }
+    }
 
-        /*
-         * BFS-construct the resource tree
-         */
-        List<Integer> resourceIdsToAdd = new ArrayList<Integer>();
-        List<Resource> toBeSearched = new LinkedList<Resource>();
-        toBeSearched.add(resource);
-        while (toBeSearched.size() > 0) {
-            Resource next = toBeSearched.remove(0);
-            resourceIdsToAdd.add(next.getId());
-            toBeSearched.addAll(next.getChildResources());
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    public void updateImplicitGroupMembership(Subject subject, Collection<Resource> resources) {
+        int[] resourceIds = new int[resources.size()];
+        int i = 0;
+        for (Resource resource : resources) {
+            resourceIds[i++] = resource.getId();
         }
 
         /*
-         * now add this resource and all of its descendants to whatever recursive groups it's parent is already in
+         * a new resource belongs to the recursive groups its parent is in; the parent may be new as well, so the
+         * resources join the groups of their parents over and over again, each pass reaching one level deeper into the
+         * new resources, until a pass adds nothing. The descendants of the resources are among the resources or not in
+         * inventory yet, see updateImplicitGroupMembership(Subject, Resource)
          */
         Connection conn = null;
-        PreparedStatement insertImplicitStatement = null;
         try {
-            conn = rhqDs.getConnection();
-            for (Integer implicitRecursiveGroupId : implicitRecursiveGroupIds) {
-                /*
-                 * do have to worry about whether these resources are already in the explicit resource list because
-                 * they are being newly committed to inventory and thus shouldn't be in any group except the work
-                 * being done right now.
-                 *
-                 * also, since we've already computed the toAddResourceIds by recursing down the chain resource passed
-                 * to this method, we can just do simple RHQ_RESOURCE_GROUP_RES_IMP_MAP table insertions
-                 */
-                String insertImplicitQueryString = JDBCUtil.transformQueryForMultipleInParameters(
-                    ResourceGroup.QUERY_NATIVE_ADD_RESOURCES_TO_GROUP_IMPLICIT, "@@RESOURCE_IDS@@",
-                    resourceIdsToAdd.size());
-                insertImplicitStatement = conn.prepareStatement(insertImplicitQueryString);
-                insertImplicitStatement.setInt(1, implicitRecursiveGroupId);
-                JDBCUtil.bindNTimes(insertImplicitStatement, ArrayUtils.unwrapCollection(resourceIdsToAdd), 2);
-                insertImplicitStatement.executeUpdate();
+            // the native statements have to see the new resources
+            entityManager.flush();
 
-                /*
-                 * when automatically updating recursive groups during inventory sync we need to make sure that we also
-                 * update the resourceGroup; this will realistically only happen when a recursive group definition is
-                 * created, but which initially creates one or more resource groups of size 1; if this happens, the
-                 * group will be created as a compatible group, if resources are later added via an inventory sync, and
-                 * if this compatible group's membership changes, we need to recalculate the group category
-                 *
-                 * NOTE: this is no longer true.  the group category used to be based off of the explicit membership,
-                 *       but that assumption was changed for 1.2.0 release so we could support a compatible left-nav
-                 *       tree with recursive access to descendant for easy authorization.  this method only modifies
-                 *       the implicit resource membership, not the explicit, so setResourceType would be a no-op.
-                 */
-                //setResourceType(implicitRecursiveGroupId);
-            }
+            conn = rhqDs.getConnection();
+            int added;
+            do {
+                // each pass adds the resources whose parents joined a group with the previous pass
+                added = addResourcesImplicit(conn, null, resourceIds);
+            } while (added > 0);
         } catch (Exception e) {
-            throw new ResourceGroupUpdateException("Could not add resource[id=" + resource.getId()
-                + "] to necessary implicit groups", e);
+            throw new ResourceGroupUpdateException("Could not add resources " + Arrays.toString(resourceIds)
+                + " to necessary implicit groups", e);
         } finally {
-            JDBCUtil.safeClose(insertImplicitStatement);
             JDBCUtil.safeClose(conn);
         }
     }
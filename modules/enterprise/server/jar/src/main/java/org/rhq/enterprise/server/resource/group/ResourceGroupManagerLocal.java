@@ -18,6 +18,7 @@
  */
 package org.rhq.enterprise.server.resource.group;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.ejb.Local;
@@ -87,6 +88,17 @@ public interface ResourceGroupManagerLocal {
 
     void updateImplicitGroupMembership(Subject subject, Resource resource);
 
+    /**
+     * Adds newly inventoried resources to the recursive groups their ancestors are implicitly in, with one insert per
+     * thousand resources and level of new resources. Unlike {@link #updateImplicitGroupMembership(Subject, Resource)}
+     * only the given resources are added, not their children; new ancestors of the resources are not in any group yet
+     * and need to be given as well.
+     *
+     * @param subject the user adding the resources
+     * @param resources attached, newly persisted resources
+     */
+    void updateImplicitGroupMembership(Subject subject, Collection<Resource> resources);
+
     List<Resource> findResourcesForAutoGroup(Subject subject, int autoGroupParentResourceId,
         int autoGroupChildResourceTypeId);
 
@@ -0,0 +1,209 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.resource.group.definition;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which resources changed in ways that can change their DynaGroup membership, so that the periodic
+ * recalculation of a group definition only needs to evaluate the resources that changed since it last ran instead of
+ * the whole inventory. Resources are recorded when inventory reports are merged, when they are imported, ignored,
+ * upgraded, updated or uninventoried; schedules are recorded when their trait values change.
+ *
+ * Only the changes made through this server are seen, and changes are recorded before their transaction commits,
+ * which is why changes are looked up with some slack, and why every group definition is fully recalculated now and
+ * then anyway. Changes are known since this server started; once too many changes are recorded the oldest are
+ * dropped, and recalculations that would need them fall back to a full recalculation.
+ *
+ * The tracker is configured through these system properties:
+ * <ul>
+ *   <li>rhq.server.dynagroup.tracker.max-changes - the maximum number of changed resources and schedules remembered,
+ *   default 100000, 0 to always recalculate fully</li>
+ *   <li>rhq.server.dynagroup.full-recalculation-interval - the milliseconds after which a group definition is fully
+ *   recalculated again, default 3600000</li>
+ * </ul>
+ */
+public final class DynaGroupChangeTracker {
+
+    /**
+     * How far before the last calculation changes are looked up, to cover changes that were recorded before, but
+     * committed after, the last calculation read the inventory.
+     */
+    static final long CHANGE_SLACK = 10 * 60 * 1000L;
+
+    private static final DynaGroupChangeTracker instance = new DynaGroupChangeTracker(getLongProperty(
+        "rhq.server.dynagroup.tracker.max-changes", 100000L), getLongProperty(
+        "rhq.server.dynagroup.full-recalculation-interval", 3600000L), System.currentTimeMillis());
+
+    private final long maxChanges;
+
+    private final long fullRecalculationInterval;
+
+    // insertion ordered, a changed id is re-inserted so that the eldest entry is the least recent change
+    private final LinkedHashMap<Integer, Long> resourceChanges = new LinkedHashMap<Integer, Long>();
+
+    private final LinkedHashMap<Integer, Long> scheduleChanges = new LinkedHashMap<Integer, Long>();
+
+    private long completeSince;
+
+    private final Map<Integer, FullCalculation> fullCalculations = new HashMap<Integer, FullCalculation>();
+
+    DynaGroupChangeTracker(long maxChanges, long fullRecalculationInterval, long now) {
+        this.maxChanges = maxChanges;
+        this.fullRecalculationInterval = fullRecalculationInterval;
+        this.completeSince = now;
+    }
+
+    public static DynaGroupChangeTracker getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxChanges > 0;
+    }
+
+    public void resourcesChanged(Collection<Integer> resourceIds) {
+        record(resourceChanges, resourceIds);
+    }
+
+    public void resourceChanged(int resourceId) {
+        record(resourceChanges, Collections.singleton(resourceId));
+    }
+
+    public void schedulesChanged(Collection<Integer> scheduleIds) {
+        record(scheduleChanges, scheduleIds);
+    }
+
+    /**
+     * @param since the time of the last calculation
+     *
+     * @return the changes recorded since (shortly before) the given time, or <code>null</code> if not all of them are
+     * known
+     */
+    public synchronized Changes getChangesSince(long since) {
+        long from = since - CHANGE_SLACK;
+        if (!isEnabled() || from < completeSince) {
+            return null;
+        }
+        return new Changes(collect(resourceChanges, from), collect(scheduleChanges, from));
+    }
+
+    /**
+     * Remembers that a group definition was fully recalculated.
+     *
+     * @param groupDefinitionId the group definition
+     * @param fingerprint identifies what the definition's membership was calculated from
+     * @param time when the calculation started
+     */
+    public synchronized void fullyCalculated(int groupDefinitionId, String fingerprint, long time) {
+        fullCalculations.put(groupDefinitionId, new FullCalculation(fingerprint, time));
+    }
+
+    /**
+     * @return true if the group definition has to be recalculated fully, because it was not fully recalculated by this
+     * server yet, it changed since, or it has not been fully recalculated for too long
+     */
+    public synchronized boolean isFullCalculationDue(int groupDefinitionId, String fingerprint, long now) {
+        FullCalculation fullCalculation = fullCalculations.get(groupDefinitionId);
+        return fullCalculation == null || !fullCalculation.fingerprint.equals(fingerprint)
+            || now - fullCalculation.time >= fullRecalculationInterval;
+    }
+
+    public synchronized void forget(int groupDefinitionId) {
+        fullCalculations.remove(groupDefinitionId);
+    }
+
+    private void record(LinkedHashMap<Integer, Long> changes, Collection<Integer> ids) {
+        if (!isEnabled() || ids.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Integer id : ids) {
+                changes.remove(id);
+                changes.put(id, now);
+            }
+            Iterator<Long> eldest = changes.values().iterator();
+            while (resourceChanges.size() + scheduleChanges.size() > maxChanges && eldest.hasNext()) {
+                completeSince = Math.max(completeSince, eldest.next() + 1);
+                eldest.remove();
+            }
+        }
+    }
+
+    private Set<Integer> collect(LinkedHashMap<Integer, Long> changes, long from) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Map.Entry<Integer, Long> change : changes.entrySet()) {
+            if (change.getValue() >= from) {
+                ids.add(change.getKey());
+            }
+        }
+        return ids;
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        try {
+            return Long.parseLong(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (Throwable t) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The resources and schedules that changed.
+     */
+    public static class Changes {
+        private final Set<Integer> resourceIds;
+        private final Set<Integer> scheduleIds;
+
+        Changes(Set<Integer> resourceIds, Set<Integer> scheduleIds) {
+            this.resourceIds = resourceIds;
+            this.scheduleIds = scheduleIds;
+        }
+
+        public Set<Integer> getResourceIds() {
+            return resourceIds;
+        }
+
+        public Set<Integer> getScheduleIds() {
+            return scheduleIds;
+        }
+
+        public boolean isEmpty() {
+            return resourceIds.isEmpty() && scheduleIds.isEmpty();
+        }
+    }
+
+    private static class FullCalculation {
+        private final String fingerprint;
+        private final long time;
+
+        FullCalculation(String fingerprint, long time) {
+            this.fingerprint = fingerprint;
+            this.time = time;
+        }
+    }
+}
@@ -20,8 +20,11 @@ package org.rhq.enterprise.server.resource.group.definition;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.EJB;
@@ -50,6 +53,7 @@ import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.authz.RequiredPermission;
+import org.rhq.enterprise.server.cloud.TopologyManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.group.RecursivityChangeType;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
@@ -90,6 +94,9 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
     @EJB
     private AuthorizationManagerLocal authorizationManager;
 
+    @EJB
+    private TopologyManagerLocal topologyManager;
+
     @SuppressWarnings("unchecked")
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public void recalculateDynaGroups(Subject subject) {
@@ -104,12 +111,21 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
 
         GroupDefinitionRecalculationThreadMonitorMBean monitor = GroupDefinitionRecalculationThreadMonitor.getMBean();
 
+        /*
+         * the changes this server tracked only cover the whole inventory if no other server of the cloud merges
+         * inventory; otherwise, always recalculate fully
+         */
+        boolean incremental = DynaGroupChangeTracker.getInstance().isEnabled()
+            && topologyManager.getNormalServerCount() <= 1;
+
         long totalStart = System.currentTimeMillis();
         for (Integer groupDefinitionId : groupDefinitionIdsToRecalculate) {
             long singleStart = System.currentTimeMillis();
             boolean success = false;
             try {
-                groupDefinitionManager.calculateGroupMembership(subject, groupDefinitionId);
+                if (!incremental || !groupDefinitionManager.recalculateGroupMembership(subject, groupDefinitionId)) {
+                    groupDefinitionManager.calculateGroupMembership(subject, groupDefinitionId);
+                }
                 success = true;
             } catch (Throwable t) {
                 /*
@@ -294,10 +310,7 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         GroupDefinition groupDefinition = getById(groupDefinitionId);
         groupDefinition.setLastCalculationTime(System.currentTimeMillis()); // we're calculating now
 
-        ExpressionEvaluator evaluator = new ExpressionEvaluator();
-        for (String expression : groupDefinition.getExpressionAsList()) {
-            evaluator.addExpression(expression);
-        }
+        ExpressionEvaluator evaluator = createEvaluator(groupDefinition);
 
         Collection<Integer> doomedResourceGroupIds = new ArrayList<Integer>();
         for (Integer managedGroupId : getManagedResourceGroupIdsForGroupDefinition(groupDefinitionId)) {
@@ -352,11 +365,86 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
             groupDefinitionManager.removeManagedResource_helper(subject, groupDefinitionId, doomedGroupId);
         }
 
+        DynaGroupChangeTracker.getInstance().fullyCalculated(groupDefinitionId, getFingerprint(groupDefinition),
+            groupDefinition.getLastCalculationTime());
+
         long endTime = System.currentTimeMillis();
 
         log.debug("calculateGroupMembership took " + (endTime - startTime) + " millis");
     }
 
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    // required for the recalculation thread, like calculateGroupMembership
+    public boolean recalculateGroupMembership(Subject subject, int groupDefinitionId)
+        throws GroupDefinitionNotFoundException, InvalidExpressionException, ResourceGroupDeleteException {
+        long startTime = System.currentTimeMillis();
+
+        GroupDefinition groupDefinition = getById(groupDefinitionId);
+        Long lastCalculationTime = groupDefinition.getLastCalculationTime();
+        DynaGroupChangeTracker tracker = DynaGroupChangeTracker.getInstance();
+        if (lastCalculationTime == null
+            || tracker.isFullCalculationDue(groupDefinitionId, getFingerprint(groupDefinition), startTime)) {
+            return false;
+        }
+
+        DynaGroupChangeTracker.Changes changes = tracker.getChangesSince(lastCalculationTime);
+        if (changes == null || !createEvaluator(groupDefinition).isEvaluableForChangedResources()) {
+            return false;
+        }
+
+        groupDefinition.setLastCalculationTime(startTime); // we're calculating now
+
+        Set<Integer> changedResourceIds = new HashSet<Integer>(changes.getResourceIds());
+        changedResourceIds.addAll(findResourceIdsBySchedules(changes.getScheduleIds()));
+        if (changedResourceIds.isEmpty()) {
+            return true;
+        }
+
+        /*
+         * evaluate the expressions for the changed resources only, in batches to keep the IN clause of the queries
+         * small; the results of groupBy expressions are merged per group by clause
+         */
+        Map<String, Set<Integer>> matchingResourceIds = new HashMap<String, Set<Integer>>();
+        List<Integer> resourceIds = new ArrayList<Integer>(changedResourceIds);
+        for (int i = 0; i < resourceIds.size(); i += 1000) {
+            ExpressionEvaluator evaluator = createEvaluator(groupDefinition);
+            evaluator.setResourceIdFilter(new ArrayList<Integer>(resourceIds.subList(i,
+                Math.min(i + 1000, resourceIds.size()))));
+            for (ExpressionEvaluator.Result result : evaluator) {
+                if (result == null) {
+                    continue; // see calculateGroupMembership
+                }
+                Set<Integer> matching = matchingResourceIds.get(result.getGroupByClause());
+                if (matching == null) {
+                    matching = new HashSet<Integer>();
+                    matchingResourceIds.put(result.getGroupByClause(), matching);
+                }
+                matching.addAll(result.getData());
+            }
+        }
+
+        // changed resources that no longer match have to leave the groups they are in
+        for (ResourceGroup managedGroup : groupDefinition.getManagedResourceGroups()) {
+            if (!matchingResourceIds.containsKey(managedGroup.getGroupByClause())) {
+                matchingResourceIds.put(managedGroup.getGroupByClause(), Collections.<Integer> emptySet());
+            }
+        }
+
+        for (Map.Entry<String, Set<Integer>> matching : matchingResourceIds.entrySet()) {
+            Integer resourceGroupId = groupDefinitionManager.recalculateGroupMembership_helper(subject,
+                groupDefinitionId, matching.getKey(), matching.getValue(), changedResourceIds);
+            if (resourceGroupId != null) {
+                resourceGroupManager.setResourceType(resourceGroupId);
+            }
+        }
+
+        log.debug("recalculateGroupMembership for " + changedResourceIds.size() + " changed resources took "
+            + (System.currentTimeMillis() - startTime) + " millis");
+
+        return true;
+    }
+
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public Integer calculateGroupMembership_helper(Subject overlord, int groupDefinitionId,
@@ -364,13 +452,43 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         GroupDefinitionNotFoundException {
         long startTime = System.currentTimeMillis();
 
-        GroupDefinition groupDefinition = getById(groupDefinitionId);
+        Integer resourceGroupId = updateGroupMembership(overlord, getById(groupDefinitionId),
+            result.getGroupByClause(), result.getData(), null);
+
+        long endTime = System.currentTimeMillis();
+
+        log.debug("calculateGroupMembership_helper took " + (endTime - startTime) + " millis");
+
+        return resourceGroupId;
+    }
+
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Integer recalculateGroupMembership_helper(Subject overlord, int groupDefinitionId, String groupByClause,
+        Collection<Integer> matchingResourceIds, Collection<Integer> changedResourceIds)
+        throws GroupDefinitionNotFoundException {
+        return updateGroupMembership(overlord, getById(groupDefinitionId), groupByClause, matchingResourceIds,
+            changedResourceIds);
+    }
 
-        String groupByClause = result.getGroupByClause();
+    /**
+     * @param matchingResourceIds the resources that belong into the group
+     * @param evaluatedResourceIds the resources the expressions were evaluated for, or <code>null</code> if they were
+     *        evaluated for the whole inventory; only the membership of these resources is updated
+     *
+     * @return the id of the group, or <code>null</code> if only some resources were evaluated and the membership of
+     *         none of them changed
+     */
+    private Integer updateGroupMembership(Subject overlord, GroupDefinition groupDefinition, String groupByClause,
+        Collection<Integer> matchingResourceIds, Collection<Integer> evaluatedResourceIds) {
         ResourceGroup resourceGroup = resourceGroupManager.getByGroupDefinitionAndGroupByClause(
             groupDefinition.getId(), groupByClause);
         int resourceGroupId = 0;
         if (resourceGroup == null) {
+            if (evaluatedResourceIds != null && matchingResourceIds.isEmpty()) {
+                return null;
+            }
+
             String newDynamicGroupName = getDynamicGroupName(groupDefinition.getName(), groupByClause);
 
             resourceGroup = new ResourceGroup(newDynamicGroupName);
@@ -393,20 +511,23 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         Collection<Integer> existingResourceIds = resourceManager.findExplicitResourceIdsByResourceGroup(resourceGroup
             .getId());
 
-        Set<Integer> idsToAdd = new HashSet<Integer>(result.getData());
+        Set<Integer> idsToAdd = new HashSet<Integer>(matchingResourceIds);
         idsToAdd.removeAll(existingResourceIds);
 
         Set<Integer> idsToRemove = new HashSet<Integer>(existingResourceIds);
-        idsToRemove.removeAll(result.getData());
+        if (evaluatedResourceIds != null) {
+            idsToRemove.retainAll(evaluatedResourceIds);
+        }
+        idsToRemove.removeAll(matchingResourceIds);
+
+        if (evaluatedResourceIds != null && idsToAdd.isEmpty() && idsToRemove.isEmpty()) {
+            return null;
+        }
 
         resourceGroupManager.addResourcesToGroup(overlord, resourceGroupId, ArrayUtils.unwrapCollection(idsToAdd));
         resourceGroupManager.removeResourcesFromGroup(overlord, resourceGroupId, ArrayUtils
             .unwrapCollection(idsToRemove));
 
-        long endTime = System.currentTimeMillis();
-
-        log.debug("calculateGroupMembership_helper took " + (endTime - startTime) + " millis");
-
         return resourceGroupId;
     }
 
@@ -480,6 +601,7 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         }
 
         GroupDefinition groupDefinition = getById(groupDefinitionId);
+        DynaGroupChangeTracker.getInstance().forget(groupDefinitionId);
         try {
             entityManager.remove(groupDefinition);
         } catch (Exception e) {
@@ -525,6 +647,32 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         return result.intValue();
     }
 
+    private ExpressionEvaluator createEvaluator(GroupDefinition groupDefinition) throws InvalidExpressionException {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        for (String expression : groupDefinition.getExpressionAsList()) {
+            evaluator.addExpression(expression);
+        }
+        return evaluator;
+    }
+
+    // changes to anything else of a definition do not change which resources it matches
+    private String getFingerprint(GroupDefinition groupDefinition) {
+        return groupDefinition.isRecursive() + ":" + groupDefinition.getExpression();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Integer> findResourceIdsBySchedules(Collection<Integer> scheduleIds) {
+        Set<Integer> resourceIds = new HashSet<Integer>();
+        List<Integer> ids = new ArrayList<Integer>(scheduleIds);
+        for (int i = 0; i < ids.size(); i += 1000) {
+            Query query = entityManager.createQuery("SELECT ms.resource.id FROM MeasurementSchedule ms "
+                + "WHERE ms.id IN ( :scheduleIds )");
+            query.setParameter("scheduleIds", new ArrayList<Integer>(ids.subList(i, Math.min(i + 1000, ids.size()))));
+            resourceIds.addAll(query.getResultList());
+        }
+        return resourceIds;
+    }
+
     private String getDynamicGroupName(String groupDefinitionName, String groupByClause) {
         String newDynamicGroupName = "DynaGroup - " + groupDefinitionName
             + (groupByClause.equals("") ? "" : (" ( " + groupByClause + " )"));
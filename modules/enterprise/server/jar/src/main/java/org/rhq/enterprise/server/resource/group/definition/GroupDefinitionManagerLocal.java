@@ -18,10 +18,13 @@
  */
 package org.rhq.enterprise.server.resource.group.definition;
 
+import java.util.Collection;
+
 import javax.ejb.Local;
 
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.resource.group.GroupDefinition;
+import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
@@ -39,6 +42,20 @@ public interface GroupDefinitionManagerLocal extends GroupDefinitionManagerRemot
     Integer calculateGroupMembership_helper(Subject subject, int groupDefinitionId, ExpressionEvaluator.Result result)
         throws ResourceGroupDeleteException, GroupDefinitionNotFoundException, GroupDefinitionNotFoundException;
 
+    /**
+     * Recalculates the membership of the resources that changed since the group definition was last calculated,
+     * instead of recalculating it for the whole inventory.
+     *
+     * @return false if the membership could not be recalculated for the changed resources only, and needs to be
+     *         calculated fully with {@link #calculateGroupMembership(Subject, int)}
+     */
+    boolean recalculateGroupMembership(Subject subject, int groupDefinitionId) throws GroupDefinitionNotFoundException,
+        InvalidExpressionException, ResourceGroupDeleteException;
+
+    Integer recalculateGroupMembership_helper(Subject subject, int groupDefinitionId, String groupByClause,
+        Collection<Integer> matchingResourceIds, Collection<Integer> changedResourceIds)
+        throws GroupDefinitionNotFoundException;
+
     PageList<GroupDefinition> getGroupDefinitions(Subject subject, PageControl pc);
 
     int getGroupDefinitionCount(Subject subject);
@@ -20,6 +20,7 @@ package org.rhq.enterprise.server.resource.group.definition.framework;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -56,6 +57,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
     private static final String PROP_SIMPLE_DEF_ALIAS = "simpleDef";
     private static final String TRAIT_ALIAS = "trait";
     private static final String METRIC_DEF_ALIAS = "def";
+    private static final String RESOURCE_ID_FILTER_ARGUMENT = "resourceIdFilter";
 
     private enum JoinCondition {
         RESOURCE_CONFIGURATION(".resourceConfiguration", "conf"), //
@@ -95,6 +97,8 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
     private String computedJPQLStatement;
     private String computedJPQLGroupStatement;
 
+    private Collection<Integer> resourceIdFilter;
+
     private EntityManagerFacadeLocal entityManagerFacade;
 
     private Map<String, String> resourceExpressions = new TreeMap<String, String>();
@@ -265,6 +269,53 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         return this;
     }
 
+    /**
+     * Restricts the results to the given resources, so that the membership of just these resources can be evaluated
+     * after they changed. Must be called before the results are computed.
+     *
+     * @param resourceIds the ids of the resources to evaluate
+     */
+    public void setResourceIdFilter(Collection<Integer> resourceIds) {
+        if (resultsComputed) {
+            throw new IllegalStateException("The resource id filter must be set before results are computed");
+        }
+
+        resourceIdFilter = resourceIds;
+        whereStatics.add("res.id IN ( :" + RESOURCE_ID_FILTER_ARGUMENT + " )");
+    }
+
+    /**
+     * @return true if whether a resource matches the expressions only depends on the resource's own id, name, version,
+     *         type, inventory status and traits, and so only changes when one of those changes; false if the
+     *         expressions refer to other resources (ancestors, children or group members), to the availability, or to
+     *         the plugin or resource configuration of resources
+     */
+    public boolean isEvaluableForChangedResources() {
+        if (!memberOfElements.isEmpty()) {
+            return false;
+        }
+
+        for (Map.Entry<JoinCondition, ResourceRelativeContext> joinCondition : joinConditions.entrySet()) {
+            if (joinCondition.getKey() != JoinCondition.SCHEDULES
+                || joinCondition.getValue() != ResourceRelativeContext.Resource) {
+                return false;
+            }
+        }
+
+        List<String> predicates = new ArrayList<String>(whereConditions.keySet());
+        predicates.addAll(groupByElements);
+        for (String predicate : predicates) {
+            boolean ownAttribute = predicate.startsWith(ResourceRelativeContext.Resource.pathToken + ".")
+                && !predicate.startsWith(ResourceRelativeContext.ResourceParent.pathToken);
+            boolean trait = predicate.startsWith(METRIC_DEF_ALIAS + ".") || predicate.startsWith(TRAIT_ALIAS + ".");
+            if (!ownAttribute && !trait) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * @return the JPQL statement that will be sent to the database, assuming test mode is false (the default): -- if no
      *         groupBy expressions are present, it will query for the target object -- if at least one groupBy
@@ -1059,6 +1110,9 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                     + " having value " + bindValue);
             }
         }
+        if (resourceIdFilter != null) {
+            query.setParameter(RESOURCE_ID_FILTER_ARGUMENT, resourceIdFilter);
+        }
 
         return query.getResultList();
     }
@@ -81,6 +81,7 @@ import org.rhq.server.metrics.MetricsConstants;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.MetricsServer;
 import org.rhq.server.metrics.StorageSession;
+import org.rhq.server.metrics.Workload;
 
 /**
  * @author John Sanda
@@ -360,6 +361,28 @@ public class StorageClientManager implements StorageClientManagerMBean{
         persistStorageProperty(MetricsConstants.AGGREGATION_WORKERS, Integer.toString(numWorkers));
     }
 
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getIngestionBatchSize() {
+        return metricsServer.getIngestionBatchSize();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setIngestionBatchSize(int batchSize) {
+        metricsServer.setIngestionBatchSize(batchSize);
+        persistStorageProperty(MetricsConstants.INGESTION_BATCH_SIZE, Integer.toString(batchSize));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getIngestionMaxInFlight() {
+        return metricsServer.getIngestionMaxInFlight();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setIngestionMaxInFlight(int maxInFlight) {
+        metricsServer.setIngestionMaxInFlight(maxInFlight);
+        persistStorageProperty(MetricsConstants.INGESTION_MAX_IN_FLIGHT, Integer.toString(maxInFlight));
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public double getRequestLimit() {
@@ -437,6 +460,66 @@ public class StorageClientManager implements StorageClientManagerMBean{
         return session.getTimeouts();
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public boolean isAdaptiveRequestLimiterEnabled() {
+        return session.isAdaptiveRequestLimiterEnabled();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getIngestionRequestLimit() {
+        return session.getLimiter(Workload.INGESTION).getLimit();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getIngestionRequestsInFlight() {
+        return session.getLimiter(Workload.INGESTION).getInFlight();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getIngestionRequestQueueDepth() {
+        return session.getLimiter(Workload.INGESTION).getQueueDepth();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getAggregationRequestLimit() {
+        return session.getLimiter(Workload.AGGREGATION).getLimit();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getAggregationRequestsInFlight() {
+        return session.getLimiter(Workload.AGGREGATION).getInFlight();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getAggregationRequestQueueDepth() {
+        return session.getLimiter(Workload.AGGREGATION).getQueueDepth();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getReadRequestLimit() {
+        return session.getLimiter(Workload.READ).getLimit();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getReadRequestsInFlight() {
+        return session.getLimiter(Workload.READ).getInFlight();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getReadRequestQueueDepth() {
+        return session.getLimiter(Workload.READ).getQueueDepth();
+    }
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void persistStorageProperty(String key, String value) {
         if (Boolean.getBoolean("running.itests-2")) {
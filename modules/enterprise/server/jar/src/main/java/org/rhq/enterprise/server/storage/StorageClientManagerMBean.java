@@ -29,4 +29,24 @@ public interface StorageClientManagerMBean {
 
     long getTotalRequests();
 
+    boolean isAdaptiveRequestLimiterEnabled();
+
+    int getIngestionRequestLimit();
+
+    int getIngestionRequestsInFlight();
+
+    int getIngestionRequestQueueDepth();
+
+    int getAggregationRequestLimit();
+
+    int getAggregationRequestsInFlight();
+
+    int getAggregationRequestQueueDepth();
+
+    int getReadRequestLimit();
+
+    int getReadRequestsInFlight();
+
+    int getReadRequestQueueDepth();
+
 }
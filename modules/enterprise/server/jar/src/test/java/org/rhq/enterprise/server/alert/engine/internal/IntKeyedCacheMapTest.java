@@ -0,0 +1,69 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+@Test
+public class IntKeyedCacheMapTest {
+
+    public void matchHashMap() {
+        IntKeyedCacheMap<String> map = new IntKeyedCacheMap<String>();
+        Map<Integer, List<String>> expected = new HashMap<Integer, List<String>>();
+        Random random = new Random(11);
+
+        for (int i = 0; i < 20000; ++i) {
+            int key = random.nextInt(5000) - 100;
+            String element = "condition-" + i;
+            map.add(key, element);
+            List<String> elements = expected.get(key);
+            if (elements == null) {
+                elements = new ArrayList<String>();
+                expected.put(key, elements);
+            }
+            elements.add(element);
+        }
+
+        for (int key = -200; key < 5000; ++key) {
+            assertEquals(map.get(key), expected.get(key), "The elements of key " + key + " are wrong");
+        }
+        assertEquals(map.getElementCount(), 20000);
+    }
+
+    public void returnNullForUnknownKeys() {
+        IntKeyedCacheMap<String> map = new IntKeyedCacheMap<String>();
+        assertNull(map.get(0));
+        assertNull(map.get(42));
+
+        map.add(42, "a");
+        assertNull(map.get(0));
+        assertNull(map.get(43));
+        assertEquals(map.getElementCount(), 1);
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.ResourceConfigurationUpdate;
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.MeasurementData;
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.operation.OperationHistory;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.alert.engine.model.AvailabilityDurationComposite;
+import org.rhq.enterprise.server.plugin.pc.drift.DriftChangeSetSummary;
+
+@Test
+public class MeasurementConditionPipelineTest {
+
+    private ExecutorService executor;
+
+    private RecordingAlertConditionCacheManager alertConditionCacheManager;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        alertConditionCacheManager = new RecordingAlertConditionCacheManager();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        alertConditionCacheManager.release.countDown();
+        executor.shutdownNow();
+    }
+
+    public void checkDataOfEachScheduleInOrder() throws Exception {
+        MeasurementConditionPipeline pipeline = asynchronousPipeline(3, 10000);
+        alertConditionCacheManager.release.countDown();
+
+        // several submitting threads, each of which reports the data of its own schedules in order
+        List<Thread> submitters = new ArrayList<Thread>();
+        for (int i = 0; i < 4; ++i) {
+            submitters.add(new Submitter(pipeline, alertConditionCacheManager, i * 10, 10, 200));
+        }
+        for (Thread submitter : submitters) {
+            submitter.start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join(10000L);
+        }
+
+        assertTrue(pipeline.shutdown(10000L, alertConditionCacheManager), "All of the data should have been checked");
+        assertEquals(pipeline.getDroppedBatches(), 0L);
+        assertEquals(pipeline.getInlineBatches(), 0L);
+        Map<Integer, List<Long>> checked = alertConditionCacheManager.getChecked();
+        assertEquals(checked.size(), 40, "The data of every schedule should have been checked");
+        for (Map.Entry<Integer, List<Long>> schedule : checked.entrySet()) {
+            List<Long> timestamps = schedule.getValue();
+            assertEquals(timestamps.size(), 200, "All data of schedule " + schedule.getKey() + " should be checked");
+            for (int i = 0; i < timestamps.size(); ++i) {
+                assertEquals(timestamps.get(i).longValue(), (long) i, "The data of schedule " + schedule.getKey()
+                    + " should be checked in the order it was stored");
+            }
+        }
+    }
+
+    public void checkDataInlineWhenPartitionIsFull() {
+        final List<Integer> dispatched = new ArrayList<Integer>();
+        MeasurementConditionPipeline pipeline = recordingPipeline(dispatched);
+        alertConditionCacheManager.release.countDown();
+
+        pipeline.submit(data(1, 0L), alertConditionCacheManager);
+        pipeline.submit(data(1, 1L), alertConditionCacheManager);
+        pipeline.submit(data(1, 2L), alertConditionCacheManager);
+
+        assertEquals(pipeline.getQueueSize(), 2);
+        assertEquals(pipeline.getInlineBatches(), 1L, "The batch that did not fit should have been checked inline");
+        assertEquals(pipeline.getDroppedBatches(), 0L);
+        assertEquals(alertConditionCacheManager.getChecked().get(1), timestamps(2L), "Only the batch that did not "
+            + "fit should be checked by the submitter");
+        assertEquals(dispatched, Collections.singletonList(0), "A partition should only be dispatched once while "
+            + "it is being drained");
+
+        pipeline.drain(0, alertConditionCacheManager);
+        assertEquals(alertConditionCacheManager.getChecked().get(1), timestamps(2L, 0L, 1L));
+        assertEquals(pipeline.getQueueSize(), 0);
+    }
+
+    public void checkQueuedDataOnShutdown() throws Exception {
+        MeasurementConditionPipeline pipeline = asynchronousPipeline(2, 100);
+
+        for (long timestamp = 0; timestamp < 10; ++timestamp) {
+            pipeline.submit(data(1, timestamp), alertConditionCacheManager);
+            pipeline.submit(data(2, timestamp), alertConditionCacheManager);
+        }
+        // the checks are blocked beyond the timeout, so the shutting down thread checks the queued data itself
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                alertConditionCacheManager.release.countDown();
+            }
+        });
+        assertTrue(pipeline.shutdown(100L, alertConditionCacheManager), "The queued data should have been checked");
+        assertEquals(alertConditionCacheManager.getChecked().get(1).size(), 10);
+        assertEquals(alertConditionCacheManager.getChecked().get(2).size(), 10);
+
+        pipeline.submit(data(1, 10L), alertConditionCacheManager);
+        assertEquals(alertConditionCacheManager.getChecked().get(1).size(), 11, "Data submitted after shutdown "
+            + "should be checked by the submitter");
+        assertEquals(pipeline.getInlineBatches(), 1L);
+        assertEquals(pipeline.getDroppedBatches(), 0L);
+        assertEquals(pipeline.getQueueSize(), 0);
+    }
+
+    public void checkUndrainedDataOnShutdown() {
+        MeasurementConditionPipeline pipeline = recordingPipeline(new ArrayList<Integer>());
+        alertConditionCacheManager.release.countDown();
+
+        pipeline.submit(data(1, 0L), alertConditionCacheManager);
+        pipeline.submit(data(1, 1L), alertConditionCacheManager);
+        pipeline.drain(0, new RecordingAlertConditionCacheManager() {
+            @Override
+            public AlertConditionCacheStats checkConditions(MeasurementData... measurementData) {
+                throw new IllegalStateException("failed to check");
+            }
+        });
+        assertEquals(pipeline.getDroppedBatches(), 2L, "Only failed checks should be counted as dropped");
+
+        // the invocation dispatched for these never runs, like one that is lost when the server goes down
+        pipeline.submit(data(1, 2L), alertConditionCacheManager);
+        pipeline.submit(data(1, 3L), alertConditionCacheManager);
+        assertTrue(pipeline.shutdown(0L, alertConditionCacheManager), "The queued data should have been checked "
+            + "by the caller");
+        assertEquals(alertConditionCacheManager.getChecked().get(1), timestamps(2L, 3L));
+        assertEquals(pipeline.getDroppedBatches(), 2L);
+    }
+
+    /**
+     * @return a pipeline with a single partition of two batches, which records the dispatched partitions instead of
+     *         draining them
+     */
+    private MeasurementConditionPipeline recordingPipeline(final List<Integer> dispatched) {
+        return new MeasurementConditionPipeline(1, 2, 10L, new MeasurementConditionPipeline.Dispatcher() {
+            @Override
+            public void dispatch(int partition) {
+                dispatched.add(partition);
+            }
+        });
+    }
+
+    /**
+     * @return a pipeline whose partitions are drained on the executor
+     */
+    private MeasurementConditionPipeline asynchronousPipeline(int partitions, int queueSize) {
+        final MeasurementConditionPipeline[] pipeline = new MeasurementConditionPipeline[1];
+        pipeline[0] = new MeasurementConditionPipeline(partitions, queueSize, 1000L,
+            new MeasurementConditionPipeline.Dispatcher() {
+                @Override
+                public void dispatch(final int partition) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            pipeline[0].drain(partition, alertConditionCacheManager);
+                        }
+                    });
+                }
+            });
+        return pipeline[0];
+    }
+
+    private List<MeasurementData> data(int scheduleId, long timestamp) {
+        List<MeasurementData> data = new ArrayList<MeasurementData>();
+        data.add(new MeasurementDataNumeric(timestamp, scheduleId, 1.0));
+        return data;
+    }
+
+    private List<Long> timestamps(Long... timestamps) {
+        List<Long> list = new ArrayList<Long>();
+        Collections.addAll(list, timestamps);
+        return list;
+    }
+
+    private static class Submitter extends Thread {
+        private final MeasurementConditionPipeline pipeline;
+        private final AlertConditionCacheManagerLocal alertConditionCacheManager;
+        private final int firstScheduleId;
+        private final int schedules;
+        private final int reports;
+
+        Submitter(MeasurementConditionPipeline pipeline, AlertConditionCacheManagerLocal alertConditionCacheManager,
+            int firstScheduleId, int schedules, int reports) {
+            this.pipeline = pipeline;
+            this.alertConditionCacheManager = alertConditionCacheManager;
+            this.firstScheduleId = firstScheduleId;
+            this.schedules = schedules;
+            this.reports = reports;
+        }
+
+        @Override
+        public void run() {
+            for (long timestamp = 0; timestamp < reports; ++timestamp) {
+                List<MeasurementData> data = new ArrayList<MeasurementData>();
+                for (int scheduleId = firstScheduleId; scheduleId < firstScheduleId + schedules; ++scheduleId) {
+                    data.add(new MeasurementDataNumeric(timestamp, scheduleId, 1.0));
+                }
+                pipeline.submit(data, alertConditionCacheManager);
+            }
+        }
+    }
+
+    /**
+     * Records the measurement data it checks, optionally blocking until it is released.
+     */
+    private static class RecordingAlertConditionCacheManager implements AlertConditionCacheManagerLocal {
+        final CountDownLatch release = new CountDownLatch(1);
+        private final Map<Integer, List<Long>> checked = new HashMap<Integer, List<Long>>();
+
+        synchronized Map<Integer, List<Long>> getChecked() {
+            return new HashMap<Integer, List<Long>>(checked);
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(MeasurementData... measurementData) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                for (MeasurementData datum : measurementData) {
+                    List<Long> timestamps = checked.get(datum.getScheduleId());
+                    if (timestamps == null) {
+                        timestamps = new ArrayList<Long>();
+                        checked.put(datum.getScheduleId(), timestamps);
+                    }
+                    timestamps.add(datum.getTimestamp());
+                }
+            }
+            return new AlertConditionCacheStats();
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(CallTimeData... callTimeData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(OperationHistory operationHistory) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(Availability... availability) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(
+            AvailabilityDurationComposite... availabilityDurationComposites) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(EventSource source, Event... events) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(ResourceConfigurationUpdate update) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AlertConditionCacheStats checkConditions(DriftChangeSetSummary driftChangeSetSummary) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reloadCachesForAgent(int agentId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reloadGlobalCache() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reloadAllCaches() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.authz;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.authz.Permission;
+
+@Test
+public class AuthorizationCacheTest {
+
+    public void testLookups() {
+        AuthorizationCache cache = new AuthorizationCache(10L, 1000L, 1000L, 100, 3);
+        assertNull(cache.getResourceIds(1, null, 0L));
+
+        cache.putResourceIds(1, null, Arrays.asList(30, 10, 20), cache.getGeneration(), 0L);
+        cache.putResourceIds(1, Permission.CONTROL, Arrays.asList(20), cache.getGeneration(), 0L);
+        cache.putGroupIds(1, null, Arrays.asList(5), cache.getGeneration(), 0L);
+
+        int[] viewable = cache.getResourceIds(1, null, 500L);
+        assertTrue(AuthorizationCache.contains(viewable, 10));
+        assertTrue(AuthorizationCache.contains(viewable, 30));
+        assertFalse(AuthorizationCache.contains(viewable, 15));
+        assertTrue(AuthorizationCache.containsAll(viewable, Arrays.asList(30, 20)));
+        assertFalse(AuthorizationCache.containsAll(viewable, Arrays.asList(30, 40)));
+
+        assertTrue(AuthorizationCache.contains(cache.getResourceIds(1, Permission.CONTROL, 500L), 20));
+        assertNull(cache.getResourceIds(1, Permission.MODIFY_RESOURCE, 500L));
+        assertTrue(AuthorizationCache.contains(cache.getGroupIds(1, null, 500L), 5));
+        assertNull(cache.getGroupIds(1, Permission.CONTROL, 500L));
+        assertNull(cache.getResourceIds(2, null, 500L));
+
+        assertEquals(cache.getHits(), 3L);
+        assertEquals(cache.getMisses(), 4L);
+    }
+
+    public void testExpiry() {
+        AuthorizationCache cache = new AuthorizationCache(10L, 1000L, 1000L, 100, 3);
+        cache.putResourceIds(1, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        // sets added later expire with the first one
+        cache.putGroupIds(1, null, Arrays.asList(5), cache.getGeneration(), 900L);
+
+        assertNull(cache.getGroupIds(1, null, 1000L));
+        assertNull(cache.getResourceIds(1, null, 1000L));
+        assertEquals(cache.getSize(), 0);
+    }
+
+    public void testInvalidation() {
+        AuthorizationCache cache = new AuthorizationCache(10L, 1000L, 1000L, 100, 3);
+        cache.putResourceIds(1, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        cache.putResourceIds(2, null, Arrays.asList(10), cache.getGeneration(), 0L);
+
+        cache.invalidate(1);
+        assertNull(cache.getResourceIds(1, null, 0L));
+        assertTrue(AuthorizationCache.contains(cache.getResourceIds(2, null, 0L), 10));
+
+        // a set loaded before an invalidation is not cached
+        long generation = cache.getGeneration();
+        cache.invalidate();
+        cache.putResourceIds(1, null, Arrays.asList(10), generation, 0L);
+        assertNull(cache.getResourceIds(1, null, 0L));
+        assertNull(cache.getResourceIds(2, null, 0L));
+    }
+
+    public void testInvalidationAfterCompletion() {
+        AuthorizationCache cache = new AuthorizationCache(10L, 1000L, 1000L, 100, 3);
+        TestTransactionSynchronizationRegistry registry = new TestTransactionSynchronizationRegistry();
+        cache.putResourceIds(1, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        cache.putResourceIds(2, null, Arrays.asList(10), cache.getGeneration(), 0L);
+
+        cache.invalidate(registry);
+        assertNull(cache.getResourceIds(1, null, 0L));
+
+        // a set loaded after the invalidation but before the commit still holds the revoked authorization
+        cache.putResourceIds(1, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        cache.putResourceIds(2, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        registry.complete();
+        assertNull(cache.getResourceIds(1, null, 0L));
+        assertNull(cache.getResourceIds(2, null, 0L));
+
+        cache.putResourceIds(1, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        cache.putResourceIds(2, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        cache.invalidate(1, registry);
+        cache.putResourceIds(1, null, Arrays.asList(10), cache.getGeneration(), 0L);
+        registry.complete();
+        assertNull(cache.getResourceIds(1, null, 0L));
+        assertTrue(AuthorizationCache.contains(cache.getResourceIds(2, null, 0L), 10));
+
+        // without a transaction there is nothing to wait for
+        registry.status = Status.STATUS_NO_TRANSACTION;
+        cache.invalidate(registry);
+        assertTrue(registry.synchronizations.isEmpty());
+    }
+
+    public void testTooManyIds() {
+        AuthorizationCache cache = new AuthorizationCache(10L, 1000L, 1000L, 2, 3);
+        int[] ids = cache.putResourceIds(1, null, Arrays.asList(1, 2, 3), cache.getGeneration(), 0L);
+
+        assertEquals(ids.length, 0);
+        assertEquals(cache.getResourceIds(1, null, 0L).length, 0);
+    }
+
+    public void testLoadAfterRepeatedChecks() {
+        AuthorizationCache cache = new AuthorizationCache(10L, 1000L, 1000L, 100, 3);
+
+        assertFalse(cache.isWorthLoadingResourceIds(1, null, 0L), "A one-off check should be left to the database");
+        assertFalse(cache.isWorthLoadingResourceIds(1, null, 100L));
+        assertFalse(cache.isWorthLoadingGroupIds(1, null, 100L), "Checks should be counted per set");
+        assertFalse(cache.isWorthLoadingResourceIds(2, null, 100L), "Checks should be counted per subject");
+        assertTrue(cache.isWorthLoadingResourceIds(1, null, 200L), "A repeated check should load the set");
+
+        // the counts expire like the sets
+        assertFalse(cache.isWorthLoadingGroupIds(1, null, 1000L));
+        assertFalse(cache.isWorthLoadingGroupIds(1, null, 1000L));
+        assertTrue(cache.isWorthLoadingGroupIds(1, null, 1000L));
+    }
+
+    public void testTotalIdsBounded() {
+        AuthorizationCache cache = new AuthorizationCache(10L, 1000L, 5L, 3, 3);
+        cache.putResourceIds(1, null, Arrays.asList(1, 2, 3), cache.getGeneration(), 0L);
+        cache.putGroupIds(2, null, Arrays.asList(1, 2), cache.getGeneration(), 0L);
+        assertEquals(cache.getCachedIds(), 5L);
+
+        // the least recently used subject makes room
+        cache.getResourceIds(1, null, 0L);
+        cache.putResourceIds(3, null, Arrays.asList(1, 2), cache.getGeneration(), 0L);
+        assertEquals(cache.getCachedIds(), 5L);
+        assertNull(cache.getGroupIds(2, null, 0L));
+        assertTrue(AuthorizationCache.contains(cache.getResourceIds(1, null, 0L), 3));
+        assertTrue(AuthorizationCache.contains(cache.getResourceIds(3, null, 0L), 2));
+
+        // replacing a set only counts the difference
+        cache.putResourceIds(3, null, Arrays.asList(1), cache.getGeneration(), 0L);
+        assertEquals(cache.getCachedIds(), 4L);
+
+        cache.invalidate(1);
+        assertEquals(cache.getCachedIds(), 1L);
+        cache.invalidate();
+        assertEquals(cache.getCachedIds(), 0L);
+    }
+
+    public void testLeastRecentlyUsedSubjectsDropped() {
+        AuthorizationCache cache = new AuthorizationCache(2L, 1000L, 1000L, 100, 3);
+        cache.putResourceIds(1, null, Collections.singletonList(10), cache.getGeneration(), 0L);
+        cache.putResourceIds(2, null, Collections.singletonList(10), cache.getGeneration(), 0L);
+        cache.getResourceIds(1, null, 0L);
+        cache.putResourceIds(3, null, Collections.singletonList(10), cache.getGeneration(), 0L);
+
+        assertEquals(cache.getSize(), 2);
+        assertNull(cache.getResourceIds(2, null, 0L));
+        assertTrue(AuthorizationCache.contains(cache.getResourceIds(1, null, 0L), 10));
+    }
+
+    public void testDisabled() {
+        AuthorizationCache cache = new AuthorizationCache(0L, 1000L, 1000L, 100, 3);
+        int[] ids = cache.putResourceIds(1, null, Arrays.asList(10), cache.getGeneration(), 0L);
+
+        assertTrue(AuthorizationCache.contains(ids, 10));
+        assertNull(cache.getResourceIds(1, null, 0L));
+        assertEquals(cache.getSize(), 0);
+    }
+
+    private static class TestTransactionSynchronizationRegistry implements TransactionSynchronizationRegistry {
+        private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+        private int status = Status.STATUS_ACTIVE;
+
+        void complete() {
+            for (Synchronization synchronization : synchronizations) {
+                synchronization.afterCompletion(Status.STATUS_COMMITTED);
+            }
+            synchronizations.clear();
+        }
+
+        @Override
+        public Object getTransactionKey() {
+            return this;
+        }
+
+        @Override
+        public void putResource(Object key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object getResource(Object key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void registerInterposedSynchronization(Synchronization sync) {
+            synchronizations.add(sync);
+        }
+
+        @Override
+        public int getTransactionStatus() {
+            return status;
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.event;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.event.EventDefinition;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+
+@Test
+public class EventSourceIdCacheTest {
+
+    public void testGetAfterPut() {
+        EventSourceIdCache cache = new EventSourceIdCache(100);
+        cache.put(createEventSource("logEntry", 1, "/var/log/server.log"), 10);
+
+        assertEquals(cache.get(createEventSource("logEntry", 1, "/var/log/server.log")), Integer.valueOf(10));
+        assertNull(cache.get(createEventSource("logEntry", 1, "/var/log/boot.log")));
+        assertNull(cache.get(createEventSource("logEntry", 2, "/var/log/server.log")));
+        assertNull(cache.get(createEventSource("otherEntry", 1, "/var/log/server.log")));
+    }
+
+    public void testRemoveIds() {
+        EventSourceIdCache cache = new EventSourceIdCache(100);
+        cache.put(createEventSource("logEntry", 1, "a"), 10);
+        cache.put(createEventSource("logEntry", 1, "b"), 11);
+
+        cache.removeIds(Arrays.asList(10));
+
+        assertNull(cache.get(createEventSource("logEntry", 1, "a")));
+        assertEquals(cache.get(createEventSource("logEntry", 1, "b")), Integer.valueOf(11));
+    }
+
+    public void testBounded() {
+        EventSourceIdCache cache = new EventSourceIdCache(2);
+        cache.put(createEventSource("logEntry", 1, "a"), 10);
+        cache.put(createEventSource("logEntry", 1, "b"), 11);
+        cache.get(createEventSource("logEntry", 1, "a"));
+        cache.put(createEventSource("logEntry", 1, "c"), 12);
+
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.get(createEventSource("logEntry", 1, "a")), Integer.valueOf(10));
+        assertNull(cache.get(createEventSource("logEntry", 1, "b")));
+    }
+
+    public void testDisabled() {
+        EventSourceIdCache cache = new EventSourceIdCache(0);
+        assertFalse(cache.isEnabled());
+        cache.put(createEventSource("logEntry", 1, "a"), 10);
+        assertNull(cache.get(createEventSource("logEntry", 1, "a")));
+    }
+
+    private EventSource createEventSource(String definitionName, int resourceId, String location) {
+        ResourceType resourceType = new ResourceType("Server", "plugin", ResourceCategory.SERVER, null);
+        return new EventSource(location, new EventDefinition(resourceType, definitionName), new Resource(resourceId));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
+import org.rhq.core.domain.measurement.calltime.CallTimeDataValue;
+
+@Test
+public class CallTimeDataAggregatorTest {
+
+    public void testDisabledPassesDataThrough() {
+        CallTimeDataAggregator aggregator = new CallTimeDataAggregator(0L, 100);
+        Set<CallTimeData> data = Collections.singleton(createCallTimeData(1, "/a", 1000L, 2000L, 10.0, 20.0, 30.0, 2));
+
+        assertSame(aggregator.add(data, 0L), data);
+        assertEquals(aggregator.getValuesReceived(), 1L);
+        assertEquals(aggregator.getValuesPending(), 0);
+    }
+
+    public void testMergeWithinWindow() {
+        CallTimeDataAggregator aggregator = new CallTimeDataAggregator(60000L, 100);
+
+        assertTrue(aggregator.add(
+            Collections.singleton(createCallTimeData(1, "/a", 1000L, 2000L, 10.0, 20.0, 30.0, 2)), 0L).isEmpty());
+        assertTrue(aggregator.add(
+            Collections.singleton(createCallTimeData(1, "/a", 3000L, 4000L, 5.0, 15.0, 20.0, 2)), 1000L).isEmpty());
+        assertTrue(aggregator.add(
+            Collections.singleton(createCallTimeData(2, "/a", 3000L, 4000L, 7.0, 7.0, 7.0, 1)), 2000L).isEmpty());
+        assertEquals(aggregator.getValuesPending(), 2);
+
+        Set<CallTimeData> due = aggregator.add(
+            Collections.singleton(createCallTimeData(1, "/b", 5000L, 6000L, 1.0, 1.0, 1.0, 1)), 60000L);
+        assertEquals(due.size(), 2);
+        assertEquals(aggregator.getValuesPending(), 0);
+        assertEquals(aggregator.getValuesReceived(), 4L);
+
+        CallTimeData schedule1 = find(due, 1);
+        assertEquals(schedule1.getValues().size(), 2);
+        CallTimeDataValue value = schedule1.getValues().get("/a");
+        assertEquals(value.getBeginTime(), 1000L);
+        assertEquals(value.getEndTime(), 4000L);
+        assertEquals(value.getMinimum(), 5.0);
+        assertEquals(value.getMaximum(), 20.0);
+        assertEquals(value.getTotal(), 50.0);
+        assertEquals(value.getCount(), 4L);
+        assertEquals(find(due, 2).getValues().get("/a").getCount(), 1L);
+    }
+
+    public void testFlushWhenTooManyPending() {
+        CallTimeDataAggregator aggregator = new CallTimeDataAggregator(60000L, 2);
+
+        assertTrue(aggregator.add(
+            Collections.singleton(createCallTimeData(1, "/a", 1000L, 2000L, 1.0, 1.0, 1.0, 1)), 0L).isEmpty());
+        assertEquals(aggregator.add(
+            Collections.singleton(createCallTimeData(1, "/b", 1000L, 2000L, 1.0, 1.0, 1.0, 1)), 0L).size(), 1);
+        assertEquals(aggregator.getValuesPending(), 0);
+    }
+
+    public void testDrain() {
+        CallTimeDataAggregator aggregator = new CallTimeDataAggregator(60000L, 100);
+        aggregator.add(Collections.singleton(createCallTimeData(1, "/a", 1000L, 2000L, 1.0, 1.0, 1.0, 1)), 0L);
+
+        Set<CallTimeData> drained = aggregator.drain();
+        assertEquals(drained.size(), 1);
+        assertEquals(find(drained, 1).getValues().get("/a").getTotal(), 1.0);
+        assertTrue(aggregator.drain().isEmpty());
+    }
+
+    public void testKeyCache() {
+        CallTimeDataKeyCache cache = new CallTimeDataKeyCache(2);
+        cache.put(1, "/a", 10);
+        cache.put(1, "/b", 11);
+        cache.get(1, "/a");
+        cache.put(2, "/a", 12);
+
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.get(1, "/a"), Integer.valueOf(10));
+        assertNull(cache.get(1, "/b"));
+        assertEquals(cache.get(2, "/a"), Integer.valueOf(12));
+        assertEquals(cache.getHits(), 3L);
+        assertEquals(cache.getMisses(), 1L);
+
+        cache.clear();
+        assertTrue(!cache.contains(1, "/a"));
+    }
+
+    private CallTimeData find(Set<CallTimeData> callTimeDataSet, int scheduleId) {
+        for (CallTimeData callTimeData : callTimeDataSet) {
+            if (callTimeData.getScheduleId() == scheduleId) {
+                return callTimeData;
+            }
+        }
+        throw new AssertionError("No call-time data for schedule " + scheduleId);
+    }
+
+    private CallTimeData createCallTimeData(int scheduleId, String destination, long beginTime, long endTime,
+        double minimum, double maximum, double total, long count) {
+        CallTimeData callTimeData = new CallTimeData(new MeasurementScheduleRequest(scheduleId, "calltime", 60000L,
+            true, DataType.CALLTIME));
+        callTimeData.addAggregatedCallData(destination, new Date(beginTime), new Date(endTime), minimum, maximum,
+            total, count);
+        return callTimeData;
+    }
+}
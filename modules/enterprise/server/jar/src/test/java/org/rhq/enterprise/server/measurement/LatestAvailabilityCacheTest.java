@@ -0,0 +1,160 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.AvailabilityType;
+
+@Test
+public class LatestAvailabilityCacheTest {
+    private static final int AGENT_ID = 1;
+
+    public void testGetAfterPut() {
+        LatestAvailabilityCache cache = createCache(100);
+        put(cache, 10, AvailabilityType.UP, 1000L);
+
+        assertEquals(cache.get(AGENT_ID, 10, 1000L), AvailabilityType.UP);
+        assertEquals(cache.get(AGENT_ID, 10, 2000L), AvailabilityType.UP);
+        // a report from before the cached avail started cannot be resolved from the cache
+        assertNull(cache.get(AGENT_ID, 10, 999L));
+        assertNull(cache.get(AGENT_ID, 11, 1000L));
+        assertEquals(cache.getHits(), 2L);
+        assertEquals(cache.getMisses(), 2L);
+    }
+
+    public void testUnvalidatedAgent() {
+        LatestAvailabilityCache cache = createCache(100);
+        cache.put(2, new int[] { 10 }, new AvailabilityType[] { AvailabilityType.UP }, new long[] { 1000L }, 1);
+
+        assertNull(cache.get(2, 10, 1000L));
+        assertEquals(cache.getSize(), 0);
+    }
+
+    public void testValidateAgent() {
+        LatestAvailabilityCache cache = createCache(100);
+        put(cache, 10, AvailabilityType.UP, 1000L);
+
+        // the agent row is as we left it
+        cache.validateAgent(AGENT_ID, 5000L, 3000L, false, 6000L);
+        assertEquals(cache.get(AGENT_ID, 10, 1000L), AvailabilityType.UP);
+
+        // someone else merged a report in the meantime
+        cache.validateAgent(AGENT_ID, 7000L, 3000L, false, 8000L);
+        assertNull(cache.get(AGENT_ID, 10, 1000L));
+
+        put(cache, 10, AvailabilityType.DOWN, 8000L);
+        assertEquals(cache.get(AGENT_ID, 10, 8000L), AvailabilityType.DOWN);
+
+        // someone else changed avails
+        cache.validateAgent(AGENT_ID, 8000L, 4000L, false, 9000L);
+        assertNull(cache.get(AGENT_ID, 10, 8000L));
+
+        put(cache, 10, AvailabilityType.DOWN, 8000L);
+
+        // the agent was backfilled
+        cache.validateAgent(AGENT_ID, 9000L, 4000L, true, 10000L);
+        assertNull(cache.get(AGENT_ID, 10, 8000L));
+    }
+
+    public void testAgentChanged() {
+        LatestAvailabilityCache cache = createCache(100);
+        put(cache, 10, AvailabilityType.UP, 1000L);
+        assertEquals(cache.getAgentMtime(AGENT_ID), 3000L);
+
+        cache.agentChanged(AGENT_ID, 3000L, 4000L, true);
+        assertEquals(cache.getAgentMtime(AGENT_ID), 4000L);
+        assertEquals(cache.get(AGENT_ID, 10, 1000L), AvailabilityType.UP);
+
+        cache.validateAgent(AGENT_ID, 5000L, 4000L, false, 6000L);
+        assertEquals(cache.get(AGENT_ID, 10, 1000L), AvailabilityType.UP);
+
+        // somebody else touched the agent first
+        cache.agentChanged(AGENT_ID, 4000L, 7000L, false);
+        assertEquals(cache.getAgentMtime(AGENT_ID), -1L);
+        assertNull(cache.get(AGENT_ID, 10, 1000L));
+    }
+
+    public void testInvalidate() {
+        LatestAvailabilityCache cache = createCache(100);
+        put(cache, 10, AvailabilityType.UP, 1000L);
+        put(cache, 11, AvailabilityType.DOWN, 1000L);
+
+        cache.invalidate(10);
+        assertNull(cache.get(AGENT_ID, 10, 1000L));
+        assertEquals(cache.get(AGENT_ID, 11, 1000L), AvailabilityType.DOWN);
+
+        cache.invalidateAgent(AGENT_ID);
+        assertNull(cache.get(AGENT_ID, 11, 1000L));
+    }
+
+    public void testBounded() {
+        LatestAvailabilityCache cache = createCache(160);
+        for (int i = 1; i <= 10000; ++i) {
+            put(cache, i, AvailabilityType.UP, i);
+        }
+        assertTrue(cache.getSize() <= 160);
+
+        // whatever survived must still be found, and removing entries must not hide others
+        int found = 0;
+        int removed = 0;
+        for (int i = 1; i <= 10000; ++i) {
+            if (cache.get(AGENT_ID, i, i) != null) {
+                ++found;
+                if (i % 2 == 0) {
+                    cache.invalidate(i);
+                    ++removed;
+                }
+            }
+        }
+        assertTrue(found > 0);
+        assertEquals(cache.getSize(), found - removed);
+
+        int foundAgain = 0;
+        for (int i = 1; i <= 10000; ++i) {
+            if (cache.get(AGENT_ID, i, i) != null) {
+                ++foundAgain;
+            }
+        }
+        assertEquals(foundAgain, found - removed);
+    }
+
+    public void testDisabled() {
+        LatestAvailabilityCache cache = createCache(0);
+        assertFalse(cache.isEnabled());
+        put(cache, 10, AvailabilityType.UP, 1000L);
+        assertNull(cache.get(AGENT_ID, 10, 1000L));
+    }
+
+    private LatestAvailabilityCache createCache(int size) {
+        LatestAvailabilityCache cache = new LatestAvailabilityCache(size);
+        cache.validateAgent(AGENT_ID, null, 3000L, false, 5000L);
+        return cache;
+    }
+
+    private void put(LatestAvailabilityCache cache, int resourceId, AvailabilityType type, long startTime) {
+        cache.put(AGENT_ID, new int[] { resourceId }, new AvailabilityType[] { type }, new long[] { startTime }, 1);
+    }
+}
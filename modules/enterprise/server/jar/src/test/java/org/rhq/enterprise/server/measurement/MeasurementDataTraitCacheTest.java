@@ -0,0 +1,74 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataPK;
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
+
+@Test
+public class MeasurementDataTraitCacheTest {
+
+    public void testUnchangedValues() {
+        MeasurementDataTraitCache cache = new MeasurementDataTraitCache(10, 60000L);
+        assertFalse(cache.isUnchanged(trait(1, 1000L, "1.0"), 0L), "An unknown schedule must go to the database");
+
+        cache.put(trait(1, 1000L, "1.0"), 0L);
+        cache.put(trait(2, 1000L, null), 0L);
+        assertTrue(cache.isUnchanged(trait(1, 2000L, "1.0"), 0L));
+        assertTrue(cache.isUnchanged(trait(2, 2000L, null), 0L));
+        assertFalse(cache.isUnchanged(trait(1, 2000L, "1.1"), 0L));
+        assertFalse(cache.isUnchanged(trait(2, 2000L, "1.1"), 0L));
+        assertFalse(cache.isUnchanged(trait(1, 500L, "1.0"), 0L), "An older trait must go to the database");
+        assertFalse(cache.isUnchanged(trait(1, 2000L, "1.0"), 60000L), "An expired value must not be trusted");
+        assertEquals(cache.getHits(), 2L);
+        assertEquals(cache.getMisses(), 5L);
+
+        cache.put(trait(1, 500L, "0.9"), 0L);
+        assertTrue(cache.isUnchanged(trait(1, 2000L, "1.0"), 0L), "An older trait must not replace a later one");
+
+        cache.clear();
+        assertFalse(cache.isUnchanged(trait(1, 2000L, "1.0"), 0L));
+    }
+
+    public void testBounded() {
+        MeasurementDataTraitCache cache = new MeasurementDataTraitCache(2, 60000L);
+        cache.put(trait(1, 1000L, "a"), 0L);
+        cache.put(trait(2, 1000L, "b"), 0L);
+        cache.isUnchanged(trait(1, 1000L, "a"), 0L);
+        cache.put(trait(3, 1000L, "c"), 0L);
+
+        assertEquals(cache.getSize(), 2);
+        assertTrue(cache.isUnchanged(trait(1, 1000L, "a"), 0L));
+        assertFalse(cache.isUnchanged(trait(2, 1000L, "b"), 0L));
+
+        MeasurementDataTraitCache disabled = new MeasurementDataTraitCache(0, 60000L);
+        disabled.put(trait(1, 1000L, "a"), 0L);
+        assertFalse(disabled.isUnchanged(trait(1, 1000L, "a"), 0L));
+    }
+
+    private MeasurementDataTrait trait(int scheduleId, long timestamp, String value) {
+        return new MeasurementDataTrait(new MeasurementDataPK(timestamp, scheduleId), value);
+    }
+}
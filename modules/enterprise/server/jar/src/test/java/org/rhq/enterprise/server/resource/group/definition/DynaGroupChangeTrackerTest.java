@@ -0,0 +1,79 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.resource.group.definition;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.testng.annotations.Test;
+
+@Test
+public class DynaGroupChangeTrackerTest {
+
+    private static final long STARTED = System.currentTimeMillis() - 2 * DynaGroupChangeTracker.CHANGE_SLACK;
+
+    public void testChangesSince() {
+        DynaGroupChangeTracker tracker = new DynaGroupChangeTracker(100, 3600000L, STARTED);
+        long now = System.currentTimeMillis();
+        assertTrue(tracker.getChangesSince(now).isEmpty());
+
+        tracker.resourcesChanged(Arrays.asList(1, 2));
+        tracker.resourceChanged(2);
+        tracker.schedulesChanged(Collections.singleton(10));
+
+        DynaGroupChangeTracker.Changes changes = tracker.getChangesSince(now);
+        assertEquals(changes.getResourceIds(), new HashSet<Integer>(Arrays.asList(1, 2)));
+        assertEquals(changes.getScheduleIds(), Collections.singleton(10));
+        assertTrue(tracker.getChangesSince(System.currentTimeMillis() + 2 * DynaGroupChangeTracker.CHANGE_SLACK)
+            .isEmpty());
+        assertNull(tracker.getChangesSince(STARTED), "Changes before the tracker started are not known");
+    }
+
+    public void testTooManyChanges() {
+        DynaGroupChangeTracker tracker = new DynaGroupChangeTracker(2, 3600000L, STARTED);
+        long now = System.currentTimeMillis();
+        tracker.resourcesChanged(Arrays.asList(1, 2));
+        assertNotNull(tracker.getChangesSince(now));
+
+        tracker.schedulesChanged(Collections.singleton(10));
+        assertNull(tracker.getChangesSince(now), "Dropped changes must not be reported as complete");
+
+        assertNull(new DynaGroupChangeTracker(0, 3600000L, STARTED).getChangesSince(now));
+    }
+
+    public void testFullCalculationDue() {
+        DynaGroupChangeTracker tracker = new DynaGroupChangeTracker(100, 60000L, STARTED);
+        assertTrue(tracker.isFullCalculationDue(1, "false:resource.name = a", 0L));
+
+        tracker.fullyCalculated(1, "false:resource.name = a", 0L);
+        assertFalse(tracker.isFullCalculationDue(1, "false:resource.name = a", 1000L));
+        assertTrue(tracker.isFullCalculationDue(1, "false:resource.name = b", 1000L));
+        assertTrue(tracker.isFullCalculationDue(1, "false:resource.name = a", 60000L));
+
+        tracker.forget(1);
+        assertTrue(tracker.isFullCalculationDue(1, "false:resource.name = a", 1000L));
+    }
+}
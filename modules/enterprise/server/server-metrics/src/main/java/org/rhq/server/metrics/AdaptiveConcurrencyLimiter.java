@@ -0,0 +1,265 @@
+package org.rhq.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Limits the number of in flight storage requests of one {@link Workload workload}. The limit is adjusted from observed
+ * response times using additive increase/multiplicative decrease. A low pass filtered response time is compared
+ * against the best response time seen recently. While it stays within {@link #getLatencyTolerance() tolerance} of
+ * that baseline and the limit is actually being used, the limit grows by roughly one request per round trip. When
+ * response times degrade or a request times out, the limit is reduced by a fixed ratio. Decreases are dampened so that
+ * all of the requests that were in flight when the storage cluster got slow do not collapse the limit at once. Within
+ * one dampening interval the limit is decreased at most once for degraded response times and at most once for
+ * timeouts.
+ * <p>
+ * The maximum limit is expressed per storage node and scaled with the number of nodes that are up.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final Log log = LogFactory.getLog(AdaptiveConcurrencyLimiter.class);
+
+    private static final double SMOOTHING = 0.05;
+
+    private static final int BASELINE_WINDOW = 1000;
+
+    private final Workload workload;
+
+    private double limit;
+
+    private double minLimit;
+
+    private double maxLimitPerHost;
+
+    private int hosts = 1;
+
+    private double latencyTolerance = 2.0;
+
+    private double backoffRatio = 0.9;
+
+    private double timeoutBackoffRatio = 0.5;
+
+    private long decreaseDampening = TimeUnit.SECONDS.toNanos(1);
+
+    private long nextDecrease;
+
+    private long nextTimeoutDecrease;
+
+    private int inFlight;
+
+    private int queued;
+
+    private double smoothedLatency = -1;
+
+    private long baselineLatency = Long.MAX_VALUE;
+
+    private long windowMinLatency = Long.MAX_VALUE;
+
+    private int windowSamples;
+
+    private long totalRequests;
+
+    private long totalWaitTime;
+
+    public AdaptiveConcurrencyLimiter(Workload workload, double initialLimit, double minLimit,
+        double maxLimitPerHost) {
+        this.workload = workload;
+        this.minLimit = minLimit;
+        this.maxLimitPerHost = maxLimitPerHost;
+        this.limit = Math.max(minLimit, initialLimit);
+        nextDecrease = System.nanoTime();
+        nextTimeoutDecrease = nextDecrease;
+    }
+
+    /**
+     * Blocks until a request of this workload may be sent.
+     */
+    public synchronized void acquire() {
+        long start = System.nanoTime();
+        ++queued;
+        try {
+            boolean interrupted = false;
+            while (inFlight >= (int) limit) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            --queued;
+        }
+        ++inFlight;
+        ++totalRequests;
+        totalWaitTime += System.nanoTime() - start;
+    }
+
+    /**
+     * Releases a request that completed successfully and adjusts the limit from its response time.
+     *
+     * @param latency The response time in nanoseconds
+     */
+    public synchronized void release(long latency) {
+        boolean limited = inFlight >= (int) limit;
+        --inFlight;
+        notifyAll();
+
+        if (latency < windowMinLatency) {
+            windowMinLatency = latency;
+        }
+        if (++windowSamples >= BASELINE_WINDOW || baselineLatency == Long.MAX_VALUE) {
+            // The baseline is periodically reset to the best response time of the last window so that it follows
+            // lasting changes such as the addition of storage nodes.
+            baselineLatency = windowMinLatency;
+            windowMinLatency = Long.MAX_VALUE;
+            windowSamples = 0;
+        } else if (latency < baselineLatency) {
+            baselineLatency = latency;
+        }
+        smoothedLatency = smoothedLatency < 0 ? latency : smoothedLatency + SMOOTHING * (latency - smoothedLatency);
+
+        if (smoothedLatency > baselineLatency * latencyTolerance) {
+            long now = System.nanoTime();
+            if (now - nextDecrease >= 0) {
+                decrease(backoffRatio, now);
+            }
+        } else if (limited) {
+            updateLimit(limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Releases a request that failed without telling anything about the response time of the storage cluster.
+     */
+    public synchronized void releaseFailed() {
+        --inFlight;
+        notifyAll();
+    }
+
+    /**
+     * Releases a request that timed out, which is a sure sign of an overloaded storage cluster.
+     */
+    public synchronized void releaseTimedOut() {
+        --inFlight;
+        notifyAll();
+        // A timeout is not held back by a recent decrease for degraded response times, but the timeouts of all of the
+        // requests that were sent before the first of them was noticed only count once.
+        long now = System.nanoTime();
+        if (now - nextTimeoutDecrease >= 0) {
+            nextTimeoutDecrease = now + decreaseDampening;
+            decrease(timeoutBackoffRatio, now);
+        }
+    }
+
+    private void decrease(double ratio, long now) {
+        nextDecrease = now + decreaseDampening;
+        double oldLimit = limit;
+        updateLimit(limit * ratio);
+        if (log.isDebugEnabled() && (int) oldLimit != (int) limit) {
+            log.debug("Decreased the " + workload + " request limit from " + (int) oldLimit + " to " + (int) limit);
+        }
+    }
+
+    private void updateLimit(double newLimit) {
+        double maxLimit = getMaxLimit();
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        notifyAll();
+    }
+
+    public Workload getWorkload() {
+        return workload;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized void setLimit(int limit) {
+        updateLimit(limit);
+    }
+
+    public synchronized double getMinLimit() {
+        return minLimit;
+    }
+
+    public synchronized void setMinLimit(double minLimit) {
+        this.minLimit = minLimit;
+        updateLimit(limit);
+    }
+
+    public synchronized double getMaxLimitPerHost() {
+        return maxLimitPerHost;
+    }
+
+    public synchronized void setMaxLimitPerHost(double maxLimitPerHost) {
+        this.maxLimitPerHost = maxLimitPerHost;
+        updateLimit(limit);
+    }
+
+    public synchronized double getMaxLimit() {
+        return Math.max(minLimit, maxLimitPerHost * hosts);
+    }
+
+    /**
+     * Updates the number of storage nodes that are up, which scales the maximum limit.
+     */
+    public synchronized void setHosts(int hosts) {
+        this.hosts = Math.max(1, hosts);
+        updateLimit(limit);
+    }
+
+    public synchronized double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public synchronized void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public synchronized void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    public synchronized void setTimeoutBackoffRatio(double timeoutBackoffRatio) {
+        this.timeoutBackoffRatio = timeoutBackoffRatio;
+    }
+
+    public synchronized void setDecreaseDampening(long dampening, TimeUnit unit) {
+        decreaseDampening = unit.toNanos(dampening);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return The number of requests that are waiting for the limit
+     */
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    /**
+     * @return The smoothed response time in milliseconds
+     */
+    public synchronized double getLatency() {
+        return smoothedLatency < 0 ? 0 : smoothedLatency / 1000000.0;
+    }
+
+    public synchronized long getTotalRequests() {
+        return totalRequests;
+    }
+
+    /**
+     * @return The total time in milliseconds that requests have waited for the limit
+     */
+    public synchronized long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitTime);
+    }
+
+}
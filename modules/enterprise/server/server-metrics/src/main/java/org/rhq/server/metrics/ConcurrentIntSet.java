@@ -0,0 +1,174 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+/**
+ * A thread safe set of primitive ints. The set is split into lock striped segments, each
+ * of which is an open addressing hash table, so that schedule ids can be tracked without
+ * boxing and without a map entry per element.
+ */
+public class ConcurrentIntSet {
+
+    private static final int DEFAULT_SEGMENTS = 16;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final Segment[] segments;
+
+    public ConcurrentIntSet() {
+        this(DEFAULT_SEGMENTS, 1024);
+    }
+
+    /**
+     * @param numSegments The number of lock stripes. This is rounded up to a power of two.
+     * @param initialCapacity The expected number of elements in the entire set
+     */
+    public ConcurrentIntSet(int numSegments, int initialCapacity) {
+        int size = 1;
+        while (size < numSegments) {
+            size <<= 1;
+        }
+        segments = new Segment[size];
+        for (int i = 0; i < size; ++i) {
+            segments[i] = new Segment(Math.max(8, initialCapacity / size));
+        }
+    }
+
+    /**
+     * @return true if the value was not already in the set
+     */
+    public boolean add(int value) {
+        int hash = hash(value);
+        return segmentFor(hash).add(value, hash);
+    }
+
+    public boolean contains(int value) {
+        int hash = hash(value);
+        return segmentFor(hash).contains(value, hash);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 24) & (segments.length - 1)];
+    }
+
+    private static int hash(int value) {
+        // murmur3 finalizer, spreads sequential ids over segments and slots
+        int h = value;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static class Segment {
+
+        // zero marks an empty slot so it is tracked separately
+        private boolean containsZero;
+
+        private int[] table;
+
+        private int size;
+
+        Segment(int capacity) {
+            int tableSize = 1;
+            while (tableSize < capacity / LOAD_FACTOR) {
+                tableSize <<= 1;
+            }
+            table = new int[tableSize];
+        }
+
+        synchronized boolean add(int value, int hash) {
+            if (value == 0) {
+                if (containsZero) {
+                    return false;
+                }
+                containsZero = true;
+                ++size;
+                return true;
+            }
+            if (!insert(table, value, hash)) {
+                return false;
+            }
+            if (++size > table.length * LOAD_FACTOR) {
+                rehash();
+            }
+            return true;
+        }
+
+        synchronized boolean contains(int value, int hash) {
+            if (value == 0) {
+                return containsZero;
+            }
+            int mask = table.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                if (table[i] == value) {
+                    return true;
+                }
+                if (table[i] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void rehash() {
+            int[] newTable = new int[table.length << 1];
+            for (int value : table) {
+                if (value != 0) {
+                    insert(newTable, value, hash(value));
+                }
+            }
+            table = newTable;
+        }
+
+        private static boolean insert(int[] table, int value, int hash) {
+            int mask = table.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                if (table[i] == value) {
+                    return false;
+                }
+                if (table[i] == 0) {
+                    table[i] = value;
+                    return true;
+                }
+            }
+        }
+    }
+
+}
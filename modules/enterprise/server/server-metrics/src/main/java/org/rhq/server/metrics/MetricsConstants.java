@@ -11,6 +11,16 @@ public class MetricsConstants {
 
     public static final String AGGREGATION_PARALLELISM = "rhq.metrics.aggregation.parallelism";
 
+    public static final String AGGREGATION_STREAMING = "rhq.metrics.aggregation.streaming";
+
+    public static final String INGESTION_BATCHING = "rhq.metrics.ingestion.batch";
+
+    public static final String INGESTION_BATCH_SIZE = "rhq.metrics.ingestion.batch-size";
+
+    public static final String INGESTION_MAX_IN_FLIGHT = "rhq.metrics.ingestion.max-in-flight";
+
+    public static final String INDEX_CACHE = "rhq.metrics.index.cache";
+
     private MetricsConstants() {
     }
 }
@@ -26,6 +26,7 @@
 package org.rhq.server.metrics;
 
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -146,42 +147,60 @@ public class MetricsDAO {
     public StorageResultSetFuture insertRawData(MeasurementDataNumeric data) {
         BoundStatement statement = insertRawData.bind(data.getScheduleId(), new Date(data.getTimestamp()),
             data.getValue());
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.INGESTION);
+    }
+
+    /**
+     * Inserts the raw data as a single unlogged batch. Callers are expected to group the
+     * data by schedule id so that the batch only touches a small number of partitions. The
+     * batch is sent as a plain CQL string since version 1 of the native protocol does not
+     * support batching prepared statements; as a consequence the values must be finite,
+     * i.e., NaN and infinity have to be written with {@link #insertRawData(MeasurementDataNumeric)}.
+     */
+    public StorageResultSetFuture insertRawDataBatch(Collection<MeasurementDataNumeric> data) {
+        StringBuilder batch = new StringBuilder(64 + data.size() * 96).append("BEGIN UNLOGGED BATCH\n");
+        for (MeasurementDataNumeric datum : data) {
+            batch.append("INSERT INTO ").append(MetricsTable.RAW).append(" (schedule_id, time, value) VALUES (")
+                .append(datum.getScheduleId()).append(", ").append(datum.getTimestamp()).append(", ")
+                .append(datum.getValue()).append(") USING TTL ").append(configuration.getRawTTL()).append(";\n");
+        }
+        batch.append("APPLY BATCH");
+        return storageSession.executeAsync(batch.toString(), Workload.INGESTION);
     }
 
     public ResultSet insertOneHourData(int scheduleId, long timestamp, AggregateType type, double value) {
         BoundStatement statement = insertOneHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.execute(statement);
+        return storageSession.execute(statement, Workload.AGGREGATION);
     }
 
     public StorageResultSetFuture insertOneHourDataAsync(int scheduleId, long timestamp, AggregateType type,
         double value) {
         BoundStatement statement = insertOneHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public ResultSet insertSixHourData(int scheduleId, long timestamp, AggregateType type, double value) {
         BoundStatement statement = insertSixHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.execute(statement);
+        return storageSession.execute(statement, Workload.AGGREGATION);
     }
 
     public StorageResultSetFuture insertSixHourDataAsync(int scheduleId, long timestamp, AggregateType type,
         double value) {
         BoundStatement statement = insertSixHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public ResultSet insertTwentyFourHourData(int scheduleId, long timestamp, AggregateType type, double value) {
         BoundStatement statement = insertTwentyFourHourData.bind(scheduleId, new Date(timestamp), type.ordinal(),
             value);
-        return storageSession.execute(statement);
+        return storageSession.execute(statement, Workload.AGGREGATION);
     }
 
     public StorageResultSetFuture insertTwentyFourHourDataAsync(int scheduleId, long timestamp, AggregateType type,
         double value) {
         BoundStatement statement = insertTwentyFourHourData.bind(scheduleId, new Date(timestamp), type.ordinal(),
             value);
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public Iterable<RawNumericMetric> findRawMetrics(int scheduleId, long startTime, long endTime) {
@@ -196,12 +215,12 @@ public class MetricsDAO {
 
     public ResultSet findRawMetricsSync(int scheduleId, long startTime, long endTime) {
         BoundStatement boundStatement = rawMetricsQuery.bind(scheduleId, new Date(startTime), new Date(endTime));
-        return storageSession.execute(boundStatement);
+        return storageSession.execute(boundStatement, Workload.AGGREGATION);
     }
 
     public StorageResultSetFuture findRawMetricsAsync(int scheduleId, long startTime, long endTime) {
         BoundStatement boundStatement = rawMetricsQuery.bind(scheduleId, new Date(startTime), new Date(endTime));
-        return storageSession.executeAsync(boundStatement);
+        return storageSession.executeAsync(boundStatement, Workload.AGGREGATION);
     }
 
     public RawNumericMetric findLatestRawMetric(int scheduleId) {
@@ -226,7 +245,7 @@ public class MetricsDAO {
     public StorageResultSetFuture findOneHourMetricsAsync(int scheduleId, long startTime, long endTime) {
         BoundStatement statement = findOneHourMetricsByDateRange.bind(scheduleId, new Date(startTime),
             new Date(endTime));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public Iterable<AggregateNumericMetric> findSixHourMetrics(int scheduleId, long startTime, long endTime) {
@@ -237,7 +256,7 @@ public class MetricsDAO {
 
     public StorageResultSetFuture findSixHourMetricsAsync(int scheduleId, long startTime, long endTime) {
         BoundStatement statement = findSixHourMetricsByDateRange.bind(scheduleId, new Date(startTime), new Date(endTime));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public Iterable<AggregateNumericMetric> findTwentyFourHourMetrics(int scheduleId, long startTime, long endTime) {
@@ -249,7 +268,7 @@ public class MetricsDAO {
     public StorageResultSetFuture findTwentyFourHourMetricsAsync(int scheduleId, long startTime, long endTime) {
         BoundStatement statement = findTwentyFourHourMetricsByDateRange.bind(scheduleId, new Date(startTime),
             new Date(endTime));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public Iterable<AggregateSimpleNumericMetric> findAggregatedSimpleOneHourMetric(int scheduleId, long startTime,
@@ -285,7 +304,7 @@ public class MetricsDAO {
 
     public StorageResultSetFuture findMetricsIndexEntriesAsync(MetricsTable table, long timestamp) {
         BoundStatement statement = findIndexEntries.bind(table.toString(), new Date(timestamp));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public ResultSet setFindTimeSliceForIndex(MetricsTable table, long timestamp) {
@@ -297,22 +316,41 @@ public class MetricsDAO {
             for (Integer scheduleId : updates.keySet()) {
                 BoundStatement statement = updateMetricsIndex.bind(table.getTableName(),
                     new Date(updates.get(scheduleId)), scheduleId);
-                storageSession.execute(statement);
+                storageSession.execute(statement, Workload.AGGREGATION);
             }
     }
 
     public StorageResultSetFuture updateMetricsIndex(MetricsTable table, int scheduleId, long timestamp) {
         BoundStatement statement = updateMetricsIndex.bind(table.getTableName(), new Date(timestamp), scheduleId);
-        return storageSession.executeAsync(statement);
+        // Raw data is indexed as it is ingested, all other index entries are written during aggregation
+        return storageSession.executeAsync(statement, table == MetricsTable.ONE_HOUR ? Workload.INGESTION :
+            Workload.AGGREGATION);
+    }
+
+    /**
+     * Adds the schedule ids to the index partition for the given bucket and time slice
+     * with a single unlogged batch. Since all of the rows belong to the same partition,
+     * the batch is applied as one mutation on the storage node.
+     */
+    public StorageResultSetFuture updateMetricsIndexBatch(MetricsTable table, long timeSlice,
+        Collection<Integer> scheduleIds) {
+        StringBuilder batch = new StringBuilder(64 + scheduleIds.size() * 96).append("BEGIN UNLOGGED BATCH\n");
+        for (Integer scheduleId : scheduleIds) {
+            batch.append("INSERT INTO ").append(MetricsTable.INDEX).append(" (bucket, time, schedule_id) VALUES ('")
+                .append(table.getTableName()).append("', ").append(timeSlice).append(", ").append(scheduleId)
+                .append(");\n");
+        }
+        batch.append("APPLY BATCH");
+        return storageSession.executeAsync(batch.toString(), Workload.INGESTION);
     }
 
     public void deleteMetricsIndexEntries(MetricsTable table, long timestamp) {
         BoundStatement statement = deleteIndexEntries.bind(table.getTableName(), new Date(timestamp));
-        storageSession.execute(statement);
+        storageSession.execute(statement, Workload.AGGREGATION);
     }
 
     public StorageResultSetFuture deleteMetricsIndexEntriesAsync(MetricsTable table, long timestamp) {
         BoundStatement statement = deleteIndexEntries.bind(table.getTableName(), new Date(timestamp));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 }
@@ -0,0 +1,113 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of the schedules for which the raw data index entry of the current time
+ * slice has already been written. Only the first index write per schedule per time slice
+ * carries any information; subsequent writes for the same schedule rewrite the same row.
+ * <p>
+ * A schedule is only recorded after its index write has succeeded, so a suppressed write
+ * always refers to an index row that is already durable. If the server goes down, the
+ * cache is simply empty on restart and the first data point of every schedule writes its
+ * index entry again. Only the current time slice is tracked because aggregation deletes
+ * the index partitions of past time slices; late data for those is always indexed.
+ */
+public class MetricsIndexCache {
+
+    private final AtomicReference<TimeSlice> current = new AtomicReference<TimeSlice>();
+
+    private final int expectedSchedules;
+
+    public MetricsIndexCache(int expectedSchedules) {
+        this.expectedSchedules = expectedSchedules;
+    }
+
+    /**
+     * @param currentTimeSlice The start of the time slice into which data is currently
+     *                         being collected
+     * @param timeSlice The time slice of the data point
+     * @param scheduleId The schedule id of the data point
+     * @return true if the index entry for the schedule has already been written in the
+     * current time slice
+     */
+    public boolean isIndexed(long currentTimeSlice, long timeSlice, int scheduleId) {
+        if (timeSlice != currentTimeSlice) {
+            return false;
+        }
+        TimeSlice slice = current.get();
+        return slice != null && slice.startTime == timeSlice && slice.scheduleIds.contains(scheduleId);
+    }
+
+    /**
+     * Records that the index entry for the schedule has been written. This must only be
+     * called after the write has completed successfully. Writes for any time slice other
+     * than the current one are not tracked. When the current time slice advances, the
+     * schedules tracked for the previous one are discarded.
+     */
+    public void indexed(long currentTimeSlice, long timeSlice, int scheduleId) {
+        if (timeSlice != currentTimeSlice) {
+            return;
+        }
+        TimeSlice slice = current.get();
+        while (slice == null || slice.startTime < timeSlice) {
+            TimeSlice newSlice = new TimeSlice(timeSlice, expectedSchedules);
+            if (current.compareAndSet(slice, newSlice)) {
+                slice = newSlice;
+            } else {
+                slice = current.get();
+            }
+        }
+        if (slice.startTime == timeSlice) {
+            slice.scheduleIds.add(scheduleId);
+        }
+    }
+
+    /**
+     * @return The number of schedules tracked for the current time slice
+     */
+    public int size() {
+        TimeSlice slice = current.get();
+        return slice == null ? 0 : slice.scheduleIds.size();
+    }
+
+    public void clear() {
+        current.set(null);
+    }
+
+    private static class TimeSlice {
+        final long startTime;
+        final ConcurrentIntSet scheduleIds;
+
+        TimeSlice(long startTime, int expectedSchedules) {
+            this.startTime = startTime;
+            scheduleIds = new ConcurrentIntSet(32, expectedSchedules);
+        }
+    }
+
+}
@@ -27,13 +27,17 @@ package org.rhq.server.metrics;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -55,6 +59,7 @@ import org.joda.time.Duration;
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.composite.MeasurementDataNumericHighLowComposite;
 import org.rhq.server.metrics.aggregation.Aggregator;
+import org.rhq.server.metrics.aggregation.PendingAggregates;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsIndexEntry;
@@ -91,6 +96,44 @@ public class MetricsServer {
 
     private boolean useAsyncAggregation = Boolean.valueOf(System.getProperty("rhq.metrics.aggregation.async", "true"));
 
+    private boolean useStreamingAggregation = Boolean.valueOf(System.getProperty(
+        MetricsConstants.AGGREGATION_STREAMING, "true"));
+
+    private PendingAggregates pendingAggregates;
+
+    private boolean useIngestionBatching = Boolean.valueOf(System.getProperty(MetricsConstants.INGESTION_BATCHING,
+        "false"));
+
+    private int ingestionBatchSize = Integer.parseInt(System.getProperty(MetricsConstants.INGESTION_BATCH_SIZE,
+        "100"));
+
+    private int ingestionMaxInFlight = Integer.parseInt(System.getProperty(MetricsConstants.INGESTION_MAX_IN_FLIGHT,
+        "32"));
+
+    private volatile Semaphore ingestionPermits = new Semaphore(ingestionMaxInFlight);
+
+    private boolean useIndexCache = Boolean.valueOf(System.getProperty(MetricsConstants.INDEX_CACHE, "true"));
+
+    private MetricsIndexCache indexCache = new MetricsIndexCache(1024);
+
+    /**
+     * Orders raw data by schedule id and then by timestamp so that consecutive data, which
+     * end up in the same batch, belong to the same partition of the raw data table.
+     */
+    private static final Comparator<MeasurementDataNumeric> RAW_DATA_PARTITION_ORDER =
+        new Comparator<MeasurementDataNumeric>() {
+        @Override
+        public int compare(MeasurementDataNumeric d1, MeasurementDataNumeric d2) {
+            if (d1.getScheduleId() != d2.getScheduleId()) {
+                return d1.getScheduleId() < d2.getScheduleId() ? -1 : 1;
+            }
+            if (d1.getTimestamp() != d2.getTimestamp()) {
+                return d1.getTimestamp() < d2.getTimestamp() ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
     public void setDAO(MetricsDAO dao) {
         this.dao = dao;
     }
@@ -127,12 +170,81 @@ public class MetricsServer {
         this.useAsyncAggregation = useAsyncAggregation;
     }
 
+    /**
+     * When enabled, 6 hour and 24 hour aggregates are computed from the lower level aggregates that are kept in memory
+     * across aggregation runs rather than by reading the 1 hour and 6 hour data back from the storage cluster. The
+     * stored data is still used whenever the in-memory data does not cover the whole time slice, e.g., after a
+     * restart.
+     */
+    public void setUseStreamingAggregation(boolean useStreamingAggregation) {
+        this.useStreamingAggregation = useStreamingAggregation;
+        if (pendingAggregates != null && !useStreamingAggregation) {
+            pendingAggregates.clear();
+        }
+    }
+
+    public boolean isIngestionBatchingEnabled() {
+        return useIngestionBatching;
+    }
+
+    public void setUseIngestionBatching(boolean useIngestionBatching) {
+        this.useIngestionBatching = useIngestionBatching;
+    }
+
+    public int getIngestionBatchSize() {
+        return ingestionBatchSize;
+    }
+
+    public void setIngestionBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The ingestion batch size must be greater than zero");
+        }
+        ingestionBatchSize = batchSize;
+    }
+
+    public boolean isIndexCacheEnabled() {
+        return useIndexCache;
+    }
+
+    public void setUseIndexCache(boolean useIndexCache) {
+        this.useIndexCache = useIndexCache;
+        if (!useIndexCache) {
+            indexCache.clear();
+        }
+    }
+
+    /**
+     * @return The number of schedules whose raw data index entry for the current hour is
+     * known to be stored and hence will not be written again during this hour
+     */
+    public int getIndexCacheSize() {
+        return indexCache.size();
+    }
+
+    public int getIngestionMaxInFlight() {
+        return ingestionMaxInFlight;
+    }
+
+    /**
+     * Changes the maximum number of raw data batches that can be in flight at any given
+     * time. Batches that are already in flight release their permits to the limiter they
+     * were started with, so the new limit takes effect as soon as they complete.
+     */
+    public void setIngestionMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The maximum number of in flight batches must be greater than zero");
+        }
+        ingestionMaxInFlight = maxInFlight;
+        ingestionPermits = new Semaphore(maxInFlight);
+    }
+
     public void init() {
         if (log.isDebugEnabled() && useAsyncAggregation) {
             log.debug("Async aggregation is enabled");
         }
         aggregationWorkers = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numAggregationWorkers,
             new StorageClientThreadFactory()));
+        pendingAggregates = new PendingAggregates(configuration);
         determineMostRecentRawDataSinceLastShutdown();
     }
 
@@ -409,26 +521,13 @@ public class MetricsServer {
             final long startTime = dateTimeService.now().getMillis();
             final AtomicInteger remainingInserts = new AtomicInteger(dataSet.size());
 
-            for (final MeasurementDataNumeric data : dataSet) {
-                StorageResultSetFuture resultSetFuture = dao.insertRawData(data);
-                Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
-                    @Override
-                    public void onSuccess(ResultSet rows) {
-                        updateMetricsIndex(data, dataSet.size(), remainingInserts, startTime, callback);
-                    }
+            if (useIngestionBatching) {
+                addNumericDataInBatches(dataSet, remainingInserts, startTime, callback);
+                return;
+            }
 
-                    @Override
-                    public void onFailure(Throwable throwable) {
-                        if (log.isDebugEnabled()) {
-                            log.error("An error occurred while inserting raw data " + data, throwable);
-                        } else {
-                            log.error(
-                                "An error occurred while inserting raw data " + data + ": " +
-                                    throwable.getClass().getName() + ": " + throwable.getMessage());
-                        }
-                        callback.onFailure(throwable);
-                    }
-                }, aggregationWorkers);
+            for (final MeasurementDataNumeric data : dataSet) {
+                insertRawData(data, dataSet.size(), remainingInserts, startTime, callback);
             }
         } catch (Exception e) {
             log.error("An error occurred while inserting raw numeric data ", e);
@@ -436,24 +535,192 @@ public class MetricsServer {
         }
     }
 
+    private void insertRawData(final MeasurementDataNumeric data, final int total,
+        final AtomicInteger remainingInserts, final long startTime, final RawDataInsertedCallback callback) {
+        StorageResultSetFuture resultSetFuture = dao.insertRawData(data);
+        Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet rows) {
+                updateMetricsIndex(data, total, remainingInserts, startTime, callback);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                if (log.isDebugEnabled()) {
+                    log.error("An error occurred while inserting raw data " + data, throwable);
+                } else {
+                    log.error(
+                        "An error occurred while inserting raw data " + data + ": " +
+                            throwable.getClass().getName() + ": " + throwable.getMessage());
+                }
+                callback.onFailure(throwable);
+            }
+        }, aggregationWorkers);
+    }
+
+    /**
+     * Inserts the raw data with unlogged batches instead of with one request per data point.
+     * The data is sorted by schedule id so that each batch only spans a few partitions of
+     * the raw data table. Once a batch has been stored, the index entries for its schedules
+     * are written with one batch per index partition, i.e., per time slice. The number of
+     * batches in flight is bounded by {@link #getIngestionMaxInFlight()}; callers block
+     * when that limit is reached which throttles ingestion without tying up storage client
+     * request permits for every single data point.
+     */
+    private void addNumericDataInBatches(Set<MeasurementDataNumeric> dataSet, AtomicInteger remainingInserts,
+        long startTime, RawDataInsertedCallback callback) {
+        List<MeasurementDataNumeric> sortedData = new ArrayList<MeasurementDataNumeric>(dataSet);
+        Collections.sort(sortedData, RAW_DATA_PARTITION_ORDER);
+
+        int batchSize = ingestionBatchSize;
+        List<MeasurementDataNumeric> batch = new ArrayList<MeasurementDataNumeric>(batchSize);
+        for (MeasurementDataNumeric data : sortedData) {
+            if (Double.isNaN(data.getValue()) || Double.isInfinite(data.getValue())) {
+                // There is no CQL literal for these values in the protocol version we use
+                insertRawData(data, dataSet.size(), remainingInserts, startTime, callback);
+                continue;
+            }
+            batch.add(data);
+            if (batch.size() == batchSize) {
+                insertRawDataBatch(batch, dataSet.size(), remainingInserts, startTime, callback);
+                batch = new ArrayList<MeasurementDataNumeric>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            insertRawDataBatch(batch, dataSet.size(), remainingInserts, startTime, callback);
+        }
+    }
+
+    private void insertRawDataBatch(final List<MeasurementDataNumeric> batch, final int total,
+        final AtomicInteger remainingInserts, final long startTime, final RawDataInsertedCallback callback) {
+        final Semaphore permits = ingestionPermits;
+        permits.acquireUninterruptibly();
+
+        StorageResultSetFuture resultSetFuture;
+        try {
+            resultSetFuture = dao.insertRawDataBatch(batch);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet rows) {
+                updateMetricsIndex(batch, total, remainingInserts, startTime, callback, permits);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                permits.release();
+                if (log.isDebugEnabled()) {
+                    log.error("An error occurred while inserting a batch of " + batch.size() + " raw metrics",
+                        throwable);
+                } else {
+                    log.error("An error occurred while inserting a batch of " + batch.size() + " raw metrics: " +
+                        throwable.getClass().getName() + ": " + throwable.getMessage());
+                }
+                callback.onFailure(throwable);
+            }
+        }, aggregationWorkers);
+    }
+
+    private void updateMetricsIndex(final List<MeasurementDataNumeric> batch, final int total,
+        final AtomicInteger remainingInserts, final long startTime, final RawDataInsertedCallback callback,
+        final Semaphore permits) {
+
+        final long currentTimeSlice = currentTimeSlice();
+        Map<Long, Set<Integer>> updates = new TreeMap<Long, Set<Integer>>();
+        for (MeasurementDataNumeric data : batch) {
+            long timeSlice = dateTimeService.getTimeSlice(new DateTime(data.getTimestamp()),
+                configuration.getRawTimeSliceDuration()).getMillis();
+            if (useIndexCache && indexCache.isIndexed(currentTimeSlice, timeSlice, data.getScheduleId())) {
+                continue;
+            }
+            Set<Integer> scheduleIds = updates.get(timeSlice);
+            if (scheduleIds == null) {
+                scheduleIds = new TreeSet<Integer>();
+                updates.put(timeSlice, scheduleIds);
+            }
+            scheduleIds.add(data.getScheduleId());
+        }
+
+        if (updates.isEmpty()) {
+            permits.release();
+            rawDataBatchIndexed(batch, total, remainingInserts, startTime, callback);
+            return;
+        }
+
+        final AtomicInteger remainingUpdates = new AtomicInteger(updates.size());
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        for (final Map.Entry<Long, Set<Integer>> entry : updates.entrySet()) {
+            StorageResultSetFuture resultSetFuture = dao.updateMetricsIndexBatch(MetricsTable.ONE_HOUR,
+                entry.getKey(), entry.getValue());
+            Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet rows) {
+                    if (useIndexCache) {
+                        for (Integer scheduleId : entry.getValue()) {
+                            indexCache.indexed(currentTimeSlice, entry.getKey(), scheduleId);
+                        }
+                    }
+                    if (remainingUpdates.decrementAndGet() > 0) {
+                        return;
+                    }
+                    permits.release();
+                    if (failed.get()) {
+                        return;
+                    }
+                    rawDataBatchIndexed(batch, total, remainingInserts, startTime, callback);
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    failed.set(true);
+                    if (remainingUpdates.decrementAndGet() == 0) {
+                        permits.release();
+                    }
+                    log.error("An error occurred while trying to update " + MetricsTable.INDEX + " for a batch of " +
+                        batch.size() + " raw metrics");
+                    callback.onFailure(throwable);
+                }
+            }, aggregationWorkers);
+        }
+    }
+
+    private void rawDataBatchIndexed(List<MeasurementDataNumeric> batch, int total, AtomicInteger remainingInserts,
+        long startTime, RawDataInsertedCallback callback) {
+        for (MeasurementDataNumeric data : batch) {
+            callback.onSuccess(data);
+        }
+        if (remainingInserts.addAndGet(-batch.size()) == 0) {
+            long endTime = System.currentTimeMillis();
+            if (log.isDebugEnabled()) {
+                log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) + " ms");
+            }
+            callback.onFinish();
+        }
+    }
+
     void updateMetricsIndex(final MeasurementDataNumeric rawData, final int total,
         final AtomicInteger remainingInserts, final long startTime, final RawDataInsertedCallback callback) {
 
-        long timeSlice = dateTimeService.getTimeSlice(new DateTime(rawData.getTimestamp()),
+        final long currentTimeSlice = currentTimeSlice();
+        final long timeSlice = dateTimeService.getTimeSlice(new DateTime(rawData.getTimestamp()),
             configuration.getRawTimeSliceDuration()).getMillis();
+        if (useIndexCache && indexCache.isIndexed(currentTimeSlice, timeSlice, rawData.getScheduleId())) {
+            rawDataIndexed(rawData, total, remainingInserts, startTime, callback);
+            return;
+        }
         StorageResultSetFuture resultSetFuture = dao.updateMetricsIndex(MetricsTable.ONE_HOUR, rawData.getScheduleId(),
             timeSlice);
         Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
             @Override
             public void onSuccess(ResultSet rows) {
-                callback.onSuccess(rawData);
-                if (remainingInserts.decrementAndGet() == 0) {
-                    long endTime = System.currentTimeMillis();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) + " ms");
-                    }
-                    callback.onFinish();
+                if (useIndexCache) {
+                    indexCache.indexed(currentTimeSlice, timeSlice, rawData.getScheduleId());
                 }
+                rawDataIndexed(rawData, total, remainingInserts, startTime, callback);
             }
 
             @Override
@@ -465,6 +732,27 @@ public class MetricsServer {
         }, aggregationWorkers);
     }
 
+    private void rawDataIndexed(MeasurementDataNumeric rawData, int total, AtomicInteger remainingInserts,
+        long startTime, RawDataInsertedCallback callback) {
+        callback.onSuccess(rawData);
+        if (remainingInserts.decrementAndGet() == 0) {
+            long endTime = System.currentTimeMillis();
+            if (log.isDebugEnabled()) {
+                log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) + " ms");
+            }
+            callback.onFinish();
+        }
+    }
+
+    /**
+     * @return The start time of the raw data time slice that is currently being collected.
+     * Index entries for this time slice cannot have been removed by aggregation yet.
+     */
+    private long currentTimeSlice() {
+        return dateTimeService.getTimeSlice(dateTimeService.now(), configuration.getRawTimeSliceDuration())
+            .getMillis();
+    }
+
     /**
      * Computes and stores aggregates for all buckets that are ready to be aggregated.
      * This includes raw, 1hr, 6hr, and 24hr data.
@@ -479,16 +767,17 @@ public class MetricsServer {
             DateTime theHour = currentHour();
 
             if (useAsyncAggregation) {
+                PendingAggregates pending = useStreamingAggregation ? pendingAggregates : null;
                 if (pastAggregationMissed) {
                     DateTime missedHour = roundDownToHour(mostRecentRawDataPriorToStartup);
                     new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, missedHour,
-                        aggregationBatchSize, parallelism).run();
+                        aggregationBatchSize, parallelism, pending).run();
                     pastAggregationMissed = false;
                 }
 
                 DateTime timeSlice = theHour.minus(configuration.getRawTimeSliceDuration());
                 return new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, timeSlice,
-                    aggregationBatchSize, parallelism).run();
+                    aggregationBatchSize, parallelism, pending).run();
             } else {
                 if (pastAggregationMissed) {
                     calculateAggregates(roundDownToHour(mostRecentRawDataPriorToStartup).plusHours(1).getMillis());
@@ -598,7 +887,9 @@ public class MetricsServer {
         }
     }
 
-    private AggregateNumericMetric calculateAggregatedRaw(Iterable<RawNumericMetric> rawMetrics, long timestamp) {
+    // Package-private rather than private so that the JMH benchmarks in modules/helpers/metrics-benchmarks can
+    // measure the calculation on its own; the public paths to it all query storage first.
+    AggregateNumericMetric calculateAggregatedRaw(Iterable<RawNumericMetric> rawMetrics, long timestamp) {
         double min = Double.NaN;
         double max = min;
         int count = 0;
@@ -725,7 +1016,8 @@ public class MetricsServer {
         }
     }
 
-    private AggregateNumericMetric calculateAggregate(Iterable<AggregateNumericMetric> metrics, long timestamp) {
+    // Package-private for the metrics benchmarks, see calculateAggregatedRaw
+    AggregateNumericMetric calculateAggregate(Iterable<AggregateNumericMetric> metrics, long timestamp) {
         double min = Double.NaN;
         double max = min;
         int count = 0;
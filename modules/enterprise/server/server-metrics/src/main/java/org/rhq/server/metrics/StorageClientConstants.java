@@ -15,6 +15,16 @@ public class StorageClientConstants {
 
     public static final String REQUEST_TOPOLOGY_CHANGE_DELTA = "rhq.storage.request.limit.topology-delta";
 
+    public static final String REQUEST_LIMITER = "rhq.storage.request.limiter";
+
+    public static final String REQUEST_CONCURRENCY_MIN = "rhq.storage.request.concurrency.min";
+
+    public static final String REQUEST_CONCURRENCY_MAX_PER_HOST = "rhq.storage.request.concurrency.max-per-host";
+
+    public static final String REQUEST_CONCURRENCY_INITIAL = "rhq.storage.request.concurrency.initial";
+
+    public static final String REQUEST_LATENCY_TOLERANCE = "rhq.storage.request.concurrency.latency-tolerance";
+
     public static final String LOAD_BALANCING = "rhq.storage.client.load-balancing";
 
     public static final String DATA_CENTER = "rhq.storage.dc";
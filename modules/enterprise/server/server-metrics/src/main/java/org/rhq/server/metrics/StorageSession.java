@@ -1,6 +1,11 @@
 package org.rhq.server.metrics;
 
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_INITIAL;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_MAX_PER_HOST;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_MIN;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LATENCY_TOLERANCE;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMITER;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DELTA;
@@ -11,7 +16,9 @@ import java.math.MathContext;
 import java.math.RoundingMode;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -23,12 +30,19 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryTimeoutException;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.RateLimiter;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
+ * Wraps the driver session and throttles the requests sent to the storage cluster. By default all requests share a
+ * single {@link RateLimiter}. When the <code>rhq.storage.request.limiter</code> system property is set to
+ * <code>adaptive</code>, the number of in flight requests is instead bounded per {@link Workload} by an
+ * {@link AdaptiveConcurrencyLimiter} that sizes itself from observed response times.
+ *
  * @author John Sanda
  */
 public class StorageSession implements Host.StateListener {
@@ -58,12 +72,36 @@ public class StorageSession implements Host.StateListener {
 
     private AtomicLong totalRequests = new AtomicLong();
 
+    private boolean useAdaptiveLimiter = "adaptive".equals(System.getProperty(REQUEST_LIMITER, "rate"));
+
+    private Map<Workload, AdaptiveConcurrencyLimiter> limiters = new EnumMap<Workload, AdaptiveConcurrencyLimiter>(
+        Workload.class);
+
     public StorageSession(Session wrappedSession) {
         this.wrappedSession = wrappedSession;
         this.wrappedSession.getCluster().register(this);
+        initLimiters();
         calculateRequestLimit();
     }
 
+    private void initLimiters() {
+        double minLimit = Double.parseDouble(System.getProperty(REQUEST_CONCURRENCY_MIN, "4"));
+        double maxLimitPerHost = Double.parseDouble(System.getProperty(REQUEST_CONCURRENCY_MAX_PER_HOST, "256"));
+        double initialLimit = Double.parseDouble(System.getProperty(REQUEST_CONCURRENCY_INITIAL, "32"));
+        double latencyTolerance = Double.parseDouble(System.getProperty(REQUEST_LATENCY_TOLERANCE, "2.0"));
+        for (Workload workload : Workload.values()) {
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(workload, initialLimit, minLimit,
+                maxLimitPerHost);
+            limiter.setLatencyTolerance(latencyTolerance);
+            limiter.setTimeoutBackoffRatio(1 - timeoutDelta);
+            limiters.put(workload, limiter);
+        }
+        if (useAdaptiveLimiter) {
+            log.info("Using adaptive request limits with an initial limit of " + initialLimit + " and a maximum of " +
+                maxLimitPerHost + " in flight requests per storage node for each workload");
+        }
+    }
+
     public void registerNewSession(Session newWrappedSession) {
         Session oldWrappedSession = this.wrappedSession;
 
@@ -89,6 +127,27 @@ public class StorageSession implements Host.StateListener {
             }
         }
         permits.setRate(rate);
+        updateLimiterHosts();
+    }
+
+    private void updateLimiterHosts() {
+        int upHosts = 0;
+        for (Host host : wrappedSession.getCluster().getMetadata().getAllHosts()) {
+            if (host.isUp()) {
+                ++upHosts;
+            }
+        }
+        for (AdaptiveConcurrencyLimiter limiter : limiters.values()) {
+            limiter.setHosts(upHosts);
+        }
+    }
+
+    public boolean isAdaptiveRequestLimiterEnabled() {
+        return useAdaptiveLimiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter(Workload workload) {
+        return limiters.get(workload);
     }
 
     public double getRequestLimit() {
@@ -140,38 +199,66 @@ public class StorageSession implements Host.StateListener {
     }
 
     public ResultSet execute(String query) {
+        return execute(query, Workload.READ);
+    }
+
+    public ResultSet execute(String query, Workload workload) {
+        AdaptiveConcurrencyLimiter limiter = acquire(workload);
+        long start = System.nanoTime();
         try {
-            totalRequests.incrementAndGet();
-            permits.acquire();
-            return wrappedSession.execute(query);
+            ResultSet resultSet = wrappedSession.execute(query);
+            released(limiter, start);
+            return resultSet;
         } catch (NoHostAvailableException e) {
+            released(limiter, e);
             handleNoHostAvailable(e);
             throw e;
+        } catch (RuntimeException e) {
+            released(limiter, e);
+            throw e;
         }
     }
 
     public ResultSet execute(Query query) {
+        return execute(query, Workload.READ);
+    }
+
+    public ResultSet execute(Query query, Workload workload) {
+        AdaptiveConcurrencyLimiter limiter = acquire(workload);
+        long start = System.nanoTime();
         try {
-            totalRequests.incrementAndGet();
-            permits.acquire();
-            return wrappedSession.execute(query);
+            ResultSet resultSet = wrappedSession.execute(query);
+            released(limiter, start);
+            return resultSet;
         } catch (NoHostAvailableException e) {
+            released(limiter, e);
             handleNoHostAvailable(e);
             throw e;
+        } catch (RuntimeException e) {
+            released(limiter, e);
+            throw e;
         }
     }
 
     public StorageResultSetFuture executeAsync(String query) {
-        totalRequests.incrementAndGet();
-        permits.acquire();
+        return executeAsync(query, Workload.READ);
+    }
+
+    public StorageResultSetFuture executeAsync(String query, Workload workload) {
+        AdaptiveConcurrencyLimiter limiter = acquire(workload);
         ResultSetFuture future = wrappedSession.executeAsync(query);
+        releaseOnCompletion(future, limiter);
         return new StorageResultSetFuture(future, this);
     }
 
     public StorageResultSetFuture executeAsync(Query query) {
-        totalRequests.incrementAndGet();
-        permits.acquire();
+        return executeAsync(query, Workload.READ);
+    }
+
+    public StorageResultSetFuture executeAsync(Query query, Workload workload) {
+        AdaptiveConcurrencyLimiter limiter = acquire(workload);
         ResultSetFuture future = wrappedSession.executeAsync(query);
+        releaseOnCompletion(future, limiter);
         return new StorageResultSetFuture(future, this);
     }
 
@@ -181,6 +268,56 @@ public class StorageSession implements Host.StateListener {
         return wrappedSession.prepare(query);
     }
 
+    /**
+     * @return The limiter that was acquired or null if the rate limiter is in use
+     */
+    private AdaptiveConcurrencyLimiter acquire(Workload workload) {
+        totalRequests.incrementAndGet();
+        if (useAdaptiveLimiter) {
+            AdaptiveConcurrencyLimiter limiter = limiters.get(workload);
+            limiter.acquire();
+            return limiter;
+        }
+        permits.acquire();
+        return null;
+    }
+
+    private void released(AdaptiveConcurrencyLimiter limiter, long start) {
+        if (limiter != null) {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    private void released(AdaptiveConcurrencyLimiter limiter, Throwable t) {
+        if (limiter == null) {
+            return;
+        }
+        if (t instanceof QueryTimeoutException || (t instanceof NoHostAvailableException &&
+            isClientTimeout((NoHostAvailableException) t))) {
+            limiter.releaseTimedOut();
+        } else {
+            limiter.releaseFailed();
+        }
+    }
+
+    private void releaseOnCompletion(final ResultSetFuture future, final AdaptiveConcurrencyLimiter limiter) {
+        if (limiter == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.getUninterruptibly();
+                    released(limiter, start);
+                } catch (RuntimeException e) {
+                    released(limiter, e);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
     public void shutdown() {
         wrappedSession.shutdown();
     }
@@ -206,6 +343,7 @@ public class StorageSession implements Host.StateListener {
     private void addOrUp(Host host, String msg) {
         log.info(host + msg);
         increaseRequestThroughput();
+        updateLimiterHosts();
         if (!isClusterAvailable) {
             log.debug("Storage cluster is up");
         }
@@ -223,6 +361,7 @@ public class StorageSession implements Host.StateListener {
     @Override
     public void onDown(Host host) {
         decreaseRequestThroughput(-topologyDelta);
+        updateLimiterHosts();
         for (StorageStateListener listener : listeners) {
             listener.onStorageNodeDown(host.getAddress());
         }
@@ -232,6 +371,7 @@ public class StorageSession implements Host.StateListener {
     public void onRemove(Host host) {
         log.debug(host + " has been removed.");
         decreaseRequestThroughput(-topologyDelta);
+        updateLimiterHosts();
         for (StorageStateListener listener : listeners) {
             listener.onStorageNodeRemoved(host.getAddress());
         }
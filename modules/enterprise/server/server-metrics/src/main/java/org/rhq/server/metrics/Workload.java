@@ -0,0 +1,19 @@
+package org.rhq.server.metrics;
+
+/**
+ * The kinds of work that are submitted to the storage cluster. When the adaptive request limiter is in use, each
+ * workload has its own concurrency budget so that, for example, a long running aggregation cannot starve the
+ * ingestion of raw data.
+ */
+public enum Workload {
+
+    /** Inserting raw data and updating the raw data index */
+    INGESTION,
+
+    /** Reading and writing aggregate data and index entries during aggregation */
+    AGGREGATION,
+
+    /** Everything else, most notably queries for the UI and the REST and remote APIs */
+    READ
+
+}
@@ -0,0 +1,179 @@
+package org.rhq.server.metrics.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Accumulates the lower level aggregates of one 6 hour or 24 hour time slice as they are computed, so that the higher
+ * level aggregates can be emitted at the end of the time slice without reading the lower level data back from the
+ * storage cluster. The accumulator also keeps track of which sub slices (hours for 6 hour data, 6 hour slices for 24
+ * hour data) have been folded in. The accumulated aggregates are only usable when every sub slice has been seen, which
+ * is not the case after a server restart or when a sub slice was aggregated by another server.
+ * <p>
+ * Min, max, and the running mean are computed the same way as in {@link Compute6HourData} and
+ * {@link Compute24HourData}. Schedule ids are stored in an open addressing table with the running values in parallel
+ * primitive arrays to avoid an object per schedule.
+ */
+public class AggregateAccumulator {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final DateTime timeSlice;
+
+    private final Duration subSliceDuration;
+
+    private final int numSubSlices;
+
+    private long coveredSubSlices;
+
+    private boolean[] used;
+
+    private int[] scheduleIds;
+
+    private double[] min;
+
+    private double[] max;
+
+    private double[] mean;
+
+    private int[] count;
+
+    private int size;
+
+    /**
+     * @param timeSlice The start of the 6 hour or 24 hour time slice
+     * @param duration The duration of the time slice
+     * @param subSliceDuration The duration of the time slices of the lower level aggregates
+     */
+    public AggregateAccumulator(DateTime timeSlice, Duration duration, Duration subSliceDuration) {
+        this.timeSlice = timeSlice;
+        this.subSliceDuration = subSliceDuration;
+        this.numSubSlices = (int) (duration.getMillis() / subSliceDuration.getMillis());
+        if (numSubSlices > 63) {
+            throw new IllegalArgumentException("A time slice of " + duration + " cannot be accumulated from sub " +
+                "slices of " + subSliceDuration);
+        }
+        allocate(256);
+    }
+
+    public DateTime getTimeSlice() {
+        return timeSlice;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Folds the lower level aggregates into the running aggregates.
+     */
+    public synchronized void addAll(Collection<AggregateNumericMetric> aggregates) {
+        for (AggregateNumericMetric aggregate : aggregates) {
+            add(aggregate.getScheduleId(), aggregate.getMin(), aggregate.getMax(), aggregate.getAvg());
+        }
+    }
+
+    public synchronized void add(int scheduleId, double minValue, double maxValue, double avg) {
+        int i = indexOf(scheduleId);
+        if (!used[i]) {
+            used[i] = true;
+            scheduleIds[i] = scheduleId;
+            min[i] = minValue;
+            max[i] = maxValue;
+            if (++size > scheduleIds.length * LOAD_FACTOR) {
+                rehash();
+                i = indexOf(scheduleId);
+            }
+        } else {
+            if (minValue < min[i]) {
+                min[i] = minValue;
+            }
+            if (maxValue > max[i]) {
+                max[i] = maxValue;
+            }
+        }
+        count[i]++;
+        mean[i] = mean[i] + (avg - mean[i]) / count[i];
+    }
+
+    /**
+     * Records that all of the lower level aggregates of the sub slice starting at the given time have been added.
+     * Sub slices outside of this time slice are ignored.
+     */
+    public synchronized void markCovered(DateTime subSlice) {
+        long offset = subSlice.getMillis() - timeSlice.getMillis();
+        if (offset < 0 || offset % subSliceDuration.getMillis() != 0) {
+            return;
+        }
+        long index = offset / subSliceDuration.getMillis();
+        if (index < numSubSlices) {
+            coveredSubSlices |= 1L << index;
+        }
+    }
+
+    /**
+     * @return true if every sub slice of this time slice has been accumulated, in which case {@link #getAggregates()}
+     * yields the same aggregates as computing them from the stored lower level data
+     */
+    public synchronized boolean isComplete() {
+        return coveredSubSlices == (1L << numSubSlices) - 1;
+    }
+
+    public synchronized List<AggregateNumericMetric> getAggregates() {
+        List<AggregateNumericMetric> aggregates = new ArrayList<AggregateNumericMetric>(size);
+        for (int i = 0; i < scheduleIds.length; ++i) {
+            if (used[i]) {
+                aggregates.add(new AggregateNumericMetric(scheduleIds[i], mean[i], min[i], max[i],
+                    timeSlice.getMillis()));
+            }
+        }
+        return aggregates;
+    }
+
+    private int indexOf(int scheduleId) {
+        int mask = scheduleIds.length - 1;
+        int i = (scheduleId * 0x9E3779B9) >>> 1 & mask;
+        while (used[i] && scheduleIds[i] != scheduleId) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void allocate(int capacity) {
+        used = new boolean[capacity];
+        scheduleIds = new int[capacity];
+        min = new double[capacity];
+        max = new double[capacity];
+        mean = new double[capacity];
+        count = new int[capacity];
+    }
+
+    private void rehash() {
+        boolean[] oldUsed = used;
+        int[] oldScheduleIds = scheduleIds;
+        double[] oldMin = min;
+        double[] oldMax = max;
+        double[] oldMean = mean;
+        int[] oldCount = count;
+
+        allocate(oldScheduleIds.length << 1);
+        for (int j = 0; j < oldScheduleIds.length; ++j) {
+            if (oldUsed[j]) {
+                int i = indexOf(oldScheduleIds[j]);
+                used[i] = true;
+                scheduleIds[i] = oldScheduleIds[j];
+                min[i] = oldMin[j];
+                max[i] = oldMax[j];
+                mean[i] = oldMean[j];
+                count[i] = oldCount[j];
+            }
+        }
+    }
+
+}
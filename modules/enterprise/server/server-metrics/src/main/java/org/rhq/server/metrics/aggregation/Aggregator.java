@@ -31,6 +31,7 @@ import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
@@ -61,13 +62,31 @@ public class Aggregator {
 
     private Set<AggregateNumericMetric> oneHourData;
 
+    private Set<AggregateNumericMetric> sixHourData;
+
+    private PendingAggregates pendingAggregates;
+
     public Aggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao, MetricsConfiguration configuration,
         DateTimeService dtService, DateTime startTime, int batchSize, int parallelism) {
+        this(aggregationTasks, dao, configuration, dtService, startTime, batchSize, parallelism, null);
+    }
+
+    /**
+     * @param pendingAggregates The running 6 hour and 24 hour aggregates that are carried over from previous
+     *                          aggregation runs. When the accumulated data covers a whole time slice, the 6 hour
+     *                          or 24 hour aggregates are computed from memory instead of re-reading the 1 hour or
+     *                          6 hour data. If null, the aggregates are always computed from the stored data.
+     */
+    public Aggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao, MetricsConfiguration configuration,
+        DateTimeService dtService, DateTime startTime, int batchSize, int parallelism,
+        PendingAggregates pendingAggregates) {
         this.dao = dao;
         this.configuration = configuration;
         this.dtService = dtService;
         this.startTime = startTime;
+        this.pendingAggregates = pendingAggregates;
         oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(AGGREGATE_COMPARATOR);
+        sixHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(AGGREGATE_COMPARATOR);
 
         DateTime sixHourTimeSlice = get6HourTimeSlice();
         DateTime twentyFourHourTimeSlice = get24HourTimeSlice();
@@ -88,7 +107,7 @@ public class Aggregator {
             .setTwentyFourHourTimeSlice(twentyFourHourTimeSlice)
             .setTwentyFourHourTimeSliceEnd(twentyFourHourTimeSlice.plus(configuration.getSixHourTimeSliceDuration()))
             .setCompute1HourData(new Compute1HourData(startTime, sixHourTimeSlice, dao, oneHourData))
-            .setCompute6HourData(new Compute6HourData(sixHourTimeSlice, twentyFourHourTimeSlice, dao))
+            .setCompute6HourData(new Compute6HourData(sixHourTimeSlice, twentyFourHourTimeSlice, dao, sixHourData))
             .setCompute24HourData(new Compute24HourData(twentyFourHourTimeSlice, dao))
             .set6HourTimeSliceFinished(hasTimeSliceEnded(sixHourTimeSlice, configuration.getOneHourTimeSliceDuration()))
             .set24HourTimeSliceFinished(hasTimeSliceEnded(twentyFourHourTimeSlice,
@@ -129,32 +148,69 @@ public class Aggregator {
             stopwatch.stop();
             log.info("Finished aggregating raw data in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
 
+            AggregateAccumulator pending6HourData = null;
+            if (pendingAggregates != null) {
+                pending6HourData = pendingAggregates.get6HourData(state.getSixHourTimeSlice());
+                pending6HourData.addAll(oneHourData);
+                pending6HourData.markCovered(startTime);
+            }
+
             if (state.is6HourTimeSliceFinished()) {
-                log.info("Starting aggregation of 1 hour data");
                 stopwatch.reset().start();
                 indexUpdates.add(MetricsTable.SIX_HOUR);
-                StorageResultSetFuture oneHourIndexFuture = dao.findMetricsIndexEntriesAsync(MetricsTable.SIX_HOUR,
-                    state.getSixHourTimeSlice().getMillis());
-                Futures.addCallback(oneHourIndexFuture, new OneHourDataScheduler(state),
-                    state.getAggregationTasks());
+                if (pending6HourData != null && pending6HourData.isComplete()) {
+                    log.info("Starting aggregation of 1 hour data accumulated for " + pending6HourData.size() +
+                        " schedules");
+                    List<AggregateNumericMetric> aggregates = pending6HourData.getAggregates();
+                    storeAggregates(aggregates, AggregationType.ONE_HOUR);
+                    sixHourData.addAll(aggregates);
+                } else {
+                    log.info("Starting aggregation of 1 hour data");
+                    StorageResultSetFuture oneHourIndexFuture = dao.findMetricsIndexEntriesAsync(
+                        MetricsTable.SIX_HOUR, state.getSixHourTimeSlice().getMillis());
+                    Futures.addCallback(oneHourIndexFuture, new OneHourDataScheduler(state),
+                        state.getAggregationTasks());
 
-                state.getOneHourAggregationDone().await();
+                    state.getOneHourAggregationDone().await();
+                }
                 stopwatch.stop();
                 log.info("Finished aggregating one hour data in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+
+                if (pendingAggregates != null) {
+                    pendingAggregates.discard6HourData(state.getSixHourTimeSlice());
+                    AggregateAccumulator pending24HourData = pendingAggregates.get24HourData(
+                        state.getTwentyFourHourTimeSlice());
+                    pending24HourData.addAll(sixHourData);
+                    pending24HourData.markCovered(state.getSixHourTimeSlice());
+                }
             }
 
             if (state.is24HourTimeSliceFinished()) {
-                log.info("Starting aggregation of 6 hour data");
                 stopwatch.reset().start();
                 indexUpdates.add(MetricsTable.TWENTY_FOUR_HOUR);
-                StorageResultSetFuture sixHourIndexFuture = dao.findMetricsIndexEntriesAsync(
-                    MetricsTable.TWENTY_FOUR_HOUR, state.getTwentyFourHourTimeSlice().getMillis());
-                Futures.addCallback(sixHourIndexFuture, new SixHourDataScheduler(state),
-                    state.getAggregationTasks());
+                AggregateAccumulator pending24HourData = null;
+                if (pendingAggregates != null) {
+                    pending24HourData = pendingAggregates.get24HourData(state.getTwentyFourHourTimeSlice());
+                }
+                if (pending24HourData != null && pending24HourData.isComplete()) {
+                    log.info("Starting aggregation of 6 hour data accumulated for " + pending24HourData.size() +
+                        " schedules");
+                    storeAggregates(pending24HourData.getAggregates(), AggregationType.SIX_HOUR);
+                } else {
+                    log.info("Starting aggregation of 6 hour data");
+                    StorageResultSetFuture sixHourIndexFuture = dao.findMetricsIndexEntriesAsync(
+                        MetricsTable.TWENTY_FOUR_HOUR, state.getTwentyFourHourTimeSlice().getMillis());
+                    Futures.addCallback(sixHourIndexFuture, new SixHourDataScheduler(state),
+                        state.getAggregationTasks());
 
-                state.getSixHourAggregationDone().await();
+                    state.getSixHourAggregationDone().await();
+                }
                 stopwatch.stop();
                 log.info("Finished aggregating six hour data in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+
+                if (pendingAggregates != null) {
+                    pendingAggregates.discard24HourData(state.getTwentyFourHourTimeSlice());
+                }
             }
 
             CountDownLatch updateIndexSignal = new CountDownLatch(indexUpdates.size());
@@ -173,6 +229,63 @@ public class Aggregator {
         }
     }
 
+    /**
+     * Stores 6 hour or 24 hour aggregates that have been computed from the accumulated lower level aggregates. This
+     * performs the same writes as {@link Compute6HourData} and {@link Compute24HourData}, i.e., the 6 hour aggregates
+     * are stored along with their 24 hour index entries. The number of schedules being written concurrently is
+     * bounded by the same permits that limit the number of schedules being aggregated from stored data.
+     *
+     * @param aggregates The aggregates to store
+     * @param type The type of the data the aggregates were computed from
+     */
+    private void storeAggregates(List<AggregateNumericMetric> aggregates, final AggregationType type)
+        throws InterruptedException {
+        final CountDownLatch doneSignal = new CountDownLatch(aggregates.size());
+        final AtomicInteger failures = new AtomicInteger();
+        for (AggregateNumericMetric aggregate : aggregates) {
+            state.getPermits().acquire();
+            List<StorageResultSetFuture> insertFutures = new ArrayList<StorageResultSetFuture>(4);
+            if (type == AggregationType.ONE_HOUR) {
+                insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
+                    AggregateType.MIN, aggregate.getMin()));
+                insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
+                    AggregateType.MAX, aggregate.getMax()));
+                insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
+                    AggregateType.AVG, aggregate.getAvg()));
+                insertFutures.add(dao.updateMetricsIndex(MetricsTable.TWENTY_FOUR_HOUR, aggregate.getScheduleId(),
+                    state.getTwentyFourHourTimeSlice().getMillis()));
+            } else {
+                insertFutures.add(dao.insertTwentyFourHourDataAsync(aggregate.getScheduleId(),
+                    aggregate.getTimestamp(), AggregateType.MIN, aggregate.getMin()));
+                insertFutures.add(dao.insertTwentyFourHourDataAsync(aggregate.getScheduleId(),
+                    aggregate.getTimestamp(), AggregateType.MAX, aggregate.getMax()));
+                insertFutures.add(dao.insertTwentyFourHourDataAsync(aggregate.getScheduleId(),
+                    aggregate.getTimestamp(), AggregateType.AVG, aggregate.getAvg()));
+            }
+            Futures.addCallback(Futures.allAsList(insertFutures), new FutureCallback<List<ResultSet>>() {
+                @Override
+                public void onSuccess(List<ResultSet> result) {
+                    state.getPermits().release();
+                    doneSignal.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    if (failures.getAndIncrement() == 0) {
+                        log.warn("There was an error while storing aggregates of " + type + ": " +
+                            ThrowableUtil.getRootMessage(t));
+                    }
+                    state.getPermits().release();
+                    doneSignal.countDown();
+                }
+            }, state.getAggregationTasks());
+        }
+        doneSignal.await();
+        if (failures.get() > 0) {
+            log.warn("Failed to store the aggregates of " + type + " for " + failures.get() + " schedules");
+        }
+    }
+
     private void deleteIndexEntries(final MetricsTable table, final CountDownLatch doneSignal) {
         final DateTime time;
         switch (table) {
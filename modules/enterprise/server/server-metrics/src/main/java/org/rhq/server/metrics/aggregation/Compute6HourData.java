@@ -2,6 +2,7 @@ package org.rhq.server.metrics.aggregation;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.ResultSet;
@@ -38,10 +39,14 @@ class Compute6HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
 
     private DateTime twentyFourHourTimeSlice;
 
-    public Compute6HourData(DateTime startTime, DateTime twentyFourHourTimeSlice, MetricsDAO dao) {
+    private Set<AggregateNumericMetric> sixHourData;
+
+    public Compute6HourData(DateTime startTime, DateTime twentyFourHourTimeSlice, MetricsDAO dao,
+        Set<AggregateNumericMetric> sixHourData) {
         this.startTime = startTime;
         this.twentyFourHourTimeSlice = twentyFourHourTimeSlice;
         this.dao = dao;
+        this.sixHourData = sixHourData;
     }
 
     @Override
@@ -61,6 +66,7 @@ class Compute6HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
                     continue;
                 }
                 AggregateNumericMetric aggregate = calculateAggregate(resultSet);
+                sixHourData.add(aggregate);
                 insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
                     AggregateType.MIN, aggregate.getMin()));
                 insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
@@ -0,0 +1,69 @@
+package org.rhq.server.metrics.aggregation;
+
+import org.joda.time.DateTime;
+
+import org.rhq.server.metrics.MetricsConfiguration;
+
+/**
+ * Holds the running 6 hour and 24 hour aggregates across aggregation runs. Only the most recent 6 hour and 24 hour
+ * time slices are kept; asking for the accumulator of a different time slice discards the previous one. An instance
+ * is owned by {@link org.rhq.server.metrics.MetricsServer MetricsServer} and handed to each {@link Aggregator}.
+ */
+public class PendingAggregates {
+
+    private final MetricsConfiguration configuration;
+
+    private AggregateAccumulator sixHourData;
+
+    private AggregateAccumulator twentyFourHourData;
+
+    public PendingAggregates(MetricsConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * @return The accumulator of 1 hour aggregates for the 6 hour time slice
+     */
+    public synchronized AggregateAccumulator get6HourData(DateTime sixHourTimeSlice) {
+        if (sixHourData == null || !sixHourData.getTimeSlice().equals(sixHourTimeSlice)) {
+            sixHourData = new AggregateAccumulator(sixHourTimeSlice, configuration.getOneHourTimeSliceDuration(),
+                configuration.getRawTimeSliceDuration());
+        }
+        return sixHourData;
+    }
+
+    /**
+     * @return The accumulator of 6 hour aggregates for the 24 hour time slice
+     */
+    public synchronized AggregateAccumulator get24HourData(DateTime twentyFourHourTimeSlice) {
+        if (twentyFourHourData == null || !twentyFourHourData.getTimeSlice().equals(twentyFourHourTimeSlice)) {
+            twentyFourHourData = new AggregateAccumulator(twentyFourHourTimeSlice,
+                configuration.getSixHourTimeSliceDuration(), configuration.getOneHourTimeSliceDuration());
+        }
+        return twentyFourHourData;
+    }
+
+    /**
+     * Discards the 6 hour accumulator once its aggregates have been stored.
+     */
+    public synchronized void discard6HourData(DateTime sixHourTimeSlice) {
+        if (sixHourData != null && sixHourData.getTimeSlice().equals(sixHourTimeSlice)) {
+            sixHourData = null;
+        }
+    }
+
+    /**
+     * Discards the 24 hour accumulator once its aggregates have been stored.
+     */
+    public synchronized void discard24HourData(DateTime twentyFourHourTimeSlice) {
+        if (twentyFourHourData != null && twentyFourHourData.getTimeSlice().equals(twentyFourHourTimeSlice)) {
+            twentyFourHourData = null;
+        }
+    }
+
+    public synchronized void clear() {
+        sixHourData = null;
+        twentyFourHourData = null;
+    }
+
+}
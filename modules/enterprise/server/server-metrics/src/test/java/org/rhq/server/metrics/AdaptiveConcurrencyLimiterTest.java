@@ -0,0 +1,123 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void increaseLimitWhileResponseTimesAreStable() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(Workload.INGESTION, 4, 2, 100);
+
+        for (int i = 0; i < 1000; ++i) {
+            fill(limiter);
+            release(limiter, 5 * MILLIS);
+        }
+
+        assertTrue(limiter.getLimit() > 4, "The limit should have increased but is " + limiter.getLimit());
+        assertTrue(limiter.getLimit() <= 100, "The limit should not exceed the maximum but is " +
+            limiter.getLimit());
+    }
+
+    @Test
+    public void decreaseLimitWhenResponseTimesDegrade() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(Workload.AGGREGATION, 50, 2, 100);
+        limiter.setDecreaseDampening(0, TimeUnit.NANOSECONDS);
+
+        fill(limiter);
+        release(limiter, 5 * MILLIS);
+        for (int i = 0; i < 200; ++i) {
+            fill(limiter);
+            release(limiter, 50 * MILLIS);
+        }
+
+        assertEquals(limiter.getLimit(), 2, "The limit should have dropped to the minimum");
+    }
+
+    @Test
+    public void decreaseLimitOnTimeout() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(Workload.READ, 40, 2, 100);
+        limiter.setTimeoutBackoffRatio(0.5);
+
+        limiter.acquire();
+        limiter.releaseTimedOut();
+
+        assertEquals(limiter.getLimit(), 20, "The limit should have been halved after a timeout");
+        assertEquals(limiter.getInFlight(), 0, "There should not be any requests in flight");
+    }
+
+    @Test
+    public void dampenDecreaseOnTimeoutBurst() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(Workload.READ, 40, 2, 100);
+        limiter.setTimeoutBackoffRatio(0.5);
+        limiter.setDecreaseDampening(200, TimeUnit.MILLISECONDS);
+
+        fill(limiter);
+        while (limiter.getInFlight() > 0) {
+            limiter.releaseTimedOut();
+        }
+        assertEquals(limiter.getLimit(), 20, "A burst of timeouts should only halve the limit once");
+
+        Thread.sleep(250);
+        limiter.acquire();
+        limiter.releaseTimedOut();
+        assertEquals(limiter.getLimit(), 10, "A timeout after the dampening interval should halve the limit again");
+    }
+
+    @Test
+    public void scaleMaximumWithNumberOfHosts() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(Workload.READ, 200, 2, 100);
+        assertEquals(limiter.getLimit(), 200, "The initial limit should not be capped before the hosts are known");
+
+        limiter.setHosts(1);
+        assertEquals(limiter.getLimit(), 100, "The limit should be capped at the maximum for a single host");
+
+        limiter.setHosts(3);
+        limiter.setLimit(250);
+        assertEquals(limiter.getLimit(), 250, "The maximum should scale with the number of hosts");
+    }
+
+    private void fill(AdaptiveConcurrencyLimiter limiter) {
+        while (limiter.getInFlight() < limiter.getLimit()) {
+            limiter.acquire();
+        }
+    }
+
+    private void release(AdaptiveConcurrencyLimiter limiter, long latency) {
+        while (limiter.getInFlight() > 0) {
+            limiter.release(latency);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class MetricsIndexCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void intSetMatchesHashSet() {
+        ConcurrentIntSet set = new ConcurrentIntSet(4, 16);
+        Set<Integer> expected = new HashSet<Integer>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50000; ++i) {
+            int value = random.nextInt(20000) - 10000;
+            assertEquals(set.add(value), expected.add(value), "add(" + value + ") returned the wrong result");
+        }
+        for (int i = -11000; i < 11000; ++i) {
+            assertEquals(set.contains(i), expected.contains(i), "contains(" + i + ") returned the wrong result");
+        }
+        assertEquals(set.size(), expected.size(), "The set size is wrong");
+    }
+
+    @Test
+    public void onlyTrackCurrentTimeSlice() {
+        MetricsIndexCache cache = new MetricsIndexCache(16);
+        long hour0 = 10 * HOUR;
+        long hour1 = hour0 + HOUR;
+
+        cache.indexed(hour0, hour0, 100);
+        assertTrue(cache.isIndexed(hour0, hour0, 100), "Schedule 100 should be indexed for the current hour");
+        assertFalse(cache.isIndexed(hour0, hour0, 101), "Schedule 101 has not been indexed");
+
+        // late data for a past time slice is never tracked
+        cache.indexed(hour1, hour0, 102);
+        assertFalse(cache.isIndexed(hour1, hour0, 102), "Index writes for past time slices should not be tracked");
+        assertFalse(cache.isIndexed(hour1, hour0, 100), "Index entries of past time slices may have been deleted");
+
+        cache.indexed(hour1, hour1, 103);
+        assertTrue(cache.isIndexed(hour1, hour1, 103), "Schedule 103 should be indexed for the current hour");
+        assertFalse(cache.isIndexed(hour1, hour1, 100), "Schedules of the previous hour should have been discarded");
+        assertEquals(cache.size(), 1, "Only the schedules of the current hour should be tracked");
+    }
+
+}
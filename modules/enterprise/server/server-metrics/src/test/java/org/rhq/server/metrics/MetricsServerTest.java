@@ -155,6 +155,47 @@ public class MetricsServerTest extends CassandraIntegrationTest {
         session.execute("TRUNCATE " + MetricsTable.INDEX);
     }
 
+    @Test(enabled = ENABLED)
+    public void insertRawNumericDataInBatches() throws Exception {
+        DateTime hour0 = hour0();
+        DateTime hour4 = hour0.plusHours(4);
+        DateTime currentTime = hour4.plusMinutes(44);
+        DateTime threeMinutesAgo = currentTime.minusMinutes(3);
+        DateTime twoMinutesAgo = currentTime.minusMinutes(2);
+
+        metricsServer.setUseIngestionBatching(true);
+        metricsServer.setIngestionBatchSize(3);
+        metricsServer.setIngestionMaxInFlight(1);
+
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(threeMinutesAgo.getMillis(), 123, 3.2));
+        data.add(new MeasurementDataNumeric(twoMinutesAgo.getMillis(), 123, 3.9));
+        data.add(new MeasurementDataNumeric(threeMinutesAgo.getMillis(), 456, 1.0E-5));
+        data.add(new MeasurementDataNumeric(twoMinutesAgo.getMillis(), 456, -42.0));
+        data.add(new MeasurementDataNumeric(twoMinutesAgo.getMillis(), 789, Double.NaN));
+
+        WaitForRawInserts waitForRawInserts = new WaitForRawInserts(data.size());
+
+        metricsServer.addNumericData(data, waitForRawInserts);
+
+        waitForRawInserts.await("Failed to insert raw data");
+
+        assertEquals(Lists.newArrayList(dao.findRawMetrics(123, hour4.getMillis(), hour4.plusHours(1).getMillis())),
+            asList(new RawNumericMetric(123, threeMinutesAgo.getMillis(), 3.2),
+                new RawNumericMetric(123, twoMinutesAgo.getMillis(), 3.9)),
+            "Failed to retrieve raw metric data for schedule 123");
+        assertEquals(Lists.newArrayList(dao.findRawMetrics(456, hour4.getMillis(), hour4.plusHours(1).getMillis())),
+            asList(new RawNumericMetric(456, threeMinutesAgo.getMillis(), 1.0E-5),
+                new RawNumericMetric(456, twoMinutesAgo.getMillis(), -42.0)),
+            "Failed to retrieve raw metric data for schedule 456");
+
+        List<MetricsIndexEntry> expectedIndex = asList(new MetricsIndexEntry(MetricsTable.ONE_HOUR, hour4, 123),
+            new MetricsIndexEntry(MetricsTable.ONE_HOUR, hour4, 456),
+            new MetricsIndexEntry(MetricsTable.ONE_HOUR, hour4, 789));
+        assertMetricsIndexEquals(MetricsTable.ONE_HOUR, hour4.getMillis(), expectedIndex,
+            "Failed to update index for " + MetricsTable.ONE_HOUR);
+    }
+
     @Test(enabled = ENABLED)
     public void insertMultipleRawNumericDataForOneSchedule() throws Exception {
         int scheduleId = 123;
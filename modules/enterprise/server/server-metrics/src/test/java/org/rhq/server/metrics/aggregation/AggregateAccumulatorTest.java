@@ -0,0 +1,80 @@
+package org.rhq.server.metrics.aggregation;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.ArithmeticMeanCalculator;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+public class AggregateAccumulatorTest {
+
+    private static final double TEST_PRECISION = Math.pow(10, -9);
+
+    private final DateTime sixHourTimeSlice = new DateTime(2014, 1, 20, 6, 0);
+
+    @Test
+    public void accumulateOneHourData() {
+        AggregateAccumulator accumulator = new AggregateAccumulator(sixHourTimeSlice, Duration.standardHours(6),
+            Duration.standardHours(1));
+        ArithmeticMeanCalculator expectedMean = new ArithmeticMeanCalculator();
+
+        for (int hour = 0; hour < 6; ++hour) {
+            assertFalse(accumulator.isComplete(), "The 6 hour time slice should not be complete after " + hour +
+                " hours");
+            List<AggregateNumericMetric> oneHourData = new ArrayList<AggregateNumericMetric>();
+            for (int scheduleId = 1; scheduleId <= 1000; ++scheduleId) {
+                oneHourData.add(new AggregateNumericMetric(scheduleId, 10.0 + hour, 5.0 - hour, 20.0 + hour,
+                    sixHourTimeSlice.plusHours(hour).getMillis()));
+            }
+            expectedMean.add(10.0 + hour);
+            accumulator.addAll(oneHourData);
+            accumulator.markCovered(sixHourTimeSlice.plusHours(hour));
+        }
+
+        assertTrue(accumulator.isComplete(), "The 6 hour time slice should be complete");
+        assertEquals(accumulator.size(), 1000, "The number of accumulated schedules is wrong");
+
+        List<AggregateNumericMetric> aggregates = accumulator.getAggregates();
+        Collections.sort(aggregates, new Comparator<AggregateNumericMetric>() {
+            @Override
+            public int compare(AggregateNumericMetric left, AggregateNumericMetric right) {
+                return left.getScheduleId() - right.getScheduleId();
+            }
+        });
+        for (int i = 0; i < aggregates.size(); ++i) {
+            AggregateNumericMetric aggregate = aggregates.get(i);
+            assertEquals(aggregate.getScheduleId(), i + 1, "The schedule id is wrong");
+            assertEquals(aggregate.getTimestamp(), sixHourTimeSlice.getMillis(), "The timestamp is wrong");
+            assertEquals(aggregate.getAvg(), expectedMean.getArithmeticMean(), TEST_PRECISION, "The avg is wrong");
+            assertEquals(aggregate.getMin(), 0.0, TEST_PRECISION, "The min is wrong");
+            assertEquals(aggregate.getMax(), 25.0, TEST_PRECISION, "The max is wrong");
+        }
+    }
+
+    @Test
+    public void ignoreSubSlicesOutsideOfTimeSlice() {
+        AggregateAccumulator accumulator = new AggregateAccumulator(sixHourTimeSlice, Duration.standardHours(6),
+            Duration.standardHours(1));
+        accumulator.addAll(asList(new AggregateNumericMetric(1, 1.0, 1.0, 1.0, sixHourTimeSlice.getMillis())));
+
+        accumulator.markCovered(sixHourTimeSlice.minusHours(1));
+        accumulator.markCovered(sixHourTimeSlice.plusHours(6));
+        for (int hour = 0; hour < 5; ++hour) {
+            accumulator.markCovered(sixHourTimeSlice.plusHours(hour));
+        }
+
+        assertFalse(accumulator.isComplete(), "The last hour of the time slice has not been accumulated");
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.RawNumericMetric;
+
+/**
+ * Measures computing the aggregate of one schedule for one time slice, as done by {@link MetricsServer} for every
+ * schedule during aggregation and for graph summaries. The metrics server is used without a DAO since the
+ * calculations do not access storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationBenchmark {
+
+    private static final long BEGIN_TIME = 1388534400000L; // 2014-01-01 00:00 UTC
+
+    /** The number of raw data points in an hour; 120 is a 30 second collection interval */
+    @Param({ "6", "120" })
+    public int rawDataPoints;
+
+    private MetricsServer metricsServer;
+
+    private List<RawNumericMetric> rawMetrics;
+
+    private List<AggregateNumericMetric> oneHourMetrics;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        metricsServer = new MetricsServer();
+
+        rawMetrics = new ArrayList<RawNumericMetric>(rawDataPoints);
+        long interval = (60 * 60 * 1000L) / rawDataPoints;
+        for (int i = 0; i < rawDataPoints; ++i) {
+            rawMetrics.add(new RawNumericMetric(100, BEGIN_TIME + (i * interval), random.nextDouble() * 100.0));
+        }
+
+        // six 1 hour aggregates make up a 6 hour aggregate
+        oneHourMetrics = new ArrayList<AggregateNumericMetric>(6);
+        for (int i = 0; i < 6; ++i) {
+            double min = random.nextDouble() * 50.0;
+            double max = min + (random.nextDouble() * 50.0);
+            oneHourMetrics.add(new AggregateNumericMetric(100, (min + max) / 2, min, max, BEGIN_TIME
+                + (i * 60 * 60 * 1000L)));
+        }
+    }
+
+    @Benchmark
+    public AggregateNumericMetric calculateAggregatedRaw() {
+        return metricsServer.calculateAggregatedRaw(rawMetrics, BEGIN_TIME);
+    }
+
+    @Benchmark
+    public AggregateNumericMetric calculateAggregate() {
+        return metricsServer.calculateAggregate(oneHourMetrics, BEGIN_TIME);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures bucketing the data points of a graph, as done for every metric graph request, and the running mean that
+ * every bucket and aggregate is computed with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketsBenchmark {
+
+    private static final long BEGIN_TIME = 1388534400000L; // 2014-01-01 00:00 UTC
+
+    /** The number of data points that are bucketed; one week of raw data collected every 10 minutes by default */
+    @Param({ "1008", "10080" })
+    public int dataPoints;
+
+    @Param({ "60" })
+    public int buckets;
+
+    private long endTime;
+
+    private long[] timestamps;
+
+    private double[] values;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long interval = 10 * 60 * 1000L;
+        endTime = BEGIN_TIME + (dataPoints * interval);
+        timestamps = new long[dataPoints];
+        values = new double[dataPoints];
+        for (int i = 0; i < dataPoints; ++i) {
+            timestamps[i] = BEGIN_TIME + (i * interval);
+            values[i] = random.nextDouble() * 100.0;
+        }
+    }
+
+    @Benchmark
+    public Buckets insert() {
+        Buckets result = new Buckets(BEGIN_TIME, endTime, buckets);
+        for (int i = 0; i < dataPoints; ++i) {
+            result.insert(timestamps[i], values[i], values[i], values[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public double arithmeticMean() {
+        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+        for (int i = 0; i < dataPoints; ++i) {
+            mean.add(values[i]);
+        }
+        return mean.getArithmeticMean();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.joda.time.Minutes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures computing time slices, which is done for every raw data point that is stored.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateTimeServiceBenchmark {
+
+    private static final long BEGIN_TIME = 1388534400000L; // 2014-01-01 00:00 UTC
+
+    private DateTimeService dateTimeService;
+
+    private Minutes sixHours;
+
+    private Duration oneHour;
+
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        dateTimeService = new DateTimeService();
+        sixHours = Minutes.minutes(6 * 60);
+        oneHour = Duration.standardHours(1);
+        timestamp = BEGIN_TIME;
+    }
+
+    @Benchmark
+    public Object getTimeSliceMinutes() {
+        // move the timestamp along so that the results cannot be hoisted out of the loop
+        timestamp += 30000L;
+        return dateTimeService.getTimeSlice(timestamp, sixHours);
+    }
+
+    @Benchmark
+    public Object getTimeSliceDuration() {
+        timestamp += 30000L;
+        return dateTimeService.getTimeSlice(timestamp, oneHour);
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics.domain;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures mapping query results to metrics. The driver only creates rows from query results, so the rows are written
+ * to and read back from a storage node once during setup, and then mapped from memory: the cost of decoding the column
+ * values is included, round trips are not.
+ *
+ * The storage node is given by the system properties rhq.storage.nodes (default 127.0.0.1), rhq.storage.cql-port
+ * (default 9142), rhq.storage.username and rhq.storage.password (default rhqadmin, not obfuscated). The data is
+ * written to the rhq_benchmarks keyspace, which is dropped again afterwards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    private static final String KEYSPACE = "rhq_benchmarks";
+
+    private static final long BEGIN_TIME = 1388534400000L; // 2014-01-01 00:00 UTC
+
+    private static final int SCHEDULE_ID = 100;
+
+    /** The number of metrics in a result set; 1008 is one week of raw data collected every 10 minutes */
+    @Param({ "1008" })
+    public int metrics;
+
+    private Cluster cluster;
+
+    private Session session;
+
+    private RawNumericMetricMapper rawMapper;
+
+    private RawNumericMetricMapper rawMetadataMapper;
+
+    private AggregateNumericMetricMapper aggregateMapper;
+
+    private AggregateNumericMetricMapper aggregateMetadataMapper;
+
+    private Row[] rawRows;
+
+    private Row[] rawMetadataRows;
+
+    private Row[] aggregateRows;
+
+    private Row[] aggregateMetadataRows;
+
+    @Setup
+    public void setUp() {
+        rawMapper = new RawNumericMetricMapper();
+        rawMetadataMapper = new RawNumericMetricMapper(true);
+        aggregateMapper = new AggregateNumericMetricMapper();
+        aggregateMetadataMapper = new AggregateNumericMetricMapper(true);
+
+        cluster = Cluster.builder().addContactPoints(System.getProperty("rhq.storage.nodes", "127.0.0.1").split(","))
+            .withPort(Integer.parseInt(System.getProperty("rhq.storage.cql-port", "9142")))
+            .withCredentials(System.getProperty("rhq.storage.username", "rhqadmin"),
+                System.getProperty("rhq.storage.password", "rhqadmin")).build();
+        session = cluster.connect();
+
+        dropKeyspace();
+        session.execute("CREATE KEYSPACE " + KEYSPACE
+            + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1}");
+        // the same tables as in the rhq keyspace
+        session.execute("CREATE TABLE " + KEYSPACE + ".raw_metrics (schedule_id int, time timestamp, value double, "
+            + "PRIMARY KEY (schedule_id, time)) WITH COMPACT STORAGE");
+        session.execute("CREATE TABLE " + KEYSPACE + ".one_hour_metrics (schedule_id int, time timestamp, type int, "
+            + "value double, PRIMARY KEY (schedule_id, time, type)) WITH COMPACT STORAGE");
+
+        Random random = new Random(42);
+        PreparedStatement insertRaw = session.prepare("INSERT INTO " + KEYSPACE
+            + ".raw_metrics (schedule_id, time, value) VALUES (?, ?, ?) USING TTL 604800");
+        for (int i = 0; i < metrics; ++i) {
+            Date time = new Date(BEGIN_TIME + (i * 10 * 60 * 1000L));
+            session.execute(insertRaw.bind(SCHEDULE_ID, time, random.nextDouble() * 100.0));
+        }
+
+        // aggregate rows are ordered by type, which puts the max, min and avg rows of a metric in the order the
+        // aggregate mappers take them
+        PreparedStatement insertAggregate = session.prepare("INSERT INTO " + KEYSPACE
+            + ".one_hour_metrics (schedule_id, time, type, value) VALUES (?, ?, ?, ?) USING TTL 1209600");
+        for (int i = 0; i < metrics; ++i) {
+            Date time = new Date(BEGIN_TIME + (i * 60 * 60 * 1000L));
+            double min = random.nextDouble() * 50.0;
+            double max = min + (random.nextDouble() * 50.0);
+            session.execute(insertAggregate.bind(SCHEDULE_ID, time, AggregateType.MAX.ordinal(), max));
+            session.execute(insertAggregate.bind(SCHEDULE_ID, time, AggregateType.MIN.ordinal(), min));
+            session.execute(insertAggregate.bind(SCHEDULE_ID, time, AggregateType.AVG.ordinal(), (min + max) / 2));
+        }
+
+        rawRows = select("schedule_id, time, value", "raw_metrics");
+        rawMetadataRows = select("schedule_id, time, value, ttl(value), writetime(value)", "raw_metrics");
+        aggregateRows = select("schedule_id, time, type, value", "one_hour_metrics");
+        aggregateMetadataRows = select("schedule_id, time, type, value, ttl(value), writetime(value)",
+            "one_hour_metrics");
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (cluster != null) {
+            try {
+                if (session != null) {
+                    dropKeyspace();
+                }
+            } finally {
+                cluster.shutdown();
+            }
+        }
+    }
+
+    @Benchmark
+    public List<RawNumericMetric> mapRaw() {
+        return rawMapper.map(rawRows);
+    }
+
+    @Benchmark
+    public List<RawNumericMetric> mapRawWithMetadata() {
+        return rawMetadataMapper.map(rawMetadataRows);
+    }
+
+    @Benchmark
+    public List<AggregateNumericMetric> mapAggregate() {
+        return aggregateMapper.map(aggregateRows);
+    }
+
+    @Benchmark
+    public List<AggregateNumericMetric> mapAggregateWithMetadata() {
+        return aggregateMetadataMapper.map(aggregateMetadataRows);
+    }
+
+    private Row[] select(String columns, String table) {
+        List<Row> rows = session.execute("SELECT " + columns + " FROM " + KEYSPACE + "." + table
+            + " WHERE schedule_id = " + SCHEDULE_ID).all();
+        return rows.toArray(new Row[rows.size()]);
+    }
+
+    private void dropKeyspace() {
+        if (cluster.getMetadata().getKeyspace(KEYSPACE) != null) {
+            session.execute("DROP KEYSPACE " + KEYSPACE);
+        }
+    }
+
+}